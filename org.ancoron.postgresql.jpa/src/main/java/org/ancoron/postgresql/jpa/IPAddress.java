@@ -0,0 +1,210 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/**
+ * Immutable IPv4 or IPv6 address (with an optional mask length), the value
+ * type variant of {@link IPTarget} for the PostgreSQL <tt>inet</tt> type.
+ *
+ * <p>
+ * As instances can't be changed, persistence providers don't have to create
+ * backup clones and compare them at commit time (e.g. see
+ * <tt>org.ancoron.postgresql.jpa.eclipselink.IPAddressConverter</tt>).
+ * </p>
+ *
+ * @author ancoron
+ *
+ * @see IPPrefix
+ */
+public final class IPAddress implements Serializable, Comparable<IPAddress> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] addr;
+    private final int netmask;
+    private transient String value;
+    private transient int hash;
+
+    IPAddress(final byte[] addr, final int netmask) {
+        this.addr = addr;
+        this.netmask = netmask;
+    }
+
+    /**
+     * Parse an address, e.g. <tt>10.0.0.1</tt>, <tt>10.0.0.1/24</tt> or
+     * <tt>fe80::1</tt>.
+     *
+     * @param value The textual representation
+     *
+     * @return the address or <code>null</code> if the given value is
+     * <code>null</code>
+     *
+     * @throws IllegalArgumentException if the value is invalid
+     */
+    public static IPAddress valueOf(final String value) {
+        if(value == null) {
+            return null;
+        }
+
+        final int slash = value.indexOf('/');
+        final byte[] addr = NetworkText.parseAddress(value, slash < 0 ? value.length() : slash);
+
+        return new IPAddress(addr, NetworkText.parseMasklen(value, slash, addr.length * 8));
+    }
+
+    /**
+     * Create a host address from its raw representation.
+     *
+     * @param address The raw address (4 or 16 bytes)
+     *
+     * @return the address
+     */
+    public static IPAddress valueOf(final byte[] address) {
+        if(address == null) {
+            return null;
+        } else if(address.length != 4 && address.length != 16) {
+            throw new IllegalArgumentException("Invalid address length: " + address.length);
+        }
+
+        return new IPAddress(address.clone(), address.length * 8);
+    }
+
+    public static IPAddress valueOf(final InetAddress address) {
+        if(address == null) {
+            return null;
+        }
+
+        final byte[] addr = address.getAddress();
+
+        return new IPAddress(addr, addr.length * 8);
+    }
+
+    public static IPAddress valueOf(final IPTarget ip) {
+        return ip == null || ip.getAddr() == null ? null
+                : new IPAddress(ip.getAddr().clone(), ip.getNetmask());
+    }
+
+    public boolean isV6() {
+        return addr.length == 16;
+    }
+
+    public int getNetmask() {
+        return netmask;
+    }
+
+    /**
+     * Get the raw address.
+     *
+     * @return a copy of the raw address
+     */
+    public byte[] getAddress() {
+        return addr.clone();
+    }
+
+    byte[] addr() {
+        return addr;
+    }
+
+    public InetAddress toInetAddress() {
+        try {
+            return InetAddress.getByAddress(addr);
+        } catch(UnknownHostException x) {
+            throw new IllegalStateException("Invalid address " + this, x);
+        }
+    }
+
+    public IPTarget toIPTarget() {
+        return new IPTarget(getValue());
+    }
+
+    /**
+     * Get the length of the binary <tt>inet</tt> representation.
+     *
+     * @see NetworkBinary
+     */
+    public int lengthInBytes() {
+        return NetworkBinary.lengthInBytes(addr);
+    }
+
+    /**
+     * Write the binary <tt>inet</tt> representation.
+     *
+     * @param bytes The target buffer
+     * @param offset The position inside the target buffer
+     *
+     * @see NetworkBinary
+     */
+    public void toBytes(final byte[] bytes, final int offset) {
+        NetworkBinary.write(addr, netmask, false, bytes, offset);
+    }
+
+    /**
+     * Get the textual representation as used by PostgreSQL (omitting the
+     * mask length for host addresses).
+     *
+     * @return the textual representation
+     */
+    public String getValue() {
+        String v = value;
+        if(v == null) {
+            final StringBuilder sb = new StringBuilder(48);
+            NetworkText.appendAddress(sb, addr);
+            if(netmask != addr.length * 8) {
+                sb.append('/').append(netmask);
+            }
+            value = v = sb.toString();
+        }
+        return v;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(!(obj instanceof IPAddress)) {
+            return false;
+        }
+        final IPAddress other = (IPAddress) obj;
+        return netmask == other.netmask && Arrays.equals(addr, other.addr);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if(h == 0) {
+            h = 17 * Arrays.hashCode(addr) + netmask;
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public int compareTo(IPAddress o) {
+        final int c = NetworkText.compare(addr, o.addr);
+        return c != 0 ? c : netmask - o.netmask;
+    }
+
+    @Override
+    public String toString() {
+        return getValue();
+    }
+}
@@ -188,6 +188,73 @@ public class IPNetwork extends PGcidr implements Serializable, Cloneable, Compar
         }
     }
     
+    /**
+     * Get the length of the binary <tt>cidr</tt> representation.
+     *
+     * @return the number of bytes or <tt>0</tt> if not yet initialized
+     *
+     * @see NetworkBinary
+     */
+    public int lengthInBytes() {
+        return addr == null ? 0 : NetworkBinary.lengthInBytes(addr);
+    }
+
+    /**
+     * Write the binary <tt>cidr</tt> representation.
+     *
+     * @param bytes The target buffer
+     * @param offset The position inside the target buffer
+     *
+     * @see NetworkBinary
+     */
+    public void toBytes(byte[] bytes, int offset) {
+        NetworkBinary.write(addr, netmask, true, bytes, offset);
+    }
+
+    /**
+     * Set the value from its binary <tt>cidr</tt> representation.
+     *
+     * @param value The buffer
+     * @param offset The position of the value inside the buffer
+     *
+     * @throws SQLException if the value is invalid
+     *
+     * @see NetworkBinary
+     */
+    public void setByteValue(byte[] value, int offset) throws SQLException {
+        try {
+            final byte[] a = NetworkBinary.readAddress(value, offset);
+            final int masklen = NetworkBinary.readMasklen(value, offset);
+
+            if(hasHostBits(a, masklen)) {
+                throw new IllegalArgumentException("Invalid network "
+                        + new IPAddress(a, masklen) + ": value has bits set to right of mask");
+            }
+
+            // no need to format and parse the text representation...
+            addr = a;
+            netmask = masklen;
+            addrString = null;
+            init();
+        } catch(IllegalArgumentException ex) {
+            throw new SQLException("Unable to read binary cidr value for IPNetwork: "
+                    + ex.getMessage(), ex);
+        }
+    }
+
+    private static boolean hasHostBits(final byte[] a, final int masklen) {
+        int i = masklen / 8;
+        if(masklen % 8 != 0 && (a[i++] & (0xFF >>> (masklen % 8))) != 0) {
+            return true;
+        }
+        for(; i<a.length; i++) {
+            if(a[i] != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null) {
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import org.ancoron.postgresql.jpa.util.NetworkUtils;
+
+/**
+ * Immutable IPv4 or IPv6 network, the value type variant of
+ * {@link IPNetwork} for the PostgreSQL <tt>cidr</tt> type.
+ *
+ * <p>
+ * As instances can't be changed, persistence providers don't have to create
+ * backup clones and compare them at commit time (e.g. see
+ * <tt>org.ancoron.postgresql.jpa.eclipselink.IPPrefixConverter</tt>).
+ * </p>
+ *
+ * @author ancoron
+ *
+ * @see IPAddress
+ */
+public final class IPPrefix implements Serializable, Comparable<IPPrefix> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] addr;
+    private final int netmask;
+    private transient String value;
+    private transient int hash;
+
+    private IPPrefix(final byte[] addr, final int netmask) {
+        this.addr = addr;
+        this.netmask = netmask;
+    }
+
+    /**
+     * Parse a network, e.g. <tt>10.0.0.0/8</tt> or <tt>fe80::/64</tt>.
+     *
+     * @param value The textual representation
+     *
+     * @return the network or <code>null</code> if the given value is
+     * <code>null</code>
+     *
+     * @throws IllegalArgumentException if the value is invalid or has bits
+     * set to the right of the mask
+     */
+    public static IPPrefix valueOf(final String value) {
+        if(value == null) {
+            return null;
+        }
+
+        final int slash = value.indexOf('/');
+        final byte[] addr = NetworkText.parseAddress(value, slash < 0 ? value.length() : slash);
+        final int masklen = NetworkText.parseMasklen(value, slash, addr.length * 8);
+
+        if(!Arrays.equals(addr, mask(addr, masklen))) {
+            throw new IllegalArgumentException("Invalid network " + value
+                    + ": value has bits set to right of mask");
+        }
+
+        return new IPPrefix(addr, masklen);
+    }
+
+    /**
+     * Get the network of the given mask length containing the given address.
+     *
+     * @param address The address
+     * @param masklen The mask length
+     *
+     * @return the network
+     */
+    public static IPPrefix valueOf(final IPAddress address, final int masklen) {
+        if(masklen < 0 || masklen > address.addr().length * 8) {
+            throw new IllegalArgumentException("Invalid mask length: " + masklen);
+        }
+
+        return new IPPrefix(mask(address.addr(), masklen), masklen);
+    }
+
+    public static IPPrefix valueOf(final IPNetwork network) {
+        return network == null || network.getAddr() == null ? null
+                : new IPPrefix(mask(network.getAddr(), network.getNetmask()), network.getNetmask());
+    }
+
+    private static byte[] mask(final byte[] addr, final int masklen) {
+        final byte[] low = addr.clone();
+        final int i = masklen / 8;
+
+        if(i < low.length) {
+            low[i] &= (byte) (0xFF << (8 - masklen % 8));
+            Arrays.fill(low, i + 1, low.length, (byte) 0);
+        }
+
+        return low;
+    }
+
+    public boolean isV6() {
+        return addr.length == 16;
+    }
+
+    public int getNetmask() {
+        return netmask;
+    }
+
+    /**
+     * Get the raw network address.
+     *
+     * @return a copy of the raw network address
+     */
+    public byte[] getAddress() {
+        return addr.clone();
+    }
+
+    byte[] addr() {
+        return addr;
+    }
+
+    /**
+     * Check if the given address is part of this network (PostgreSQL
+     * operator <tt>&gt;&gt;=</tt>).
+     */
+    public boolean contains(final IPAddress address) {
+        return NetworkUtils.contains(addr, netmask, address.addr(), address.getNetmask());
+    }
+
+    /**
+     * Check if the given network is part of (or equal to) this network
+     * (PostgreSQL operator <tt>&gt;&gt;=</tt>).
+     */
+    public boolean contains(final IPPrefix network) {
+        return NetworkUtils.contains(addr, netmask, network.addr, network.netmask);
+    }
+
+    /**
+     * Check if the given network overlaps with this network (PostgreSQL
+     * operator <tt>&amp;&amp;</tt>).
+     */
+    public boolean overlaps(final IPPrefix network) {
+        return NetworkUtils.overlaps(addr, netmask, network.addr, network.netmask);
+    }
+
+    public IPNetwork toIPNetwork() {
+        return new IPNetwork(getValue());
+    }
+
+    /**
+     * Get the length of the binary <tt>cidr</tt> representation.
+     *
+     * @see NetworkBinary
+     */
+    public int lengthInBytes() {
+        return NetworkBinary.lengthInBytes(addr);
+    }
+
+    /**
+     * Write the binary <tt>cidr</tt> representation.
+     *
+     * @param bytes The target buffer
+     * @param offset The position inside the target buffer
+     *
+     * @see NetworkBinary
+     */
+    public void toBytes(final byte[] bytes, final int offset) {
+        NetworkBinary.write(addr, netmask, true, bytes, offset);
+    }
+
+    /**
+     * Get the textual representation as used by PostgreSQL.
+     *
+     * @return the textual representation
+     */
+    public String getValue() {
+        String v = value;
+        if(v == null) {
+            final StringBuilder sb = new StringBuilder(48);
+            NetworkText.appendAddress(sb, addr);
+            sb.append('/').append(netmask);
+            value = v = sb.toString();
+        }
+        return v;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(!(obj instanceof IPPrefix)) {
+            return false;
+        }
+        final IPPrefix other = (IPPrefix) obj;
+        return netmask == other.netmask && Arrays.equals(addr, other.addr);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if(h == 0) {
+            h = 17 * Arrays.hashCode(addr) + netmask;
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public int compareTo(IPPrefix o) {
+        final int c = NetworkText.compare(addr, o.addr);
+        return c != 0 ? c : netmask - o.netmask;
+    }
+
+    @Override
+    public String toString() {
+        return getValue();
+    }
+}
@@ -146,8 +146,60 @@ public class IPTarget extends PGinet implements Serializable, Cloneable, Compara
         this.v6 = v6;
     }
 
+    /**
+     * Get the length of the binary <tt>inet</tt> representation.
+     *
+     * @return the number of bytes or <tt>0</tt> if not yet initialized
+     *
+     * @see NetworkBinary
+     */
+    public int lengthInBytes() {
+        return addr == null ? 0 : NetworkBinary.lengthInBytes(addr);
+    }
+
+    /**
+     * Write the binary <tt>inet</tt> representation.
+     *
+     * @param bytes The target buffer
+     * @param offset The position inside the target buffer
+     *
+     * @see NetworkBinary
+     */
+    public void toBytes(byte[] bytes, int offset) {
+        NetworkBinary.write(addr, netmask, false, bytes, offset);
+    }
+
+    /**
+     * Set the value from its binary <tt>inet</tt> representation.
+     *
+     * @param value The buffer
+     * @param offset The position of the value inside the buffer
+     *
+     * @throws SQLException if the value is invalid
+     *
+     * @see NetworkBinary
+     */
+    public void setByteValue(byte[] value, int offset) throws SQLException {
+        try {
+            final byte[] a = NetworkBinary.readAddress(value, offset);
+            final int masklen = NetworkBinary.readMasklen(value, offset);
+
+            // no need to format and parse the text representation...
+            addr = a;
+            netmask = masklen;
+            addrString = null;
+            init();
+        } catch(IllegalArgumentException ex) {
+            throw new SQLException("Unable to read binary inet value for IPTarget: "
+                    + ex.getMessage(), ex);
+        }
+    }
+
     @Override
     public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
         if (obj == null) {
             return false;
         }
@@ -170,6 +222,7 @@ public class IPTarget extends PGinet implements Serializable, Cloneable, Compara
     public int hashCode() {
         int hash = 7;
         hash = 17 * hash + Arrays.hashCode(this.addr);
+        hash = 17 * hash + this.netmask;
         return hash;
     }
 
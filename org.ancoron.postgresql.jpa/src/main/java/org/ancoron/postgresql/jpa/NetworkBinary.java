@@ -0,0 +1,259 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa;
+
+import java.util.Arrays;
+
+/**
+ * The binary wire format of the PostgreSQL types <tt>inet</tt>,
+ * <tt>cidr</tt> and <tt>macaddr</tt> (see <tt>network_send</tt> and
+ * <tt>macaddr_send</tt> of the server).
+ *
+ * <p>
+ * An <tt>inet</tt> or <tt>cidr</tt> value is encoded as the address family
+ * (<tt>2</tt> for IPv4, <tt>3</tt> for IPv6), the mask length, a flag for
+ * <tt>cidr</tt>, the number of address bytes and the raw address itself. A
+ * <tt>macaddr</tt> is just its 6 raw bytes. Encoding and decoding doesn't
+ * involve any textual representation.
+ * </p>
+ *
+ * @author ancoron
+ */
+public final class NetworkBinary {
+
+    /**
+     * PostgreSQL's own (platform independent) IPv4 address family.
+     */
+    public static final int PGSQL_AF_INET = 2;
+
+    /**
+     * PostgreSQL's own (platform independent) IPv6 address family.
+     */
+    public static final int PGSQL_AF_INET6 = PGSQL_AF_INET + 1;
+
+    /**
+     * The length of a binary <tt>macaddr</tt> value.
+     */
+    public static final int MACADDR_LENGTH = 6;
+
+    private static final int HEADER_LENGTH = 4;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private NetworkBinary() {
+    }
+
+    /**
+     * Get the length of the binary <tt>inet</tt> or <tt>cidr</tt> value for
+     * the given raw address.
+     *
+     * @param addr The raw address (4 or 16 bytes)
+     *
+     * @return the number of bytes
+     */
+    public static int lengthInBytes(final byte[] addr) {
+        return HEADER_LENGTH + addr.length;
+    }
+
+    /**
+     * Write a binary <tt>inet</tt> or <tt>cidr</tt> value.
+     *
+     * @param addr The raw address (4 or 16 bytes)
+     * @param masklen The mask length
+     * @param cidr <code>true</code> for a <tt>cidr</tt> value
+     * @param bytes The target buffer
+     * @param offset The position inside the target buffer
+     */
+    public static void write(final byte[] addr, final int masklen,
+            final boolean cidr, final byte[] bytes, final int offset)
+    {
+        if(addr.length != 4 && addr.length != 16) {
+            throw new IllegalArgumentException("Invalid address length: " + addr.length);
+        }
+
+        bytes[offset] = (byte) (addr.length == 4 ? PGSQL_AF_INET : PGSQL_AF_INET6);
+        bytes[offset + 1] = (byte) masklen;
+        bytes[offset + 2] = (byte) (cidr ? 1 : 0);
+        bytes[offset + 3] = (byte) addr.length;
+        System.arraycopy(addr, 0, bytes, offset + HEADER_LENGTH, addr.length);
+    }
+
+    /**
+     * Write a binary <tt>inet</tt> or <tt>cidr</tt> value into a new buffer.
+     *
+     * @see #write(byte[], int, boolean, byte[], int)
+     */
+    public static byte[] toBytes(final byte[] addr, final int masklen, final boolean cidr) {
+        final byte[] bytes = new byte[lengthInBytes(addr)];
+        write(addr, masklen, cidr, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Get the length of the binary <tt>inet</tt> or <tt>cidr</tt> value
+     * starting at the given position.
+     */
+    public static int lengthAt(final byte[] bytes, final int offset) {
+        return HEADER_LENGTH + addressLength(bytes, offset);
+    }
+
+    private static int addressLength(final byte[] bytes, final int offset) {
+        if(bytes.length - offset < HEADER_LENGTH) {
+            throw new IllegalArgumentException("Invalid binary network value: too short");
+        }
+
+        final int family = bytes[offset];
+        final int nb = bytes[offset + 3];
+        if(family == PGSQL_AF_INET && nb == 4 || family == PGSQL_AF_INET6 && nb == 16) {
+            if(bytes.length - offset < HEADER_LENGTH + nb) {
+                throw new IllegalArgumentException("Invalid binary network value: too short");
+            }
+            return nb;
+        }
+
+        throw new IllegalArgumentException("Invalid binary network value: family "
+                + family + " with " + nb + " address bytes");
+    }
+
+    /**
+     * Read the raw address of a binary <tt>inet</tt> or <tt>cidr</tt> value.
+     *
+     * @param bytes The buffer
+     * @param offset The position of the value inside the buffer
+     *
+     * @return a new array holding the raw address (4 or 16 bytes)
+     *
+     * @throws IllegalArgumentException if the value is invalid
+     */
+    public static byte[] readAddress(final byte[] bytes, final int offset) {
+        final int nb = addressLength(bytes, offset);
+        final byte[] addr = new byte[nb];
+        System.arraycopy(bytes, offset + HEADER_LENGTH, addr, 0, nb);
+        return addr;
+    }
+
+    /**
+     * Read the mask length of a binary <tt>inet</tt> or <tt>cidr</tt> value.
+     *
+     * @param bytes The buffer
+     * @param offset The position of the value inside the buffer
+     *
+     * @return the mask length
+     *
+     * @throws IllegalArgumentException if the value is invalid
+     */
+    public static int readMasklen(final byte[] bytes, final int offset) {
+        final int nb = addressLength(bytes, offset);
+        final int masklen = bytes[offset + 1] & 0xFF;
+        if(masklen > nb * 8) {
+            throw new IllegalArgumentException("Invalid mask length: " + masklen);
+        }
+        return masklen;
+    }
+
+    /**
+     * Check if the binary value is flagged as <tt>cidr</tt>.
+     */
+    public static boolean isCidr(final byte[] bytes, final int offset) {
+        addressLength(bytes, offset);
+        return bytes[offset + 2] != 0;
+    }
+
+    public static IPAddress readIPAddress(final byte[] bytes, final int offset) {
+        return new IPAddress(readAddress(bytes, offset), readMasklen(bytes, offset));
+    }
+
+    /**
+     * Read a binary <tt>cidr</tt> value.
+     *
+     * @throws IllegalArgumentException if the value is invalid or has bits
+     * set to the right of the mask
+     */
+    public static IPPrefix readIPPrefix(final byte[] bytes, final int offset) {
+        final byte[] addr = readAddress(bytes, offset);
+        final int masklen = readMasklen(bytes, offset);
+        final IPAddress address = new IPAddress(addr, masklen);
+        final IPPrefix prefix = IPPrefix.valueOf(address, masklen);
+
+        if(!Arrays.equals(addr, prefix.addr())) {
+            throw new IllegalArgumentException("Invalid network " + address
+                    + ": value has bits set to right of mask");
+        }
+
+        return prefix;
+    }
+
+    /**
+     * Write a binary <tt>macaddr</tt> value.
+     *
+     * @param value The textual representation, e.g.
+     * <tt>08:00:2b:01:02:03</tt>, <tt>08-00-2b-01-02-03</tt> or
+     * <tt>08002b010203</tt>
+     * @param bytes The target buffer
+     * @param offset The position inside the target buffer
+     *
+     * @throws IllegalArgumentException if the value is invalid
+     */
+    public static void writeMacaddr(final String value, final byte[] bytes, final int offset) {
+        int digits = 0;
+        int octet = 0;
+        for(int i=0, n=value.length(); i<n; i++) {
+            final char c = value.charAt(i);
+            if(c == ':' || c == '-' || c == '.') {
+                continue;
+            }
+
+            final int digit = Character.digit(c, 16);
+            if(digit < 0 || digits == 2 * MACADDR_LENGTH) {
+                throw new IllegalArgumentException("Invalid MAC address: " + value);
+            }
+
+            octet = (octet << 4) | digit;
+            if(++digits % 2 == 0) {
+                bytes[offset + digits / 2 - 1] = (byte) octet;
+                octet = 0;
+            }
+        }
+
+        if(digits != 2 * MACADDR_LENGTH) {
+            throw new IllegalArgumentException("Invalid MAC address: " + value);
+        }
+    }
+
+    /**
+     * Read a binary <tt>macaddr</tt> value.
+     *
+     * @return the textual representation as used by PostgreSQL, e.g.
+     * <tt>08:00:2b:01:02:03</tt>
+     */
+    public static String readMacaddr(final byte[] bytes, final int offset) {
+        if(bytes.length - offset < MACADDR_LENGTH) {
+            throw new IllegalArgumentException("Invalid binary MAC address: too short");
+        }
+
+        final char[] c = new char[3 * MACADDR_LENGTH - 1];
+        for(int i=0; i<MACADDR_LENGTH; i++) {
+            final int b = bytes[offset + i] & 0xFF;
+            if(i > 0) {
+                c[3 * i - 1] = ':';
+            }
+            c[3 * i] = HEX[b >> 4];
+            c[3 * i + 1] = HEX[b & 0xF];
+        }
+
+        return new String(c);
+    }
+}
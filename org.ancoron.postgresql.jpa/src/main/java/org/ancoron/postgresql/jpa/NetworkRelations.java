@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa;
+
+import java.net.InetAddress;
+import org.ancoron.postgresql.jpa.util.NetworkUtils;
+
+/**
+ * The PostgreSQL containment operators for any combination of the network
+ * value types.
+ *
+ * <p>
+ * Supported values are {@link IPTarget}, {@link IPNetwork},
+ * {@link IPAddress}, {@link IPPrefix} and <tt>InetAddress</tt>. The raw
+ * addresses are compared directly, so nothing is allocated except for
+ * <tt>InetAddress</tt> values (which only hand out copies of their
+ * address).
+ * </p>
+ *
+ * @author ancoron
+ */
+public final class NetworkRelations {
+
+    private NetworkRelations() {
+    }
+
+    /**
+     * Check if a value contains another one (PostgreSQL operators
+     * <tt>&gt;&gt;</tt> and <tt>&gt;&gt;=</tt>).
+     *
+     * @param network The containing value
+     * @param value The contained value
+     * @param orEquals <tt>true</tt> if equal networks contain each other
+     *
+     * @return <tt>true</tt> if the network contains the value
+     *
+     * @throws IllegalArgumentException if a value is of an unsupported type
+     */
+    public static boolean contains(final Object network, final Object value,
+            final boolean orEquals)
+    {
+        final byte[] a = address(network);
+        final int alen = masklen(network, a);
+        final byte[] b = address(value);
+        final int blen = masklen(value, b);
+
+        return (orEquals || alen < blen) && NetworkUtils.contains(a, alen, b, blen);
+    }
+
+    /**
+     * Check if two values overlap (PostgreSQL operator
+     * <tt>&amp;&amp;</tt>).
+     *
+     * @throws IllegalArgumentException if a value is of an unsupported type
+     */
+    public static boolean overlaps(final Object a, final Object b) {
+        final byte[] x = address(a);
+        final byte[] y = address(b);
+
+        return NetworkUtils.overlaps(x, masklen(a, x), y, masklen(b, y));
+    }
+
+    private static byte[] address(final Object value) {
+        if(value instanceof IPTarget) {
+            return ((IPTarget) value).getAddr();
+        } else if(value instanceof IPNetwork) {
+            return ((IPNetwork) value).getAddr();
+        } else if(value instanceof IPAddress) {
+            return ((IPAddress) value).addr();
+        } else if(value instanceof IPPrefix) {
+            return ((IPPrefix) value).addr();
+        } else if(value instanceof InetAddress) {
+            return ((InetAddress) value).getAddress();
+        }
+
+        throw new IllegalArgumentException("Unable to compare network with "
+                + (value == null ? "null" : value.getClass().getName()));
+    }
+
+    private static int masklen(final Object value, final byte[] address) {
+        if(value instanceof IPTarget) {
+            return ((IPTarget) value).getNetmask();
+        } else if(value instanceof IPNetwork) {
+            return ((IPNetwork) value).getNetmask();
+        } else if(value instanceof IPAddress) {
+            return ((IPAddress) value).getNetmask();
+        } else if(value instanceof IPPrefix) {
+            return ((IPPrefix) value).getNetmask();
+        }
+        return address.length * 8;
+    }
+}
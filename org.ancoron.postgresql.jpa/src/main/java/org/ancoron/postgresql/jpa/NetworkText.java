@@ -0,0 +1,210 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Parsing and formatting of the textual representation of <tt>inet</tt> and
+ * <tt>cidr</tt> values for the immutable value types.
+ *
+ * @author ancoron
+ */
+final class NetworkText {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private NetworkText() {
+    }
+
+    /**
+     * Parse the address part of the given value.
+     *
+     * @param value The value, e.g. <tt>10.0.0.1/24</tt> or <tt>fe80::1</tt>
+     * @param end The end of the address part inside the value
+     *
+     * @return the raw address (4 or 16 bytes)
+     */
+    static byte[] parseAddress(final String value, final int end) {
+        if(value.indexOf(':') < 0) {
+            return parseIPv4(value, end);
+        }
+
+        // only a valid literal IPv6 address is parsed without a name lookup,
+        // anything else must not even be passed to the JDK...
+        for(int i=0; i<end; i++) {
+            final char c = value.charAt(i);
+            if(!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')
+                    && !(c >= 'A' && c <= 'F') && c != ':' && c != '.')
+            {
+                throw new IllegalArgumentException("Invalid IPv6 address: " + value);
+            }
+        }
+
+        try {
+            final byte[] addr = InetAddress.getByName(value.substring(0, end)).getAddress();
+
+            if(addr.length == 4) {
+                // IPv4-mapped addresses are returned as IPv4 by the JDK...
+                final byte[] v6 = new byte[16];
+                v6[10] = (byte) 0xFF;
+                v6[11] = (byte) 0xFF;
+                System.arraycopy(addr, 0, v6, 12, 4);
+                return v6;
+            }
+
+            return addr;
+        } catch(UnknownHostException x) {
+            throw new IllegalArgumentException("Invalid IPv6 address: " + value, x);
+        }
+    }
+
+    private static byte[] parseIPv4(final String value, final int end) {
+        final byte[] addr = new byte[4];
+        int part = 0;
+        int octet = -1;
+
+        for(int i=0; i<end; i++) {
+            final char c = value.charAt(i);
+
+            if(c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if(octet > 255) {
+                    throw new IllegalArgumentException("Invalid IPv4 address: " + value);
+                }
+            } else if(c == '.' && octet >= 0 && part < 3) {
+                addr[part++] = (byte) octet;
+                octet = -1;
+            } else {
+                throw new IllegalArgumentException("Invalid IPv4 address: " + value);
+            }
+        }
+
+        if(part != 3 || octet < 0) {
+            throw new IllegalArgumentException("Invalid IPv4 address: " + value);
+        }
+
+        addr[3] = (byte) octet;
+
+        return addr;
+    }
+
+    /**
+     * Parse the mask length of the given value.
+     *
+     * @param value The value
+     * @param slash The position of the '/' or <tt>-1</tt> if none
+     * @param bits The number of address bits (the default)
+     *
+     * @return the mask length
+     */
+    static int parseMasklen(final String value, final int slash, final int bits) {
+        if(slash < 0) {
+            return bits;
+        }
+
+        try {
+            final int masklen = Integer.parseInt(value.substring(slash + 1));
+
+            if(masklen < 0 || masklen > bits) {
+                throw new IllegalArgumentException("Invalid mask length: " + value);
+            }
+
+            return masklen;
+        } catch(NumberFormatException x) {
+            throw new IllegalArgumentException("Invalid mask length: " + value, x);
+        }
+    }
+
+    /**
+     * Format a raw address, IPv6 addresses are compressed per RFC 5952.
+     */
+    static void appendAddress(final StringBuilder sb, final byte[] addr) {
+        if(addr.length == 4) {
+            sb.append(addr[0] & 0xFF).append('.')
+                    .append(addr[1] & 0xFF).append('.')
+                    .append(addr[2] & 0xFF).append('.')
+                    .append(addr[3] & 0xFF);
+            return;
+        }
+
+        // find the longest run of zero groups (at least 2)...
+        int best = -1;
+        int bestLen = 1;
+        for(int i=0; i<8; ) {
+            if(group(addr, i) == 0) {
+                int j = i;
+                while(j < 8 && group(addr, j) == 0) {
+                    j++;
+                }
+                if(j - i > bestLen) {
+                    best = i;
+                    bestLen = j - i;
+                }
+                i = j;
+            } else {
+                i++;
+            }
+        }
+
+        for(int i=0; i<8; i++) {
+            if(i == best) {
+                sb.append(i == 0 ? "::" : ":");
+                i += bestLen - 1;
+                continue;
+            }
+
+            appendHex(sb, group(addr, i));
+            if(i < 7) {
+                sb.append(':');
+            }
+        }
+    }
+
+    private static int group(final byte[] addr, final int i) {
+        return ((addr[2 * i] & 0xFF) << 8) | (addr[2 * i + 1] & 0xFF);
+    }
+
+    private static void appendHex(final StringBuilder sb, final int group) {
+        boolean lead = true;
+        for(int shift=12; shift>=0; shift-=4) {
+            final int digit = (group >> shift) & 0xF;
+            if(digit != 0 || !lead || shift == 0) {
+                sb.append(HEX[digit]);
+                lead = false;
+            }
+        }
+    }
+
+    /**
+     * Compare two raw addresses: IPv4 first, then unsigned byte order.
+     */
+    static int compare(final byte[] a, final byte[] b) {
+        if(a.length != b.length) {
+            return a.length - b.length;
+        }
+
+        for(int i=0; i<a.length; i++) {
+            final int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if(c != 0) {
+                return c;
+            }
+        }
+
+        return 0;
+    }
+}
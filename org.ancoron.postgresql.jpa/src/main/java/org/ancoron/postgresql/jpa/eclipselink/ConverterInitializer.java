@@ -15,24 +15,33 @@
  */
 package org.ancoron.postgresql.jpa.eclipselink;
 
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.net.InetAddress;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.Vector;
 import javax.management.RuntimeErrorException;
+import org.ancoron.postgresql.jpa.IPAddress;
 import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPPrefix;
 import org.ancoron.postgresql.jpa.IPTarget;
+import org.ancoron.postgresql.jpa.util.NetworkValueCache;
+import org.eclipse.persistence.annotations.BatchFetchType;
 import org.eclipse.persistence.descriptors.ClassDescriptor;
+import org.eclipse.persistence.internal.databaseaccess.DatasourcePlatform;
 import org.eclipse.persistence.internal.descriptors.MethodAttributeAccessor;
 import org.eclipse.persistence.internal.helper.DatabaseField;
+import org.eclipse.persistence.internal.helper.DatabaseTable;
 import org.eclipse.persistence.mappings.DatabaseMapping;
 import org.eclipse.persistence.mappings.DirectCollectionMapping;
 import org.eclipse.persistence.mappings.DirectMapMapping;
@@ -55,8 +64,101 @@ import org.postgresql.net.PGmacaddr;
  */
 public class ConverterInitializer implements SessionEventListener {
 
+    /**
+     * The maximum number of distinct values per immutable network type
+     * (<tt>IPAddress</tt>, <tt>IPPrefix</tt> and <tt>InetAddress</tt>) to
+     * share between all loaded entities of a session. Interning is disabled
+     * if not set (or <tt>0</tt>).
+     *
+     * <p>
+     * The value is taken from the session properties (e.g. a persistence
+     * unit property) or from a system property of the same name.
+     * </p>
+     */
+    public static final String PROPERTY_INTERN_SIZE = "org.ancoron.postgresql.jpa.intern-size";
+
+    /**
+     * Enables batch reading of element collections of network values, one of
+     * <tt>JOIN</tt>, <tt>EXISTS</tt> or <tt>IN</tt> (see
+     * <tt>org.eclipse.persistence.annotations.BatchFetchType</tt>). Disabled
+     * if not set.
+     *
+     * <p>
+     * The value is taken from the session properties (e.g. a persistence
+     * unit property) or from a system property of the same name.
+     * </p>
+     */
+    public static final String PROPERTY_BATCH_FETCH = "org.ancoron.postgresql.jpa.batch-fetch";
+
+    /**
+     * The maximum number of source objects per batch for <tt>IN</tt> batch
+     * fetching (requires EclipseLink 2.5+).
+     */
+    public static final String PROPERTY_BATCH_FETCH_SIZE = "org.ancoron.postgresql.jpa.batch-fetch-size";
+
+    /**
+     * Load basic attributes of the given network column types lazily, a
+     * comma-separated list of <tt>inet</tt>, <tt>cidr</tt> and
+     * <tt>macaddr</tt> (or <tt>true</tt> for all of them). Disabled if not
+     * set.
+     *
+     * <p>
+     * Lazy attributes are neither selected nor converted when an entity is
+     * loaded, but on first access of one of them. This requires weaving
+     * (fetch groups), otherwise the attributes are still loaded eagerly.
+     * Primary key attributes are always loaded eagerly.
+     * </p>
+     */
+    public static final String PROPERTY_LAZY = "org.ancoron.postgresql.jpa.lazy";
+
+    /**
+     * Add an EclipseLink cache index for each unique network column (e.g.
+     * <tt>&#064;Column(unique=true)</tt>), so queries for a single entity by
+     * such a column are answered from the shared cache. Disabled if not set
+     * (or <tt>false</tt>).
+     *
+     * <p>
+     * Cache indexes require EclipseLink 2.4+, older versions ignore this
+     * property. The values of indexed columns are compared as
+     * {@link NetworkValue}s, so adding at least one cache index implies
+     * {@link #PROPERTY_NETWORK_VALUES}.
+     * </p>
+     */
+    public static final String PROPERTY_CACHE_INDEX = "org.ancoron.postgresql.jpa.cache-index";
+
+    /**
+     * Read network columns as {@link NetworkValue}s holding the column text
+     * instead of letting the JDBC driver parse them into <tt>PGinet</tt>,
+     * <tt>PGcidr</tt> or <tt>PGmacaddr</tt> instances first (requires the
+     * {@link ExtendedPostgreSQLPlatform}). Disabled if not set (or
+     * <tt>false</tt>).
+     *
+     * <p>
+     * Please note that this also changes the values of unconverted results,
+     * e.g. of native queries without a result class.
+     * </p>
+     */
+    public static final String PROPERTY_NETWORK_VALUES = "org.ancoron.postgresql.jpa.network-values";
+
     protected final Set<ObjectReferenceMapping> references = new HashSet<ObjectReferenceMapping>();
 
+    // only used during preLogin()...
+    private final Map<Class, MemberIndex> members = new HashMap<Class, MemberIndex>();
+    private final Map<Class, Converter> converters = new HashMap<Class, Converter>();
+
+    // descriptors with lazy network attributes, checked after login...
+    protected final Set<ClassDescriptor> lazyDescriptors = new HashSet<ClassDescriptor>();
+
+    private BatchFetchType batchFetchType;
+    private int batchFetchSize;
+    private Set<String> lazyTypes;
+    private boolean cacheIndex;
+    private int cacheIndexes;
+
+    private NetworkValueCache<IPAddress> addressCache;
+    private NetworkValueCache<IPPrefix> prefixCache;
+    private NetworkValueCache<InetAddress> inetCache;
+
     @Override
     public void missingDescriptor(SessionEvent event) {
         // no-op
@@ -222,33 +324,65 @@ public class ConverterInitializer implements SessionEventListener {
         // no-op
     }
 
-    private Class getFieldType(final Class c, final String attributeName, final boolean mapValueType) {
-        for(Field f : c.getDeclaredFields()) {
-            if(f.getName().equals(attributeName)) {
-                return extractType(f.getGenericType(), f.getType(), mapValueType);
+    /**
+     * The declared fields and methods of a single class by name, so
+     * resolving the members of many mappings doesn't have to scan the
+     * reflection data over and over again.
+     */
+    private static class MemberIndex {
+
+        final Map<String, Field> fields;
+        final Map<String, Method> methods;
+
+        MemberIndex(final Class c) {
+            final Field[] f = c.getDeclaredFields();
+            fields = new HashMap<String, Field>(f.length * 2);
+            for(int i=0; i<f.length; i++) {
+                fields.put(f[i].getName(), f[i]);
             }
+
+            final Method[] m = c.getDeclaredMethods();
+            methods = new HashMap<String, Method>(m.length * 2);
+            for(int i=m.length - 1; i>=0; i--) {
+                // keep the first one for overloaded methods...
+                methods.put(m[i].getName(), m[i]);
+            }
+        }
+    }
+
+    private MemberIndex getMembers(final Class c) {
+        MemberIndex idx = members.get(c);
+        if(idx == null) {
+            idx = new MemberIndex(c);
+            members.put(c, idx);
+        }
+        return idx;
+    }
+
+    private Class getFieldType(final Class c, final String attributeName, final boolean mapValueType) {
+        Field f = getMembers(c).fields.get(attributeName);
+        if(f != null) {
+            return extractType(f.getGenericType(), f.getType(), mapValueType);
         }
 
         return null;
     }
 
     private Class getMethodReturnType(final Class c, final String methodName, final boolean mapValueType) {
-        for(Method m : c.getDeclaredMethods()) {
-            if(m.getName().equals(methodName)) {
-                return extractType(m.getGenericReturnType(),
-                        m.getReturnType(), mapValueType);
-            }
+        Method m = getMembers(c).methods.get(methodName);
+        if(m != null) {
+            return extractType(m.getGenericReturnType(),
+                    m.getReturnType(), mapValueType);
         }
 
         return null;
     }
 
     private Class getMethodParameterType(final Class c, final String methodName, final boolean mapValueType) {
-        for(Method m : c.getDeclaredMethods()) {
-            if(m.getName().equals(methodName)) {
-                return extractType(m.getGenericParameterTypes()[0],
-                        m.getParameterTypes()[0], mapValueType);
-            }
+        Method m = getMembers(c).methods.get(methodName);
+        if(m != null) {
+            return extractType(m.getGenericParameterTypes()[0],
+                    m.getParameterTypes()[0], mapValueType);
         }
 
         return null;
@@ -279,7 +413,12 @@ public class ConverterInitializer implements SessionEventListener {
     protected Converter getConverter(final Class c, final String attributeName,
             final String methodName, final boolean mapValueType)
     {
-        Converter conv = null;
+        return getConverter(getAttributeType(c, attributeName, methodName, mapValueType));
+    }
+
+    private Class getAttributeType(final Class c, final String attributeName,
+            final String methodName, final boolean mapValueType)
+    {
         Class s = c;
         Class type = null;
 
@@ -297,9 +436,31 @@ public class ConverterInitializer implements SessionEventListener {
             }
         } while(type == null && (s = s.getSuperclass()) != null);
 
+        return type;
+    }
+
+    /**
+     * Get the converter for the given attribute (or element) type.
+     *
+     * @param type The type
+     *
+     * @return the converter or <code>null</code> if the type isn't supported
+     */
+    protected Converter getConverter(final Class type) {
+        Converter conv = null;
+
         if(type != null) {
+            // converters don't keep any per-mapping state, so share them...
+            if(converters.containsKey(type)) {
+                return converters.get(type);
+            }
+
             // set converters as appropriate...
-            if(IPNetwork.class.isAssignableFrom(type)) {
+            if(IPPrefix.class.isAssignableFrom(type)) {
+                conv = new IPPrefixConverter();
+            } else if(IPAddress.class.isAssignableFrom(type)) {
+                conv = new IPAddressConverter();
+            } else if(IPNetwork.class.isAssignableFrom(type)) {
                 conv = new IPNetworkConverter();
             } else if(IPTarget.class.isAssignableFrom(type)) {
                 conv = new IPTargetConverter();
@@ -316,11 +477,341 @@ public class ConverterInitializer implements SessionEventListener {
             } else {
                 conv = null;
             }
+
+            converters.put(type, conv);
         }
 
         return conv;
     }
 
+    private Class getContainerType(final Class c, final String attributeName,
+            final String methodName)
+    {
+        Class s = c;
+
+        // also traverse up the super-classes...
+        do {
+            if(methodName == null) {
+                Field f = getMembers(s).fields.get(attributeName);
+                if(f != null) {
+                    return f.getType();
+                }
+            } else {
+                Method m = getMembers(s).methods.get(methodName);
+                if(m != null) {
+                    return methodName.startsWith("set")
+                            ? m.getParameterTypes()[0] : m.getReturnType();
+                }
+            }
+        } while((s = s.getSuperclass()) != null);
+
+        return null;
+    }
+
+    private String getArrayElementType(final Converter conv) {
+        if(conv instanceof PGcidrConverter || conv instanceof IPNetworkConverter
+                || conv instanceof IPPrefixConverter)
+        {
+            return "cidr";
+        } else if(conv instanceof PGinetConverter || conv instanceof IPTargetConverter
+                || conv instanceof IPAddressConverter || conv instanceof InetAddressConverter)
+        {
+            return "inet";
+        } else if(conv instanceof PGmacaddrConverter) {
+            return "macaddr";
+        }
+
+        return null;
+    }
+
+    /**
+     * Get a converter mapping a basic attribute holding an array or a
+     * collection of network values to a PostgreSQL array column.
+     *
+     * @return the converter or <code>null</code> if the attribute isn't an
+     * array or collection of network values
+     */
+    protected Converter getArrayConverter(final Class c, final String attributeName,
+            final String methodName)
+    {
+        final Class container = getContainerType(c, attributeName, methodName);
+        final Class element;
+        if(container == null) {
+            return null;
+        } else if(container.isArray()) {
+            element = container.getComponentType();
+        } else if(Collection.class.isAssignableFrom(container)) {
+            element = getAttributeType(c, attributeName, methodName, false);
+        } else {
+            return null;
+        }
+
+        final Converter conv = getConverter(element);
+        final String type = getArrayElementType(conv);
+
+        return type == null ? null : new NetworkArrayConverter(type, conv, container);
+    }
+
+    private <A extends Annotation> A getAnnotation(final Class c, final String attributeName,
+            final String methodName, final Class<A> annotation)
+    {
+        Class s = c;
+
+        // also traverse up the super-classes...
+        do {
+            if(methodName == null) {
+                Field f = getMembers(s).fields.get(attributeName);
+                if(f != null) {
+                    return f.getAnnotation(annotation);
+                }
+            } else {
+                Method m = getMembers(s).methods.get(methodName);
+                if(m != null) {
+                    return m.getAnnotation(annotation);
+                }
+            }
+        } while((s = s.getSuperclass()) != null);
+
+        return null;
+    }
+
+    private boolean isNetworkConverter(final Converter conv) {
+        return conv instanceof PGcidrConverter
+                || conv instanceof PGinetConverter
+                || conv instanceof InetAddressConverter
+                || conv instanceof IPPrefixConverter
+                || conv instanceof IPAddressConverter;
+    }
+
+    /**
+     * Add a GiST/SP-GiST index for a network column to the DDL generation if
+     * requested by a {@link NetworkIndex} annotation.
+     */
+    protected void addNetworkIndex(final Session s, final Class c, final ClassDescriptor desc,
+            final String attributeName, final String methodName, final DatabaseField f)
+    {
+        NetworkIndex idx = getAnnotation(c, attributeName, methodName, NetworkIndex.class);
+        if(idx == null) {
+            return;
+        }
+
+        DatabaseTable table = null;
+        if(f.getTableName() == null || f.getTableName().length() == 0) {
+            if(!desc.getTables().isEmpty()) {
+                table = desc.getTables().firstElement();
+            }
+        } else {
+            table = desc.getTable(f.getTableName());
+        }
+
+        if(table == null) {
+            s.getSessionLog().log(6, "Unable to create network index for "
+                    + c.getName() + "." + attributeName + ": table not found");
+            return;
+        }
+
+        String name = idx.name();
+        if(name.length() == 0) {
+            name = NetworkIndexDefinition.getDefaultName(table.getName(), f.getName());
+        }
+
+        s.getSessionLog().log(4, "Adding " + idx.type() + " index " + name
+                + " for field " + table.getName() + "." + f.getName());
+
+        final DatasourcePlatform platform = (DatasourcePlatform) s.getDatasourcePlatform();
+        final NetworkIndexDefinition def = new NetworkIndexDefinition(name,
+                table.getQualifiedNameDelimited(platform), f.getNameDelimited(platform),
+                idx.type());
+        if(table.hasTableQualifier()) {
+            def.setSchema(table.getTableQualifierDelimited(platform));
+        }
+        table.addIndex(def);
+    }
+
+    private String getProperty(final Session s, final String name) {
+        Object value = s.getProperty(name);
+        if(value == null) {
+            value = System.getProperty(name);
+        }
+
+        return value == null ? null : value.toString().trim();
+    }
+
+    private int getIntProperty(final Session s, final String name) {
+        final String value = getProperty(s, name);
+        if(value == null) {
+            return 0;
+        }
+
+        try {
+            return Integer.parseInt(value);
+        } catch(NumberFormatException x) {
+            s.getSessionLog().log(6, "Ignoring invalid value for "
+                    + name + ": " + value);
+            return 0;
+        }
+    }
+
+    private BatchFetchType getBatchFetchType(final Session s) {
+        final String value = getProperty(s, PROPERTY_BATCH_FETCH);
+        if(value == null || value.length() == 0) {
+            return null;
+        }
+
+        try {
+            return BatchFetchType.valueOf(value.toUpperCase(Locale.ENGLISH));
+        } catch(IllegalArgumentException x) {
+            s.getSessionLog().log(6, "Ignoring invalid value for "
+                    + PROPERTY_BATCH_FETCH + ": " + value);
+            return null;
+        }
+    }
+
+    /**
+     * Let a network element collection be read in batches for all source
+     * objects of a query instead of one query per source object (unless
+     * batch reading has already been configured explicitly).
+     */
+    protected void configureBatchFetch(final Session s, final Class c,
+            final DirectCollectionMapping mapping)
+    {
+        if(batchFetchType == null || mapping.shouldUseBatchReading()) {
+            return;
+        }
+
+        s.getSessionLog().log(4, "Using " + batchFetchType + " batch fetching for "
+                + c.getName() + "." + mapping.getAttributeName());
+
+        mapping.setBatchFetchType(batchFetchType);
+
+        if(batchFetchSize > 0) {
+            // only supported by EclipseLink 2.5+
+            try {
+                Method m = mapping.getClass().getMethod("setBatchFetchSize", int.class);
+                m.invoke(mapping, batchFetchSize);
+            } catch(NoSuchMethodException x) {
+                s.getSessionLog().log(4, "Unable to set batch fetch size: "
+                        + "not supported by this EclipseLink version");
+            } catch(Exception x) {
+                s.getSessionLog().logThrowable(6, x);
+            }
+        }
+    }
+
+    private Set<String> getLazyTypes(final Session s) {
+        final String value = getProperty(s, PROPERTY_LAZY);
+        if(value == null || value.length() == 0 || "false".equalsIgnoreCase(value)) {
+            return null;
+        }
+
+        final Set<String> types = new HashSet<String>();
+        if("true".equalsIgnoreCase(value)) {
+            types.add("inet");
+            types.add("cidr");
+            types.add("macaddr");
+            return types;
+        }
+
+        for(String type : value.split(",")) {
+            type = type.trim().toLowerCase(Locale.ENGLISH);
+            if("inet".equals(type) || "cidr".equals(type) || "macaddr".equals(type)) {
+                types.add(type);
+            } else if(type.length() > 0) {
+                s.getSessionLog().log(6, "Ignoring invalid value for "
+                        + PROPERTY_LAZY + ": " + type);
+            }
+        }
+
+        return types.isEmpty() ? null : types;
+    }
+
+    /**
+     * Let a basic network attribute (or network array attribute) be loaded
+     * on first access instead of with its entity (if enabled for its column
+     * type).
+     */
+    protected void configureLazy(final Session s, final Class c,
+            final ClassDescriptor desc, final DirectToFieldMapping mapping)
+    {
+        if(lazyTypes == null || mapping.isLazy()) {
+            return;
+        }
+
+        Converter conv = mapping.getConverter();
+        if(conv instanceof NetworkArrayConverter) {
+            conv = ((NetworkArrayConverter) conv).getElementConverter();
+        }
+
+        final String type = getArrayElementType(conv);
+        if(type == null || !lazyTypes.contains(type)
+                || desc.getPrimaryKeyFields().contains(mapping.getField()))
+        {
+            return;
+        }
+
+        s.getSessionLog().log(4, "Loading " + c.getName() + "."
+                + mapping.getAttributeName() + " lazily");
+
+        mapping.setIsLazy(true);
+        lazyDescriptors.add(desc);
+    }
+
+    /**
+     * Add a cache index for a unique network column (if enabled) and let its
+     * values be compared by value.
+     */
+    protected void configureCacheIndex(final Session s, final Class c,
+            final ClassDescriptor desc, final DirectToFieldMapping mapping)
+    {
+        final DatabaseField f = mapping.getField();
+        if(!cacheIndex || !f.isUnique() || mapping.getConverter() instanceof NetworkArrayConverter
+                || getArrayElementType(mapping.getConverter()) == null
+                || desc.getPrimaryKeyFields().contains(f))
+        {
+            return;
+        }
+
+        // only supported by EclipseLink 2.4+
+        try {
+            Object policy = desc.getClass().getMethod("getCachePolicy").invoke(desc);
+            Method m = policy.getClass().getMethod("addCacheIndex", DatabaseField[].class);
+            m.invoke(policy, (Object) new DatabaseField[] {f});
+        } catch(NoSuchMethodException x) {
+            s.getSessionLog().log(4, "Unable to add cache index: "
+                    + "not supported by this EclipseLink version");
+            return;
+        } catch(Exception x) {
+            s.getSessionLog().logThrowable(6, x);
+            return;
+        }
+
+        s.getSessionLog().log(4, "Adding cache index for " + c.getName()
+                + "." + mapping.getAttributeName());
+
+        cacheIndexes++;
+        mapping.setConverter(new NetworkValueConverter(mapping.getConverter()));
+    }
+
+    /**
+     * Let converters of immutable network values share the instances of this
+     * session (if enabled).
+     */
+    protected void configureCache(final Converter conv) {
+        if(addressCache == null) {
+            return;
+        }
+
+        if(conv instanceof NetworkArrayConverter) {
+            configureCache(((NetworkArrayConverter) conv).getElementConverter());
+        } else if(conv instanceof IPAddressConverter) {
+            ((IPAddressConverter) conv).setCache(addressCache);
+        } else if(conv instanceof IPPrefixConverter) {
+            ((IPPrefixConverter) conv).setCache(prefixCache);
+        } else if(conv instanceof InetAddressConverter) {
+            ((InetAddressConverter) conv).setCache(inetCache);
+        }
+    }
+
     @Override
     public void preLogin(SessionEvent event) {
 		// Iterate over the descriptors
@@ -330,7 +821,27 @@ public class ConverterInitializer implements SessionEventListener {
 
         Session s = event.getSession();
         s.getSessionLog().log(4, "Fixing database descriptor mappings...");
-        
+
+        final int internSize = getIntProperty(s, PROPERTY_INTERN_SIZE);
+        if(internSize > 0) {
+            s.getSessionLog().log(4, "Interning up to " + internSize
+                    + " distinct values per network type");
+
+            addressCache = new NetworkValueCache<IPAddress>(internSize);
+            prefixCache = new NetworkValueCache<IPPrefix>(internSize);
+            inetCache = new NetworkValueCache<InetAddress>(internSize);
+        } else {
+            addressCache = null;
+            prefixCache = null;
+            inetCache = null;
+        }
+
+        batchFetchType = getBatchFetchType(s);
+        batchFetchSize = getIntProperty(s, PROPERTY_BATCH_FETCH_SIZE);
+        lazyTypes = getLazyTypes(s);
+        cacheIndex = Boolean.parseBoolean(getProperty(s, PROPERTY_CACHE_INDEX));
+        cacheIndexes = 0;
+
 		Map<Class, ClassDescriptor> descriptorMap = s.getDescriptors();
 
 		for (Map.Entry<Class, ClassDescriptor> entry : descriptorMap.entrySet()) {
@@ -349,15 +860,6 @@ public class ConverterInitializer implements SessionEventListener {
                 DatabaseField f = null;
                 DatabaseField f2 = null;
 
-                if (mapping.getAttributeAccessor() instanceof MethodAttributeAccessor) {
-                    MethodAttributeAccessor maa = (MethodAttributeAccessor) mapping.getAttributeAccessor();
-                    if(!maa.isWriteOnly()) {
-                        method = maa.getGetMethodName();
-                    } else {
-                        method = maa.getSetMethodName();
-                    }
-                }
-                
                 if (mapping instanceof DirectToFieldMapping) {
 					dfm = (DirectToFieldMapping) mapping;
                     conv = dfm.getConverter();
@@ -376,12 +878,30 @@ public class ConverterInitializer implements SessionEventListener {
                     references.add((ObjectReferenceMapping) mapping);
                     // post-pone references...
                     continue;
+                } else {
+                    // nothing to do for any other mapping...
+                    continue;
+                }
+
+                if (mapping.getAttributeAccessor() instanceof MethodAttributeAccessor) {
+                    MethodAttributeAccessor maa = (MethodAttributeAccessor) mapping.getAttributeAccessor();
+                    if(!maa.isWriteOnly()) {
+                        method = maa.getGetMethodName();
+                    } else {
+                        method = maa.getSetMethodName();
+                    }
                 }
 
                 // only consider mappings that are deemed to produce
                 // byte[] database fields from objects...
                 if(conv != null && conv instanceof SerializedObjectConverter) {
-                    conv = getConverter(cls, attribute, method, false);
+                    Converter array = null;
+                    if(dfm != null) {
+                        // a basic collection goes into an array column...
+                        array = getArrayConverter(cls, attribute, method);
+                    }
+
+                    conv = array != null ? array : getConverter(cls, attribute, method, false);
 				}
 
                 if(conv2 != null && conv2 instanceof SerializedObjectConverter) {
@@ -411,8 +931,48 @@ public class ConverterInitializer implements SessionEventListener {
 
                     dmm.setValueConverter(conv2);
                 }
+
+                if(dfm != null) {
+                    configureCache(dfm.getConverter());
+                    configureLazy(s, cls, desc, dfm);
+                } else if(dcm != null) {
+                    configureCache(dcm.getValueConverter());
+
+                    if(getArrayElementType(dcm.getValueConverter()) != null) {
+                        configureBatchFetch(s, cls, dcm);
+                    }
+                } else if(dmm != null) {
+                    configureCache(dmm.getKeyConverter());
+                    configureCache(dmm.getValueConverter());
+
+                    if(getArrayElementType(dmm.getKeyConverter()) != null
+                            || getArrayElementType(dmm.getValueConverter()) != null)
+                    {
+                        configureBatchFetch(s, cls, dmm);
+                    }
+                }
+
+                if(dfm != null && isNetworkConverter(dfm.getConverter())) {
+                    addNetworkIndex(s, cls, desc, attribute, method, f);
+                }
+
+                if(dfm != null) {
+                    // the converter might get wrapped, so do this last...
+                    configureCacheIndex(s, cls, desc, dfm);
+                }
 			}
 		}
+
+        if(s.getDatasourcePlatform() instanceof ExtendedPostgreSQLPlatform) {
+            // the cache indexes compare the values read from the database...
+            final boolean networkValues = cacheIndexes > 0
+                    || Boolean.parseBoolean(getProperty(s, PROPERTY_NETWORK_VALUES));
+            ((ExtendedPostgreSQLPlatform) s.getDatasourcePlatform()).setNetworkValues(networkValues);
+        }
+
+        // don't keep references to the model classes...
+        members.clear();
+        converters.clear();
     }
 
     @Override
@@ -433,6 +993,11 @@ public class ConverterInitializer implements SessionEventListener {
                         {
                             // set column type to avoid varchar default...
                             source.setSqlType(target.getSqlType());
+
+                            // ...and bind NULL references typed as well...
+                            if(source.getTypeName() == null) {
+                                source.setTypeName(target.getTypeName());
+                            }
                         }
                     }
                 }
@@ -444,6 +1009,15 @@ public class ConverterInitializer implements SessionEventListener {
                 it.remove();
             }
         }
+
+        for(ClassDescriptor desc : lazyDescriptors) {
+            if(!desc.hasFetchGroupManager()) {
+                // lazy basic attributes need a woven class...
+                event.getSession().getSessionLog().log(4, "Loading network attributes of "
+                        + desc.getJavaClass().getName() + " eagerly: class is not woven");
+            }
+        }
+        lazyDescriptors.clear();
     }
 
     public void preLogout(SessionEvent se) {
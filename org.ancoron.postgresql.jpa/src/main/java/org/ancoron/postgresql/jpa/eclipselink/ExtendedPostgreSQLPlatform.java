@@ -17,22 +17,25 @@ package org.ancoron.postgresql.jpa.eclipselink;
 
 import java.io.IOException;
 import java.io.Writer;
-import java.net.InetAddress;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.ancoron.postgresql.jpa.IPNetwork;
-import org.ancoron.postgresql.jpa.IPTarget;
 import org.eclipse.persistence.internal.databaseaccess.Accessor;
 import org.eclipse.persistence.internal.databaseaccess.BindCallCustomParameter;
 import org.eclipse.persistence.internal.databaseaccess.ConnectionCustomizer;
 import org.eclipse.persistence.internal.databaseaccess.FieldTypeDefinition;
 import org.eclipse.persistence.internal.helper.DatabaseField;
+import org.eclipse.persistence.exceptions.ValidationException;
+import org.eclipse.persistence.expressions.ExpressionOperator;
 import org.eclipse.persistence.internal.sessions.AbstractSession;
 import org.eclipse.persistence.platform.database.PostgreSQLPlatform;
 import org.eclipse.persistence.queries.Call;
@@ -42,6 +45,39 @@ import org.postgresql.net.PGmacaddr;
 import org.postgresql.util.PGobject;
 
 /**
+ * PostgreSQL platform with support for the network data types.
+ *
+ * <p>
+ * In addition to the standard PostgreSQL operators the network containment
+ * operators of {@link NetworkOperators} are registered, so expressions using
+ * them are printed as native <tt>&lt;&lt;</tt>, <tt>&lt;&lt;=</tt>,
+ * <tt>&gt;&gt;</tt>, <tt>&gt;&gt;=</tt> and <tt>&amp;&amp;</tt> operators.
+ * </p>
+ *
+ * <p>
+ * Values of <tt>inet</tt>, <tt>cidr</tt> and <tt>macaddr</tt> columns are
+ * read as {@link PGinet}, {@link PGcidr} and {@link PGmacaddr} by default.
+ * If network values are enabled (see {@link #setNetworkValues(boolean)} and
+ * {@link ConverterInitializer#PROPERTY_NETWORK_VALUES}) they are read as
+ * {@link NetworkValue}s holding the column text instead, so they are parsed
+ * exactly once by the converter creating the mapped type (e.g.
+ * {@link IPNetworkConverter}) instead of by the JDBC driver first.
+ * </p>
+ *
+ * <p>
+ * Please note that this also applies to unconverted results then, e.g. the
+ * columns of a native query without a result class: they are returned as
+ * {@link NetworkValue}s, which are plain {@link PGobject}s, and not as
+ * {@link PGinet}, {@link PGcidr} or {@link PGmacaddr} instances. Use
+ * {@link PGobject#getValue()} (or a converter) instead of casting them.
+ * </p>
+ *
+ * <p>
+ * Network parameters (including <tt>NULL</tt> values of network columns) are
+ * always bound with their PostgreSQL type, so all rows of a JDBC batch use
+ * the same parameter types and the server side prepared statement can be
+ * reused instead of being re-planned whenever a value is <tt>NULL</tt>.
+ * </p>
  *
  * @author ancoron
  */
@@ -53,11 +89,26 @@ public class ExtendedPostgreSQLPlatform extends PostgreSQLPlatform {
     static final Class INET = PGinet.class;
     static final Class MACADDR = PGmacaddr.class;
     
-    private static final int TYPE_CIDR = 60001;
-    private static final int TYPE_INET = 60002;
-    private static final int TYPE_MAC = 60003;
-    private static final int TYPE_NET = 60004;
-    private static final int TYPE_IP = 60005;
+    private static final Set<String> NETWORK_TYPES = new HashSet<String>(
+            Arrays.asList("inet", "cidr", "macaddr"));
+
+    private volatile boolean networkValues;
+
+    /**
+     * Check if network columns are read as {@link NetworkValue}s.
+     */
+    public boolean isNetworkValues() {
+        return networkValues;
+    }
+
+    /**
+     * Read network columns as {@link NetworkValue}s instead of letting the
+     * JDBC driver create {@link PGinet}, {@link PGcidr} or {@link PGmacaddr}
+     * instances (the default).
+     */
+    public void setNetworkValues(boolean networkValues) {
+        this.networkValues = networkValues;
+    }
 
     @Override
     protected void appendBoolean(Boolean bool, Writer writer) throws IOException {
@@ -69,91 +120,87 @@ public class ExtendedPostgreSQLPlatform extends PostgreSQLPlatform {
     }
     
     @Override
-    public Object getObjectFromResultSet(ResultSet resultSet, int columnNumber, int type, AbstractSession session) throws SQLException {
-        Object result = super.getObjectFromResultSet(resultSet, columnNumber, type, session);
+    protected void initializePlatformOperators() {
+        super.initializePlatformOperators();
 
-        if(result != null) {
-            if(type == TYPE_CIDR) {
-                convertToCidr(result);
-            } else if(type == TYPE_INET) {
-                convertToInet(result);
-            } else if(type == TYPE_MAC) {
-                convertToMac(result);
-            }
+        for(ExpressionOperator operator : NetworkOperators.getOperators()) {
+            addOperator(operator);
         }
-
-        return result;
     }
 
-    private PGmacaddr convertToMac(Object value) {
-        PGmacaddr mac = null;
-        if(value != null) {
+    @Override
+    public void appendParameter(Call call, Writer writer, Object parameter) {
+        if(parameter instanceof PGobject) {
+            // print network literals typed, e.g. inet '10.0.0.1'...
+            PGobject obj = (PGobject) parameter;
             try {
-                if(value instanceof PGmacaddr) {
-                    mac = (PGmacaddr) value;
-                } else if(value instanceof String) {
-                    mac = new PGmacaddr((String) value);
+                if(obj.getValue() == null) {
+                    writer.write("NULL");
+                } else {
+                    writer.write(obj.getType());
+                    writer.write(" '");
+                    writer.write(obj.getValue().replace("'", "''"));
+                    writer.write("'");
                 }
-            } catch (SQLException ex) {
-                throw new IllegalArgumentException("Unable to convert "
-                        + value.getClass().getName() + " to "
-                        + MACADDR.getName() + ": "
-                        + ex.getMessage(), ex);
+            } catch (IOException ex) {
+                throw ValidationException.fileError(ex);
             }
+        } else {
+            super.appendParameter(call, writer, parameter);
+        }
+    }
+    
+    @Override
+    public void setParameterValueInDatabaseCall(Object parameter,
+            PreparedStatement statement, int index, AbstractSession session)
+            throws SQLException
+    {
+        if(parameter instanceof PGobject) {
+            // let the driver bind the value with the OID of its type...
+            statement.setObject(index, parameter);
+        } else if(parameter instanceof DatabaseField
+                && isNetworkType(((DatabaseField) parameter).getTypeName()))
+        {
+            // a NULL value of a network column, bind it typed as well...
+            PGobject obj = new PGobject();
+            obj.setType(((DatabaseField) parameter).getTypeName());
+            statement.setObject(index, obj);
+        } else {
+            super.setParameterValueInDatabaseCall(parameter, statement, index, session);
         }
-        
-        return mac;
     }
 
-    private PGinet convertToInet(Object value) {
-        PGinet inet = null;
-        if(value != null) {
-            try {
-                if(value instanceof IPTarget) {
-                    inet = (IPTarget) value;
-                } else if(value instanceof PGinet) {
-                    inet = (PGinet) value;
-                } else if(value instanceof PGcidr) {
-                    inet = new PGinet(((PGcidr) value).getValue());
-                } else if(value instanceof String) {
-                    inet = new PGinet((String) value);
-                } else if(value instanceof InetAddress) {
-                    inet = new PGinet(((InetAddress) value).getHostAddress());
-                }
-            } catch (SQLException ex) {
-                throw new IllegalArgumentException("Unable to convert "
-                        + value.getClass().getName() + " to "
-                        + INET.getName() + ": "
-                        + ex.getMessage(), ex);
-            }
+    /**
+     * Check if the given type name is a network type or an array of one.
+     */
+    static boolean isNetworkType(final String typeName) {
+        if(typeName == null) {
+            return false;
+        } else if(typeName.startsWith("_")) {
+            return NETWORK_TYPES.contains(typeName.substring(1));
         }
-        
-        return inet;
+
+        return NETWORK_TYPES.contains(typeName);
     }
-    
-    private PGcidr convertToCidr(Object value) {
-        PGcidr cidr = null;
-        if(value != null) {
-            try {
-                if(value instanceof IPNetwork) {
-                    cidr = (IPNetwork) value;
-                } else if(value instanceof PGcidr) {
-                    cidr = (PGcidr) value;
-                } else if(value instanceof PGinet) {
-                    cidr = new PGcidr(((PGinet) value).getValue());
-                } else if(value instanceof String) {
-                    cidr = new PGcidr((String) value);
-                } else if(value instanceof InetAddress) {
-                    cidr = new PGcidr(((InetAddress) value).getHostAddress());
+
+    @Override
+    public Object getObjectFromResultSet(ResultSet resultSet, int columnNumber, int type, AbstractSession session) throws SQLException {
+        if(networkValues && type == Types.OTHER) {
+            // the driver keeps the meta data (and type names) of a result set...
+            String typeName = resultSet.getMetaData().getColumnTypeName(columnNumber);
+
+            if(NETWORK_TYPES.contains(typeName)) {
+                // don't let the driver parse the value, the converter does...
+                String value = resultSet.getString(columnNumber);
+                if(value == null) {
+                    return null;
                 }
-            } catch (SQLException ex) {
-                throw new IllegalArgumentException("Unable to convert "
-                        + value.getClass().getName() + " to "
-                        + CIDR.getName() + ": "
-                        + ex.getMessage(), ex);
+
+                // ...but let it be compared by value (e.g. as cache key)...
+                return new NetworkValue(typeName, value);
             }
         }
-        
-        return cidr;
+
+        return super.getObjectFromResultSet(resultSet, columnNumber, type, session);
     }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.eclipselink;
+
+import java.sql.SQLException;
+import org.ancoron.postgresql.jpa.IPAddress;
+import org.ancoron.postgresql.jpa.util.NetworkValueCache;
+import org.eclipse.persistence.internal.helper.DatabaseField;
+import org.eclipse.persistence.mappings.DatabaseMapping;
+import org.eclipse.persistence.mappings.DirectCollectionMapping;
+import org.eclipse.persistence.mappings.converters.Converter;
+import org.eclipse.persistence.sessions.Session;
+import org.postgresql.util.PGobject;
+
+/**
+ * Supports mapping of the immutable {@link IPAddress} inside JPA entities.
+ * 
+ * <p>
+ * As the values are immutable this converter reports them as such, so
+ * EclipseLink neither clones them for change tracking nor compares them
+ * deeply at commit time.
+ * </p>
+ * 
+ * <p>
+ * Example usage:
+ * 
+ * <pre>
+ * // ...
+ * import org.ancoron.postgresql.jpa.IPAddress;
+ * import org.ancoron.postgresql.jpa.eclipselink.IPAddressConverter;
+ * 
+ * // ...
+ * 
+ * &#064;Entity
+ * &#064;Converter(name="ipConverter", converterClass=IPAddressConverter.class)
+ * public class NetworkEntity implements Serializable {
+ *     
+ *     // ...
+ * 
+ *     &#064;Convert("ipConverter")
+ *     &#064;Column(name="c_ip")
+ *     private IPAddress ip;
+ * 
+ *     // ...
+ * }
+ * </pre>
+ * </p>
+ *
+ * @author ancoron
+ * 
+ * @see IPAddress
+ */
+public class IPAddressConverter implements Converter {
+
+    private NetworkValueCache<IPAddress> cache;
+
+    /**
+     * Share one instance per distinct database value using the given cache
+     * (e.g. see {@link ConverterInitializer#PROPERTY_INTERN_SIZE}).
+     *
+     * @param cache The cache or <code>null</code> to disable interning
+     */
+    public void setCache(NetworkValueCache<IPAddress> cache) {
+        this.cache = cache;
+    }
+
+    public NetworkValueCache<IPAddress> getCache() {
+        return cache;
+    }
+
+    @Override
+    public PGobject convertObjectValueToDataValue(Object objectValue, Session session) {
+        final IPAddress value;
+        if (objectValue == null) {
+            return null;
+        } else if (objectValue instanceof IPAddress) {
+            value = (IPAddress) objectValue;
+        } else if (objectValue instanceof String) {
+            value = IPAddress.valueOf((String) objectValue);
+        } else {
+            throw new IllegalArgumentException("Unable to convert object value of type "
+                    + objectValue.getClass().getName() + " into a "
+                    + IPAddress.class.getName());
+        }
+
+        try {
+            PGobject obj = new PGobject();
+            obj.setType("inet");
+            obj.setValue(value.getValue());
+            return obj;
+        } catch (SQLException ex) {
+            throw new IllegalArgumentException("Unable to convert an object value", ex);
+        }
+    }
+
+    @Override
+    public IPAddress convertDataValueToObjectValue(Object dataValue, Session session) {
+        if (dataValue == null) {
+            return null;
+        } else if (dataValue instanceof PGobject) {
+            final String value = ((PGobject) dataValue).getValue();
+            final NetworkValueCache<IPAddress> c = cache;
+            if (c == null || value == null) {
+                return IPAddress.valueOf(value);
+            }
+
+            final IPAddress cached = c.get(value);
+            return cached != null ? cached : c.put(value, IPAddress.valueOf(value));
+        }
+
+        throw new IllegalArgumentException("Unable to convert data value of type "
+                + dataValue.getClass().getName() + " into a "
+                + IPAddress.class.getName());
+    }
+
+    @Override
+    public boolean isMutable() {
+        return false;
+    }
+
+    @Override
+    public void initialize(DatabaseMapping mapping, Session session) {
+        final DatabaseField field;
+        if(mapping instanceof DirectCollectionMapping) {
+            // handle @ElementCollection...
+            field = ((DirectCollectionMapping) mapping).getDirectField();
+        } else {
+            field = mapping.getField();
+        }
+
+        field.setSqlType(java.sql.Types.OTHER);
+        field.setTypeName("inet");
+        field.setColumnDefinition("INET");
+    }
+}
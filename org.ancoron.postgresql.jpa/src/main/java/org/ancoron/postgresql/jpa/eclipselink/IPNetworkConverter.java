@@ -19,6 +19,7 @@ import org.ancoron.postgresql.jpa.IPNetwork;
 import org.eclipse.persistence.mappings.converters.Converter;
 import org.eclipse.persistence.sessions.Session;
 import org.postgresql.net.PGcidr;
+import org.postgresql.util.PGobject;
 
 /**
  * Supports mapping of {@link IPNetwork} inside JPA entities
@@ -71,11 +72,13 @@ public class IPNetworkConverter extends PGcidrConverter implements Converter {
         IPNetwork net = null;
         if (dataValue == null) {
             return net;
-        } else {
-            PGcidr cidr = super.convertDataValueToObjectValue(dataValue, session);
-            if(cidr != null) {
-                net = new IPNetwork(cidr);
-            }
+        } else if (dataValue instanceof IPNetwork) {
+            net = (IPNetwork) dataValue;
+        } else if (dataValue instanceof PGcidr) {
+            net = new IPNetwork((PGcidr) dataValue);
+        } else if (dataValue instanceof PGobject) {
+            // parse the column text only once...
+            net = new IPNetwork(((PGobject) dataValue).getValue());
         }
 
         if (net == null) {
@@ -19,6 +19,7 @@ import org.ancoron.postgresql.jpa.IPTarget;
 import org.eclipse.persistence.mappings.converters.Converter;
 import org.eclipse.persistence.sessions.Session;
 import org.postgresql.net.PGinet;
+import org.postgresql.util.PGobject;
 
 /**
  * Supports mapping of {@link IPTarget} inside JPA entities
@@ -71,11 +72,13 @@ public class IPTargetConverter extends PGinetConverter implements Converter {
         IPTarget net = null;
         if (dataValue == null) {
             return net;
-        } else {
-            PGinet inet = super.convertDataValueToObjectValue(dataValue, session);
-            if(inet != null) {
-                net = new IPTarget(inet);
-            }
+        } else if (dataValue instanceof IPTarget) {
+            net = (IPTarget) dataValue;
+        } else if (dataValue instanceof PGinet) {
+            net = new IPTarget((PGinet) dataValue);
+        } else if (dataValue instanceof PGobject) {
+            // parse the column text only once...
+            net = new IPTarget(((PGobject) dataValue).getValue());
         }
 
         if (net == null) {
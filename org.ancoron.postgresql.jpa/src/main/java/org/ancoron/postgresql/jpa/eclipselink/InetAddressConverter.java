@@ -18,6 +18,7 @@ package org.ancoron.postgresql.jpa.eclipselink;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.sql.SQLException;
+import org.ancoron.postgresql.jpa.util.NetworkValueCache;
 import org.eclipse.persistence.internal.helper.DatabaseField;
 import org.eclipse.persistence.mappings.DatabaseMapping;
 import org.eclipse.persistence.mappings.DirectCollectionMapping;
@@ -60,6 +61,22 @@ import org.postgresql.util.PGobject;
  */
 public class InetAddressConverter implements Converter {
 
+    private NetworkValueCache<InetAddress> cache;
+
+    /**
+     * Share one instance per distinct database value using the given cache
+     * (e.g. see {@link ConverterInitializer#PROPERTY_INTERN_SIZE}).
+     *
+     * @param cache The cache or <code>null</code> to disable interning
+     */
+    public void setCache(NetworkValueCache<InetAddress> cache) {
+        this.cache = cache;
+    }
+
+    public NetworkValueCache<InetAddress> getCache() {
+        return cache;
+    }
+
     @Override
     public PGinet convertObjectValueToDataValue(Object objectValue, Session session) {
         if (objectValue == null) {
@@ -90,10 +107,20 @@ public class InetAddressConverter implements Converter {
         if (dataValue == null) {
             return null;
         } else if (dataValue instanceof PGobject) {
-            PGobject net = (PGobject) dataValue;
+            String value = ((PGobject) dataValue).getValue();
+            final NetworkValueCache<InetAddress> c = cache;
+            if (c != null) {
+                final InetAddress cached = c.get(value);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+
             try {
-                String ip = net.getValue().split("/")[0];
-                return InetAddress.getByName(ip);
+                // strip the mask length, a literal address is parsed only...
+                int slash = value.indexOf('/');
+                InetAddress inet = InetAddress.getByName(slash < 0 ? value : value.substring(0, slash));
+                return c == null ? inet : c.put(value, inet);
             } catch (UnknownHostException ex) {
                 throw new IllegalArgumentException("Unable to convert an object value", ex);
             }
@@ -106,7 +133,8 @@ public class InetAddressConverter implements Converter {
 
     @Override
     public boolean isMutable() {
-        return true;
+        // InetAddress instances are immutable...
+        return false;
     }
 
     @Override
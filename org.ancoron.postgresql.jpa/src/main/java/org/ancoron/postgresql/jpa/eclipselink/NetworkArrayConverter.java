@@ -0,0 +1,245 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.eclipselink;
+
+import java.lang.reflect.Array;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import org.eclipse.persistence.internal.helper.DatabaseField;
+import org.eclipse.persistence.mappings.DatabaseMapping;
+import org.eclipse.persistence.mappings.converters.Converter;
+import org.eclipse.persistence.sessions.Session;
+import org.postgresql.util.PGobject;
+
+/**
+ * Supports mapping of collections or arrays of network values to a single
+ * PostgreSQL array column (<tt>inet[]</tt>, <tt>cidr[]</tt> or
+ * <tt>macaddr[]</tt>) of the owning row instead of a separate collection
+ * table.
+ *
+ * <p>
+ * The elements are converted by the converter of the element type, e.g. an
+ * {@link InetAddressConverter} for a <tt>List&lt;InetAddress&gt;</tt>.
+ * The {@link ConverterInitializer} uses this converter automatically for
+ * basic (non-<tt>&#064;ElementCollection</tt>) attributes of such types:
+ *
+ * <pre>
+ * &#064;Basic
+ * &#064;Column(name="c_gateways")
+ * private ArrayList&lt;InetAddress&gt; gateways;
+ *
+ * &#064;Basic
+ * &#064;Column(name="c_routes")
+ * private IPNetwork[] routes;
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * Note that the declared attribute type has to be serializable (e.g.
+ * <tt>ArrayList</tt> instead of <tt>List</tt>) for EclipseLink to accept it
+ * as a basic attribute.
+ * </p>
+ *
+ * @author ancoron
+ */
+public class NetworkArrayConverter implements Converter {
+
+    private final String elementType;
+    private final Converter elementConverter;
+    private final Class containerType;
+
+    /**
+     * Create a new array converter.
+     *
+     * @param elementType The PostgreSQL element type, e.g. <tt>inet</tt>
+     * @param elementConverter The converter for a single element
+     * @param containerType The attribute type (an array, a
+     * <tt>Collection</tt> interface or a concrete collection class)
+     */
+    public NetworkArrayConverter(final String elementType,
+            final Converter elementConverter, final Class containerType)
+    {
+        if(!containerType.isArray() && !Collection.class.isAssignableFrom(containerType)) {
+            throw new IllegalArgumentException("Unsupported container type: "
+                    + containerType.getName());
+        }
+
+        this.elementType = elementType;
+        this.elementConverter = elementConverter;
+        this.containerType = containerType;
+    }
+
+    public String getElementType() {
+        return elementType;
+    }
+
+    public Converter getElementConverter() {
+        return elementConverter;
+    }
+
+    @Override
+    public PGobject convertObjectValueToDataValue(Object objectValue, Session session) {
+        if (objectValue == null) {
+            return null;
+        }
+
+        final StringBuilder sb = new StringBuilder(256).append('{');
+        if (objectValue instanceof Collection) {
+            for (Object item : (Collection) objectValue) {
+                appendElement(sb, item, session);
+            }
+        } else if (objectValue.getClass().isArray()) {
+            for (int i=0, n=Array.getLength(objectValue); i<n; i++) {
+                appendElement(sb, Array.get(objectValue, i), session);
+            }
+        } else {
+            throw new IllegalArgumentException("Unable to convert object value of type "
+                    + objectValue.getClass().getName() + " into a "
+                    + elementType + "[]");
+        }
+
+        if (sb.length() > 1) {
+            // remove the trailing separator...
+            sb.setLength(sb.length() - 1);
+        }
+        sb.append('}');
+
+        try {
+            PGobject obj = new PGobject();
+            obj.setType("_" + elementType);
+            obj.setValue(sb.toString());
+            return obj;
+        } catch (SQLException ex) {
+            throw new IllegalArgumentException("Unable to convert an object value", ex);
+        }
+    }
+
+    private void appendElement(final StringBuilder sb, final Object item, final Session session) {
+        final Object data = elementConverter.convertObjectValueToDataValue(item, session);
+        if (data == null) {
+            sb.append("NULL");
+        } else {
+            // network values never contain characters that must be quoted...
+            sb.append(((PGobject) data).getValue());
+        }
+        sb.append(',');
+    }
+
+    @Override
+    public Object convertDataValueToObjectValue(Object dataValue, Session session) {
+        final String value;
+        if (dataValue == null) {
+            return null;
+        } else if (dataValue instanceof PGobject) {
+            value = ((PGobject) dataValue).getValue();
+        } else if (dataValue instanceof java.sql.Array || dataValue instanceof String) {
+            // the driver returns the array literal as string representation...
+            value = dataValue.toString();
+        } else {
+            throw new IllegalArgumentException("Unable to convert data value of type "
+                    + dataValue.getClass().getName() + " into a "
+                    + containerType.getName());
+        }
+
+        final List<Object> items = new ArrayList<Object>();
+        final int end = value.length() - 1;
+        if (end < 1 || value.charAt(0) != '{' || value.charAt(end) != '}') {
+            throw new IllegalArgumentException("Invalid " + elementType
+                    + " array: " + value);
+        }
+
+        try {
+            int start = 1;
+            while (start < end) {
+                int comma = value.indexOf(',', start);
+                if (comma < 0 || comma > end) {
+                    comma = end;
+                }
+
+                String item = value.substring(start, comma).trim();
+                if (item.equalsIgnoreCase("NULL")) {
+                    items.add(null);
+                } else {
+                    if (item.length() > 1 && item.charAt(0) == '"') {
+                        item = item.substring(1, item.length() - 1);
+                    }
+
+                    PGobject obj = new PGobject();
+                    obj.setType(elementType);
+                    obj.setValue(item);
+                    items.add(elementConverter.convertDataValueToObjectValue(obj, session));
+                }
+
+                start = comma + 1;
+            }
+        } catch (SQLException ex) {
+            throw new IllegalArgumentException("Unable to convert a data value", ex);
+        }
+
+        return toContainer(items);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object toContainer(final List<Object> items) {
+        if (containerType.isArray()) {
+            final Object array = Array.newInstance(containerType.getComponentType(), items.size());
+            for (int i=0; i<items.size(); i++) {
+                Array.set(array, i, items.get(i));
+            }
+            return array;
+        } else if (containerType.isInterface()) {
+            if (SortedSet.class.isAssignableFrom(containerType)) {
+                return new TreeSet<Object>(items);
+            } else if (Set.class.isAssignableFrom(containerType)) {
+                return new LinkedHashSet<Object>(items);
+            }
+            return items;
+        }
+
+        try {
+            Collection<Object> c = (Collection<Object>) containerType.newInstance();
+            c.addAll(items);
+            return c;
+        } catch (InstantiationException ex) {
+            throw new IllegalStateException("Unable to create a "
+                    + containerType.getName(), ex);
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException("Unable to create a "
+                    + containerType.getName(), ex);
+        }
+    }
+
+    @Override
+    public boolean isMutable() {
+        return true;
+    }
+
+    @Override
+    public void initialize(DatabaseMapping mapping, Session session) {
+        final DatabaseField field = mapping.getField();
+
+        field.setSqlType(java.sql.Types.OTHER);
+        field.setTypeName("_" + elementType);
+        field.setColumnDefinition(elementType.toUpperCase(Locale.ENGLISH) + "[]");
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.eclipselink;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.ancoron.postgresql.jpa.IPAddress;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPPrefix;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.ancoron.postgresql.jpa.util.PrefixIndex;
+import org.eclipse.persistence.descriptors.ClassDescriptor;
+import org.eclipse.persistence.descriptors.DescriptorEvent;
+import org.eclipse.persistence.descriptors.DescriptorEventAdapter;
+import org.eclipse.persistence.mappings.DatabaseMapping;
+import org.eclipse.persistence.queries.DatabaseQuery;
+import org.eclipse.persistence.queries.QueryRedirector;
+import org.eclipse.persistence.sessions.Record;
+import org.eclipse.persistence.sessions.Session;
+import org.eclipse.persistence.sessions.SessionEvent;
+import org.eclipse.persistence.sessions.SessionEventAdapter;
+import org.eclipse.persistence.sessions.UnitOfWork;
+import org.postgresql.util.PGobject;
+
+/**
+ * In-memory containment index of all entities of a read-mostly table of
+ * networks (e.g. customer allocations, GeoIP blocks or ACLs), answering
+ * "which rows contain address X" (<tt>network &gt;&gt;= :ip</tt>) without a
+ * database round trip.
+ *
+ * <p>
+ * All entities are read once (through the shared cache) and indexed by
+ * their network attribute (an {@link IPNetwork} or {@link IPPrefix}). The
+ * index is dropped and rebuilt by the next lookup (by a single thread, the
+ * others wait for it) after
+ * <ul>
+ * <li>a write of an entity of the type through this session,</li>
+ * <li>a bulk <tt>UPDATE</tt> or <tt>DELETE</tt> query of the type or</li>
+ * <li>a native modify query mentioning the table of the type.</li>
+ * </ul>
+ * Changes made by other applications (or native queries not mentioning the
+ * table, e.g. of a trigger) are only seen after {@link #invalidate()} or when
+ * the index expires (see {@link #setTimeToLive(long)}). Until an expired
+ * index has been rebuilt, other threads keep using it.
+ * </p>
+ *
+ * <p>
+ * The cache can answer a named query as a query redirector, so the
+ * application code doesn't have to change. The query should have the same
+ * meaning in the database, so the results don't depend on whether the cache
+ * is installed, e.g. a native query ordered like the results of the cache:
+ * <pre>
+ * &#064;NamedNativeQuery(name="Allocation.containing",
+ *         query="SELECT * FROM allocation WHERE network &gt;&gt;= ?1 ORDER BY masklen(network)",
+ *         resultClass=Allocation.class)
+ *
+ * Session session = JpaHelper.getServerSession(emf);
+ * NetworkContainmentCache&lt;Allocation&gt; cache = new NetworkContainmentCache&lt;Allocation&gt;(
+ *         session, Allocation.class, "network");
+ * cache.install("Allocation.containing");
+ * </pre>
+ * A query for a single result gets the entity with the most specific
+ * network. Inside a unit of work (e.g. an <tt>EntityManager</tt>) the
+ * results are registered as usual. Otherwise (e.g. by
+ * {@link #getContaining(Object)}) the shared instances are returned, which
+ * must not be modified.
+ * </p>
+ *
+ * @param <T> The entity type
+ *
+ * @author ancoron
+ *
+ * @see PrefixIndex
+ */
+public class NetworkContainmentCache<T> implements QueryRedirector {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The index of a single load of all entities.
+     */
+    private static final class Index<T> {
+
+        private final PrefixIndex<T> prefixes;
+        private final long expires;
+
+        private Index(final PrefixIndex<T> prefixes, final long expires) {
+            this.prefixes = prefixes;
+            this.expires = expires;
+        }
+    }
+
+    private final transient Session session;
+    private final Class<T> type;
+    private final DatabaseMapping mapping;
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicBoolean written = new AtomicBoolean();
+    private final AtomicLong loads = new AtomicLong();
+    private final List<String> tables = new ArrayList<String>();
+    private final ReentrantLock rebuild = new ReentrantLock();
+
+    private volatile transient Index<T> index;
+    private volatile long timeToLive = 0;
+    private String parameter;
+
+    /**
+     * Create a new cache.
+     *
+     * @param session The (server) session
+     * @param type The entity type
+     * @param attribute The network attribute of the entity
+     */
+    public NetworkContainmentCache(final Session session, final Class<T> type,
+            final String attribute)
+    {
+        final ClassDescriptor descriptor = session.getDescriptor(type);
+        if(descriptor == null) {
+            throw new IllegalArgumentException("Not an entity: " + type.getName());
+        }
+
+        this.mapping = descriptor.getMappingForAttributeName(attribute);
+        if(mapping == null) {
+            throw new IllegalArgumentException("Unknown attribute "
+                    + type.getName() + "." + attribute);
+        }
+
+        this.session = session;
+        this.type = type;
+
+        // the unqualified table names, for native modify queries...
+        for(Object table : descriptor.getTableNames()) {
+            String name = table.toString().replace("\"", "").toLowerCase(Locale.ENGLISH);
+            tables.add(name.substring(name.lastIndexOf('.') + 1));
+        }
+
+        descriptor.getEventManager().addListener(new DescriptorEventAdapter() {
+
+            @Override
+            public void postWrite(DescriptorEvent event) {
+                written();
+            }
+
+            @Override
+            public void postDelete(DescriptorEvent event) {
+                written();
+            }
+        });
+
+        session.getEventManager().addListener(new SessionEventAdapter() {
+
+            @Override
+            public void postCommitUnitOfWork(SessionEvent event) {
+                committed();
+            }
+
+            @Override
+            public void postRollbackUnitOfWork(SessionEvent event) {
+                committed();
+            }
+
+            @Override
+            public void postExecuteQuery(SessionEvent event) {
+                if(isModifying(event.getQuery())) {
+                    written();
+                }
+            }
+        });
+    }
+
+    /**
+     * Check if the given query may have changed entities of the type without
+     * any descriptor event (bulk or native modify queries).
+     */
+    private boolean isModifying(final DatabaseQuery query) {
+        if(query == null) {
+            return false;
+        } else if(query.isModifyAllQuery()) {
+            final Class c = query.getReferenceClass();
+            return c == null || c.isAssignableFrom(type) || type.isAssignableFrom(c);
+        } else if(query.isDataModifyQuery()) {
+            final String sql = query.getSQLString();
+            if(sql == null) {
+                return true;
+            }
+
+            final String lower = sql.toLowerCase(Locale.ENGLISH);
+            for(String table : tables) {
+                if(lower.contains(table)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private void written() {
+        written.set(true);
+        invalidate();
+    }
+
+    private void committed() {
+        // drop an index built in between from the old data as well...
+        if(written.getAndSet(false)) {
+            invalidate();
+        }
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Rebuild the index after the given time to catch up with changes made
+     * by other applications.
+     *
+     * @param timeToLive The maximum age of the index in milliseconds (or
+     * <tt>0</tt> to keep it until the next write)
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public String getParameter() {
+        return parameter;
+    }
+
+    /**
+     * Set the name of the query parameter holding the address when used as a
+     * query redirector (the first parameter is used if not set).
+     */
+    public void setParameter(String parameter) {
+        this.parameter = parameter;
+    }
+
+    /**
+     * Answer the given named query from this cache.
+     *
+     * @param queryName The name of a query of the entity type with a single
+     * address parameter
+     */
+    public void install(final String queryName) {
+        final DatabaseQuery query = session.getQuery(queryName);
+        if(query == null) {
+            throw new IllegalArgumentException("Unknown query " + queryName);
+        }
+        query.setRedirector(this);
+    }
+
+    /**
+     * Drop the index, so it's rebuilt by the next lookup.
+     */
+    public synchronized void invalidate() {
+        generation.incrementAndGet();
+        index = null;
+    }
+
+    /**
+     * Get the number of times all entities have been loaded.
+     */
+    public long getLoads() {
+        return loads.get();
+    }
+
+    private static boolean isValid(final Index<?> index) {
+        return index != null && (index.expires == 0
+                || index.expires > System.currentTimeMillis());
+    }
+
+    private PrefixIndex<T> getIndex() {
+        final Index<T> current = index;
+        if(isValid(current)) {
+            return current.prefixes;
+        }
+
+        if(current != null) {
+            // expired: keep using it while another thread rebuilds it...
+            if(!rebuild.tryLock()) {
+                return current.prefixes;
+            }
+        } else {
+            // invalidated: wait for the thread rebuilding it...
+            rebuild.lock();
+        }
+
+        try {
+            final Index<T> built = index;
+            if(isValid(built)) {
+                return built.prefixes;
+            }
+
+            return load();
+        } finally {
+            rebuild.unlock();
+        }
+    }
+
+    private PrefixIndex<T> load() {
+        final long gen = generation.get();
+        final PrefixIndex<T> prefixes = new PrefixIndex<T>();
+
+        loads.incrementAndGet();
+        for(Object o : (Collection) session.readAllObjects(type)) {
+            final Object value = mapping.getAttributeValueFromObject(o);
+            if(value instanceof IPNetwork && ((IPNetwork) value).getAddr() != null) {
+                prefixes.put((IPNetwork) value, type.cast(o));
+            } else if(value instanceof IPPrefix) {
+                final IPPrefix p = (IPPrefix) value;
+                prefixes.put(p.getAddress(), p.getNetmask(), type.cast(o));
+            }
+        }
+
+        final long ttl = timeToLive;
+        synchronized(this) {
+            // don't publish an index of data changed while loading...
+            if(generation.get() == gen) {
+                index = new Index<T>(prefixes, ttl > 0 ? System.currentTimeMillis() + ttl : 0);
+            }
+        }
+
+        return prefixes;
+    }
+
+    /**
+     * Get all entities whose network contains the given address or network.
+     *
+     * @param value The address or network, e.g. an {@link IPTarget},
+     * {@link IPAddress}, <tt>InetAddress</tt>, {@link IPNetwork} or its
+     * textual representation
+     *
+     * @return the (shared) entities ordered from the least to the most
+     * specific network
+     */
+    public List<T> getContaining(final Object value) {
+        if(value == null) {
+            return Collections.emptyList();
+        }
+
+        final PrefixIndex<T> prefixes = getIndex();
+
+        if(value instanceof IPTarget) {
+            return prefixes.getContaining((IPTarget) value);
+        } else if(value instanceof IPNetwork) {
+            return prefixes.getContaining((IPNetwork) value);
+        } else if(value instanceof IPAddress) {
+            final byte[] addr = ((IPAddress) value).getAddress();
+            return prefixes.getContaining(addr, addr.length * 8);
+        } else if(value instanceof IPPrefix) {
+            final IPPrefix p = (IPPrefix) value;
+            return prefixes.getContaining(p.getAddress(), p.getNetmask());
+        } else if(value instanceof InetAddress) {
+            final byte[] addr = ((InetAddress) value).getAddress();
+            return prefixes.getContaining(addr, addr.length * 8);
+        } else if(value instanceof PGobject && "cidr".equals(((PGobject) value).getType())) {
+            return getContaining(IPPrefix.valueOf(((PGobject) value).getValue()));
+        } else if(value instanceof PGobject) {
+            return getContaining(IPAddress.valueOf(((PGobject) value).getValue()));
+        } else if(value instanceof String) {
+            return getContaining(IPAddress.valueOf((String) value));
+        }
+
+        throw new IllegalArgumentException("Unable to look up a value of type "
+                + value.getClass().getName());
+    }
+
+    /**
+     * Get the entity with the most specific network containing the given
+     * address or network.
+     *
+     * @return the (shared) entity or <code>null</code> if no network contains
+     * the value
+     */
+    public T getMostSpecific(final Object value) {
+        final List<T> result = getContaining(value);
+        return result.isEmpty() ? null : result.get(result.size() - 1);
+    }
+
+    @Override
+    public Object invokeQuery(DatabaseQuery query, Record arguments, Session session) {
+        Object value = null;
+        if(parameter != null) {
+            value = arguments.get(parameter);
+        } else if(!arguments.isEmpty()) {
+            value = arguments.values().iterator().next();
+        }
+
+        if(query.isReadObjectQuery()) {
+            final T result = getMostSpecific(value);
+            if(result != null && session.isUnitOfWork()) {
+                return ((UnitOfWork) session).registerObject(result);
+            }
+            return result;
+        }
+
+        final List<T> result = getContaining(value);
+        if(session.isUnitOfWork()) {
+            return ((UnitOfWork) session).registerAllObjects(result);
+        }
+
+        return new Vector<T>(result);
+    }
+}
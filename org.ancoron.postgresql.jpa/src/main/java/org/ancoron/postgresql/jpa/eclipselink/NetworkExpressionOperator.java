@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.eclipselink;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import org.ancoron.postgresql.jpa.IPAddress;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPPrefix;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.ancoron.postgresql.jpa.NetworkRelations;
+import org.eclipse.persistence.expressions.ExpressionOperator;
+import org.eclipse.persistence.internal.expressions.RelationExpression;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+
+import static org.ancoron.postgresql.jpa.eclipselink.NetworkOperators.*;
+
+/**
+ * A network containment relation operator which is also able to evaluate
+ * itself in memory, e.g. for conforming queries in a unit of work or for
+ * queries checking the cache first.
+ *
+ * <p>
+ * In-memory evaluation supports {@link IPNetwork}, {@link IPTarget},
+ * {@link IPPrefix}, {@link IPAddress}, {@link PGcidr}, {@link PGinet},
+ * {@link InetAddress} and {@link String} values on both sides. For
+ * {@link IPNetwork}, {@link IPTarget}, {@link IPPrefix} and {@link IPAddress}
+ * values the raw address bytes are compared directly without allocating
+ * anything (see {@link NetworkRelations}).
+ * </p>
+ *
+ * @author ancoron
+ */
+class NetworkExpressionOperator extends ExpressionOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    NetworkExpressionOperator(int selector, String operator) {
+        super();
+        setSelector(selector);
+        setType(ComparisonOperator);
+        printsAs(" " + operator + " ");
+        bePostfix();
+        setNodeClass(RelationExpression.class);
+    }
+
+    @Override
+    public boolean doesRelationConform(Object left, Object right) {
+        if(left instanceof Collection) {
+            // anyOf()...
+            for(Object item : (Collection) left) {
+                if(doesRelationConform(item, right)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // like in SQL a comparison with NULL never matches...
+        if(left == null || right == null) {
+            return false;
+        }
+
+        left = normalize(left);
+        right = normalize(right);
+
+        switch(getSelector()) {
+            case CONTAINED_BY:
+                return NetworkRelations.contains(right, left, false);
+            case CONTAINED_BY_OR_EQUALS:
+                return NetworkRelations.contains(right, left, true);
+            case CONTAINS:
+                return NetworkRelations.contains(left, right, false);
+            case CONTAINS_OR_EQUALS:
+                return NetworkRelations.contains(left, right, true);
+            case OVERLAPS:
+                return NetworkRelations.overlaps(left, right);
+            default:
+                return super.doesRelationConform(left, right);
+        }
+    }
+
+    /**
+     * Convert values without direct access to the raw address.
+     */
+    private static Object normalize(Object value) {
+        if(value instanceof IPTarget || value instanceof IPNetwork
+                || value instanceof IPAddress || value instanceof IPPrefix
+                || value instanceof InetAddress)
+        {
+            return value;
+        } else if(value instanceof PGcidr) {
+            return new IPNetwork((PGcidr) value);
+        } else if(value instanceof PGinet) {
+            return new IPTarget((PGinet) value);
+        } else if(value instanceof String) {
+            return new IPTarget((String) value);
+        }
+
+        throw new IllegalArgumentException("Unable to compare network with "
+                + value.getClass().getName());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.eclipselink;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Requests a GiST or SP-GiST index for a network column during DDL
+ * generation, so containment lookups (e.g. using {@link NetworkOperators})
+ * don't result in sequential scans.
+ *
+ * <p>
+ * The index is created by the {@link ConverterInitializer} for attributes
+ * of type {@link org.ancoron.postgresql.jpa.IPNetwork},
+ * {@link org.ancoron.postgresql.jpa.IPTarget},
+ * {@link org.ancoron.postgresql.jpa.IPPrefix},
+ * {@link org.ancoron.postgresql.jpa.IPAddress},
+ * {@link java.net.InetAddress}, {@link org.postgresql.net.PGinet} or
+ * {@link org.postgresql.net.PGcidr}:
+ * <pre>
+ * &#064;Entity
+ * public class NetworkEntity implements Serializable {
+ *
+ *     &#064;Column(name="c_network")
+ *     &#064;NetworkIndex(type=NetworkIndex.Type.SPGIST)
+ *     private IPNetwork network;
+ *
+ *     // ...
+ * }
+ * </pre>
+ * ...results in:
+ * <pre>
+ * CREATE INDEX "idx_network_entity_c_network" ON network_entity USING spgist (c_network inet_ops)
+ * </pre>
+ * </p>
+ *
+ * @author ancoron
+ */
+@Target({ElementType.FIELD, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface NetworkIndex {
+
+    /**
+     * The index access method.
+     */
+    enum Type {
+        /** GiST (requires PostgreSQL 9.4+) */
+        GIST("gist"),
+        /** SP-GiST (requires PostgreSQL 10+) */
+        SPGIST("spgist");
+
+        private final String method;
+
+        private Type(String method) {
+            this.method = method;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+    }
+
+    /**
+     * The name of the index (defaults to <tt>idx_&lt;table&gt;_&lt;column&gt;</tt>,
+     * shortened with a hash suffix if longer than 63 bytes). The name is
+     * quoted, so it is case-sensitive.
+     *
+     * @see NetworkIndexDefinition#getDefaultName(String, String)
+     */
+    String name() default "";
+
+    /**
+     * The index access method.
+     */
+    Type type() default Type.GIST;
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.eclipselink;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import org.eclipse.persistence.exceptions.ValidationException;
+import org.eclipse.persistence.internal.databaseaccess.DatasourcePlatform;
+import org.eclipse.persistence.internal.sessions.AbstractSession;
+import org.eclipse.persistence.tools.schemaframework.IndexDefinition;
+
+/**
+ * Index definition for a single network column using the <tt>inet_ops</tt>
+ * operator class of GiST or SP-GiST.
+ *
+ * <p>
+ * The index name is always written as a quoted identifier, created in the
+ * schema of its table. Generated names (see
+ * {@link #getDefaultName(String, String)}) never exceed the identifier length
+ * of PostgreSQL, so they are never truncated by the server.
+ * </p>
+ *
+ * @author ancoron
+ *
+ * @see NetworkIndex
+ */
+public class NetworkIndexDefinition extends IndexDefinition {
+
+    /**
+     * The maximum length of an identifier in bytes (<tt>NAMEDATALEN - 1</tt>).
+     */
+    public static final int MAX_NAME_LENGTH = 63;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String table;
+    private final String column;
+    private final NetworkIndex.Type type;
+    private String schema;
+
+    /**
+     * Create a new index definition.
+     *
+     * @param name The (unquoted) name of the index
+     * @param table The table as used in SQL (qualified and quoted as needed)
+     * @param column The column as used in SQL (quoted as needed)
+     * @param type The index type
+     */
+    public NetworkIndexDefinition(String name, String table, String column, NetworkIndex.Type type) {
+        super();
+        setName(name);
+        setTargetTable(table);
+        addField(column);
+        this.table = table;
+        this.column = column;
+        this.type = type;
+    }
+
+    public NetworkIndex.Type getType() {
+        return type;
+    }
+
+    public String getSchema() {
+        return schema;
+    }
+
+    /**
+     * Set the schema of the table (as used in SQL) the index lives in, which
+     * is needed to drop it.
+     */
+    public void setSchema(String schema) {
+        this.schema = schema;
+    }
+
+    /**
+     * Get the generated name of the index of a column.
+     *
+     * <p>
+     * The name is built from the unqualified table and column names. If it
+     * exceeds {@link #MAX_NAME_LENGTH} bytes, it is shortened and a hash of
+     * the full name is appended, so different long names stay distinct.
+     * </p>
+     *
+     * @param table The unquoted table name (a schema is stripped)
+     * @param column The unquoted column name
+     *
+     * @return the (unquoted) index name
+     */
+    public static String getDefaultName(String table, String column) {
+        table = table.substring(table.lastIndexOf('.') + 1).replace("\"", "");
+        column = column.replace("\"", "");
+
+        final String name = "idx_" + table + "_" + column;
+        if(name.getBytes(UTF8).length <= MAX_NAME_LENGTH) {
+            return name;
+        }
+
+        final String hash = String.format("_%08x", name.hashCode());
+        String prefix = name;
+        while(prefix.getBytes(UTF8).length + hash.length() > MAX_NAME_LENGTH) {
+            prefix = prefix.substring(0, prefix.length() - 1);
+        }
+        return prefix + hash;
+    }
+
+    private String quote(final AbstractSession session, final String name) {
+        final DatasourcePlatform platform = session.getDatasourcePlatform();
+        return platform.getStartDelimiter() + name + platform.getEndDelimiter();
+    }
+
+    @Override
+    public Writer buildCreationWriter(AbstractSession session, Writer writer) throws ValidationException {
+        try {
+            writer.write("CREATE INDEX ");
+            writer.write(quote(session, getName()));
+            writer.write(" ON ");
+            writer.write(table);
+            writer.write(" USING ");
+            writer.write(type.getMethod());
+            writer.write(" (");
+            writer.write(column);
+            writer.write(" inet_ops)");
+        } catch (IOException ex) {
+            throw ValidationException.fileError(ex);
+        }
+        return writer;
+    }
+
+    @Override
+    public Writer buildDeletionWriter(AbstractSession session, Writer writer) throws ValidationException {
+        try {
+            writer.write("DROP INDEX IF EXISTS ");
+            if(schema != null && schema.length() > 0) {
+                writer.write(schema);
+                writer.write(".");
+            }
+            writer.write(quote(session, getName()));
+        } catch (IOException ex) {
+            throw ValidationException.fileError(ex);
+        }
+        return writer;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.eclipselink;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.eclipse.persistence.expressions.Expression;
+import org.eclipse.persistence.expressions.ExpressionOperator;
+
+/**
+ * EclipseLink expression operators for the PostgreSQL network containment
+ * operators on <tt>inet</tt> and <tt>cidr</tt> columns.
+ *
+ * <p>
+ * The operators are printed as the native PostgreSQL operators, so the
+ * resulting statements are able to use GiST/SP-GiST indexes on the network
+ * columns and there is no need for hand-written native queries anymore:
+ * <pre>
+ * ExpressionBuilder b = new ExpressionBuilder();
+ * Expression where = NetworkOperators.containsOrEquals(
+ *         b.get("network"), b.getParameter("ip"));
+ * Query q = JpaHelper.getEntityManager(em).createQuery(where, NetworkEntity.class);
+ * q.setParameter("ip", new IPTarget("10.10.1.6"));
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * The operators are also evaluated in memory, so they can be used with
+ * conforming queries inside a unit of work or when checking the cache first
+ * (e.g. <tt>CheckCacheThenDatabase</tt>), which allows read-mostly lookups
+ * to be answered without any database round trip.
+ * </p>
+ *
+ * <p>
+ * With EclipseLink 2.4+ the operators are also registered by name, so they
+ * can be used from JPQL directly, e.g.:
+ * <pre>
+ * SELECT e FROM NetworkEntity e WHERE OPERATOR('InetContainsOrEquals', e.network, :ip) = TRUE
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * Please note that the overlap operator <tt>&amp;&amp;</tt> requires
+ * PostgreSQL 9.4+.
+ * </p>
+ *
+ * @author ancoron
+ */
+public final class NetworkOperators {
+
+    private static final String CLASSNAME = "NetworkOperators";
+    private static final Logger log = Logger.getLogger(NetworkOperators.class.getName());
+
+    /** <tt>&lt;&lt;</tt>: is contained by */
+    public static final int CONTAINED_BY = 60101;
+
+    /** <tt>&lt;&lt;=</tt>: is contained by or equals */
+    public static final int CONTAINED_BY_OR_EQUALS = 60102;
+
+    /** <tt>&gt;&gt;</tt>: contains */
+    public static final int CONTAINS = 60103;
+
+    /** <tt>&gt;&gt;=</tt>: contains or equals */
+    public static final int CONTAINS_OR_EQUALS = 60104;
+
+    /** <tt>&amp;&amp;</tt>: contains or is contained by */
+    public static final int OVERLAPS = 60105;
+
+    private static final List<ExpressionOperator> operators;
+
+    static {
+        List<ExpressionOperator> list = new ArrayList<ExpressionOperator>(5);
+        list.add(create(CONTAINED_BY, "InetContainedBy", "<<"));
+        list.add(create(CONTAINED_BY_OR_EQUALS, "InetContainedByOrEquals", "<<="));
+        list.add(create(CONTAINS, "InetContains", ">>"));
+        list.add(create(CONTAINS_OR_EQUALS, "InetContainsOrEquals", ">>="));
+        list.add(create(OVERLAPS, "InetOverlaps", "&&"));
+        operators = Collections.unmodifiableList(list);
+    }
+
+    private NetworkOperators() {
+    }
+
+    private static ExpressionOperator create(int selector, String name, String op) {
+        ExpressionOperator operator = new NetworkExpressionOperator(selector, op);
+
+        // make it available for Expression.getOperator(int)...
+        ExpressionOperator.addOperator(operator);
+
+        // ...and by name for JPQL OPERATOR() if supported (EclipseLink 2.4+)
+        try {
+            Method m = ExpressionOperator.class.getMethod("registerOperator",
+                    int.class, String.class);
+            m.invoke(null, selector, name);
+        } catch(NoSuchMethodException x) {
+            log.logp(Level.FINE, CLASSNAME, "create",
+                    "Unable to register operator {0} by name: not supported by this EclipseLink version",
+                    name);
+        } catch(Exception x) {
+            log.logp(Level.WARNING, CLASSNAME, "create",
+                    "Unable to register operator " + name + " by name", x);
+        }
+
+        return operator;
+    }
+
+    /**
+     * Get all network operators (e.g. to register them with a platform).
+     *
+     * @return the operators
+     */
+    public static List<ExpressionOperator> getOperators() {
+        return operators;
+    }
+
+    /**
+     * Get the operator for the given selector.
+     *
+     * @param selector The selector (e.g. {@link #CONTAINS})
+     *
+     * @return the operator or <code>null</code> if the selector is not one
+     * of the network operators
+     */
+    public static ExpressionOperator getOperator(int selector) {
+        for(ExpressionOperator operator : operators) {
+            if(operator.getSelector() == selector) {
+                return operator;
+            }
+        }
+        return null;
+    }
+
+    private static Expression create(int selector, Expression network, Object value) {
+        return getOperator(selector).expressionFor(network, value);
+    }
+
+    /**
+     * <tt>network &lt;&lt; value</tt>
+     */
+    public static Expression containedBy(Expression network, Object value) {
+        return create(CONTAINED_BY, network, value);
+    }
+
+    /**
+     * <tt>network &lt;&lt;= value</tt>
+     */
+    public static Expression containedByOrEquals(Expression network, Object value) {
+        return create(CONTAINED_BY_OR_EQUALS, network, value);
+    }
+
+    /**
+     * <tt>network &gt;&gt; value</tt>
+     */
+    public static Expression contains(Expression network, Object value) {
+        return create(CONTAINS, network, value);
+    }
+
+    /**
+     * <tt>network &gt;&gt;= value</tt>
+     */
+    public static Expression containsOrEquals(Expression network, Object value) {
+        return create(CONTAINS_OR_EQUALS, network, value);
+    }
+
+    /**
+     * <tt>network &amp;&amp; value</tt>
+     */
+    public static Expression overlaps(Expression network, Object value) {
+        return create(OVERLAPS, network, value);
+    }
+}
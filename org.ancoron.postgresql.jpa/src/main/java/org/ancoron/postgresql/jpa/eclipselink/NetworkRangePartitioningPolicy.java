@@ -0,0 +1,277 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.eclipselink;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.ancoron.postgresql.jpa.util.AddressRange;
+import org.eclipse.persistence.descriptors.ClassDescriptor;
+import org.eclipse.persistence.descriptors.partitioning.PartitioningPolicy;
+import org.eclipse.persistence.internal.databaseaccess.Accessor;
+import org.eclipse.persistence.internal.helper.DatabaseField;
+import org.eclipse.persistence.internal.sessions.AbstractRecord;
+import org.eclipse.persistence.internal.sessions.AbstractSession;
+import org.eclipse.persistence.mappings.DatabaseMapping;
+import org.eclipse.persistence.queries.DatabaseQuery;
+
+/**
+ * EclipseLink partitioning policy routing entities to connection pools by the
+ * address ranges of a network column (<tt>inet</tt> or <tt>cidr</tt>).
+ *
+ * <p>
+ * Each connection pool is assigned one or more address ranges, e.g. the
+ * bounds of an {@link IPNetwork}. A new entity is written to the pool whose
+ * range contains the value of its network attribute. A query is only sent to
+ * the pools whose ranges overlap the network values of its arguments for the
+ * partition column or the additional parameters (see
+ * {@link #addParameter(String)}), so containment queries like
+ * <tt>network &lt;&lt;= :net</tt> only scan the relevant partitions:
+ * <pre>
+ * public class FlowCustomizer implements DescriptorCustomizer {
+ *     public void customize(ClassDescriptor descriptor) {
+ *         NetworkRangePartitioningPolicy policy = new NetworkRangePartitioningPolicy("c_source");
+ *         policy.addPartition("node1", new IPNetwork("0.0.0.0/1"));
+ *         policy.addPartition("node2", new IPNetwork("128.0.0.0/1"));
+ *         policy.addPartition("node3", new IPNetwork("::/0"));
+ *         policy.addParameter("net");
+ *         descriptor.setPartitioningPolicy(policy);
+ *     }
+ * }
+ * </pre>
+ * The connection pools have to be configured as usual (e.g. using the
+ * <tt>eclipselink.connection-pool.node1.url</tt> persistence unit
+ * properties).
+ * </p>
+ *
+ * <p>
+ * Queries without any network argument are sent to all partitions if
+ * {@link #setUnionUnpartitionableQueries(boolean)} is enabled, otherwise to
+ * the default connection pool.
+ * </p>
+ *
+ * @author ancoron
+ *
+ * @see AddressRange
+ */
+public class NetworkRangePartitioningPolicy extends PartitioningPolicy {
+
+    private final Map<AddressRange, String> partitions = new LinkedHashMap<AddressRange, String>();
+    private final List<DatabaseField> parameters = new ArrayList<DatabaseField>();
+    private DatabaseField partitionField;
+    private boolean unionUnpartitionableQueries = false;
+
+    public NetworkRangePartitioningPolicy() {
+        super();
+    }
+
+    /**
+     * Create a new policy.
+     *
+     * @param partitionField The name of the network column
+     */
+    public NetworkRangePartitioningPolicy(final String partitionField) {
+        this();
+        setPartitionField(partitionField);
+    }
+
+    public String getPartitionField() {
+        return partitionField == null ? null : partitionField.getName();
+    }
+
+    public void setPartitionField(final String partitionField) {
+        this.partitionField = new DatabaseField(partitionField);
+    }
+
+    public boolean isUnionUnpartitionableQueries() {
+        return unionUnpartitionableQueries;
+    }
+
+    /**
+     * Send queries without any network argument to all partitions (and
+     * combine the results) instead of the default connection pool.
+     */
+    public void setUnionUnpartitionableQueries(boolean unionUnpartitionableQueries) {
+        this.unionUnpartitionableQueries = unionUnpartitionableQueries;
+    }
+
+    /**
+     * Assign the addresses of a network to a connection pool.
+     *
+     * @param connectionPool The name of the connection pool
+     * @param network The network
+     */
+    public void addPartition(final String connectionPool, final IPNetwork network) {
+        addPartition(connectionPool, AddressRange.of(network));
+    }
+
+    /**
+     * Assign a range of addresses to a connection pool.
+     *
+     * @param connectionPool The name of the connection pool
+     * @param low The lowest address of the range
+     * @param high The highest address of the range
+     */
+    public void addPartition(final String connectionPool, final IPTarget low, final IPTarget high) {
+        addPartition(connectionPool, AddressRange.of(low, high));
+    }
+
+    /**
+     * Assign a range of addresses to a connection pool.
+     *
+     * @param connectionPool The name of the connection pool
+     * @param range The range
+     *
+     * @throws IllegalArgumentException if the range overlaps the range of
+     * another partition
+     */
+    public void addPartition(final String connectionPool, final AddressRange range) {
+        for(AddressRange r : partitions.keySet()) {
+            if(r.overlaps(range)) {
+                throw new IllegalArgumentException("Partition " + range + " of pool "
+                        + connectionPool + " overlaps partition " + r
+                        + " of pool " + partitions.get(r));
+            }
+        }
+        partitions.put(range, connectionPool);
+    }
+
+    public Map<AddressRange, String> getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Also route queries by the value of the given query parameter, e.g.
+     * <tt>net</tt> for <tt>... WHERE e.network &lt;&lt;= :net</tt>.
+     *
+     * @param name The name of the parameter
+     */
+    public void addParameter(final String name) {
+        parameters.add(new DatabaseField(name));
+    }
+
+    /**
+     * Get the connection pools of all partitions overlapping the given
+     * ranges.
+     *
+     * @param ranges The ranges
+     *
+     * @return the names of the connection pools (without duplicates)
+     */
+    protected List<String> getConnectionPools(final Collection<AddressRange> ranges) {
+        final List<String> pools = new ArrayList<String>(partitions.size());
+        for(Map.Entry<AddressRange, String> e : partitions.entrySet()) {
+            if(pools.contains(e.getValue())) {
+                continue;
+            }
+            for(AddressRange range : ranges) {
+                if(e.getKey().overlaps(range)) {
+                    pools.add(e.getValue());
+                    break;
+                }
+            }
+        }
+        return pools;
+    }
+
+    private void addRange(final List<AddressRange> ranges, final AbstractRecord arguments,
+            final DatabaseField field)
+    {
+        final Object value = arguments.getIndicatingNoEntry(field);
+        if(value == AbstractRecord.noEntry) {
+            return;
+        }
+
+        if(value instanceof Collection) {
+            // e.g. IN (:nets)...
+            for(Object item : (Collection) value) {
+                final AddressRange range = AddressRange.valueOf(item);
+                if(range != null) {
+                    ranges.add(range);
+                }
+            }
+        } else {
+            final AddressRange range = AddressRange.valueOf(value);
+            if(range != null) {
+                ranges.add(range);
+            }
+        }
+    }
+
+    @Override
+    public List<Accessor> getConnectionsForQuery(AbstractSession session,
+            DatabaseQuery query, AbstractRecord arguments)
+    {
+        final List<AddressRange> ranges = new ArrayList<AddressRange>(1);
+        if(arguments != null) {
+            addRange(ranges, arguments, partitionField);
+            for(DatabaseField parameter : parameters) {
+                addRange(ranges, arguments, parameter);
+            }
+        }
+
+        final List<String> pools;
+        if(!ranges.isEmpty()) {
+            pools = getConnectionPools(ranges);
+        } else if(unionUnpartitionableQueries) {
+            pools = new ArrayList<String>(partitions.size());
+            for(String pool : partitions.values()) {
+                if(!pools.contains(pool)) {
+                    pools.add(pool);
+                }
+            }
+        } else {
+            // use the default connection pool...
+            return null;
+        }
+
+        if(pools.isEmpty()) {
+            // no partition holds any of the values...
+            return null;
+        }
+
+        final List<Accessor> accessors = new ArrayList<Accessor>(pools.size());
+        for(String pool : pools) {
+            accessors.add(getAccessor(pool, session, query, false));
+        }
+        return accessors;
+    }
+
+    @Override
+    public void partitionPersist(AbstractSession session, Object object, ClassDescriptor descriptor) {
+        final DatabaseMapping mapping = descriptor.getObjectBuilder().getMappingForField(partitionField);
+        if(mapping == null) {
+            return;
+        }
+
+        final AddressRange range = AddressRange.valueOf(mapping.getAttributeValueFromObject(object));
+        if(range == null) {
+            return;
+        }
+
+        for(Map.Entry<AddressRange, String> e : partitions.entrySet()) {
+            if(e.getKey().contains(range)) {
+                // pin the write connection of the transaction to the partition...
+                getAccessor(e.getValue(), session, null, false);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.eclipselink;
+
+import java.sql.SQLException;
+import org.ancoron.postgresql.jpa.IPAddress;
+import org.ancoron.postgresql.jpa.NetworkBinary;
+import org.postgresql.util.PGobject;
+
+/**
+ * The database value of an <tt>inet</tt>, <tt>cidr</tt> or <tt>macaddr</tt>
+ * column with equality and hashing defined on the network value instead of
+ * its text, e.g. <tt>08-00-2B-01-02-03</tt> equals
+ * <tt>08:00:2b:01:02:03</tt>.
+ *
+ * <p>
+ * This allows EclipseLink to use network values as cache keys (e.g. of a
+ * cache index), as database values are compared there instead of the
+ * converted object values. The text is only parsed when the value is
+ * compared or hashed.
+ * </p>
+ *
+ * @author ancoron
+ *
+ * @see ExtendedPostgreSQLPlatform
+ * @see NetworkValueConverter
+ */
+public final class NetworkValue extends PGobject {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient Object key;
+
+    public NetworkValue() {
+        super();
+    }
+
+    public NetworkValue(final String type, final String value) throws SQLException {
+        this();
+        setType(type);
+        setValue(value);
+    }
+
+    /**
+     * Get the network value of a database value.
+     *
+     * @param dataValue The database value, e.g. a <tt>PGinet</tt>
+     *
+     * @return the network value or the given value if it's not a
+     * <tt>PGobject</tt> holding a value
+     */
+    public static Object valueOf(final Object dataValue) {
+        if(dataValue instanceof NetworkValue || !(dataValue instanceof PGobject)) {
+            return dataValue;
+        }
+
+        final PGobject obj = (PGobject) dataValue;
+        if(obj.getValue() == null) {
+            return dataValue;
+        }
+
+        try {
+            return new NetworkValue(obj.getType(), obj.getValue());
+        } catch(SQLException x) {
+            throw new IllegalArgumentException("Unable to convert data value "
+                    + obj.getValue(), x);
+        }
+    }
+
+    @Override
+    public void setValue(String value) throws SQLException {
+        super.setValue(value);
+        key = null;
+    }
+
+    private Object key() {
+        Object k = key;
+        if(k == null && value != null) {
+            try {
+                if("macaddr".equals(type)) {
+                    final byte[] mac = new byte[NetworkBinary.MACADDR_LENGTH];
+                    NetworkBinary.writeMacaddr(value, mac, 0);
+                    k = NetworkBinary.readMacaddr(mac, 0);
+                } else {
+                    // same bits and mask length for inet and cidr...
+                    k = IPAddress.valueOf(value);
+                }
+            } catch(IllegalArgumentException x) {
+                // let the database decide about invalid values...
+                k = value;
+            }
+            key = k;
+        }
+        return k;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(!(obj instanceof NetworkValue)) {
+            return false;
+        }
+        final NetworkValue other = (NetworkValue) obj;
+        if(type == null ? other.type != null : !type.equals(other.type)) {
+            return false;
+        }
+        if(value == null || other.value == null) {
+            return value == other.value;
+        }
+        return value.equals(other.value) || key().equals(other.key());
+    }
+
+    @Override
+    public int hashCode() {
+        final Object k = key();
+        return k == null ? 0 : k.hashCode();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.eclipselink;
+
+import org.eclipse.persistence.mappings.DatabaseMapping;
+import org.eclipse.persistence.mappings.converters.Converter;
+import org.eclipse.persistence.sessions.Session;
+
+/**
+ * Converter producing {@link NetworkValue}s as database values, so that the
+ * values written or queried by an application compare equal to the values
+ * read from the database (see {@link ExtendedPostgreSQLPlatform}).
+ *
+ * <p>
+ * The actual conversion is done by the converter of the mapped type, e.g.
+ * an {@link IPTargetConverter}. The {@link ConverterInitializer} uses this
+ * converter for network columns with a cache index (see
+ * {@link ConverterInitializer#PROPERTY_CACHE_INDEX}).
+ * </p>
+ *
+ * @author ancoron
+ */
+public class NetworkValueConverter implements Converter {
+
+    private final Converter converter;
+
+    public NetworkValueConverter(final Converter converter) {
+        this.converter = converter;
+    }
+
+    public Converter getConverter() {
+        return converter;
+    }
+
+    @Override
+    public Object convertObjectValueToDataValue(Object objectValue, Session session) {
+        return NetworkValue.valueOf(converter.convertObjectValueToDataValue(objectValue, session));
+    }
+
+    @Override
+    public Object convertDataValueToObjectValue(Object dataValue, Session session) {
+        return converter.convertDataValueToObjectValue(dataValue, session);
+    }
+
+    @Override
+    public boolean isMutable() {
+        return converter.isMutable();
+    }
+
+    @Override
+    public void initialize(DatabaseMapping mapping, Session session) {
+        converter.initialize(mapping, session);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.util.Arrays;
+import org.ancoron.postgresql.jpa.IPAddress;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPPrefix;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.postgresql.util.PGobject;
+
+/**
+ * An inclusive range of IPv4 or IPv6 addresses.
+ *
+ * <p>
+ * Ranges don't have to be aligned to network boundaries. A network is the
+ * range from its lowest to its highest address, a single address is a range
+ * of its own. Ranges of different address families never overlap.
+ * </p>
+ *
+ * @author ancoron
+ */
+public final class AddressRange implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] low;
+    private final byte[] high;
+
+    private AddressRange(final byte[] low, final byte[] high) {
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * Create the range of the addresses between the given ones.
+     *
+     * @param low The lowest address of the range
+     * @param high The highest address of the range
+     *
+     * @return the range
+     *
+     * @throws IllegalArgumentException if the addresses are of different
+     * families or <tt>low</tt> is higher than <tt>high</tt>
+     */
+    public static AddressRange of(final IPTarget low, final IPTarget high) {
+        if(low.getAddr().length != high.getAddr().length) {
+            throw new IllegalArgumentException("Unable to create a range between "
+                    + low + " and " + high + ": different address families");
+        }
+
+        if(compare(low.getAddr(), high.getAddr()) > 0) {
+            throw new IllegalArgumentException("Unable to create a range between "
+                    + low + " and " + high + ": lower bound is higher than upper bound");
+        }
+
+        return new AddressRange(low.getAddr().clone(), high.getAddr().clone());
+    }
+
+    /**
+     * Create the range of all addresses of the given network.
+     */
+    public static AddressRange of(final IPNetwork network) {
+        return of(network.getAddr(), network.getNetmask());
+    }
+
+    /**
+     * Create the range of all addresses of the network <tt>addr/masklen</tt>.
+     *
+     * @param addr The raw address (4 or 16 bytes)
+     * @param masklen The mask length
+     *
+     * @return the range
+     */
+    public static AddressRange of(final byte[] addr, final int masklen) {
+        final byte[] low = addr.clone();
+        final byte[] high = addr.clone();
+
+        for(int i=0; i<addr.length; i++) {
+            final int bits = masklen - i * 8;
+            if(bits < 8) {
+                final int mask = bits <= 0 ? 0 : (0xFF << (8 - bits)) & 0xFF;
+                low[i] = (byte) (low[i] & mask);
+                high[i] = (byte) (high[i] | ~mask);
+            }
+        }
+
+        return new AddressRange(low, high);
+    }
+
+    /**
+     * Get the range of a network value.
+     *
+     * <p>
+     * Networks ({@link IPNetwork}, {@link IPPrefix} and <tt>cidr</tt>
+     * values) cover all of their addresses, addresses ({@link IPTarget},
+     * {@link IPAddress}, {@link InetAddress} and <tt>inet</tt> values) are a
+     * range of their own, regardless of any mask length.
+     * </p>
+     *
+     * @param value The value
+     *
+     * @return the range or <code>null</code> if the value is not a network
+     * value
+     */
+    public static AddressRange valueOf(final Object value) {
+        if(value instanceof IPNetwork) {
+            final IPNetwork net = (IPNetwork) value;
+            return net.getAddr() == null ? null : of(net);
+        } else if(value instanceof IPTarget) {
+            final byte[] addr = ((IPTarget) value).getAddr();
+            return addr == null ? null : new AddressRange(addr.clone(), addr.clone());
+        } else if(value instanceof IPPrefix) {
+            final IPPrefix net = (IPPrefix) value;
+            return of(net.getAddress(), net.getNetmask());
+        } else if(value instanceof IPAddress) {
+            final byte[] addr = ((IPAddress) value).getAddress();
+            return new AddressRange(addr, addr.clone());
+        } else if(value instanceof InetAddress) {
+            final byte[] addr = ((InetAddress) value).getAddress();
+            return new AddressRange(addr, addr.clone());
+        } else if(value instanceof PGobject && ((PGobject) value).getValue() != null) {
+            final PGobject obj = (PGobject) value;
+            if("cidr".equals(obj.getType())) {
+                return valueOf(IPPrefix.valueOf(obj.getValue()));
+            } else if("inet".equals(obj.getType())) {
+                return valueOf(IPAddress.valueOf(obj.getValue()));
+            }
+        }
+
+        return null;
+    }
+
+    private static int compare(final byte[] a, final byte[] b) {
+        for(int i=0; i<a.length; i++) {
+            final int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if(c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    public boolean isV6() {
+        return low.length == 16;
+    }
+
+    /**
+     * Get the lowest address of this range.
+     */
+    public IPTarget getLow() {
+        return new IPTarget(low);
+    }
+
+    /**
+     * Get the highest address of this range.
+     */
+    public IPTarget getHigh() {
+        return new IPTarget(high);
+    }
+
+    /**
+     * Check if this range and the given one have any address in common.
+     */
+    public boolean overlaps(final AddressRange other) {
+        return low.length == other.low.length
+                && compare(low, other.high) <= 0 && compare(other.low, high) <= 0;
+    }
+
+    /**
+     * Check if all addresses of the given range are part of this range.
+     */
+    public boolean contains(final AddressRange other) {
+        return low.length == other.low.length
+                && compare(low, other.low) <= 0 && compare(other.high, high) <= 0;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(!(obj instanceof AddressRange)) {
+            return false;
+        }
+        final AddressRange other = (AddressRange) obj;
+        return Arrays.equals(low, other.low) && Arrays.equals(high, other.high);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(low) + Arrays.hashCode(high);
+    }
+
+    @Override
+    public String toString() {
+        return IPAddress.valueOf(low) + "-" + IPAddress.valueOf(high);
+    }
+}
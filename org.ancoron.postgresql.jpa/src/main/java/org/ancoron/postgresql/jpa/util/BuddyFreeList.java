@@ -0,0 +1,354 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.ancoron.postgresql.jpa.IPNetwork;
+
+/**
+ * Buddy-style free lists of aligned address blocks for one address family.
+ *
+ * <p>
+ * Free blocks are kept per mask length, ordered by their lowest address.
+ * Allocation picks the smallest free block that fits (best-fit) and splits
+ * it down to the requested size, freeing a block coalesces it with its buddy
+ * as long as possible.
+ * </p>
+ *
+ * <p>
+ * Instances are thread-safe. Each mask length has its own lock and no
+ * operation ever holds more than one of them, so concurrent allocations of
+ * different sizes don't contend with each other. While a block is being split
+ * or coalesced it is in none of the free lists, so an allocation that didn't
+ * find a block while others were moving one it could use (one taken out of
+ * the list of a mask length up to the requested one) waits for that move to
+ * finish and is retried instead of reporting the space as exhausted. Moves are
+ * tracked and signalled per mask length as well, so only the allocations
+ * waiting for a move of that mask length are woken up. The number of retries
+ * is limited, so an allocation never waits forever under steady churn.
+ * </p>
+ *
+ * @author ancoron
+ */
+class BuddyFreeList {
+
+    // the maximum number of retries of an allocation after moves...
+    static final int MAX_RETRIES = 64;
+
+    private final boolean v6;
+    private final int bits;
+    private final List<TreeSet<BigInteger>> free;
+
+    // the smallest mask length (largest block) ever added...
+    private final AtomicInteger top;
+
+    // blocks taken out of each free list for a split or a merge that are
+    // still in none of them (and the number of finished moves), waiters are
+    // signalled on the monitor of the free list...
+    private final AtomicIntegerArray moving;
+    private final AtomicLongArray moved;
+
+    BuddyFreeList(final boolean v6) {
+        this.v6 = v6;
+        this.bits = NetworkUtils.bits(v6);
+        this.free = new ArrayList<TreeSet<BigInteger>>(bits + 1);
+        this.top = new AtomicInteger(bits + 1);
+        this.moving = new AtomicIntegerArray(bits + 1);
+        this.moved = new AtomicLongArray(bits + 1);
+
+        for(int i=0; i<=bits; i++) {
+            free.add(new TreeSet<BigInteger>());
+        }
+    }
+
+    boolean isV6() {
+        return v6;
+    }
+
+    /**
+     * Finish the move of a block taken out of the free list of the given mask
+     * length.
+     */
+    private void moveDone(final int masklen) {
+        moved.incrementAndGet(masklen);
+        moving.decrementAndGet(masklen);
+
+        final TreeSet<BigInteger> level = free.get(masklen);
+        synchronized(level) {
+            level.notifyAll();
+        }
+    }
+
+    /**
+     * Get the number of finished moves of blocks usable for the given mask
+     * length.
+     */
+    private long moves(final int masklen) {
+        long n = 0;
+        for(int q=Math.max(top.get(), 0); q<=masklen; q++) {
+            n += moved.get(q);
+        }
+        return n;
+    }
+
+    /**
+     * Get the largest mask length up to the given one with blocks being moved.
+     *
+     * @return the mask length or <tt>-1</tt> if no usable block is moving
+     */
+    private int moving(final int masklen) {
+        for(int q=masklen; q>=0 && q>=top.get(); q--) {
+            if(moving.get(q) > 0) {
+                return q;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check whether any block usable for the given mask length may have been
+     * in none of the free lists since the given state.
+     */
+    private boolean moving(final int masklen, final long stamp, final boolean busy) {
+        return busy || moving(masklen) >= 0 || moves(masklen) != stamp;
+    }
+
+    /**
+     * Wait until a block usable for the given mask length has been moved or
+     * no such block is being moved anymore.
+     *
+     * @return <tt>false</tt> if interrupted while waiting
+     */
+    private boolean awaitMove(final int masklen) {
+        final int q = moving(masklen);
+        if(q < 0) {
+            // already done, just retry...
+            return true;
+        }
+
+        final TreeSet<BigInteger> level = free.get(q);
+        final long stamp = moved.get(q);
+        synchronized(level) {
+            while(moving.get(q) > 0 && moved.get(q) == stamp) {
+                try {
+                    level.wait();
+                } catch(InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add a free block, coalescing it with its buddy as long as possible.
+     *
+     * @throws IllegalStateException if the exact block is already free
+     */
+    void free(BigInteger low, int masklen) {
+        // the buddies are taken out of the free lists from this mask length
+        // down to the final one...
+        final int from = masklen;
+
+        try {
+            while(true) {
+                final TreeSet<BigInteger> level = free.get(masklen);
+
+                synchronized(level) {
+                    if(masklen > 0) {
+                        final BigInteger buddy = low.flipBit(bits - masklen);
+
+                        if(level.remove(buddy)) {
+                            moving.incrementAndGet(masklen);
+                            low = low.min(buddy);
+                            masklen--;
+                            continue;
+                        }
+                    }
+
+                    if(!level.add(low)) {
+                        throw new IllegalStateException("Unable to free "
+                                + NetworkUtils.toNetwork(low, masklen, v6)
+                                + ": already free");
+                    }
+                }
+
+                break;
+            }
+        } finally {
+            for(int q=masklen+1; q<=from; q++) {
+                moveDone(q);
+            }
+        }
+
+        int t;
+        while(masklen < (t = top.get()) && !top.compareAndSet(t, masklen)) {
+            // retry...
+        }
+    }
+
+    /**
+     * Allocate the lowest block of the given mask length out of the smallest
+     * free block that fits.
+     *
+     * @return the lowest address of the allocated block or <code>null</code>
+     * if there is no free block large enough
+     */
+    BigInteger allocate(final int masklen) {
+        for(int retry=0; retry<=MAX_RETRIES; retry++) {
+            final long stamp = moves(masklen);
+            final boolean busy = moving(masklen) >= 0;
+            final BigInteger low = tryAllocate(masklen);
+
+            if(low != null || !moving(masklen, stamp, busy) || !awaitMove(masklen)) {
+                return low;
+            }
+        }
+
+        return null;
+    }
+
+    private BigInteger tryAllocate(final int masklen) {
+        for(int q=masklen; q>=0 && q>=top.get(); q--) {
+            final TreeSet<BigInteger> level = free.get(q);
+            final BigInteger low;
+
+            synchronized(level) {
+                low = level.pollFirst();
+                if(low != null && q < masklen) {
+                    moving.incrementAndGet(q);
+                }
+            }
+
+            if(low != null) {
+                if(q < masklen) {
+                    // split down to the requested size, keeping the upper halves...
+                    for(int i=q+1; i<=masklen; i++) {
+                        free(low.setBit(bits - i), i);
+                    }
+                    moveDone(q);
+                }
+
+                return low;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Allocate a specific block out of the free block containing it.
+     *
+     * @return <tt>true</tt> if the block has been allocated, <tt>false</tt>
+     * if no free block contains it
+     */
+    boolean allocate(final BigInteger low, final int masklen) {
+        for(int retry=0; retry<=MAX_RETRIES; retry++) {
+            final long stamp = moves(masklen);
+            final boolean busy = moving(masklen) >= 0;
+
+            if(tryAllocate(low, masklen)) {
+                return true;
+            } else if(!moving(masklen, stamp, busy) || !awaitMove(masklen)) {
+                return false;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean tryAllocate(final BigInteger low, final int masklen) {
+        for(int q=masklen; q>=0 && q>=top.get(); q--) {
+            final TreeSet<BigInteger> level = free.get(q);
+            final BigInteger block = low.shiftRight(bits - q).shiftLeft(bits - q);
+            final boolean found;
+
+            synchronized(level) {
+                found = level.remove(block);
+                if(found && q < masklen) {
+                    moving.incrementAndGet(q);
+                }
+            }
+
+            if(found) {
+                if(q < masklen) {
+                    // split down to the requested block, keeping the other halves...
+                    final int from = q;
+                    while(q < masklen) {
+                        q++;
+                        free(low.shiftRight(bits - q).flipBit(0).shiftLeft(bits - q), q);
+                    }
+                    moveDone(from);
+                }
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the total number of free addresses.
+     */
+    BigInteger size() {
+        BigInteger size = BigInteger.ZERO;
+
+        for(int i=0; i<=bits; i++) {
+            final TreeSet<BigInteger> level = free.get(i);
+            final int n;
+
+            synchronized(level) {
+                n = level.size();
+            }
+
+            if(n > 0) {
+                size = size.add(BigInteger.valueOf(n).shiftLeft(bits - i));
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Get all free blocks as networks, largest blocks first.
+     */
+    List<IPNetwork> toNetworks() {
+        final List<IPNetwork> nets = new ArrayList<IPNetwork>();
+
+        for(int i=0; i<=bits; i++) {
+            final TreeSet<BigInteger> level = free.get(i);
+            final BigInteger[] blocks;
+
+            synchronized(level) {
+                blocks = level.toArray(new BigInteger[level.size()]);
+            }
+
+            for(BigInteger low : blocks) {
+                nets.add(NetworkUtils.toNetwork(low, i, v6));
+            }
+        }
+
+        return nets;
+    }
+}
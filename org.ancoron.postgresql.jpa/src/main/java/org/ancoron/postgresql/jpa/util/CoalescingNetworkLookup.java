@@ -0,0 +1,451 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+
+/**
+ * Coalesces concurrent single address lookups into bulk containment queries.
+ *
+ * <p>
+ * Each lookup is queued for a short time window (or until a number of
+ * addresses are queued) and all queued addresses are then looked up by a
+ * single {@link NetworkContainmentLookup} query. Concurrent lookups of the
+ * same address share one result. So many threads looking up one address each
+ * at roughly the same time only cause a few queries:
+ * <pre>
+ * CoalescingNetworkLookup lookup = new CoalescingNetworkLookup(
+ *         dataSource, "customer_network", "network");
+ *
+ * // from any number of threads...
+ * IPNetwork net = lookup.lookup(ip);
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * The lookup returns the most specific network containing the address. The
+ * queries are executed by a small pool of daemon threads, which is shut down
+ * by {@link #close()}. Each query thread keeps a connection of the data
+ * source with a prepared {@link NetworkContainmentLookup} until then (a
+ * connection is only replaced after a failed query).
+ * </p>
+ *
+ * @author ancoron
+ *
+ * @see NetworkContainmentLookup
+ */
+public class CoalescingNetworkLookup {
+
+    private static final String CLASSNAME = "CoalescingNetworkLookup";
+    private static final Logger log = Logger.getLogger(CoalescingNetworkLookup.class.getName());
+
+    private static final Callable<IPNetwork> NONE = new Callable<IPNetwork>() {
+
+        @Override
+        public IPNetwork call() {
+            throw new IllegalStateException("Result has not been set");
+        }
+    };
+
+    /**
+     * The pending result of a single address lookup.
+     */
+    private static class Result extends FutureTask<IPNetwork> {
+
+        Result() {
+            super(NONE);
+        }
+
+        @Override
+        public void set(IPNetwork v) {
+            super.set(v);
+        }
+
+        @Override
+        public void setException(Throwable t) {
+            super.setException(t);
+        }
+    }
+
+    /**
+     * A containment lookup together with the connection it is prepared for.
+     */
+    private static final class Prepared {
+
+        private final Connection conn;
+        private final NetworkContainmentLookup lookup;
+
+        private Prepared(final Connection conn, final NetworkContainmentLookup lookup) {
+            this.conn = conn;
+            this.lookup = lookup;
+        }
+
+        private void close() {
+            try {
+                lookup.close();
+            } catch(SQLException x) {
+                log.logp(Level.FINE, CLASSNAME, "close",
+                        "Unable to close the containment lookup", x);
+            }
+
+            try {
+                conn.close();
+            } catch(SQLException x) {
+                log.logp(Level.FINE, CLASSNAME, "close",
+                        "Unable to close the lookup connection", x);
+            }
+        }
+    }
+
+    private final DataSource dataSource;
+    private final String table;
+    private final String column;
+    private final ScheduledExecutorService executor;
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+
+    private long window = TimeUnit.MILLISECONDS.toNanos(2);
+    private int maxBatch = 1000;
+
+    private Map<IPTarget, Result> pending = new LinkedHashMap<IPTarget, Result>();
+
+    // the lookups currently not in use by a query (guarded by itself)...
+    private final LinkedList<Prepared> idle = new LinkedList<Prepared>();
+    private boolean closed = false;
+
+    /**
+     * Create a new lookup service using 2 threads for the queries.
+     *
+     * @param dataSource The data source to get connections from
+     * @param table The table
+     * @param column The <tt>cidr</tt> column of the table
+     */
+    public CoalescingNetworkLookup(final DataSource dataSource,
+            final String table, final String column)
+    {
+        this(dataSource, table, column, 2);
+    }
+
+    /**
+     * Create a new lookup service.
+     *
+     * @param dataSource The data source to get connections from
+     * @param table The table
+     * @param column The <tt>cidr</tt> column of the table
+     * @param threads The number of threads executing the queries
+     */
+    public CoalescingNetworkLookup(final DataSource dataSource,
+            final String table, final String column, final int threads)
+    {
+        if(table == null || column == null) {
+            throw new IllegalArgumentException("Unable to look up networks without table or column");
+        }
+
+        this.dataSource = dataSource;
+        this.table = table;
+        this.column = column;
+        this.executor = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, CLASSNAME + "-" + (++count));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public long getWindow(final TimeUnit unit) {
+        return unit.convert(window, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Set the time a lookup waits for other lookups to join its query.
+     *
+     * @param window The time window (0 to only coalesce lookups arriving
+     * while the previous query is still queued)
+     * @param unit The unit of the time window
+     */
+    public void setWindow(final long window, final TimeUnit unit) {
+        if(window < 0) {
+            throw new IllegalArgumentException("Invalid window " + window);
+        }
+        this.window = unit.toNanos(window);
+    }
+
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    /**
+     * Set the number of distinct addresses that causes a query to be sent
+     * immediately instead of waiting for the time window to pass.
+     *
+     * @param maxBatch The number of addresses
+     */
+    public void setMaxBatch(final int maxBatch) {
+        if(maxBatch < 1) {
+            throw new IllegalArgumentException("Invalid batch size " + maxBatch);
+        }
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Get the number of queries sent so far.
+     */
+    public long getQueries() {
+        return queries.get();
+    }
+
+    /**
+     * Get the number of addresses looked up so far.
+     */
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    /**
+     * Queue the lookup of the most specific network containing the given
+     * address.
+     *
+     * @param ip The address
+     *
+     * @return the future network, which is <code>null</code> if no network
+     * contains the address
+     */
+    public Future<IPNetwork> submit(final IPTarget ip) {
+        if(ip == null || ip.getAddr() == null) {
+            throw new IllegalArgumentException("Unable to look up an empty address");
+        }
+
+        lookups.incrementAndGet();
+
+        Map<IPTarget, Result> full = null;
+        Result result;
+        synchronized(this) {
+            result = pending.get(ip);
+            if(result != null) {
+                return result;
+            }
+
+            result = new Result();
+            pending.put(ip, result);
+
+            if(pending.size() >= maxBatch) {
+                full = pending;
+                pending = new LinkedHashMap<IPTarget, Result>();
+            } else if(pending.size() == 1) {
+                schedule(pending, window, false);
+            }
+        }
+
+        if(full != null) {
+            schedule(full, 0, true);
+        }
+
+        return result;
+    }
+
+    /**
+     * Look up the most specific network containing the given address.
+     *
+     * <p>
+     * The calling thread waits until the (shared) query has been executed.
+     * </p>
+     *
+     * @param ip The address
+     *
+     * @return the network or <code>null</code> if no network contains the
+     * address
+     *
+     * @throws SQLException if the query failed
+     */
+    public IPNetwork lookup(final IPTarget ip) throws SQLException {
+        final Future<IPNetwork> result = submit(ip);
+
+        try {
+            return result.get();
+        } catch(InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while looking up " + ip, x);
+        } catch(ExecutionException x) {
+            if(x.getCause() instanceof SQLException) {
+                throw (SQLException) x.getCause();
+            }
+            throw new SQLException("Unable to look up " + ip, x.getCause());
+        }
+    }
+
+    private void schedule(final Map<IPTarget, Result> batch, final long delay,
+            final boolean full)
+    {
+        final Runnable task = new Runnable() {
+
+            @Override
+            public void run() {
+                if(!full) {
+                    synchronized(CoalescingNetworkLookup.this) {
+                        if(pending != batch) {
+                            // already sent because the batch became full...
+                            return;
+                        }
+                        pending = new LinkedHashMap<IPTarget, Result>();
+                    }
+                }
+
+                execute(batch);
+            }
+        };
+
+        try {
+            executor.schedule(task, delay, TimeUnit.NANOSECONDS);
+        } catch(RejectedExecutionException x) {
+            // closed already, so run it in the calling thread...
+            task.run();
+        }
+    }
+
+    private void execute(final Map<IPTarget, Result> batch) {
+        queries.incrementAndGet();
+
+        try {
+            final Map<IPTarget, IPNetwork> networks = lookup(batch.keySet());
+            for(Map.Entry<IPTarget, Result> e : batch.entrySet()) {
+                e.getValue().set(networks.get(e.getKey()));
+            }
+        } catch(Throwable x) {
+            log.logp(Level.FINE, CLASSNAME, "execute",
+                    "Unable to look up " + batch.size() + " addresses", x);
+            for(Result result : batch.values()) {
+                result.setException(x);
+            }
+        }
+    }
+
+    /**
+     * Look up the most specific networks containing the given addresses
+     * using a single query.
+     *
+     * @param addresses The distinct addresses
+     *
+     * @return the network per address
+     *
+     * @throws SQLException if the query failed
+     */
+    protected Map<IPTarget, IPNetwork> lookup(final Collection<IPTarget> addresses) throws SQLException {
+        final Prepared prepared = acquire();
+        boolean success = false;
+        try {
+            final Map<IPTarget, IPNetwork> networks = prepared.lookup.lookup(addresses);
+            if(!prepared.conn.getAutoCommit()) {
+                // don't stay idle in transaction until the next query...
+                prepared.conn.commit();
+            }
+            success = true;
+            return networks;
+        } finally {
+            if(success) {
+                release(prepared);
+            } else {
+                // the connection may be broken, get a new one next time...
+                prepared.close();
+            }
+        }
+    }
+
+    private Prepared acquire() throws SQLException {
+        synchronized(idle) {
+            if(!idle.isEmpty()) {
+                return idle.removeFirst();
+            }
+        }
+
+        final Connection conn = dataSource.getConnection();
+        try {
+            return new Prepared(conn, new NetworkContainmentLookup(conn, table, column, true));
+        } catch(SQLException x) {
+            conn.close();
+            throw x;
+        } catch(RuntimeException x) {
+            conn.close();
+            throw x;
+        }
+    }
+
+    private void release(final Prepared prepared) {
+        synchronized(idle) {
+            if(!closed) {
+                idle.addFirst(prepared);
+                return;
+            }
+        }
+
+        prepared.close();
+    }
+
+    /**
+     * Execute all queued lookups and stop the query threads.
+     */
+    public void close() {
+        final Map<IPTarget, Result> batch;
+        synchronized(this) {
+            batch = pending;
+            pending = new LinkedHashMap<IPTarget, Result>();
+        }
+
+        executor.shutdown();
+
+        if(!batch.isEmpty()) {
+            execute(batch);
+        }
+
+        // lookups still in use are closed when their query is done...
+        final List<Prepared> unused;
+        synchronized(idle) {
+            closed = true;
+            unused = new ArrayList<Prepared>(idle);
+            idle.clear();
+        }
+
+        for(Prepared prepared : unused) {
+            prepared.close();
+        }
+    }
+}
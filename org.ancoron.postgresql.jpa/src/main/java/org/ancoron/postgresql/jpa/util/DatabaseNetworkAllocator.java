@@ -0,0 +1,510 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.ancoron.postgresql.jpa.eclipselink.IPNetworkConverter;
+
+/**
+ * Network allocator keeping its free blocks inside a PostgreSQL table, so
+ * that any number of nodes can allocate from the same pools concurrently.
+ *
+ * <p>
+ * The free blocks are stored as <tt>cidr</tt> values (converted using the
+ * {@link IPNetworkConverter}) in a table like this (see
+ * {@link #createTable()}):
+ * <pre>
+ * CREATE TABLE ipam_free_block (
+ *     pool VARCHAR(64) NOT NULL,
+ *     block CIDR NOT NULL,
+ *     family SMALLINT NOT NULL,
+ *     masklen SMALLINT NOT NULL,
+ *     PRIMARY KEY (pool, block)
+ * );
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * Allocation works like the in-memory {@link NetworkAllocator}: the best
+ * fitting free block is taken and split by {@link NetworkUtils#split(IPNetwork)}
+ * as required, keeping the upper halves as new free blocks. The candidate
+ * blocks are locked using <tt>SELECT ... FOR UPDATE SKIP LOCKED</tt>, so
+ * nodes never wait for each other but simply take the next free block.
+ * In addition each node prefetches a small batch of blocks per size in a
+ * single transaction (see {@link #setPrefetch(int)}) and serves subsequent
+ * allocations from that batch.
+ * </p>
+ *
+ * <p>
+ * Released blocks are merged with their buddy by
+ * {@link NetworkUtils#merge(IPNetwork[])} as long as the buddy is free as
+ * well.
+ * </p>
+ *
+ * <p>
+ * Please note:
+ * <ul>
+ * <li><tt>SKIP LOCKED</tt> requires PostgreSQL 9.5 or later</li>
+ * <li>prefetched blocks are removed from the table already, call
+ * {@link #close()} to give them back on shutdown. If the process dies
+ * before, they are lost to the pool until they are added again (e.g. by
+ * rebuilding the free blocks from the allocated networks). Use a prefetch
+ * size of 1 if that is not acceptable.</li>
+ * <li>two buddies released at exactly the same moment by different nodes
+ * may both stay in the table without being merged</li>
+ * </ul>
+ * </p>
+ *
+ * @author ancoron
+ */
+public class DatabaseNetworkAllocator {
+
+    private static final String CLASSNAME = "DatabaseNetworkAllocator";
+    private static final Logger log = Logger.getLogger(DatabaseNetworkAllocator.class.getName());
+
+    private final IPNetworkConverter converter = new IPNetworkConverter();
+    private final DataSource dataSource;
+    private final String table;
+    private final String pool;
+    private final List<IPNetwork> roots;
+
+    // prefetched blocks per family and mask length...
+    private final List<Queue<IPNetwork>> v4 = new ArrayList<Queue<IPNetwork>>(33);
+    private final List<Queue<IPNetwork>> v6 = new ArrayList<Queue<IPNetwork>>(129);
+
+    private int prefetch = 8;
+
+    /**
+     * The insert and delete statements of a single connection, prepared on
+     * first use and reused for all blocks of the transaction.
+     */
+    private final class Statements {
+
+        private final Connection conn;
+        private PreparedStatement insert;
+        private PreparedStatement delete;
+
+        private Statements(final Connection conn) {
+            this.conn = conn;
+        }
+
+        private void insert(final IPNetwork net) throws SQLException {
+            if(insert == null) {
+                insert = conn.prepareStatement("INSERT INTO " + table
+                        + " (pool, block, family, masklen) VALUES (?, ?, ?, ?)");
+                insert.setString(1, pool);
+            }
+
+            insert.setObject(2, converter.convertObjectValueToDataValue(net, null));
+            insert.setShort(3, (short) (net.isV6() ? 6 : 4));
+            insert.setShort(4, (short) net.getNetmask());
+            insert.executeUpdate();
+        }
+
+        private boolean delete(final IPNetwork net) throws SQLException {
+            if(delete == null) {
+                delete = conn.prepareStatement("DELETE FROM " + table
+                        + " WHERE pool = ? AND block = ?");
+                delete.setString(1, pool);
+            }
+
+            delete.setObject(2, converter.convertObjectValueToDataValue(net, null));
+            return delete.executeUpdate() == 1;
+        }
+
+        private void close() throws SQLException {
+            try {
+                if(insert != null) {
+                    insert.close();
+                }
+            } finally {
+                if(delete != null) {
+                    delete.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a new allocator for a pool.
+     *
+     * @param dataSource The data source to get connections from
+     * @param table The name of the free block table
+     * @param pool The name of the pool
+     * @param roots The root networks of the pool, which are never merged
+     * any further
+     */
+    public DatabaseNetworkAllocator(final DataSource dataSource,
+            final String table, final String pool, final IPNetwork... roots)
+    {
+        if(dataSource == null || table == null || pool == null) {
+            throw new IllegalArgumentException("Unable to create allocator without data source, table or pool");
+        }
+
+        if(roots == null || roots.length == 0) {
+            throw new IllegalArgumentException("Unable to allocate networks without any root network");
+        }
+
+        this.dataSource = dataSource;
+        this.table = table;
+        this.pool = pool;
+
+        this.roots = new ArrayList<IPNetwork>(roots.length);
+        for(IPNetwork root : roots) {
+            if(root == null || root.getAddr() == null) {
+                throw new IllegalArgumentException("Unable to allocate networks inside an empty root network");
+            }
+            this.roots.add(root);
+        }
+
+        for(int i=0; i<=128; i++) {
+            if(i <= 32) {
+                v4.add(new ConcurrentLinkedQueue<IPNetwork>());
+            }
+            v6.add(new ConcurrentLinkedQueue<IPNetwork>());
+        }
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Set the number of blocks fetched at once for a particular size.
+     *
+     * @param prefetch The number of blocks (1 disables prefetching)
+     */
+    public void setPrefetch(int prefetch) {
+        if(prefetch < 1) {
+            throw new IllegalArgumentException("Invalid prefetch size " + prefetch);
+        }
+        this.prefetch = prefetch;
+    }
+
+    private Queue<IPNetwork> queue(final boolean ipv6, final int masklen) {
+        return ipv6 ? v6.get(masklen) : v4.get(masklen);
+    }
+
+    /**
+     * Create the free block table (if not existing already).
+     *
+     * @throws SQLException if the table could not be created
+     */
+    public void createTable() throws SQLException {
+        final Connection conn = dataSource.getConnection();
+        try {
+            final Statement stmt = conn.createStatement();
+            try {
+                stmt.execute("CREATE TABLE IF NOT EXISTS " + table + " ("
+                        + "pool VARCHAR(64) NOT NULL, "
+                        + "block CIDR NOT NULL, "
+                        + "family SMALLINT NOT NULL, "
+                        + "masklen SMALLINT NOT NULL, "
+                        + "PRIMARY KEY (pool, block))");
+                stmt.execute("CREATE INDEX IF NOT EXISTS " + table + "_fit_idx ON " + table
+                        + " (pool, family, masklen DESC, block)");
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * Add the root networks of this pool as free blocks.
+     *
+     * <p>
+     * This must only be done once per pool (e.g. during installation).
+     * </p>
+     *
+     * @throws SQLException if the root networks could not be added
+     */
+    public void initialize() throws SQLException {
+        final Connection conn = begin();
+        try {
+            final Statements stmts = new Statements(conn);
+            try {
+                for(IPNetwork root : roots) {
+                    stmts.insert(root);
+                }
+            } finally {
+                stmts.close();
+            }
+            conn.commit();
+        } catch(SQLException x) {
+            rollback(conn);
+            throw x;
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * Allocate a free sub-network of the given size.
+     *
+     * @param ipv6 <tt>true</tt> to allocate IPv6 networks, <tt>false</tt>
+     * for IPv4
+     * @param masklen The mask length of the sub-network
+     *
+     * @return the allocated sub-network or <code>null</code> if no free
+     * block of that size is available anymore
+     *
+     * @throws SQLException if the database access fails
+     */
+    public IPNetwork allocate(final boolean ipv6, final int masklen) throws SQLException {
+        if(masklen < 0 || masklen > NetworkUtils.bits(ipv6)) {
+            throw new IllegalArgumentException("Unable to allocate a /" + masklen
+                    + " network: invalid mask length");
+        }
+
+        final Queue<IPNetwork> queue = queue(ipv6, masklen);
+        IPNetwork net = queue.poll();
+
+        if(net == null) {
+            final List<IPNetwork> batch = fetch(ipv6, masklen, prefetch);
+            if(!batch.isEmpty()) {
+                net = batch.remove(0);
+                queue.addAll(batch);
+            }
+        }
+
+        return net;
+    }
+
+    /**
+     * Allocate a single free address.
+     *
+     * @param ipv6 <tt>true</tt> to allocate an IPv6 address, <tt>false</tt>
+     * for IPv4
+     *
+     * @return the allocated address or <code>null</code> if no free address
+     * is available anymore
+     *
+     * @throws SQLException if the database access fails
+     */
+    public IPTarget allocateTarget(final boolean ipv6) throws SQLException {
+        final IPNetwork host = allocate(ipv6, NetworkUtils.bits(ipv6));
+
+        return host == null ? null : host.getLowestTarget();
+    }
+
+    private List<IPNetwork> fetch(final boolean ipv6, final int masklen, final int n) throws SQLException {
+        final List<IPNetwork> result = new ArrayList<IPNetwork>(n);
+        final Connection conn = begin();
+
+        try {
+            final Statements stmts = new Statements(conn);
+            final PreparedStatement select = conn.prepareStatement("SELECT block FROM "
+                    + table + " WHERE pool = ? AND family = ? AND masklen <= ?"
+                    + " ORDER BY masklen DESC, block LIMIT 1 FOR UPDATE SKIP LOCKED");
+            try {
+                select.setString(1, pool);
+                select.setShort(2, (short) (ipv6 ? 6 : 4));
+                select.setShort(3, (short) masklen);
+
+                while(result.size() < n) {
+                    final ResultSet rs = select.executeQuery();
+                    IPNetwork block = null;
+                    try {
+                        if(rs.next()) {
+                            block = converter.convertDataValueToObjectValue(rs.getObject(1), null);
+                        }
+                    } finally {
+                        rs.close();
+                    }
+
+                    if(block == null) {
+                        break;
+                    }
+
+                    stmts.delete(block);
+
+                    // split down to the requested size, keeping the upper halves...
+                    while(block.getNetmask() < masklen) {
+                        final IPNetwork[] halves = NetworkUtils.split(block);
+                        stmts.insert(halves[1]);
+                        block = halves[0];
+                    }
+
+                    result.add(block);
+                }
+            } finally {
+                try {
+                    select.close();
+                } finally {
+                    stmts.close();
+                }
+            }
+
+            conn.commit();
+        } catch(SQLException x) {
+            rollback(conn);
+            throw x;
+        } finally {
+            conn.close();
+        }
+
+        return result;
+    }
+
+    /**
+     * Release a previously allocated sub-network.
+     *
+     * @param subnet The sub-network to release
+     *
+     * @throws IllegalArgumentException if the given sub-network is not part
+     * of any root network
+     *
+     * @throws SQLException if the database access fails (e.g. if the block is
+     * already free)
+     */
+    public void release(final IPNetwork subnet) throws SQLException {
+        final IPNetwork root = root(subnet);
+        final Connection conn = begin();
+
+        try {
+            final Statements stmts = new Statements(conn);
+            try {
+                release(stmts, root, subnet);
+            } finally {
+                stmts.close();
+            }
+            conn.commit();
+        } catch(SQLException x) {
+            rollback(conn);
+            throw x;
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * Release a previously allocated single address.
+     *
+     * @param ip The address to release
+     *
+     * @throws IllegalArgumentException if the given address is not part of
+     * any root network
+     *
+     * @throws SQLException if the database access fails
+     */
+    public void release(final IPTarget ip) throws SQLException {
+        if(ip == null || ip.getAddr() == null) {
+            throw new IllegalArgumentException("Unable to release an empty address");
+        }
+
+        release(NetworkUtils.toNetwork(NetworkUtils.value(ip),
+                NetworkUtils.bits(ip.isV6()), ip.isV6()));
+    }
+
+    private void release(final Statements stmts, final IPNetwork root, IPNetwork net) throws SQLException {
+        while(net.getNetmask() > root.getNetmask()) {
+            final int bits = NetworkUtils.bits(net.isV6());
+            final boolean upper = NetworkUtils.lowValue(net).testBit(bits - net.getNetmask());
+            final IPNetwork buddy = NetworkUtils.toNetwork(
+                    NetworkUtils.lowValue(net).flipBit(bits - net.getNetmask()),
+                    net.getNetmask(), net.isV6());
+
+            if(!stmts.delete(buddy)) {
+                break;
+            }
+
+            net = NetworkUtils.merge(upper
+                    ? new IPNetwork[] {buddy, net}
+                    : new IPNetwork[] {net, buddy});
+        }
+
+        stmts.insert(net);
+    }
+
+    /**
+     * Give back all prefetched blocks to the database.
+     *
+     * @throws SQLException if the database access fails
+     */
+    public void close() throws SQLException {
+        final Connection conn = begin();
+
+        try {
+            final Statements stmts = new Statements(conn);
+            try {
+                release(stmts, v4);
+                release(stmts, v6);
+            } finally {
+                stmts.close();
+            }
+            conn.commit();
+        } catch(SQLException x) {
+            rollback(conn);
+            throw x;
+        } finally {
+            conn.close();
+        }
+    }
+
+    private void release(final Statements stmts, final List<Queue<IPNetwork>> queues) throws SQLException {
+        for(Queue<IPNetwork> queue : queues) {
+            IPNetwork net;
+            while((net = queue.poll()) != null) {
+                release(stmts, root(net), net);
+            }
+        }
+    }
+
+    private IPNetwork root(final IPNetwork subnet) {
+        if(subnet == null || subnet.getAddr() == null) {
+            throw new IllegalArgumentException("Unable to handle an empty network");
+        }
+
+        for(IPNetwork root : roots) {
+            if(NetworkUtils.covers(root, subnet)) {
+                return root;
+            }
+        }
+
+        throw new IllegalArgumentException("Network " + subnet
+                + " is not part of any root network of pool " + pool);
+    }
+
+    private Connection begin() throws SQLException {
+        final Connection conn = dataSource.getConnection();
+        conn.setAutoCommit(false);
+        return conn;
+    }
+
+    private void rollback(final Connection conn) {
+        try {
+            conn.rollback();
+        } catch(SQLException x) {
+            log.logp(Level.WARNING, CLASSNAME, "rollback",
+                    "Unable to rollback transaction", x);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+
+/**
+ * Keeps the collapsed (aggregated) set of CIDR networks covering all
+ * addresses and networks added so far.
+ *
+ * <p>
+ * Every value is merged into the current set as it arrives:
+ * <ul>
+ * <li>a value already covered by the set is ignored</li>
+ * <li>networks covered by the new value are dropped</li>
+ * <li>the new value is merged with its sibling (e.g. <tt>10.0.0.0/25</tt>
+ * and <tt>10.0.0.128/25</tt> become <tt>10.0.0.0/24</tt>) as long as
+ * possible</li>
+ * </ul>
+ * So the set is always minimal and the history of added values never has to
+ * be collapsed again.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * <pre>
+ * IncrementalPrefixAggregator agg = new IncrementalPrefixAggregator();
+ * agg.add(new IPTarget("192.168.1.4"));
+ * agg.add(new IPTarget("192.168.1.5"));
+ * agg.add(new IPNetwork("192.168.1.6/31"));
+ * agg.snapshot(); // -&gt; [ 192.168.1.4/30 ]
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * Instances are thread-safe. A snapshot is an immutable list which is only
+ * rebuilt after the set has actually changed, so taking snapshots
+ * repeatedly is cheap.
+ * </p>
+ *
+ * @author ancoron
+ */
+public class IncrementalPrefixAggregator {
+
+    // lowest address -> mask length of each aggregated network...
+    private final TreeMap<BigInteger, Integer> v4 = new TreeMap<BigInteger, Integer>();
+    private final TreeMap<BigInteger, Integer> v6 = new TreeMap<BigInteger, Integer>();
+
+    private List<IPNetwork> snapshot = null;
+
+    /**
+     * Add a single address.
+     *
+     * <p>
+     * The address is always treated as a host network (<tt>/32</tt> or
+     * <tt>/128</tt>), regardless of any netmask of the given value.
+     * </p>
+     *
+     * @param ip The address to add (<code>null</code> is ignored)
+     *
+     * @return <tt>true</tt> if the aggregated set has changed
+     */
+    public boolean add(final IPTarget ip) {
+        if(ip == null || ip.getAddr() == null) {
+            return false;
+        }
+
+        return add(NetworkUtils.value(ip), NetworkUtils.bits(ip.isV6()), ip.isV6());
+    }
+
+    /**
+     * Add a network.
+     *
+     * @param network The network to add (<code>null</code> is ignored)
+     *
+     * @return <tt>true</tt> if the aggregated set has changed
+     */
+    public boolean add(final IPNetwork network) {
+        if(network == null || network.getAddr() == null) {
+            return false;
+        }
+
+        return add(NetworkUtils.lowValue(network), network.getNetmask(), network.isV6());
+    }
+
+    private synchronized boolean add(BigInteger low, int masklen, final boolean ipv6) {
+        final TreeMap<BigInteger, Integer> nets = ipv6 ? v6 : v4;
+        final int bits = NetworkUtils.bits(ipv6);
+
+        // already covered by an existing (larger or equal) network? A smaller
+        // one starting at the same address is dropped below instead...
+        Map.Entry<BigInteger, Integer> floor = nets.floorEntry(low);
+        if(floor != null && floor.getValue() <= masklen
+                && low.compareTo(end(floor.getKey(), floor.getValue(), bits)) <= 0)
+        {
+            return false;
+        }
+
+        // drop all networks covered by the new one...
+        nets.subMap(low, true, end(low, masklen, bits), true).clear();
+
+        // merge with siblings as long as possible...
+        while(masklen > 0) {
+            final BigInteger size = BigInteger.ONE.shiftLeft(bits - masklen);
+            final boolean upper = low.testBit(bits - masklen);
+            final BigInteger sibling = upper ? low.subtract(size) : low.add(size);
+            final Integer len = nets.get(sibling);
+
+            if(len == null || len.intValue() != masklen) {
+                break;
+            }
+
+            nets.remove(sibling);
+            if(upper) {
+                low = sibling;
+            }
+            masklen--;
+        }
+
+        nets.put(low, masklen);
+        snapshot = null;
+
+        return true;
+    }
+
+    private static BigInteger end(final BigInteger low, final int masklen, final int bits) {
+        return low.add(BigInteger.ONE.shiftLeft(bits - masklen)).subtract(BigInteger.ONE);
+    }
+
+    /**
+     * Check if the given address is covered by the aggregated set.
+     *
+     * @param ip The address to check
+     *
+     * @return <tt>true</tt> if covered, <tt>false</tt> otherwise
+     */
+    public synchronized boolean contains(final IPTarget ip) {
+        if(ip == null || ip.getAddr() == null) {
+            return false;
+        }
+
+        final TreeMap<BigInteger, Integer> nets = ip.isV6() ? v6 : v4;
+        final BigInteger value = NetworkUtils.value(ip);
+        final Map.Entry<BigInteger, Integer> floor = nets.floorEntry(value);
+
+        return floor != null && value.compareTo(
+                end(floor.getKey(), floor.getValue(), NetworkUtils.bits(ip.isV6()))) <= 0;
+    }
+
+    /**
+     * Get a consistent view of the current aggregated set.
+     *
+     * <p>
+     * The returned list is immutable and contains all IPv4 networks followed
+     * by all IPv6 networks, each in ascending address order.
+     * </p>
+     *
+     * @return the aggregated networks
+     */
+    public synchronized List<IPNetwork> snapshot() {
+        if(snapshot == null) {
+            final List<IPNetwork> nets = new ArrayList<IPNetwork>(v4.size() + v6.size());
+            for(Map.Entry<BigInteger, Integer> e : v4.entrySet()) {
+                nets.add(NetworkUtils.toNetwork(e.getKey(), e.getValue(), false));
+            }
+            for(Map.Entry<BigInteger, Integer> e : v6.entrySet()) {
+                nets.add(NetworkUtils.toNetwork(e.getKey(), e.getValue(), true));
+            }
+            snapshot = Collections.unmodifiableList(nets);
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Get the number of networks in the aggregated set.
+     *
+     * @return the number of networks
+     */
+    public synchronized int size() {
+        return v4.size() + v6.size();
+    }
+
+    /**
+     * Remove all networks.
+     */
+    public synchronized void clear() {
+        v4.clear();
+        v6.clear();
+        snapshot = null;
+    }
+}
@@ -0,0 +1,674 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.ancoron.postgresql.jpa.IPAddress;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.ancoron.postgresql.jpa.NetworkBinary;
+import org.postgresql.net.PGmacaddr;
+import org.postgresql.util.PGobject;
+
+/**
+ * Write-behind buffer for "last seen" rows of observed addresses.
+ *
+ * <p>
+ * Every observation of an address only updates an in-memory entry holding
+ * the latest time and the number of observations. The entries are kept in
+ * an open addressing hash table of primitive arrays, so observing an address
+ * doesn't create any objects. From time to time (see
+ * {@link #start(long, TimeUnit)}) or whenever the buffer is full, all entries
+ * are written to a table like this by a background thread:
+ * <pre>
+ * CREATE TABLE host_seen (
+ *     address INET PRIMARY KEY,
+ *     last_seen TIMESTAMP WITH TIME ZONE NOT NULL,
+ *     seen_count BIGINT NOT NULL
+ * );
+ * </pre>
+ * So the number of rows written follows the number of distinct addresses
+ * instead of the number of observations.
+ * </p>
+ *
+ * <p>
+ * By default the entries are loaded into a temporary staging table using
+ * <tt>COPY</tt> (see {@link NetworkCopyWriter}) and merged into the table by
+ * a single <tt>INSERT ... ON CONFLICT</tt> statement. Alternatively they can
+ * be written by JDBC batches of the same statement (see
+ * {@link #setUseCopy(boolean)}).
+ * </p>
+ *
+ * <p>
+ * The memory footprint is bounded by the capacity: there is one buffer being
+ * filled and one being written. If the buffer is full while the other one is
+ * still being written, observing threads wait until that write has finished.
+ * Observations waiting for a buffer when the writer is closed are rejected
+ * (see {@link #close()}).
+ * </p>
+ *
+ * <p>
+ * Please note:
+ * <ul>
+ * <li><tt>INSERT ... ON CONFLICT</tt> requires PostgreSQL 9.5 or later</li>
+ * <li>the mask length of observed <tt>inet</tt> values is ignored, they are
+ * written as host addresses</li>
+ * <li>entries of a failed write are lost (see {@link #getDropped()})</li>
+ * </ul>
+ * </p>
+ *
+ * @author ancoron
+ */
+public class LastSeenWriter {
+
+    private static final String CLASSNAME = "LastSeenWriter";
+    private static final Logger log = Logger.getLogger(LastSeenWriter.class.getName());
+
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * The type of the address column.
+     */
+    public enum Kind {
+
+        INET("inet"),
+        MACADDR("macaddr");
+
+        private final String type;
+
+        private Kind(String type) {
+            this.type = type;
+        }
+
+        public String getType() {
+            return type;
+        }
+    }
+
+    static final byte EMPTY = 0;
+    static final byte V4 = 4;
+    static final byte V6 = 6;
+    static final byte MAC = 48;
+
+    /**
+     * Open addressing hash table of the entries (linear probing).
+     */
+    static class Buffer {
+
+        final byte[] family;
+        final long[] hi;
+        final long[] lo;
+        final long[] seen;
+        final long[] count;
+        private final int mask;
+        private final int limit;
+        private int size = 0;
+
+        Buffer(final int capacity) {
+            // keep the load factor below 0.75...
+            final int n = Integer.highestOneBit(capacity + capacity / 3) << 1;
+
+            family = new byte[n];
+            hi = new long[n];
+            lo = new long[n];
+            seen = new long[n];
+            count = new long[n];
+            mask = n - 1;
+            limit = capacity;
+        }
+
+        private static int hash(final byte f, final long h, final long l) {
+            long x = (h * 0x9E3779B97F4A7C15L) ^ l ^ f;
+            x *= 0xC2B2AE3D27D4EB4FL;
+            return (int) (x ^ (x >>> 32));
+        }
+
+        /**
+         * Add an observation.
+         *
+         * @return <code>false</code> if the address is new but the buffer is
+         * full already
+         */
+        boolean add(final byte f, final long h, final long l, final long time) {
+            int i = hash(f, h, l) & mask;
+            while(family[i] != EMPTY) {
+                if(family[i] == f && hi[i] == h && lo[i] == l) {
+                    if(time > seen[i]) {
+                        seen[i] = time;
+                    }
+                    count[i]++;
+                    return true;
+                }
+                i = (i + 1) & mask;
+            }
+
+            if(size == limit) {
+                return false;
+            }
+
+            family[i] = f;
+            hi[i] = h;
+            lo[i] = l;
+            seen[i] = time;
+            count[i] = 1;
+            size++;
+            return true;
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * Get the next slot holding an entry.
+         *
+         * @param slot The current slot (-1 to start)
+         *
+         * @return the next slot or -1
+         */
+        int next(final int slot) {
+            for(int i=slot + 1; i<family.length; i++) {
+                if(family[i] != EMPTY) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        byte[] address(final int slot) {
+            final byte[] addr = new byte[family[slot] == V4 ? 4 : 16];
+            if(addr.length == 4) {
+                put(addr, 0, lo[slot] << 32, 4);
+            } else {
+                put(addr, 0, hi[slot], 8);
+                put(addr, 8, lo[slot], 8);
+            }
+            return addr;
+        }
+
+        String macaddr(final int slot) {
+            final byte[] mac = new byte[6];
+            put(mac, 0, lo[slot] << 16, 6);
+            return NetworkBinary.readMacaddr(mac, 0);
+        }
+
+        private static void put(final byte[] b, final int offset, final long v, final int n) {
+            for(int i=0; i<n; i++) {
+                b[offset + i] = (byte) (v >>> (56 - 8 * i));
+            }
+        }
+
+        void clear() {
+            Arrays.fill(family, EMPTY);
+            size = 0;
+        }
+    }
+
+    private final DataSource dataSource;
+    private final Kind kind;
+    private final String table;
+    private final String keyColumn;
+    private final String seenColumn;
+    private final String countColumn;
+    private final ScheduledExecutorService executor;
+
+    private final Object lock = new Object();
+    private Buffer active;
+    private Buffer spare;
+    private boolean closed = false;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean useCopy = true;
+
+    /**
+     * Create a new write-behind buffer.
+     *
+     * @param dataSource The data source to get connections from
+     * @param kind The type of the address column
+     * @param table The table
+     * @param keyColumn The address column (primary key or unique)
+     * @param seenColumn The <tt>TIMESTAMP WITH TIME ZONE</tt> column for the
+     * latest observation
+     * @param countColumn The <tt>BIGINT</tt> column for the number of
+     * observations
+     * @param capacity The maximum number of distinct addresses buffered
+     * before the buffer is written
+     */
+    public LastSeenWriter(final DataSource dataSource, final Kind kind,
+            final String table, final String keyColumn, final String seenColumn,
+            final String countColumn, final int capacity)
+    {
+        if(dataSource == null || kind == null || table == null || keyColumn == null
+                || seenColumn == null || countColumn == null)
+        {
+            throw new IllegalArgumentException("Unable to write without data source, kind, table or columns");
+        }
+
+        if(capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+
+        this.dataSource = dataSource;
+        this.kind = kind;
+        this.table = table;
+        this.keyColumn = keyColumn;
+        this.seenColumn = seenColumn;
+        this.countColumn = countColumn;
+        this.active = new Buffer(capacity);
+        this.spare = new Buffer(capacity);
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, CLASSNAME + "-" + LastSeenWriter.this.table);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public boolean isUseCopy() {
+        return useCopy;
+    }
+
+    /**
+     * Choose between <tt>COPY</tt> into a staging table (the default) and
+     * JDBC batches for writing the entries.
+     */
+    public void setUseCopy(boolean useCopy) {
+        this.useCopy = useCopy;
+    }
+
+    /**
+     * Write the buffered entries periodically.
+     *
+     * @param period The time between two writes
+     * @param unit The unit of the period
+     */
+    public void start(final long period, final TimeUnit unit) {
+        executor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    // never wait here, a pending write of a full buffer is
+                    // queued for this very thread...
+                    flush(false);
+                } catch(SQLException x) {
+                    // already logged...
+                }
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Get the number of entries written so far.
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Get the number of entries lost so far because of failed writes.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Get the number of distinct addresses currently buffered.
+     */
+    public int getPending() {
+        synchronized(lock) {
+            return active.size();
+        }
+    }
+
+    /**
+     * Record an observation of the given address.
+     *
+     * @param ip The address
+     * @param time The time of the observation (in milliseconds since the
+     * epoch)
+     */
+    public void observe(final IPTarget ip, final long time) {
+        if(kind != Kind.INET) {
+            throw new IllegalStateException("Unable to observe an IP address for a " + kind.type + " column");
+        }
+
+        final byte[] a = ip.getAddr();
+        if(a.length == 4) {
+            observe(V4, 0L, value(a, 0, 4), time);
+        } else {
+            observe(V6, value(a, 0, 8), value(a, 8, 8), time);
+        }
+    }
+
+    /**
+     * Record an observation of the given MAC address.
+     *
+     * @param mac The MAC address
+     * @param time The time of the observation (in milliseconds since the
+     * epoch)
+     */
+    public void observe(final PGmacaddr mac, final long time) {
+        if(kind != Kind.MACADDR) {
+            throw new IllegalStateException("Unable to observe a MAC address for a " + kind.type + " column");
+        }
+
+        final String value = mac.getValue();
+        long v = 0L;
+        int digits = 0;
+        for(int i=0, n=value.length(); i<n; i++) {
+            final int digit = Character.digit(value.charAt(i), 16);
+            if(digit >= 0) {
+                v = (v << 4) | digit;
+                digits++;
+            }
+        }
+
+        if(digits != 12) {
+            throw new IllegalArgumentException("Invalid MAC address: " + value);
+        }
+
+        observe(MAC, 0L, v, time);
+    }
+
+    private static long value(final byte[] b, final int offset, final int n) {
+        long v = 0L;
+        for(int i=0; i<n; i++) {
+            v = (v << 8) | (b[offset + i] & 0xFF);
+        }
+        return v;
+    }
+
+    private void observe(final byte f, final long h, final long l, final long time) {
+        Buffer full = null;
+        boolean waited = false;
+        synchronized(lock) {
+            while(true) {
+                // also after waiting, the writer might have been closed...
+                if(closed) {
+                    if(waited) {
+                        dropped.incrementAndGet();
+                    }
+                    throw new IllegalStateException("Writer has been closed already");
+                }
+
+                if(active.add(f, h, l, time)) {
+                    break;
+                } else if(spare != null) {
+                    // the fresh buffer takes the observation next round...
+                    full = swap();
+                } else {
+                    // backpressure: wait for the other buffer to be written...
+                    try {
+                        lock.wait();
+                        waited = true;
+                    } catch(InterruptedException x) {
+                        Thread.currentThread().interrupt();
+                        dropped.incrementAndGet();
+                        return;
+                    }
+                }
+            }
+        }
+
+        if(full != null) {
+            writeBehind(full);
+        }
+    }
+
+    /**
+     * Write a full buffer in the background and make it the spare one again
+     * afterwards.
+     */
+    private void writeBehind(final Buffer full) {
+        final Runnable task = new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    write(full);
+                } catch(SQLException x) {
+                    // already logged...
+                } finally {
+                    release(full);
+                }
+            }
+        };
+
+        try {
+            executor.execute(task);
+        } catch(RejectedExecutionException x) {
+            // closed meanwhile, but close() waits for this buffer...
+            task.run();
+        }
+    }
+
+    /**
+     * Swap the buffers, the lock must be held.
+     */
+    private Buffer swap() {
+        final Buffer full = active;
+        active = spare;
+        spare = null;
+        return full;
+    }
+
+    private void release(final Buffer buffer) {
+        buffer.clear();
+        synchronized(lock) {
+            spare = buffer;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Write all buffered entries now.
+     *
+     * @throws SQLException if writing failed, the entries are lost then
+     */
+    public void flush() throws SQLException {
+        flush(true);
+    }
+
+    /**
+     * Write all buffered entries.
+     *
+     * @param wait <code>false</code> to skip writing if the other buffer is
+     * still being written
+     */
+    private void flush(final boolean wait) throws SQLException {
+        final Buffer full;
+        synchronized(lock) {
+            while(spare == null) {
+                if(!wait) {
+                    return;
+                }
+                try {
+                    lock.wait();
+                } catch(InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for the previous write", x);
+                }
+            }
+
+            if(active.size() == 0) {
+                return;
+            }
+
+            full = swap();
+        }
+
+        try {
+            write(full);
+        } finally {
+            release(full);
+        }
+    }
+
+    /**
+     * Write all buffered entries and stop the background thread.
+     *
+     * <p>
+     * Threads still waiting in <tt>observe</tt> for a buffer get an
+     * <tt>IllegalStateException</tt> and their observation is counted as
+     * dropped.
+     * </p>
+     *
+     * @throws SQLException if writing the remaining entries failed
+     */
+    public void close() throws SQLException {
+        synchronized(lock) {
+            closed = true;
+
+            // observers waiting for a buffer fail now...
+            lock.notifyAll();
+        }
+
+        executor.shutdown();
+        flush();
+    }
+
+    String upsert(final String source) {
+        return "INSERT INTO " + table + " AS t (" + keyColumn + ", " + seenColumn
+                + ", " + countColumn + ") " + source
+                + " ON CONFLICT (" + keyColumn + ") DO UPDATE SET "
+                + seenColumn + " = GREATEST(t." + seenColumn + ", EXCLUDED." + seenColumn + "), "
+                + countColumn + " = t." + countColumn + " + EXCLUDED." + countColumn;
+    }
+
+    String stage() {
+        return "stage_" + table.replace('.', '_');
+    }
+
+    /**
+     * Write the entries of the given buffer in a single transaction.
+     *
+     * @param buffer The buffer
+     *
+     * @throws SQLException if writing failed
+     */
+    void write(final Buffer buffer) throws SQLException {
+        try {
+            final Connection conn = dataSource.getConnection();
+            try {
+                conn.setAutoCommit(false);
+                if(useCopy) {
+                    copy(conn, buffer);
+                } else {
+                    batch(conn, buffer);
+                }
+                conn.commit();
+            } catch(SQLException x) {
+                rollback(conn);
+                throw x;
+            } finally {
+                conn.close();
+            }
+
+            written.addAndGet(buffer.size());
+        } catch(SQLException x) {
+            dropped.addAndGet(buffer.size());
+            log.logp(Level.WARNING, CLASSNAME, "write",
+                    "Unable to write " + buffer.size() + " entries into " + table, x);
+            throw x;
+        }
+    }
+
+    private void copy(final Connection conn, final Buffer buffer) throws SQLException {
+        final String stage = stage();
+        final Statement stmt = conn.createStatement();
+        try {
+            stmt.execute("CREATE TEMPORARY TABLE IF NOT EXISTS " + stage + " (k "
+                    + kind.type + ", seen BIGINT, cnt BIGINT) ON COMMIT DELETE ROWS");
+
+            final NetworkCopyWriter w = new NetworkCopyWriter(conn, stage, "k", "seen", "cnt");
+            try {
+                for(int i=buffer.next(-1); i>=0; i=buffer.next(i)) {
+                    if(buffer.family[i] == MAC) {
+                        w.add(buffer.macaddr(i));
+                    } else {
+                        final byte[] addr = buffer.address(i);
+                        w.add(addr, addr.length * 8);
+                    }
+                    w.add(buffer.seen[i]).add(buffer.count[i]).endRow();
+                }
+                w.close();
+            } finally {
+                w.cancel();
+            }
+
+            stmt.executeUpdate(upsert("SELECT k, to_timestamp(seen / 1000.0), cnt FROM " + stage));
+        } finally {
+            stmt.close();
+        }
+    }
+
+    private void batch(final Connection conn, final Buffer buffer) throws SQLException {
+        final PreparedStatement ps = conn.prepareStatement(
+                upsert("VALUES (?, to_timestamp(? / 1000.0), ?)"));
+        try {
+            int rows = 0;
+            for(int i=buffer.next(-1); i>=0; i=buffer.next(i)) {
+                final PGobject key = new PGobject();
+                key.setType(kind.type);
+                key.setValue(buffer.family[i] == MAC
+                        ? buffer.macaddr(i)
+                        : IPAddress.valueOf(buffer.address(i)).getValue());
+
+                ps.setObject(1, key);
+                ps.setLong(2, buffer.seen[i]);
+                ps.setLong(3, buffer.count[i]);
+                ps.addBatch();
+
+                if(++rows % BATCH_SIZE == 0) {
+                    ps.executeBatch();
+                }
+            }
+
+            if(rows % BATCH_SIZE != 0) {
+                ps.executeBatch();
+            }
+        } finally {
+            ps.close();
+        }
+    }
+
+    private void rollback(final Connection conn) {
+        try {
+            conn.rollback();
+        } catch(SQLException x) {
+            log.logp(Level.WARNING, CLASSNAME, "rollback",
+                    "Unable to rollback transaction", x);
+        }
+    }
+}
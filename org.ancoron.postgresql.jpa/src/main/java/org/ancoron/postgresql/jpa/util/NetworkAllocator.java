@@ -0,0 +1,251 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+
+/**
+ * Thread-safe in-memory allocator for sub-networks and single addresses
+ * inside one or more root networks.
+ *
+ * <p>
+ * The free space is managed using buddy-style free lists: an allocation
+ * takes the lowest block of the smallest free size that fits and splits it
+ * as required (just like {@link NetworkUtils#split(IPNetwork)} does), while
+ * a released block is merged with its buddy again (just like
+ * {@link NetworkUtils#merge(IPNetwork[])} does) as long as possible.
+ * </p>
+ *
+ * <p>
+ * Each mask length is guarded by its own lock and no operation holds more
+ * than one lock at a time, so concurrent allocations scale with the number
+ * of threads as long as they don't all have to split the same large block.
+ * An allocation never fails just because another thread is splitting or
+ * merging the free block it needs at the same moment.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * <pre>
+ * NetworkAllocator alloc = new NetworkAllocator(
+ *         new IPNetwork("10.0.0.0/16"), new IPNetwork("fd00::/48"));
+ * IPNetwork subnet = alloc.allocate(false, 24); // 10.0.0.0/24
+ * IPTarget ip = alloc.allocateTarget(true);      // fd00::
+ * // ...
+ * alloc.release(ip);
+ * alloc.release(subnet);
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * Please note that single addresses are allocated as host networks, so the
+ * network and broadcast addresses of IPv4 root networks are also handed
+ * out. Reserve them up-front by using {@link #allocate(IPNetwork)} if
+ * required.
+ * </p>
+ *
+ * @author ancoron
+ */
+public class NetworkAllocator {
+
+    private final List<IPNetwork> roots;
+    private final BuddyFreeList v4 = new BuddyFreeList(false);
+    private final BuddyFreeList v6 = new BuddyFreeList(true);
+
+    /**
+     * Create a new allocator managing the complete address space of the
+     * given networks.
+     *
+     * @param roots The root networks (must not overlap)
+     *
+     * @throws IllegalArgumentException if no root networks are given or
+     * some of them overlap
+     */
+    public NetworkAllocator(final IPNetwork... roots) {
+        if(roots == null || roots.length == 0) {
+            throw new IllegalArgumentException("Unable to allocate networks without any root network");
+        }
+
+        final List<IPNetwork> list = new ArrayList<IPNetwork>(roots.length);
+        for(IPNetwork root : roots) {
+            if(root == null || root.getAddr() == null) {
+                throw new IllegalArgumentException("Unable to allocate networks inside an empty root network");
+            }
+
+            for(IPNetwork other : list) {
+                if(NetworkUtils.covers(root, other) || NetworkUtils.covers(other, root)) {
+                    throw new IllegalArgumentException("Unable to allocate networks inside "
+                            + root + ": overlaps with " + other);
+                }
+            }
+
+            list.add(root);
+            pool(root.isV6()).free(NetworkUtils.lowValue(root), root.getNetmask());
+        }
+
+        this.roots = Collections.unmodifiableList(list);
+    }
+
+    public List<IPNetwork> getRoots() {
+        return roots;
+    }
+
+    private BuddyFreeList pool(final boolean ipv6) {
+        return ipv6 ? v6 : v4;
+    }
+
+    /**
+     * Allocate a free sub-network of the given size.
+     *
+     * @param ipv6 <tt>true</tt> to allocate from the IPv6 roots,
+     * <tt>false</tt> for the IPv4 ones
+     * @param masklen The mask length of the sub-network
+     *
+     * @return the allocated sub-network or <code>null</code> if no free
+     * block of that size is available anymore
+     *
+     * @throws IllegalArgumentException if the mask length is invalid
+     */
+    public IPNetwork allocate(final boolean ipv6, final int masklen) {
+        final int bits = NetworkUtils.bits(ipv6);
+
+        if(masklen < 0 || masklen > bits) {
+            throw new IllegalArgumentException("Unable to allocate a /" + masklen
+                    + " network: invalid mask length");
+        }
+
+        final BigInteger low = pool(ipv6).allocate(masklen);
+
+        return low == null ? null : NetworkUtils.toNetwork(low, masklen, ipv6);
+    }
+
+    /**
+     * Allocate a specific sub-network (e.g. to reserve it).
+     *
+     * @param subnet The sub-network to allocate
+     *
+     * @return <tt>true</tt> if the given sub-network has been allocated,
+     * <tt>false</tt> if it is (at least partially) allocated already
+     *
+     * @throws IllegalArgumentException if the given sub-network is not part
+     * of any root network
+     */
+    public boolean allocate(final IPNetwork subnet) {
+        checkInside(subnet);
+
+        return pool(subnet.isV6()).allocate(
+                NetworkUtils.lowValue(subnet), subnet.getNetmask());
+    }
+
+    /**
+     * Allocate a single free address.
+     *
+     * @param ipv6 <tt>true</tt> to allocate from the IPv6 roots,
+     * <tt>false</tt> for the IPv4 ones
+     *
+     * @return the allocated address or <code>null</code> if no free address
+     * is available anymore
+     */
+    public IPTarget allocateTarget(final boolean ipv6) {
+        final IPNetwork host = allocate(ipv6, NetworkUtils.bits(ipv6));
+
+        return host == null ? null : host.getLowestTarget();
+    }
+
+    /**
+     * Release a previously allocated sub-network.
+     *
+     * @param subnet The sub-network to release
+     *
+     * @throws IllegalArgumentException if the given sub-network is not part
+     * of any root network
+     *
+     * @throws IllegalStateException if the given sub-network is already free
+     */
+    public void release(final IPNetwork subnet) {
+        checkInside(subnet);
+
+        pool(subnet.isV6()).free(NetworkUtils.lowValue(subnet), subnet.getNetmask());
+    }
+
+    /**
+     * Release a previously allocated single address.
+     *
+     * @param ip The address to release
+     *
+     * @throws IllegalArgumentException if the given address is not part of
+     * any root network
+     *
+     * @throws IllegalStateException if the given address is already free
+     */
+    public void release(final IPTarget ip) {
+        if(ip == null || ip.getAddr() == null) {
+            throw new IllegalArgumentException("Unable to release an empty address");
+        }
+
+        final int bits = NetworkUtils.bits(ip.isV6());
+        final BigInteger value = NetworkUtils.value(ip);
+
+        release(NetworkUtils.toNetwork(value, bits, ip.isV6()));
+    }
+
+    /**
+     * Get the number of free addresses of an address family.
+     *
+     * @param ipv6 <tt>true</tt> for IPv6, <tt>false</tt> for IPv4
+     *
+     * @return the number of free addresses
+     */
+    public BigInteger getFreeSize(final boolean ipv6) {
+        return pool(ipv6).size();
+    }
+
+    /**
+     * Get the free blocks of an address family, largest blocks first.
+     *
+     * <p>
+     * Please note that the result is not an atomic snapshot in case of
+     * concurrent allocations.
+     * </p>
+     *
+     * @param ipv6 <tt>true</tt> for IPv6, <tt>false</tt> for IPv4
+     *
+     * @return the free blocks
+     */
+    public List<IPNetwork> getFree(final boolean ipv6) {
+        return pool(ipv6).toNetworks();
+    }
+
+    private void checkInside(final IPNetwork subnet) {
+        if(subnet == null || subnet.getAddr() == null) {
+            throw new IllegalArgumentException("Unable to handle an empty network");
+        }
+
+        for(IPNetwork root : roots) {
+            if(NetworkUtils.covers(root, subnet)) {
+                return;
+            }
+        }
+
+        throw new IllegalArgumentException("Network " + subnet
+                + " is not part of any root network");
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.ancoron.postgresql.jpa.eclipselink.IPNetworkConverter;
+import org.postgresql.PGStatement;
+import org.postgresql.util.PGobject;
+
+/**
+ * Looks up the networks containing many addresses at once.
+ *
+ * <p>
+ * Instead of one <tt>&gt;&gt;=</tt> query per address all addresses are
+ * sent as a single <tt>inet[]</tt> parameter and joined against the network
+ * column of a table:
+ * <pre>
+ * SELECT a.addr, t.network, t.id
+ *   FROM unnest(?) AS a(addr)
+ *   JOIN customer_network t ON t.network &gt;&gt;= a.addr
+ * </pre>
+ * So looking up 10,000 addresses is a single round trip, which can still use
+ * a GiST/SP-GiST index on the network column (see
+ * {@link org.ancoron.postgresql.jpa.eclipselink.NetworkIndex}).
+ * </p>
+ *
+ * <p>
+ * An instance prepares its statement once for a connection and executes it
+ * as a server-side prepared statement for each lookup, so it should be kept
+ * as long as the connection is in use and closed afterwards:
+ * <pre>
+ * NetworkContainmentLookup lookup = new NetworkContainmentLookup(
+ *         con, "customer_network", "network", "id");
+ * try {
+ *     lookup.lookup(addresses, new NetworkContainmentLookup.Handler() {
+ *         public void match(IPTarget address, IPNetwork network, ResultSet row) throws SQLException {
+ *             customers.put(address, row.getLong(3));
+ *         }
+ *     });
+ * } finally {
+ *     lookup.close();
+ * }
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * The network column has to be of type <tt>cidr</tt>. Instances are not
+ * thread-safe.
+ * </p>
+ *
+ * @author ancoron
+ */
+public class NetworkContainmentLookup {
+
+    /**
+     * Receives the matches of a lookup as they are read from the database.
+     */
+    public interface Handler {
+
+        /**
+         * Called for each pair of an address and a network containing it.
+         *
+         * @param address The address looked up
+         * @param network The network containing the address
+         * @param row The current result row, the additional columns start at
+         * index 3
+         *
+         * @throws SQLException if reading the row fails
+         */
+        void match(IPTarget address, IPNetwork network, ResultSet row) throws SQLException;
+    }
+
+    private final IPNetworkConverter converter = new IPNetworkConverter();
+    private final PreparedStatement select;
+    private int fetchSize = 1000;
+
+    /**
+     * Prepare lookups of all networks containing the addresses.
+     *
+     * @param con The connection
+     * @param table The table
+     * @param column The <tt>cidr</tt> column of the table
+     * @param columns Additional columns to read for every match (e.g. the
+     * primary key)
+     *
+     * @throws SQLException if the statement couldn't be prepared
+     */
+    public NetworkContainmentLookup(final Connection con, final String table,
+            final String column, final String... columns) throws SQLException
+    {
+        this(con, table, column, false, columns);
+    }
+
+    /**
+     * Prepare lookups of the networks containing the addresses.
+     *
+     * @param con The connection
+     * @param table The table
+     * @param column The <tt>cidr</tt> column of the table
+     * @param mostSpecific <tt>true</tt> to only match the network with the
+     * longest prefix per address, <tt>false</tt> to match all networks
+     * @param columns Additional columns to read for every match (e.g. the
+     * primary key)
+     *
+     * @throws SQLException if the statement couldn't be prepared
+     */
+    public NetworkContainmentLookup(final Connection con, final String table,
+            final String column, final boolean mostSpecific,
+            final String... columns) throws SQLException
+    {
+        if(con == null || table == null || column == null) {
+            throw new IllegalArgumentException("Unable to look up networks without connection, table or column");
+        }
+
+        select = con.prepareStatement(sql(table, column, mostSpecific, columns));
+
+        // use a server-side prepared statement right from the start...
+        if(select.isWrapperFor(PGStatement.class)) {
+            select.unwrap(PGStatement.class).setPrepareThreshold(1);
+        }
+    }
+
+    static String sql(final String table, final String column,
+            final boolean mostSpecific, final String... columns)
+    {
+        final StringBuilder sb = new StringBuilder("SELECT ");
+        if(mostSpecific) {
+            sb.append("DISTINCT ON (a.addr) ");
+        }
+        sb.append("a.addr, t.").append(column);
+        if(columns != null) {
+            for(String c : columns) {
+                sb.append(", t.").append(c);
+            }
+        }
+        sb.append(" FROM unnest(?) AS a(addr) JOIN ").append(table)
+                .append(" t ON t.").append(column).append(" >>= a.addr");
+        if(mostSpecific) {
+            sb.append(" ORDER BY a.addr, masklen(t.").append(column).append(") DESC");
+        }
+        return sb.toString();
+    }
+
+    static PGobject array(final Collection<? extends IPTarget> addresses) throws SQLException {
+        final StringBuilder sb = new StringBuilder(addresses.size() * 16 + 2).append('{');
+        for(IPTarget ip : addresses) {
+            if(sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append(ip.getValue());
+        }
+        sb.append('}');
+
+        final PGobject obj = new PGobject();
+        obj.setType("_inet");
+        obj.setValue(sb.toString());
+        return obj;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Set the number of rows read from the server at once.
+     *
+     * <p>
+     * Note that the PostgreSQL driver only reads the result in chunks if
+     * auto-commit is disabled, otherwise all matches are read at once.
+     * </p>
+     *
+     * @param fetchSize The number of rows (0 to read all rows at once)
+     */
+    public void setFetchSize(int fetchSize) {
+        if(fetchSize < 0) {
+            throw new IllegalArgumentException("Invalid fetch size " + fetchSize);
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Look up the networks containing the given addresses.
+     *
+     * @param addresses The addresses (duplicates are only looked up once)
+     * @param handler The handler receiving all matches
+     *
+     * @return the number of matches
+     *
+     * @throws SQLException if the lookup fails
+     */
+    public long lookup(final Collection<? extends IPTarget> addresses,
+            final Handler handler) throws SQLException
+    {
+        final Set<IPTarget> distinct = new LinkedHashSet<IPTarget>(addresses.size());
+        for(IPTarget ip : addresses) {
+            if(ip != null && ip.getAddr() != null) {
+                distinct.add(ip);
+            }
+        }
+
+        if(distinct.isEmpty()) {
+            return 0;
+        }
+
+        select.setObject(1, array(distinct));
+        select.setFetchSize(fetchSize);
+
+        long matches = 0;
+        final ResultSet rs = select.executeQuery();
+        try {
+            while(rs.next()) {
+                handler.match(new IPTarget(rs.getString(1)),
+                        converter.convertDataValueToObjectValue(rs.getObject(2), null), rs);
+                matches++;
+            }
+        } finally {
+            rs.close();
+        }
+
+        return matches;
+    }
+
+    /**
+     * Look up the networks containing the given addresses.
+     *
+     * <p>
+     * If the lookup isn't restricted to the most specific network, the
+     * network returned for an address is any of the networks containing it.
+     * </p>
+     *
+     * @param addresses The addresses
+     *
+     * @return the network per address, addresses without any network
+     * containing them are missing
+     *
+     * @throws SQLException if the lookup fails
+     */
+    public Map<IPTarget, IPNetwork> lookup(final Collection<? extends IPTarget> addresses)
+            throws SQLException
+    {
+        final Map<IPTarget, IPNetwork> result = new LinkedHashMap<IPTarget, IPNetwork>();
+        lookup(addresses, new Handler() {
+
+            @Override
+            public void match(IPTarget address, IPNetwork network, ResultSet row) {
+                result.put(address, network);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Release the prepared statement.
+     */
+    public void close() throws SQLException {
+        select.close();
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.UUID;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.postgresql.copy.CopyOut;
+import org.postgresql.net.PGmacaddr;
+
+/**
+ * Bulk export of rows using <tt>COPY (...) TO STDOUT</tt> (text format).
+ *
+ * <p>
+ * Rows are read one at a time and their fields are only parsed on access.
+ * Network addresses can be read into a caller supplied buffer (see
+ * {@link #getAddress(int, byte[])}), so exporting doesn't need to create any
+ * objects per row:
+ * <pre>
+ * NetworkCopyReader r = new NetworkCopyReader(con, "SELECT src, bytes FROM flow");
+ * try {
+ *     byte[] addr = new byte[16];
+ *     while(r.next()) {
+ *         int masklen = r.getAddress(1, addr);
+ *         long bytes = r.getLong(2);
+ *         // ...
+ *     }
+ * } finally {
+ *     r.close();
+ * }
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * Column indexes start at 1 like for a <tt>ResultSet</tt>. Instances are not
+ * thread-safe. The connection must not be used for anything else until all
+ * rows have been read or the reader has been closed.
+ * </p>
+ *
+ * @author ancoron
+ *
+ * @see NetworkCopyWriter
+ */
+public class NetworkCopyReader {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final CopyOut copy;
+    private byte[] row;
+    private int[] start = new int[16];
+    private int[] end = new int[16];
+    private int columns = 0;
+    private final int[] groups = new int[8];
+
+    /**
+     * Start exporting the rows of the given query.
+     *
+     * @param con The connection (or a wrapper of a PostgreSQL connection)
+     * @param query The query (or just a table name)
+     *
+     * @throws SQLException if the COPY couldn't be started
+     */
+    public NetworkCopyReader(final Connection con, final String query) throws SQLException {
+        this(NetworkCopyWriter.getCopyAPI(con).copyOut(query.trim().indexOf(' ') < 0
+                ? "COPY " + query + " TO STDOUT"
+                : "COPY (" + query + ") TO STDOUT"));
+    }
+
+    NetworkCopyReader(final CopyOut copy) {
+        this.copy = copy;
+    }
+
+    /**
+     * Move to the next row.
+     *
+     * @return <code>false</code> if there are no more rows
+     */
+    public boolean next() throws SQLException {
+        row = copy.readFromCopy();
+        columns = 0;
+
+        if(row == null) {
+            return false;
+        }
+
+        int len = row.length;
+        if(len > 0 && row[len - 1] == '\n') {
+            len--;
+        }
+
+        int s = 0;
+        for(int i=0; i<=len; i++) {
+            if(i == len || row[i] == '\t') {
+                if(columns == start.length) {
+                    start = Arrays.copyOf(start, columns * 2);
+                    end = Arrays.copyOf(end, columns * 2);
+                }
+                start[columns] = s;
+                end[columns] = i;
+                columns++;
+                s = i + 1;
+            }
+        }
+
+        return true;
+    }
+
+    public int getColumnCount() {
+        return columns;
+    }
+
+    private int check(final int column) {
+        if(row == null) {
+            throw new IllegalStateException("No current row");
+        } else if(column < 1 || column > columns) {
+            throw new IndexOutOfBoundsException("Invalid column " + column
+                    + " (" + columns + " columns)");
+        }
+        return column - 1;
+    }
+
+    public boolean isNull(final int column) {
+        final int c = check(column);
+        return end[c] - start[c] == 2 && row[start[c]] == '\\' && row[start[c] + 1] == 'N';
+    }
+
+    public String getString(final int column) {
+        if(isNull(column)) {
+            return null;
+        }
+
+        final int c = column - 1;
+        final int s = start[c];
+        final int e = end[c];
+
+        boolean escaped = false;
+        for(int i=s; i<e && !escaped; i++) {
+            escaped = row[i] == '\\';
+        }
+
+        if(!escaped) {
+            return new String(row, s, e - s, UTF8);
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(e - s);
+        for(int i=s; i<e; i++) {
+            byte b = row[i];
+            if(b == '\\' && i + 1 < e) {
+                b = row[++i];
+                switch(b) {
+                    case 't': b = '\t'; break;
+                    case 'n': b = '\n'; break;
+                    case 'r': b = '\r'; break;
+                    case 'b': b = '\b'; break;
+                    case 'f': b = '\f'; break;
+                    case 'v': b = 11; break;
+                    default: break;
+                }
+            }
+            out.write(b);
+        }
+
+        return new String(out.toByteArray(), UTF8);
+    }
+
+    public long getLong(final int column) {
+        if(isNull(column)) {
+            throw new IllegalStateException("Column " + column + " is NULL");
+        }
+
+        final int c = column - 1;
+        int i = start[c];
+        final boolean negative = row[i] == '-';
+        if(negative) {
+            i++;
+        }
+
+        if(i == end[c]) {
+            throw new NumberFormatException("Invalid number: " + getString(column));
+        }
+
+        long value = 0;
+        for(; i<end[c]; i++) {
+            final int digit = row[i] - '0';
+            if(digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid number: " + getString(column));
+            }
+            value = value * 10 + digit;
+        }
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * Check if the <tt>inet</tt> or <tt>cidr</tt> value of the given column
+     * is an IPv6 address.
+     */
+    public boolean isV6(final int column) {
+        final int c = check(column);
+        for(int i=start[c]; i<end[c]; i++) {
+            if(row[i] == ':') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the <tt>inet</tt> or <tt>cidr</tt> value of the given column
+     * without creating any objects.
+     *
+     * @param column The column
+     * @param addr The buffer receiving the raw address, the first 4 bytes
+     * for IPv4 or all 16 bytes for IPv6 (see {@link #isV6(int)})
+     *
+     * @return the mask length or <tt>-1</tt> if the value is NULL
+     *
+     * @throws IllegalArgumentException if the value isn't a valid address
+     */
+    public int getAddress(final int column, final byte[] addr) {
+        if(isNull(column)) {
+            return -1;
+        }
+
+        final int c = column - 1;
+        int slash = end[c];
+        for(int i=start[c]; i<end[c]; i++) {
+            if(row[i] == '/') {
+                slash = i;
+                break;
+            }
+        }
+
+        final int bits;
+        if(isV6(column)) {
+            parseIPv6(start[c], slash, addr);
+            bits = 128;
+        } else {
+            parseIPv4(start[c], slash, addr, 0);
+            bits = 32;
+        }
+
+        if(slash == end[c]) {
+            return bits;
+        }
+
+        int masklen = 0;
+        for(int i=slash + 1; i<end[c] && masklen <= bits; i++) {
+            final int digit = row[i] - '0';
+            if(digit < 0 || digit > 9) {
+                masklen = bits + 1;
+            } else {
+                masklen = masklen * 10 + digit;
+            }
+        }
+
+        if(masklen > bits || slash + 1 == end[c]) {
+            throw new IllegalArgumentException("Invalid mask length: " + getString(column));
+        }
+
+        return masklen;
+    }
+
+    private void parseIPv4(final int s, final int e, final byte[] addr, final int offset) {
+        int part = 0;
+        int octet = -1;
+        for(int i=s; i<e; i++) {
+            final byte b = row[i];
+            if(b >= '0' && b <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (b - '0');
+                if(octet > 255) {
+                    break;
+                }
+            } else if(b == '.' && octet >= 0 && part < 3) {
+                addr[offset + part++] = (byte) octet;
+                octet = -1;
+            } else {
+                octet = 256;
+                break;
+            }
+        }
+
+        if(part != 3 || octet < 0 || octet > 255) {
+            throw new IllegalArgumentException("Invalid IPv4 address: "
+                    + new String(row, s, e - s, UTF8));
+        }
+
+        addr[offset + 3] = (byte) octet;
+    }
+
+    private void parseIPv6(final int s, final int e, final byte[] addr) {
+        int count = 0;
+        int gap = -1;
+        int group = -1;
+        int i = s;
+
+        while(i < e) {
+            final byte b = row[i];
+            if(b == ':') {
+                if(i + 1 < e && row[i + 1] == ':') {
+                    if(gap >= 0) {
+                        break;
+                    }
+                    if(group >= 0) {
+                        groups[count++] = group;
+                    }
+                    gap = count;
+                    group = -1;
+                    i += 2;
+                    continue;
+                } else if(group < 0 || count == 7) {
+                    break;
+                }
+                groups[count++] = group;
+                group = -1;
+            } else if(b == '.') {
+                // embedded IPv4 address in the last 32 bits...
+                int k = i;
+                while(k > s && row[k - 1] != ':') {
+                    k--;
+                }
+                if(count > 6) {
+                    break;
+                }
+                parseIPv4(k, e, addr, 12);
+                groups[count++] = ((addr[12] & 0xFF) << 8) | (addr[13] & 0xFF);
+                groups[count++] = ((addr[14] & 0xFF) << 8) | (addr[15] & 0xFF);
+                group = -1;
+                i = e;
+                continue;
+            } else {
+                final int digit = Character.digit(b, 16);
+                if(digit < 0) {
+                    break;
+                }
+                group = (group < 0 ? 0 : group << 4) | digit;
+                if(group > 0xFFFF || count == 8) {
+                    break;
+                }
+            }
+            i++;
+        }
+
+        if(i == e && group >= 0 && count < 8) {
+            groups[count++] = group;
+        }
+
+        if(i < e || (gap < 0 && count != 8) || (gap >= 0 && count > 7)) {
+            throw new IllegalArgumentException("Invalid IPv6 address: "
+                    + new String(row, s, e - s, UTF8));
+        }
+
+        // expand the gap...
+        final int missing = 8 - count;
+        for(int g=0, j=0; g<8; g++) {
+            final int value;
+            if(gap >= 0 && g >= gap && g < gap + missing) {
+                value = 0;
+            } else {
+                value = groups[j++];
+            }
+            addr[2 * g] = (byte) (value >> 8);
+            addr[2 * g + 1] = (byte) value;
+        }
+    }
+
+    public IPTarget getIPTarget(final int column) {
+        final String value = getString(column);
+        return value == null ? null : new IPTarget(value);
+    }
+
+    public IPNetwork getIPNetwork(final int column) {
+        final String value = getString(column);
+        return value == null ? null : new IPNetwork(value);
+    }
+
+    public PGmacaddr getPGmacaddr(final int column) throws SQLException {
+        final String value = getString(column);
+        return value == null ? null : new PGmacaddr(value);
+    }
+
+    public UUID getUUID(final int column) {
+        if(isNull(column)) {
+            return null;
+        }
+
+        final int c = column - 1;
+        long msb = 0;
+        long lsb = 0;
+        int digits = 0;
+        for(int i=start[c]; i<end[c]; i++) {
+            if(row[i] == '-') {
+                continue;
+            }
+            final int digit = Character.digit(row[i], 16);
+            if(digit < 0 || digits == 32) {
+                throw new IllegalArgumentException("Invalid UUID: " + getString(column));
+            }
+            if(digits++ < 16) {
+                msb = (msb << 4) | digit;
+            } else {
+                lsb = (lsb << 4) | digit;
+            }
+        }
+
+        if(digits != 32) {
+            throw new IllegalArgumentException("Invalid UUID: " + getString(column));
+        }
+
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * Abort the export if not all rows have been read.
+     */
+    public void close() throws SQLException {
+        row = null;
+        if(copy.isActive()) {
+            copy.cancelCopy();
+        }
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.UUID;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.net.PGmacaddr;
+
+/**
+ * Bulk loading of rows into a table using <tt>COPY ... FROM STDIN</tt> (text
+ * format).
+ *
+ * <p>
+ * Values are formatted directly into a reusable buffer which is sent to the
+ * server whenever it is full, so neither entities nor intermediate
+ * <tt>PGobject</tt>s or strings are created per row:
+ * <pre>
+ * NetworkCopyWriter w = new NetworkCopyWriter(con, "flow", "src", "dst", "bytes");
+ * try {
+ *     for(Flow f : flows) {
+ *         w.add(f.getSource()).add(f.getDestination()).add(f.getBytes()).endRow();
+ *     }
+ *     w.close();
+ * } finally {
+ *     w.cancel();
+ * }
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe. The connection must not be used for
+ * anything else until the writer has been closed or cancelled.
+ * </p>
+ *
+ * @author ancoron
+ *
+ * @see NetworkCopyReader
+ */
+public class NetworkCopyWriter {
+
+    static final int BUFFER_SIZE = 65536;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] HEX = "0123456789abcdef".getBytes(UTF8);
+
+    private final CopyIn copy;
+    private final byte[] buffer;
+    private int pos = 0;
+    private int fields = 0;
+    private long rows = 0;
+
+    /**
+     * Start loading rows into the given table.
+     *
+     * @param con The connection (or a wrapper of a PostgreSQL connection)
+     * @param table The table
+     * @param columns The columns in the order their values are added per row
+     *
+     * @throws SQLException if the COPY couldn't be started
+     */
+    public NetworkCopyWriter(final Connection con, final String table,
+            final String... columns) throws SQLException
+    {
+        this(getCopyAPI(con).copyIn(sql(table, columns)), BUFFER_SIZE);
+    }
+
+    NetworkCopyWriter(final CopyIn copy, final int bufferSize) {
+        this.copy = copy;
+        this.buffer = new byte[bufferSize];
+    }
+
+    private static String sql(final String table, final String... columns) {
+        final StringBuilder sb = new StringBuilder("COPY ").append(table);
+        if(columns != null && columns.length > 0) {
+            sb.append(" (");
+            for(int i=0; i<columns.length; i++) {
+                if(i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(columns[i]);
+            }
+            sb.append(')');
+        }
+        return sb.append(" FROM STDIN").toString();
+    }
+
+    static CopyManager getCopyAPI(final Connection con) throws SQLException {
+        if(con instanceof PGConnection) {
+            return ((PGConnection) con).getCopyAPI();
+        } else if(con.isWrapperFor(PGConnection.class)) {
+            return con.unwrap(PGConnection.class).getCopyAPI();
+        }
+
+        throw new SQLException("Not a PostgreSQL connection: " + con.getClass().getName());
+    }
+
+    private void ensure(final int size) throws SQLException {
+        if(pos + size > buffer.length) {
+            flush();
+        }
+    }
+
+    private void separator() throws SQLException {
+        ensure(1);
+        if(fields++ > 0) {
+            buffer[pos++] = '\t';
+        }
+    }
+
+    private void put(final int b) throws SQLException {
+        ensure(1);
+        buffer[pos++] = (byte) b;
+    }
+
+    private void putDecimal(long value) {
+        if(value < 0) {
+            buffer[pos++] = '-';
+            if(value == Long.MIN_VALUE) {
+                // can't be negated...
+                final byte[] b = Long.toString(value).getBytes(UTF8);
+                System.arraycopy(b, 1, buffer, pos, b.length - 1);
+                pos += b.length - 1;
+                return;
+            }
+            value = -value;
+        }
+
+        final int start = pos;
+        do {
+            buffer[pos++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while(value > 0);
+
+        // reverse the digits...
+        for(int i=start, j=pos - 1; i<j; i++, j--) {
+            final byte t = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = t;
+        }
+    }
+
+    private void putAddress(final byte[] addr, final int netmask, final boolean mask) throws SQLException {
+        ensure(44);
+
+        if(addr.length == 4) {
+            for(int i=0; i<4; i++) {
+                if(i > 0) {
+                    buffer[pos++] = '.';
+                }
+                putDecimal(addr[i] & 0xFF);
+            }
+        } else {
+            // the server accepts uncompressed groups just as well...
+            for(int i=0; i<16; i+=2) {
+                if(i > 0) {
+                    buffer[pos++] = ':';
+                }
+                final int group = ((addr[i] & 0xFF) << 8) | (addr[i + 1] & 0xFF);
+                boolean lead = true;
+                for(int shift=12; shift>=0; shift-=4) {
+                    final int digit = (group >> shift) & 0xF;
+                    if(digit != 0 || !lead || shift == 0) {
+                        buffer[pos++] = HEX[digit];
+                        lead = false;
+                    }
+                }
+            }
+        }
+
+        if(mask || netmask != addr.length * 8) {
+            buffer[pos++] = '/';
+            putDecimal(netmask);
+        }
+    }
+
+    private void putText(final String value) throws SQLException {
+        final int n = value.length();
+        for(int i=0; i<n; i++) {
+            final char c = value.charAt(i);
+            if(c >= 0x80) {
+                // slow path for non-ASCII characters...
+                putEscaped(value.substring(i).getBytes(UTF8));
+                return;
+            }
+            putEscaped(c);
+        }
+    }
+
+    private void putEscaped(final byte[] bytes) throws SQLException {
+        for(int i=0; i<bytes.length; i++) {
+            // bytes of multi-byte sequences never need escaping...
+            putEscaped(bytes[i]);
+        }
+    }
+
+    private void putEscaped(final int b) throws SQLException {
+        ensure(2);
+        switch(b) {
+            case '\\':
+                buffer[pos++] = '\\';
+                buffer[pos++] = '\\';
+                break;
+            case '\t':
+                buffer[pos++] = '\\';
+                buffer[pos++] = 't';
+                break;
+            case '\n':
+                buffer[pos++] = '\\';
+                buffer[pos++] = 'n';
+                break;
+            case '\r':
+                buffer[pos++] = '\\';
+                buffer[pos++] = 'r';
+                break;
+            default:
+                buffer[pos++] = (byte) b;
+        }
+    }
+
+    public NetworkCopyWriter addNull() throws SQLException {
+        separator();
+        ensure(2);
+        buffer[pos++] = '\\';
+        buffer[pos++] = 'N';
+        return this;
+    }
+
+    /**
+     * Add an <tt>inet</tt> value to the current row.
+     */
+    public NetworkCopyWriter add(final IPTarget value) throws SQLException {
+        if(value == null || value.getAddr() == null) {
+            return addNull();
+        }
+
+        separator();
+        putAddress(value.getAddr(), value.getNetmask(), false);
+        return this;
+    }
+
+    /**
+     * Add a <tt>cidr</tt> value to the current row.
+     */
+    public NetworkCopyWriter add(final IPNetwork value) throws SQLException {
+        if(value == null || value.getAddr() == null) {
+            return addNull();
+        }
+
+        separator();
+        putAddress(value.getAddr(), value.getNetmask(), true);
+        return this;
+    }
+
+    /**
+     * Add a raw <tt>inet</tt> value to the current row.
+     *
+     * @param addr The raw address (4 or 16 bytes)
+     * @param netmask The mask length
+     */
+    public NetworkCopyWriter add(final byte[] addr, final int netmask) throws SQLException {
+        if(addr == null) {
+            return addNull();
+        }
+
+        separator();
+        putAddress(addr, netmask, false);
+        return this;
+    }
+
+    /**
+     * Add a <tt>macaddr</tt> value to the current row.
+     */
+    public NetworkCopyWriter add(final PGmacaddr value) throws SQLException {
+        if(value == null || value.getValue() == null) {
+            return addNull();
+        }
+
+        separator();
+        putText(value.getValue());
+        return this;
+    }
+
+    /**
+     * Add a <tt>uuid</tt> value to the current row.
+     */
+    public NetworkCopyWriter add(final UUID value) throws SQLException {
+        if(value == null) {
+            return addNull();
+        }
+
+        separator();
+        ensure(36);
+
+        final long msb = value.getMostSignificantBits();
+        final long lsb = value.getLeastSignificantBits();
+        for(int i=60; i>=0; i-=4) {
+            if(i == 28 || i == 12) {
+                buffer[pos++] = '-';
+            }
+            buffer[pos++] = HEX[(int) (msb >>> i) & 0xF];
+        }
+        for(int i=60; i>=0; i-=4) {
+            if(i == 60 || i == 44) {
+                buffer[pos++] = '-';
+            }
+            buffer[pos++] = HEX[(int) (lsb >>> i) & 0xF];
+        }
+        return this;
+    }
+
+    /**
+     * Add a value of any other (textual) type to the current row.
+     */
+    public NetworkCopyWriter add(final String value) throws SQLException {
+        if(value == null) {
+            return addNull();
+        }
+
+        separator();
+        putText(value);
+        return this;
+    }
+
+    /**
+     * Add an integer value to the current row.
+     */
+    public NetworkCopyWriter add(final long value) throws SQLException {
+        separator();
+        ensure(20);
+        putDecimal(value);
+        return this;
+    }
+
+    /**
+     * Finish the current row.
+     */
+    public void endRow() throws SQLException {
+        put('\n');
+        fields = 0;
+        rows++;
+    }
+
+    /**
+     * Get the number of rows finished so far.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Send all buffered rows to the server.
+     */
+    public void flush() throws SQLException {
+        if(pos > 0) {
+            copy.writeToCopy(buffer, 0, pos);
+            pos = 0;
+        }
+    }
+
+    /**
+     * Send all remaining rows and finish the COPY.
+     *
+     * @return the number of rows loaded
+     *
+     * @throws SQLException if loading failed (e.g. a constraint violation)
+     */
+    public long close() throws SQLException {
+        if(fields > 0) {
+            throw new IllegalStateException("The current row hasn't been finished");
+        }
+
+        flush();
+        return copy.endCopy();
+    }
+
+    /**
+     * Abort the COPY if it is still active, so none of the rows are loaded.
+     */
+    public void cancel() throws SQLException {
+        if(copy.isActive()) {
+            copy.cancelCopy();
+        }
+    }
+}
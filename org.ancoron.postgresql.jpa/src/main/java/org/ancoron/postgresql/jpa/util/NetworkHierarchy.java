@@ -0,0 +1,442 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import org.ancoron.postgresql.jpa.IPNetwork;
+
+/**
+ * The containment forest of a collection of networks (e.g. IPAM blocks,
+ * subnets and assignments) including utilization numbers for each node.
+ *
+ * <p>
+ * The forest is built by a single sweep over the networks sorted by their
+ * lowest address (and mask length), keeping the chain of currently open
+ * parents on a stack, so building it takes <tt>O(n log n)</tt> instead of
+ * comparing every network with every other one.
+ * </p>
+ *
+ * <p>
+ * For every node the number of addresses used by its direct children is
+ * maintained, so the utilization is always available without walking the
+ * children. Networks can be added and removed afterwards, updating only the
+ * affected parent nodes.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * <pre>
+ * NetworkHierarchy h = NetworkHierarchy.build(Arrays.asList(
+ *         new IPNetwork("10.0.0.0/16"),
+ *         new IPNetwork("10.0.1.0/24"),
+ *         new IPNetwork("10.0.0.0/24"),
+ *         new IPNetwork("10.0.1.128/25")));
+ * NetworkHierarchy.Node block = h.getRoots().get(0);
+ * block.getUsed();       // 512
+ * block.getFreeBlocks(); // 10.0.2.0/23, 10.0.4.0/22, ..., 10.0.128.0/17
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ *
+ * @author ancoron
+ */
+public class NetworkHierarchy {
+
+    /**
+     * A single network inside the hierarchy.
+     */
+    public static class Node {
+
+        private final IPNetwork network;
+        private final BigInteger low;
+        private final BigInteger size;
+        private Node parent;
+        private TreeMap<BigInteger, Node> children;
+        private BigInteger used = BigInteger.ZERO;
+
+        Node(final IPNetwork network) {
+            this.network = network;
+            this.low = NetworkUtils.lowValue(network);
+            this.size = BigInteger.ONE.shiftLeft(
+                    NetworkUtils.bits(network.isV6()) - network.getNetmask());
+        }
+
+        public IPNetwork getNetwork() {
+            return network;
+        }
+
+        /**
+         * Get the closest network containing this one.
+         *
+         * @return the parent node or <code>null</code> for a root node
+         */
+        public Node getParent() {
+            return parent;
+        }
+
+        /**
+         * Get the direct children in ascending address order.
+         *
+         * @return the direct children (never <code>null</code>)
+         */
+        public Collection<Node> getChildren() {
+            if(children == null) {
+                return Collections.emptyList();
+            }
+            return Collections.unmodifiableCollection(children.values());
+        }
+
+        /**
+         * Get the total number of addresses of this network.
+         *
+         * @return the number of addresses
+         */
+        public BigInteger getSize() {
+            return size;
+        }
+
+        /**
+         * Get the number of addresses covered by the direct children.
+         *
+         * @return the number of used addresses
+         */
+        public BigInteger getUsed() {
+            return used;
+        }
+
+        /**
+         * Get the number of addresses not covered by any direct child.
+         *
+         * @return the number of free addresses
+         */
+        public BigInteger getFree() {
+            return size.subtract(used);
+        }
+
+        /**
+         * Get the ratio of used addresses.
+         *
+         * @return a value between <tt>0.0</tt> and <tt>1.0</tt>
+         */
+        public double getUtilization() {
+            return used.doubleValue() / size.doubleValue();
+        }
+
+        /**
+         * Calculate the largest possible networks not covered by any direct
+         * child, in ascending address order.
+         *
+         * @return the free blocks
+         */
+        public List<IPNetwork> getFreeBlocks() {
+            final List<IPNetwork> free = new ArrayList<IPNetwork>();
+            BigInteger next = low;
+
+            if(children != null) {
+                for(Node child : children.values()) {
+                    addBlocks(free, next, child.low);
+                    next = child.low.add(child.size);
+                }
+            }
+
+            addBlocks(free, next, low.add(size));
+
+            return free;
+        }
+
+        private void addBlocks(final List<IPNetwork> free, BigInteger from, final BigInteger to) {
+            final boolean v6 = network.isV6();
+            final int bits = NetworkUtils.bits(v6);
+
+            while(from.compareTo(to) < 0) {
+                // largest aligned block starting at 'from' that fits...
+                int hostbits = from.signum() == 0 ? bits : from.getLowestSetBit();
+                final int maxbits = to.subtract(from).bitLength() - 1;
+
+                if(hostbits > maxbits) {
+                    hostbits = maxbits;
+                }
+
+                free.add(NetworkUtils.toNetwork(from, bits - hostbits, v6));
+                from = from.add(BigInteger.ONE.shiftLeft(hostbits));
+            }
+        }
+
+        private boolean covers(final Node other) {
+            return network.isV6() == other.network.isV6()
+                    && network.getNetmask() <= other.network.getNetmask()
+                    && other.low.compareTo(low) >= 0
+                    && other.low.compareTo(low.add(size)) < 0;
+        }
+
+        private TreeMap<BigInteger, Node> children() {
+            if(children == null) {
+                children = new TreeMap<BigInteger, Node>();
+            }
+            return children;
+        }
+
+        @Override
+        public String toString() {
+            return network + " (" + used + "/" + size + ")";
+        }
+    }
+
+    private static final Comparator<Node> ORDER = new Comparator<Node>() {
+        @Override
+        public int compare(Node a, Node b) {
+            if(a.network.isV6() != b.network.isV6()) {
+                return a.network.isV6() ? 1 : -1;
+            }
+
+            final int c = a.low.compareTo(b.low);
+
+            return c != 0 ? c : a.network.getNetmask() - b.network.getNetmask();
+        }
+    };
+
+    private final TreeMap<BigInteger, Node> v4 = new TreeMap<BigInteger, Node>();
+    private final TreeMap<BigInteger, Node> v6 = new TreeMap<BigInteger, Node>();
+    private int size = 0;
+
+    /**
+     * Build the hierarchy of the given networks.
+     *
+     * <p>
+     * Duplicate networks are only added once.
+     * </p>
+     *
+     * @param networks The networks (<code>null</code> elements are ignored)
+     *
+     * @return the hierarchy
+     */
+    public static NetworkHierarchy build(final Collection<IPNetwork> networks) {
+        final NetworkHierarchy h = new NetworkHierarchy();
+        final Node[] nodes = new Node[networks.size()];
+        int n = 0;
+
+        for(IPNetwork net : networks) {
+            if(net != null && net.getAddr() != null) {
+                nodes[n++] = new Node(net);
+            }
+        }
+
+        Arrays.sort(nodes, 0, n, ORDER);
+
+        final Node[] stack = new Node[129];
+        int depth = 0;
+        Node last = null;
+
+        for(int i=0; i<n; i++) {
+            final Node node = nodes[i];
+
+            if(last != null && ORDER.compare(last, node) == 0) {
+                // duplicate...
+                continue;
+            }
+
+            // close all parents not containing the current network...
+            while(depth > 0 && !stack[depth - 1].covers(node)) {
+                depth--;
+            }
+
+            if(depth > 0) {
+                final Node parent = stack[depth - 1];
+                node.parent = parent;
+                parent.children().put(node.low, node);
+                parent.used = parent.used.add(node.size);
+            } else {
+                h.roots(node.network.isV6()).put(node.low, node);
+            }
+
+            stack[depth++] = node;
+            last = node;
+            h.size++;
+        }
+
+        return h;
+    }
+
+    private TreeMap<BigInteger, Node> roots(final boolean ipv6) {
+        return ipv6 ? v6 : v4;
+    }
+
+    /**
+     * Get all root nodes, IPv4 first, each in ascending address order.
+     *
+     * @return the root nodes
+     */
+    public List<Node> getRoots() {
+        final List<Node> roots = new ArrayList<Node>(v4.size() + v6.size());
+        roots.addAll(v4.values());
+        roots.addAll(v6.values());
+        return roots;
+    }
+
+    /**
+     * Get the total number of networks.
+     *
+     * @return the number of networks
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find the node of the given network.
+     *
+     * @param network The network to look for
+     *
+     * @return the node or <code>null</code> if the network is not part of
+     * this hierarchy
+     */
+    public Node find(final IPNetwork network) {
+        if(network == null || network.getAddr() == null) {
+            return null;
+        }
+
+        final Node probe = new Node(network);
+        Node parent = findParent(probe);
+        final NavigableMap<BigInteger, Node> level = parent == null
+                ? roots(network.isV6()) : parent.children;
+        final Node node = level == null ? null : level.get(probe.low);
+
+        return node != null && node.network.getNetmask() == network.getNetmask() ? node : null;
+    }
+
+    /**
+     * Find the smallest network containing the given one (which may be the
+     * given network itself).
+     */
+    private Node findParent(final Node probe) {
+        NavigableMap<BigInteger, Node> level = roots(probe.network.isV6());
+        Node parent = null;
+
+        while(level != null) {
+            final Map.Entry<BigInteger, Node> e = level.floorEntry(probe.low);
+
+            if(e == null || !e.getValue().covers(probe)
+                    || e.getValue().network.getNetmask() == probe.network.getNetmask())
+            {
+                break;
+            }
+
+            parent = e.getValue();
+            level = parent.children;
+        }
+
+        return parent;
+    }
+
+    /**
+     * Add a network, updating the utilization of its parent.
+     *
+     * <p>
+     * Existing networks contained in the new one become its children.
+     * </p>
+     *
+     * @param network The network to add
+     *
+     * @return the node of the network (which may have existed already)
+     */
+    public Node add(final IPNetwork network) {
+        if(network == null || network.getAddr() == null) {
+            throw new IllegalArgumentException("Unable to add an empty network");
+        }
+
+        final Node existing = find(network);
+        if(existing != null) {
+            return existing;
+        }
+
+        final Node node = new Node(network);
+        final Node parent = findParent(node);
+        final TreeMap<BigInteger, Node> level = parent == null
+                ? roots(network.isV6()) : parent.children();
+
+        // adopt all siblings contained in the new network...
+        final NavigableMap<BigInteger, Node> contained = level.subMap(
+                node.low, true, node.low.add(node.size), false);
+        for(Node child : contained.values()) {
+            child.parent = node;
+            node.children().put(child.low, child);
+            node.used = node.used.add(child.size);
+        }
+        contained.clear();
+
+        level.put(node.low, node);
+        node.parent = parent;
+        if(parent != null) {
+            parent.used = parent.used.add(node.size).subtract(node.used);
+        }
+
+        size++;
+
+        return node;
+    }
+
+    /**
+     * Remove a network, moving its children up to its parent.
+     *
+     * @param network The network to remove
+     *
+     * @return <tt>true</tt> if the network has been removed, <tt>false</tt>
+     * if it is not part of this hierarchy
+     */
+    public boolean remove(final IPNetwork network) {
+        final Node node = find(network);
+
+        if(node == null) {
+            return false;
+        }
+
+        final Node parent = node.parent;
+        final TreeMap<BigInteger, Node> level = parent == null
+                ? roots(network.isV6()) : parent.children;
+
+        level.remove(node.low);
+
+        if(node.children != null) {
+            for(Node child : node.children.values()) {
+                child.parent = parent;
+                level.put(child.low, child);
+            }
+        }
+
+        if(parent != null) {
+            parent.used = parent.used.subtract(node.size).add(node.used);
+        }
+
+        node.parent = null;
+        node.children = null;
+        node.used = BigInteger.ZERO;
+        size--;
+
+        return true;
+    }
+}
@@ -0,0 +1,614 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * A local longest-prefix index of a table keyed by a <tt>cidr</tt> column,
+ * kept up to date by PostgreSQL notifications (<tt>LISTEN/NOTIFY</tt>).
+ *
+ * <p>
+ * The table is loaded once on {@link #start()}. After that a trigger on the
+ * table notifies the channel with the key of each inserted, updated or
+ * deleted row (see {@link #getTriggerSQL(String, String, String)}). The
+ * index then re-reads only the notified rows, all rows of a poll with a
+ * single query, and applies them. A <tt>TRUNCATE</tt> of the table notifies
+ * the channel with an empty payload instead, which reloads the whole table:
+ * <pre>
+ * NetworkTableIndex&lt;String&gt; idx = new NetworkTableIndex&lt;String&gt;(
+ *         dataSource, "geoip", "id", "network", "geoip_changed",
+ *         new NetworkTableIndex.Mapper&lt;String&gt;() {
+ *             public String map(ResultSet rs) throws SQLException {
+ *                 return rs.getString(3);
+ *             }
+ *         }, "country");
+ * idx.start();
+ *
+ * // from any number of threads...
+ * String country = idx.lookup(ip);
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * The PostgreSQL 9.1 JDBC driver only receives notifications while executing
+ * a statement, so the listening connection is polled with a trivial query
+ * (every 200 ms by default, see {@link #setPollInterval(long)}). If the
+ * connection is lost, notifications may have been missed, so the table is
+ * loaded again completely after reconnecting. Apart from a <tt>TRUNCATE</tt>
+ * this is the only time it is reloaded.
+ * </p>
+ *
+ * <p>
+ * Requires PostgreSQL 9.0+ (notification payloads).
+ * </p>
+ *
+ * @param <V> The value type of a row
+ *
+ * @author ancoron
+ *
+ * @see PrefixIndex
+ */
+public class NetworkTableIndex<V> {
+
+    private static final String CLASSNAME = "NetworkTableIndex";
+    private static final Logger log = Logger.getLogger(NetworkTableIndex.class.getName());
+
+    /**
+     * The payload notified by the <tt>TRUNCATE</tt> trigger (a row with an
+     * empty key reloads the whole table as well, which is correct but slow).
+     */
+    static final String RELOAD = "";
+
+    /**
+     * Creates the value of a row.
+     */
+    public interface Mapper<V> {
+
+        /**
+         * Create the value of the current row.
+         *
+         * @param rs The result set positioned on the row, with the key in
+         * column 1, the network in column 2 and the additional columns
+         * starting at column 3
+         *
+         * @return the value
+         *
+         * @throws SQLException if the value could not be read
+         */
+        V map(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * An indexed row.
+     */
+    private static final class Row<V> {
+
+        private final IPNetwork network;
+        private final V value;
+
+        private Row(final IPNetwork network, final V value) {
+            this.network = network;
+            this.value = value;
+        }
+    }
+
+    private final DataSource dataSource;
+    private final String table;
+    private final String key;
+    private final String column;
+    private final String channel;
+    private final Mapper<V> mapper;
+    private final String[] columns;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Map<String, Row<V>> rows = new HashMap<String, Row<V>>();
+    private PrefixIndex<Row<V>> index = new PrefixIndex<Row<V>>();
+
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+
+    private ScheduledExecutorService executor;
+    private long pollInterval = 200;
+    private int fetchSize = 1000;
+
+    // only used by the polling thread...
+    private Connection listener;
+    private String keyType;
+
+    /**
+     * Create a new index.
+     *
+     * @param dataSource The data source to get the listening connection from
+     * @param table The table
+     * @param key The unique key column of the table
+     * @param column The <tt>cidr</tt> column of the table
+     * @param channel The notification channel (a lower case identifier)
+     * @param mapper Creates the value of a row
+     * @param columns Additional columns to read for the mapper
+     */
+    public NetworkTableIndex(final DataSource dataSource, final String table,
+            final String key, final String column, final String channel,
+            final Mapper<V> mapper, final String... columns)
+    {
+        this.dataSource = dataSource;
+        this.table = table;
+        this.key = key;
+        this.column = column;
+        this.channel = channel;
+        this.mapper = mapper;
+        this.columns = columns;
+    }
+
+    /**
+     * Build the query reading all rows (or the rows of a set of keys).
+     */
+    static String sql(final String table, final String key, final String column,
+            final String keyType, final String... columns)
+    {
+        final StringBuilder sb = new StringBuilder(128).append("SELECT ")
+                .append(key).append(", ").append(column);
+        for(String c : columns) {
+            sb.append(", ").append(c);
+        }
+        sb.append(" FROM ").append(table);
+        if(keyType != null) {
+            // the notified keys are text...
+            sb.append(" WHERE ").append(key).append(" = ANY(CAST(? AS ")
+                    .append(keyType).append("[]))");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the statements creating a trigger that notifies the given channel
+     * with the key of each changed row of a table (and with an empty payload
+     * if the table is truncated). Existing triggers of the same name are
+     * dropped first, so the statements can be executed again.
+     *
+     * @param table The table
+     * @param key The unique key column of the table
+     * @param channel The notification channel
+     *
+     * @return the statements to execute (e.g. as part of the schema setup)
+     */
+    public static String[] getTriggerSQL(final String table, final String key,
+            final String channel)
+    {
+        final String function = table + "_notify_" + channel;
+        return new String[] {
+            "CREATE OR REPLACE FUNCTION " + function + "() RETURNS trigger AS $$\n"
+                    + "BEGIN\n"
+                    + "    IF TG_OP = 'TRUNCATE' THEN\n"
+                    + "        PERFORM pg_notify('" + channel + "', '" + RELOAD + "');\n"
+                    + "        RETURN NULL;\n"
+                    + "    END IF;\n"
+                    + "    IF TG_OP <> 'INSERT' THEN\n"
+                    + "        PERFORM pg_notify('" + channel + "', OLD." + key + "::text);\n"
+                    + "    END IF;\n"
+                    + "    IF TG_OP <> 'DELETE' THEN\n"
+                    + "        PERFORM pg_notify('" + channel + "', NEW." + key + "::text);\n"
+                    + "    END IF;\n"
+                    + "    RETURN NULL;\n"
+                    + "END;\n"
+                    + "$$ LANGUAGE plpgsql",
+            "DROP TRIGGER IF EXISTS " + function + " ON " + table,
+            "CREATE TRIGGER " + function + " AFTER INSERT OR UPDATE OR DELETE ON "
+                    + table + " FOR EACH ROW EXECUTE PROCEDURE " + function + "()",
+            "DROP TRIGGER IF EXISTS " + function + "_truncate ON " + table,
+            "CREATE TRIGGER " + function + "_truncate AFTER TRUNCATE ON "
+                    + table + " FOR EACH STATEMENT EXECUTE PROCEDURE " + function + "()"
+        };
+    }
+
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Set the interval of polling for notifications (has to be set before
+     * {@link #start()}).
+     *
+     * @param pollInterval The interval in milliseconds
+     */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Set the number of rows fetched at once while loading the whole table.
+     *
+     * @param fetchSize The number of rows
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Get the number of rows changed by notifications.
+     */
+    public long getUpdates() {
+        return updates.get();
+    }
+
+    /**
+     * Get the number of times the whole table has been loaded.
+     */
+    public long getReloads() {
+        return reloads.get();
+    }
+
+    /**
+     * Start listening and load the whole table.
+     *
+     * @throws SQLException if the table could not be loaded
+     */
+    public synchronized void start() throws SQLException {
+        if(executor != null) {
+            throw new IllegalStateException("Already started");
+        }
+
+        connect();
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, CLASSNAME + "-" + channel);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        executor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                poll();
+            }
+        }, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop listening.
+     */
+    public synchronized void close() {
+        if(executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(pollInterval * 10, TimeUnit.MILLISECONDS);
+            } catch(InterruptedException x) {
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+        }
+        disconnect();
+    }
+
+    /**
+     * Open the listening connection and load the whole table (listening first,
+     * so no change made while loading gets lost).
+     */
+    private void connect() throws SQLException {
+        listener = dataSource.getConnection();
+        try {
+            listener.setAutoCommit(true);
+
+            final Statement stmt = listener.createStatement();
+            try {
+                stmt.execute("LISTEN " + channel);
+            } finally {
+                stmt.close();
+            }
+
+            reload();
+        } catch(SQLException x) {
+            disconnect();
+            throw x;
+        }
+    }
+
+    private void disconnect() {
+        if(listener != null) {
+            try {
+                listener.close();
+            } catch(SQLException x) {
+                log.logp(Level.FINE, CLASSNAME, "disconnect",
+                        "Unable to close the listening connection", x);
+            }
+            listener = null;
+        }
+    }
+
+    /**
+     * Load the whole table.
+     *
+     * <p>
+     * The driver only uses a cursor (and thus the fetch size) inside of a
+     * transaction, so the table is read with auto-commit disabled. It is
+     * enabled again afterwards, as notifications are only delivered between
+     * transactions.
+     * </p>
+     */
+    private void reload() throws SQLException {
+        final Map<String, Row<V>> r = new HashMap<String, Row<V>>();
+        final PrefixIndex<Row<V>> idx = new PrefixIndex<Row<V>>();
+
+        listener.setAutoCommit(false);
+        try {
+            final Statement stmt = listener.createStatement();
+            try {
+                stmt.setFetchSize(fetchSize);
+                final ResultSet rs = stmt.executeQuery(sql(table, key, column, null, columns));
+                try {
+                    keyType = rs.getMetaData().getColumnTypeName(1);
+                    while(rs.next()) {
+                        final Row<V> row = row(rs);
+                        if(row != null) {
+                            r.put(rs.getString(1), row);
+                            idx.put(row.network, row);
+                        }
+                    }
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                stmt.close();
+            }
+            listener.commit();
+        } catch(SQLException x) {
+            rollback();
+            throw x;
+        }
+        listener.setAutoCommit(true);
+
+        lock.writeLock().lock();
+        try {
+            rows = r;
+            index = idx;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        reloads.incrementAndGet();
+    }
+
+    private void rollback() {
+        try {
+            listener.rollback();
+        } catch(SQLException x) {
+            log.logp(Level.WARNING, CLASSNAME, "rollback",
+                    "Unable to rollback transaction", x);
+        }
+    }
+
+    private Row<V> row(final ResultSet rs) throws SQLException {
+        final String network = rs.getString(2);
+        return network == null ? null : new Row<V>(new IPNetwork(network), mapper.map(rs));
+    }
+
+    private static PGConnection unwrap(final Connection con) throws SQLException {
+        if(con instanceof PGConnection) {
+            return (PGConnection) con;
+        } else if(con.isWrapperFor(PGConnection.class)) {
+            return con.unwrap(PGConnection.class);
+        }
+
+        throw new SQLException("Not a PostgreSQL connection: " + con.getClass().getName());
+    }
+
+    /**
+     * Receive and apply the pending notifications (reconnecting if needed).
+     * The whole table is loaded again instead if it has been truncated.
+     */
+    void poll() {
+        try {
+            if(listener == null) {
+                connect();
+            }
+
+            // let the driver receive the notifications...
+            final Statement stmt = listener.createStatement();
+            try {
+                stmt.execute("SELECT 1");
+            } finally {
+                stmt.close();
+            }
+
+            final PGNotification[] notifications = unwrap(listener).getNotifications();
+            if(notifications == null || notifications.length == 0) {
+                return;
+            }
+
+            final Set<String> keys = new LinkedHashSet<String>();
+            for(PGNotification n : notifications) {
+                if(n.getParameter() == null || RELOAD.equals(n.getParameter())) {
+                    // any row notified before or after is read again as well...
+                    reload();
+                    return;
+                }
+                keys.add(n.getParameter());
+            }
+
+            if(!keys.isEmpty()) {
+                refresh(keys);
+            }
+        } catch(Exception x) {
+            log.logp(Level.WARNING, CLASSNAME, "poll",
+                    "Unable to update the index of " + table
+                    + ", reloading after reconnect", x);
+            disconnect();
+        }
+    }
+
+    /**
+     * Re-read the rows of the given keys, removing the ones that don't exist
+     * anymore.
+     */
+    private void refresh(final Set<String> keys) throws SQLException {
+        final Map<String, Row<V>> changed = new HashMap<String, Row<V>>(keys.size() * 2);
+
+        final PreparedStatement select = listener.prepareStatement(
+                sql(table, key, column, keyType, columns));
+        try {
+            select.setArray(1, listener.createArrayOf("text", keys.toArray()));
+            final ResultSet rs = select.executeQuery();
+            try {
+                while(rs.next()) {
+                    changed.put(rs.getString(1), row(rs));
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            select.close();
+        }
+
+        for(String k : keys) {
+            update(k, changed.get(k));
+        }
+    }
+
+    /**
+     * Replace (or remove) the row of a key.
+     *
+     * @param k The key
+     * @param row The new row or <code>null</code> to remove it
+     */
+    private void update(final String k, final Row<V> row) {
+        final Row<V> old;
+        lock.writeLock().lock();
+        try {
+            old = row == null ? rows.remove(k) : rows.put(k, row);
+            if(old != null) {
+                index.remove(old.network, old);
+            }
+            if(row != null) {
+                index.put(row.network, row);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if(old != null || row != null) {
+            updates.incrementAndGet();
+        }
+    }
+
+    /**
+     * Replace the row of a key (e.g. for a change made locally that doesn't
+     * have to wait for its notification).
+     *
+     * @param k The key (as text)
+     * @param network The network of the row
+     * @param value The value of the row
+     */
+    public void put(final String k, final IPNetwork network, final V value) {
+        update(k, new Row<V>(network, value));
+    }
+
+    /**
+     * Remove the row of a key.
+     *
+     * @param k The key (as text)
+     */
+    public void remove(final String k) {
+        update(k, null);
+    }
+
+    /**
+     * Get the value of the row with the most specific network containing the
+     * given address.
+     *
+     * @return the value or <code>null</code> if no network contains the
+     * address
+     */
+    public V lookup(final IPTarget address) {
+        lock.readLock().lock();
+        try {
+            final Row<V> row = index.getLongestMatch(address);
+            return row == null ? null : row.value;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the values of all rows whose network contains the given address.
+     *
+     * @return the values ordered from the least to the most specific network
+     */
+    public List<V> getContaining(final IPTarget address) {
+        final List<Row<V>> result;
+        lock.readLock().lock();
+        try {
+            result = index.getContaining(address);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if(result.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final List<V> values = new ArrayList<V>(result.size());
+        for(Row<V> row : result) {
+            values.add(row.value);
+        }
+        return values;
+    }
+
+    /**
+     * Get the number of indexed rows.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rows.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -15,9 +15,11 @@
  */
 package org.ancoron.postgresql.jpa.util;
 
+import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
 import org.postgresql.net.PGcidr;
 
 /**
@@ -325,4 +327,141 @@ public class NetworkUtils {
         
         return net;
     }
+
+    /**
+     * Check if the network <tt>net/netmask</tt> contains (or equals) the
+     * network or address <tt>addr/masklen</tt>, just like the PostgreSQL
+     * operator <tt>&gt;&gt;=</tt> does.
+     *
+     * <p>
+     * This method only compares the raw address bytes and does not allocate
+     * any objects. Addresses of different families never contain each other.
+     * </p>
+     *
+     * @param net The raw address of the (possibly) containing network
+     * @param netmask The mask length of the (possibly) containing network
+     * @param addr The raw address of the (possibly) contained network
+     * @param masklen The mask length of the (possibly) contained network
+     *
+     * @return <tt>true</tt> if <tt>addr/masklen</tt> is part of
+     * <tt>net/netmask</tt>, <tt>false</tt> otherwise
+     */
+    public static boolean contains(final byte[] net, final int netmask,
+            final byte[] addr, final int masklen)
+    {
+        return net.length == addr.length && netmask <= masklen
+                && prefixEquals(net, addr, netmask);
+    }
+
+    /**
+     * Check if the network <tt>a/alen</tt> contains or is contained by the
+     * network <tt>b/blen</tt>, just like the PostgreSQL operator
+     * <tt>&amp;&amp;</tt> does.
+     *
+     * <p>
+     * This method only compares the raw address bytes and does not allocate
+     * any objects.
+     * </p>
+     *
+     * @param a The raw address of the first network
+     * @param alen The mask length of the first network
+     * @param b The raw address of the second network
+     * @param blen The mask length of the second network
+     *
+     * @return <tt>true</tt> if both networks overlap, <tt>false</tt> otherwise
+     */
+    public static boolean overlaps(final byte[] a, final int alen,
+            final byte[] b, final int blen)
+    {
+        return a.length == b.length && prefixEquals(a, b, Math.min(alen, blen));
+    }
+
+    private static boolean prefixEquals(final byte[] a, final byte[] b, final int bits) {
+        final int n = bits / 8;
+
+        for(int i=0; i<n; i++) {
+            if(a[i] != b[i]) {
+                return false;
+            }
+        }
+
+        final int rest = bits % 8;
+        if(rest > 0) {
+            final int mask = (0xFF << (8 - rest)) & 0xFF;
+            return (a[n] & mask) == (b[n] & mask);
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the number of address bits for the given address family.
+     * 
+     * @param v6 <tt>true</tt> for IPv6, <tt>false</tt> for IPv4
+     * 
+     * @return 128 for IPv6, 32 for IPv4
+     */
+    static int bits(final boolean v6) {
+        return v6 ? 128 : 32;
+    }
+
+    /**
+     * Get the numeric value of the lowest address of the given network
+     * (all host bits cleared).
+     */
+    static BigInteger lowValue(final IPNetwork network) {
+        final int host = bits(network.isV6()) - network.getNetmask();
+        
+        return new BigInteger(1, network.getAddr()).shiftRight(host).shiftLeft(host);
+    }
+
+    /**
+     * Get the numeric value of the given address.
+     */
+    static BigInteger value(final IPTarget ip) {
+        return new BigInteger(1, ip.getAddr());
+    }
+
+    /**
+     * Check if the inner network is part of (or equal to) the outer one.
+     */
+    static boolean covers(final IPNetwork outer, final IPNetwork inner) {
+        if(outer.isV6() != inner.isV6() || inner.getNetmask() < outer.getNetmask()) {
+            return false;
+        }
+
+        final int host = bits(outer.isV6()) - outer.getNetmask();
+
+        return lowValue(inner).shiftRight(host).equals(lowValue(outer).shiftRight(host));
+    }
+
+    /**
+     * Create a network from its numeric lowest address and mask length.
+     * 
+     * <p>
+     * The textual value is built directly from the address bits to avoid
+     * a detour through {@link InetAddress} (which would also turn IPv4-mapped
+     * IPv6 addresses into plain IPv4 ones).
+     * </p>
+     */
+    static IPNetwork toNetwork(final BigInteger low, final int masklen, final boolean v6) {
+        final StringBuilder sb = new StringBuilder(v6 ? 44 : 18);
+        
+        if(v6) {
+            for(int i=7; i>=0; i--) {
+                sb.append(Integer.toHexString(low.shiftRight(i * 16).intValue() & 0xFFFF));
+                if(i > 0) {
+                    sb.append(':');
+                }
+            }
+        } else {
+            final long v = low.longValue();
+            sb.append((v >>> 24) & 0xFF).append('.')
+                    .append((v >>> 16) & 0xFF).append('.')
+                    .append((v >>> 8) & 0xFF).append('.')
+                    .append(v & 0xFF);
+        }
+        
+        return new IPNetwork(sb.append('/').append(masklen).toString());
+    }
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache for interning immutable network values by their textual
+ * database representation.
+ *
+ * <p>
+ * Large result sets usually contain only a small number of distinct
+ * networks, gateways or addresses. Sharing one instance per distinct value
+ * saves both the parsing and the retained heap of all duplicates. Only
+ * immutable values must be interned as all users see the same instance.
+ * </p>
+ *
+ * <p>
+ * Instances are thread-safe. The entries are spread over a number of
+ * segments, each evicting its least recently used entry on its own once
+ * full, so concurrent lookups of different values rarely contend.
+ * </p>
+ *
+ * @param <V> the type of the cached values
+ *
+ * @author ancoron
+ */
+public class NetworkValueCache<V> {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment<V>[] segments;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxSize The maximum number of values to keep
+     *
+     * @throws IllegalArgumentException if the given size is not positive
+     */
+    @SuppressWarnings("unchecked")
+    public NetworkValueCache(final int maxSize) {
+        if(maxSize <= 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + maxSize);
+        }
+
+        final int count = Math.min(SEGMENTS, maxSize);
+        segments = new Segment[count];
+        for(int i=0; i<count; i++) {
+            // distribute the remainder over the first segments...
+            segments[i] = new Segment<V>(maxSize / count + (i < maxSize % count ? 1 : 0));
+        }
+    }
+
+    private Segment<V> segment(final String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[(h & 0x7FFFFFFF) % segments.length];
+    }
+
+    /**
+     * Get the cached value for the given text.
+     *
+     * @param key The textual representation
+     *
+     * @return the cached value or <code>null</code> if not cached
+     */
+    public V get(final String key) {
+        final Segment<V> s = segment(key);
+        final V value;
+        synchronized(s) {
+            value = s.get(key);
+        }
+
+        (value == null ? misses : hits).incrementAndGet();
+
+        return value;
+    }
+
+    /**
+     * Add a value unless another thread already added one for the same text.
+     *
+     * @param key The textual representation
+     * @param value The parsed value
+     *
+     * @return the cached value which should be used by the caller
+     */
+    public V put(final String key, final V value) {
+        final Segment<V> s = segment(key);
+        synchronized(s) {
+            final V existing = s.get(key);
+            if(existing != null) {
+                return existing;
+            }
+            s.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Get the number of values currently cached.
+     */
+    public int size() {
+        int size = 0;
+        for(Segment<V> s : segments) {
+            synchronized(s) {
+                size += s.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for(Segment<V> s : segments) {
+            synchronized(s) {
+                s.clear();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkValueCache[size=" + size() + ", hits=" + getHits()
+                + ", misses=" + getMisses() + "]";
+    }
+
+    private static class Segment<V> extends LinkedHashMap<String, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        Segment(final int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
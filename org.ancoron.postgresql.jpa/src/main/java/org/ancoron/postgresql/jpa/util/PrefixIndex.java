@@ -0,0 +1,365 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+
+/**
+ * An in-memory index of values by network prefix, answering which prefixes
+ * contain a given address (the <tt>&gt;&gt;=</tt> operator) without
+ * comparing the address with every prefix.
+ *
+ * <p>
+ * The prefixes are kept in a binary trie per address family. Chains of
+ * nodes without values and with a single child are collapsed, so a lookup
+ * visits at most one node per distinct prefix length on the path to the
+ * address, regardless of the number of prefixes.
+ * </p>
+ *
+ * <p>
+ * Any number of values can be stored for the same prefix. Example:
+ * <pre>
+ * PrefixIndex&lt;String&gt; idx = new PrefixIndex&lt;String&gt;();
+ * idx.put(new IPNetwork("10.0.0.0/8"), "corp");
+ * idx.put(new IPNetwork("10.1.0.0/16"), "lab");
+ * idx.getContaining(new IPTarget("10.1.2.3"));   // [corp, lab]
+ * idx.getLongestMatch(new IPTarget("10.1.2.3")); // lab
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ *
+ * @param <V> The value type
+ *
+ * @author ancoron
+ */
+public class PrefixIndex<V> {
+
+    private static final class Node<V> {
+
+        private final byte[] addr;
+        private final int len;
+        private final Node<V>[] children;
+        private List<V> values;
+
+        @SuppressWarnings("unchecked")
+        private Node(final byte[] addr, final int len) {
+            this.addr = addr;
+            this.len = len;
+            this.children = new Node[2];
+        }
+    }
+
+    private final Node<V> v4 = new Node<V>(new byte[4], 0);
+    private final Node<V> v6 = new Node<V>(new byte[16], 0);
+    private int size = 0;
+
+    private Node<V> root(final byte[] addr) {
+        if(addr == null) {
+            throw new IllegalArgumentException("Unable to index an empty network");
+        } else if(addr.length == 4) {
+            return v4;
+        } else if(addr.length == 16) {
+            return v6;
+        }
+
+        throw new IllegalArgumentException("Invalid address length: " + addr.length);
+    }
+
+    private static int bit(final byte[] addr, final int i) {
+        return (addr[i >> 3] >> (7 - (i & 7))) & 1;
+    }
+
+    /**
+     * Get the number of leading bits two addresses have in common.
+     */
+    private static int commonLength(final byte[] a, final byte[] b, final int max) {
+        for(int i=0; i * 8 < max; i++) {
+            final int x = (a[i] ^ b[i]) & 0xFF;
+            if(x != 0) {
+                return Math.min(max, i * 8 + Integer.numberOfLeadingZeros(x) - 24);
+            }
+        }
+        return max;
+    }
+
+    private static byte[] mask(final byte[] addr, final int len) {
+        final byte[] masked = new byte[addr.length];
+        final int bytes = len >> 3;
+        System.arraycopy(addr, 0, masked, 0, bytes);
+        if((len & 7) != 0) {
+            masked[bytes] = (byte) (addr[bytes] & (0xFF << (8 - (len & 7))));
+        }
+        return masked;
+    }
+
+    private static boolean matches(final Node<?> node, final byte[] addr, final int len) {
+        return node.len <= len && commonLength(node.addr, addr, node.len) == node.len;
+    }
+
+    private static void checkLength(final byte[] addr, final int len) {
+        if(len < 0 || len > addr.length * 8) {
+            throw new IllegalArgumentException("Invalid mask length: " + len);
+        }
+    }
+
+    /**
+     * Add a value for a network.
+     *
+     * @param network The network
+     * @param value The value
+     *
+     * @return <tt>false</tt> if the value was already present for the network
+     */
+    public boolean put(final IPNetwork network, final V value) {
+        return put(network.getAddr(), network.getNetmask(), value);
+    }
+
+    /**
+     * Add a value for the network <tt>addr/masklen</tt>.
+     *
+     * @param addr The raw address (4 or 16 bytes), bits right of the mask
+     * are ignored
+     * @param masklen The mask length
+     * @param value The value
+     *
+     * @return <tt>false</tt> if the value was already present for the network
+     */
+    public boolean put(final byte[] addr, final int masklen, final V value) {
+        Node<V> node = root(addr);
+        checkLength(addr, masklen);
+
+        while(node.len != masklen) {
+            final int b = bit(addr, node.len);
+            final Node<V> child = node.children[b];
+
+            if(child == null) {
+                node.children[b] = new Node<V>(mask(addr, masklen), masklen);
+                node = node.children[b];
+                break;
+            }
+
+            final int common = commonLength(child.addr, addr, Math.min(child.len, masklen));
+            if(common == child.len) {
+                node = child;
+            } else {
+                // split the collapsed path where the prefixes diverge...
+                final Node<V> split = new Node<V>(mask(addr, common), common);
+                split.children[bit(child.addr, common)] = child;
+                node.children[b] = split;
+                node = split;
+            }
+        }
+
+        if(node.values == null) {
+            node.values = new ArrayList<V>(1);
+        } else if(node.values.contains(value)) {
+            return false;
+        }
+
+        node.values.add(value);
+        size++;
+
+        return true;
+    }
+
+    /**
+     * Remove a value of a network.
+     *
+     * @param network The network
+     * @param value The value
+     *
+     * @return <tt>true</tt> if the value has been removed, <tt>false</tt> if
+     * it was not present for the network
+     */
+    public boolean remove(final IPNetwork network, final V value) {
+        return remove(network.getAddr(), network.getNetmask(), value);
+    }
+
+    /**
+     * Remove a value of the network <tt>addr/masklen</tt>.
+     *
+     * @return <tt>true</tt> if the value has been removed, <tt>false</tt> if
+     * it was not present for the network
+     */
+    public boolean remove(final byte[] addr, final int masklen, final V value) {
+        final int before = size;
+        remove(root(addr), addr, masklen, value);
+        return size != before;
+    }
+
+    private Node<V> remove(final Node<V> node, final byte[] addr, final int len, final V value) {
+        if(node == null || !matches(node, addr, len)) {
+            return node;
+        }
+
+        if(node.len == len) {
+            if(node.values == null || !node.values.remove(value)) {
+                return node;
+            }
+            size--;
+            if(node.values.isEmpty()) {
+                node.values = null;
+            }
+        } else {
+            final int b = bit(addr, node.len);
+            node.children[b] = remove(node.children[b], addr, len, value);
+        }
+
+        if(node.len == 0 || node.values != null) {
+            // keep the roots and all nodes holding values...
+            return node;
+        } else if(node.children[0] == null) {
+            return node.children[1];
+        } else if(node.children[1] == null) {
+            return node.children[0];
+        }
+
+        return node;
+    }
+
+    /**
+     * Get the values stored for exactly the given network.
+     *
+     * @return the values (an empty list if there are none)
+     */
+    public List<V> get(final IPNetwork network) {
+        final byte[] addr = network.getAddr();
+        final int len = network.getNetmask();
+        checkLength(addr, len);
+
+        Node<V> node = root(addr);
+        while(node != null && matches(node, addr, len)) {
+            if(node.len == len) {
+                return node.values == null
+                        ? Collections.<V>emptyList()
+                        : Collections.unmodifiableList(node.values);
+            }
+            node = node.children[bit(addr, node.len)];
+        }
+
+        return Collections.emptyList();
+    }
+
+    /**
+     * Get the values of all networks containing the given address.
+     *
+     * @param address The address (its mask length is ignored)
+     *
+     * @return the values ordered from the least to the most specific network
+     */
+    public List<V> getContaining(final IPTarget address) {
+        return getContaining(address.getAddr(), address.getAddr().length * 8);
+    }
+
+    /**
+     * Get the values of all networks containing the given one (including
+     * the network itself).
+     *
+     * @return the values ordered from the least to the most specific network
+     */
+    public List<V> getContaining(final IPNetwork network) {
+        return getContaining(network.getAddr(), network.getNetmask());
+    }
+
+    /**
+     * Get the values of all networks containing the network
+     * <tt>addr/masklen</tt>.
+     *
+     * @return the values ordered from the least to the most specific network
+     */
+    public List<V> getContaining(final byte[] addr, final int masklen) {
+        Node<V> node = root(addr);
+        checkLength(addr, masklen);
+
+        List<V> result = null;
+        while(node != null && matches(node, addr, masklen)) {
+            if(node.values != null) {
+                if(result == null) {
+                    result = new ArrayList<V>(node.values);
+                } else {
+                    result.addAll(node.values);
+                }
+            }
+            if(node.len == masklen) {
+                break;
+            }
+            node = node.children[bit(addr, node.len)];
+        }
+
+        return result == null ? Collections.<V>emptyList() : result;
+    }
+
+    /**
+     * Get the value of the most specific network containing the given
+     * address.
+     *
+     * @param address The address (its mask length is ignored)
+     *
+     * @return the (first) value of the longest matching prefix or
+     * <code>null</code> if no network contains the address
+     */
+    public V getLongestMatch(final IPTarget address) {
+        final byte[] addr = address.getAddr();
+        final int len = addr.length * 8;
+
+        Node<V> node = root(addr);
+        List<V> values = null;
+        while(node != null && matches(node, addr, len)) {
+            if(node.values != null) {
+                values = node.values;
+            }
+            if(node.len == len) {
+                break;
+            }
+            node = node.children[bit(addr, node.len)];
+        }
+
+        return values == null ? null : values.get(0);
+    }
+
+    /**
+     * Get the total number of values.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove all values.
+     */
+    public void clear() {
+        clear(v4);
+        clear(v6);
+        size = 0;
+    }
+
+    private static <V> void clear(final Node<V> root) {
+        root.values = null;
+        root.children[0] = null;
+        root.children[1] = null;
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.math.BigInteger;
+import java.util.List;
+import org.ancoron.postgresql.jpa.IPNetwork;
+
+/**
+ * Carves variable length sub-networks (VLSM) out of a parent network.
+ *
+ * <p>
+ * In contrast to {@link NetworkUtils#splitByCount(IPNetwork, int)} the
+ * requested sub-networks may have any number and any size. Each request is
+ * either a mask length or a number of required hosts, which is rounded up to
+ * the smallest network providing that many usable addresses.
+ * </p>
+ *
+ * <p>
+ * Requests are placed largest first using buddy-style free lists (best-fit),
+ * so all sub-networks are properly aligned, never overlap and the remaining
+ * free space stays as contiguous as possible.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * <pre>
+ * SubnetPlanner planner = new SubnetPlanner(new IPNetwork("10.0.0.0/22"));
+ * planner.planByHosts(100, 500, 20);
+ * </pre>
+ * ...will produce the following sub-networks (in the order of the requests):
+ * <pre>
+ * "10.0.2.0/25",
+ * "10.0.0.0/23",
+ * "10.0.2.128/27"
+ * </pre>
+ * ...leaving <tt>10.0.3.0/24</tt>, <tt>10.0.2.192/26</tt> and
+ * <tt>10.0.2.160/27</tt> as free space for subsequent plans.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ *
+ * @author ancoron
+ */
+public class SubnetPlanner {
+
+    private final IPNetwork network;
+    private final BuddyFreeList free;
+
+    /**
+     * Create a new planner for the complete address space of the given
+     * network.
+     *
+     * @param network The parent network
+     *
+     * @throws IllegalArgumentException if the given network is
+     * <code>null</code> or empty
+     */
+    public SubnetPlanner(final IPNetwork network) {
+        if(network == null || network.getAddr() == null) {
+            throw new IllegalArgumentException("Unable to plan sub-networks without a network");
+        }
+
+        this.network = network;
+        this.free = new BuddyFreeList(network.isV6());
+        this.free.free(NetworkUtils.lowValue(network), network.getNetmask());
+    }
+
+    public IPNetwork getNetwork() {
+        return network;
+    }
+
+    /**
+     * Get the remaining free space, largest blocks first.
+     *
+     * @return the free blocks of the parent network
+     */
+    public List<IPNetwork> getFree() {
+        return free.toNetworks();
+    }
+
+    /**
+     * Get the number of remaining free addresses.
+     *
+     * @return the number of free addresses
+     */
+    public BigInteger getFreeSize() {
+        return free.size();
+    }
+
+    /**
+     * Calculate the mask length of the smallest network providing the given
+     * number of usable host addresses.
+     *
+     * <p>
+     * For IPv4 networks the network and broadcast addresses are not usable,
+     * except for <tt>/31</tt> (point-to-point, RFC 3021) and <tt>/32</tt>
+     * networks.
+     * </p>
+     *
+     * @param v6 <tt>true</tt> for IPv6, <tt>false</tt> for IPv4
+     * @param hosts The number of required hosts
+     *
+     * @return the mask length
+     *
+     * @throws IllegalArgumentException if the number of hosts is invalid
+     */
+    public static int masklenForHosts(final boolean v6, final long hosts) {
+        if(hosts < 1) {
+            throw new IllegalArgumentException("Unable to calculate network for "
+                    + hosts + " host(s): value is lower than 1");
+        }
+
+        final int bits = NetworkUtils.bits(v6);
+        long need = hosts;
+
+        if(!v6 && hosts > 2) {
+            // network and broadcast address...
+            need += 2;
+        }
+
+        final int hostbits = need == 1 ? 0 : 64 - Long.numberOfLeadingZeros(need - 1);
+
+        if(hostbits > bits) {
+            throw new IllegalArgumentException("Unable to calculate network for "
+                    + hosts + " host(s): value is higher than the address space");
+        }
+
+        return bits - hostbits;
+    }
+
+    /**
+     * Plan sub-networks for the given numbers of required hosts.
+     *
+     * @param hosts The number of required hosts for each sub-network
+     *
+     * @return the planned sub-networks in the same order as the requests
+     *
+     * @throws IllegalArgumentException if any request is invalid or the
+     * requested sub-networks do not fit into the remaining free space (in
+     * which case none of them is allocated)
+     *
+     * @see #masklenForHosts(boolean, long)
+     */
+    public IPNetwork[] planByHosts(final long... hosts) {
+        final int[] masklens = new int[hosts.length];
+
+        for(int i=0; i<hosts.length; i++) {
+            masklens[i] = masklenForHosts(network.isV6(), hosts[i]);
+        }
+
+        return planByMasklen(masklens);
+    }
+
+    /**
+     * Plan sub-networks for the given mask lengths.
+     *
+     * @param masklens The mask length of each sub-network
+     *
+     * @return the planned sub-networks in the same order as the requests
+     *
+     * @throws IllegalArgumentException if any request is invalid or the
+     * requested sub-networks do not fit into the remaining free space (in
+     * which case none of them is allocated)
+     */
+    public IPNetwork[] planByMasklen(final int... masklens) {
+        final int bits = NetworkUtils.bits(network.isV6());
+        final int n = masklens.length;
+
+        // bucket requests by mask length (counting sort, largest first)...
+        final int[] count = new int[bits + 2];
+        for(int i=0; i<n; i++) {
+            final int m = masklens[i];
+            if(m < network.getNetmask() || m > bits) {
+                throw new IllegalArgumentException("Unable to plan a /" + m
+                        + " network inside " + network
+                        + ": invalid mask length for request #" + (i + 1));
+            }
+            count[m + 1]++;
+        }
+
+        for(int m=1; m<count.length; m++) {
+            count[m] += count[m - 1];
+        }
+
+        final int[] order = new int[n];
+        for(int i=0; i<n; i++) {
+            order[count[masklens[i]]++] = i;
+        }
+
+        final BigInteger[] lows = new BigInteger[n];
+        for(int k=0; k<n; k++) {
+            final int i = order[k];
+            final BigInteger low = free.allocate(masklens[i]);
+
+            if(low == null) {
+                // roll back the whole plan...
+                for(int j=0; j<k; j++) {
+                    free.free(lows[order[j]], masklens[order[j]]);
+                }
+
+                throw new IllegalArgumentException("Unable to plan " + n
+                        + " network(s) inside " + network
+                        + ": not enough free space for request #" + (i + 1)
+                        + " (/" + masklens[i] + ")");
+            }
+
+            lows[i] = low;
+        }
+
+        final IPNetwork[] nets = new IPNetwork[n];
+        for(int i=0; i<n; i++) {
+            nets[i] = NetworkUtils.toNetwork(lows[i], masklens[i], network.isV6());
+        }
+
+        return nets;
+    }
+
+    /**
+     * Give back a previously planned sub-network to the free space.
+     *
+     * <p>
+     * Note: the given network must have been planned before and not yet
+     * released, otherwise the free space gets corrupted.
+     * </p>
+     *
+     * @param subnet The sub-network to release
+     *
+     * @throws IllegalArgumentException if the given network is not part of
+     * the parent network
+     */
+    public void release(final IPNetwork subnet) {
+        if(subnet == null || subnet.getAddr() == null
+                || !NetworkUtils.covers(network, subnet))
+        {
+            throw new IllegalArgumentException("Unable to release " + subnet
+                    + ": not a sub-network of " + network);
+        }
+
+        free.free(NetworkUtils.lowValue(subnet), subnet.getNetmask());
+    }
+}
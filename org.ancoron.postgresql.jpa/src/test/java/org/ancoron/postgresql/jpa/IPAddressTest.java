@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa;
+
+import java.net.InetAddress;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author ancoron
+ */
+public class IPAddressTest {
+
+    @Test
+    public void testValueOf() throws Exception {
+        assertAddress("10.0.0.1", "10.0.0.1", 32);
+        assertAddress("10.0.0.1/24", "10.0.0.1/24", 24);
+        assertAddress("10.0.0.1/32", "10.0.0.1", 32);
+        assertAddress("fe80:0:0:0:20e:cff:fe33:d204", "fe80::20e:cff:fe33:d204", 128);
+        assertAddress("2001:db8:0:0:1:0:0:1", "2001:db8::1:0:0:1", 128);
+        assertAddress("2001:db8:0:1:1:1:1:1", "2001:db8:0:1:1:1:1:1", 128);
+        assertAddress("::", "::", 128);
+        assertAddress("::1/64", "::1/64", 64);
+        assertAddress("fe80::", "fe80::", 128);
+        assertAddress("::ffff:10.0.0.1", "::ffff:a00:1", 128);
+
+        Assert.assertNull(IPAddress.valueOf((String) null));
+
+        for(String invalid : new String[] {"", "10.0.0", "10.0.0.256", "10.0.0.1/33", "10.0.0.1/", "10..0.1", "fe80::/129",
+                "zz:1", "localhost:1", "fe80::1%lo", "[::1]", "1::2::3"}) {
+            try {
+                IPAddress.valueOf(invalid);
+                Assert.fail("Invalid address accepted: " + invalid);
+            } catch(IllegalArgumentException x) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testConversion() throws Exception {
+        InetAddress inet = InetAddress.getByName("fe80::1");
+        IPAddress ip = IPAddress.valueOf(inet);
+
+        Assert.assertTrue(ip.isV6());
+        Assert.assertEquals(inet, ip.toInetAddress());
+        Assert.assertEquals(ip, IPAddress.valueOf(ip.getAddress()));
+        Assert.assertEquals(ip, IPAddress.valueOf(new IPTarget("fe80::1")));
+
+        // the raw address can't be modified from outside...
+        ip.getAddress()[0] = 0;
+        Assert.assertEquals("fe80::1", ip.getValue());
+    }
+
+    @Test
+    public void testEqualsAndOrder() {
+        IPAddress a = IPAddress.valueOf("10.0.0.1");
+        IPAddress b = IPAddress.valueOf("10.0.0.1/32");
+        IPAddress c = IPAddress.valueOf("10.0.0.1/24");
+        IPAddress d = IPAddress.valueOf("192.168.0.1");
+        IPAddress e = IPAddress.valueOf("::1");
+
+        Assert.assertEquals(a, b);
+        Assert.assertEquals(a.hashCode(), b.hashCode());
+        Assert.assertFalse(a.equals(c));
+
+        Assert.assertTrue(c.compareTo(a) < 0);
+        Assert.assertTrue(a.compareTo(d) < 0);
+        Assert.assertTrue(d.compareTo(e) < 0);
+        Assert.assertEquals(0, a.compareTo(b));
+    }
+
+    private static void assertAddress(String value, String expected, int netmask) {
+        IPAddress ip = IPAddress.valueOf(value);
+
+        Assert.assertEquals("Wrong value for " + value, expected, ip.getValue());
+        Assert.assertEquals("Wrong netmask for " + value, netmask, ip.getNetmask());
+    }
+}
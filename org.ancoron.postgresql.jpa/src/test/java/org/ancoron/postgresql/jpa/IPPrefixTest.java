@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author ancoron
+ */
+public class IPPrefixTest {
+
+    @Test
+    public void testValueOf() {
+        Assert.assertEquals("10.0.0.0/8", IPPrefix.valueOf("10.0.0.0/8").getValue());
+        Assert.assertEquals("10.0.0.1/32", IPPrefix.valueOf("10.0.0.1").getValue());
+        Assert.assertEquals("2001:db8::/32", IPPrefix.valueOf("2001:0db8::/32").getValue());
+        Assert.assertEquals("::/0", IPPrefix.valueOf("::/0").getValue());
+
+        try {
+            IPPrefix.valueOf("10.0.0.1/8");
+            Assert.fail("Bits right of the mask must be rejected");
+        } catch(IllegalArgumentException x) {
+            // expected
+        }
+
+        Assert.assertEquals(IPPrefix.valueOf("10.0.0.0/23"),
+                IPPrefix.valueOf(IPAddress.valueOf("10.0.1.17"), 23));
+        Assert.assertEquals(IPPrefix.valueOf("172.16.0.0/12"),
+                IPPrefix.valueOf(new IPNetwork("172.16.0.0/12")));
+    }
+
+    @Test
+    public void testContains() {
+        IPPrefix net = IPPrefix.valueOf("172.16.0.0/12");
+
+        Assert.assertTrue(net.contains(IPAddress.valueOf("172.16.1.1")));
+        Assert.assertTrue(net.contains(IPAddress.valueOf("172.31.255.255")));
+        Assert.assertFalse(net.contains(IPAddress.valueOf("172.32.0.0")));
+        Assert.assertFalse(net.contains(IPAddress.valueOf("::1")));
+
+        Assert.assertTrue(net.contains(net));
+        Assert.assertTrue(net.contains(IPPrefix.valueOf("172.17.0.0/16")));
+        Assert.assertFalse(IPPrefix.valueOf("172.17.0.0/16").contains(net));
+
+        Assert.assertTrue(net.overlaps(IPPrefix.valueOf("172.0.0.0/8")));
+        Assert.assertFalse(net.overlaps(IPPrefix.valueOf("10.0.0.0/8")));
+    }
+}
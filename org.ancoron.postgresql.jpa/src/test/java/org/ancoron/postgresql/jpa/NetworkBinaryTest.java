@@ -0,0 +1,127 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa;
+
+import java.sql.SQLException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author ancoron
+ */
+public class NetworkBinaryTest {
+
+    @Test
+    public void testInet() throws Exception {
+        IPAddress ip = IPAddress.valueOf("192.168.1.25/24");
+        byte[] bytes = new byte[2 + ip.lengthInBytes()];
+        ip.toBytes(bytes, 2);
+
+        Assert.assertArrayEquals(new byte[] {0, 0, 2, 24, 0, 4, (byte) 192, (byte) 168, 1, 25}, bytes);
+        Assert.assertEquals(8, NetworkBinary.lengthAt(bytes, 2));
+        Assert.assertFalse(NetworkBinary.isCidr(bytes, 2));
+        Assert.assertEquals(ip, NetworkBinary.readIPAddress(bytes, 2));
+
+        IPTarget target = new IPTarget("fe80::1");
+        bytes = new byte[target.lengthInBytes()];
+        target.toBytes(bytes, 0);
+        Assert.assertEquals(20, bytes.length);
+        Assert.assertEquals(NetworkBinary.PGSQL_AF_INET6, bytes[0]);
+        Assert.assertEquals((byte) 128, bytes[1]);
+
+        IPTarget copy = new IPTarget();
+        copy.setByteValue(bytes, 0);
+        Assert.assertEquals(target, copy);
+        Assert.assertEquals(target.getHost(), copy.getHost());
+        Assert.assertEquals(target.getValue(), copy.getValue());
+        Assert.assertTrue(copy.isV6());
+
+        // a reused instance takes the new value completely...
+        bytes = new byte[ip.lengthInBytes()];
+        ip.toBytes(bytes, 0);
+        copy.setByteValue(bytes, 0);
+        Assert.assertEquals(new IPTarget("192.168.1.25/24"), copy);
+        Assert.assertEquals(new IPTarget("192.168.1.25/24").getValue(), copy.getValue());
+        Assert.assertFalse(copy.isV6());
+    }
+
+    @Test
+    public void testCidr() throws Exception {
+        IPNetwork net = new IPNetwork("10.1.0.0/16");
+        byte[] bytes = new byte[net.lengthInBytes()];
+        net.toBytes(bytes, 0);
+
+        Assert.assertTrue(NetworkBinary.isCidr(bytes, 0));
+        Assert.assertEquals(IPPrefix.valueOf("10.1.0.0/16"), NetworkBinary.readIPPrefix(bytes, 0));
+
+        IPNetwork copy = new IPNetwork();
+        copy.setByteValue(bytes, 0);
+        Assert.assertEquals(net, copy);
+        Assert.assertEquals(net.getValue(), copy.getValue());
+        Assert.assertArrayEquals(net.getBroadcastAddress(), copy.getBroadcastAddress());
+        Assert.assertArrayEquals(net.getNetmaskAddress(), copy.getNetmaskAddress());
+
+        // bits right of the mask...
+        bytes[7] = 1;
+        try {
+            NetworkBinary.readIPPrefix(bytes, 0);
+            Assert.fail("Bits right of the mask must be rejected");
+        } catch(IllegalArgumentException x) {
+            // expected
+        }
+        try {
+            copy.setByteValue(bytes, 0);
+            Assert.fail("Bits right of the mask must be rejected");
+        } catch(SQLException x) {
+            // expected
+        }
+        Assert.assertEquals(net, copy);
+
+        bytes[7] = 0;
+        bytes[6] = (byte) 0x80;
+        try {
+            copy.setByteValue(bytes, 0);
+            Assert.fail("Bits right of the mask must be rejected");
+        } catch(SQLException x) {
+            // expected
+        }
+
+        // an IPv4 family with 16 address bytes...
+        try {
+            NetworkBinary.readAddress(new byte[] {2, 32, 0, 16, 1, 2, 3, 4}, 0);
+            Assert.fail("Invalid address length must be rejected");
+        } catch(IllegalArgumentException x) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMacaddr() {
+        byte[] bytes = new byte[NetworkBinary.MACADDR_LENGTH];
+        NetworkBinary.writeMacaddr("08-00-2B-01-02-03", bytes, 0);
+
+        Assert.assertArrayEquals(new byte[] {8, 0, 0x2b, 1, 2, 3}, bytes);
+        Assert.assertEquals("08:00:2b:01:02:03", NetworkBinary.readMacaddr(bytes, 0));
+
+        try {
+            NetworkBinary.writeMacaddr("08:00:2b:01:02", bytes, 0);
+            Assert.fail("Short MAC address must be rejected");
+        } catch(IllegalArgumentException x) {
+            // expected
+        }
+    }
+}
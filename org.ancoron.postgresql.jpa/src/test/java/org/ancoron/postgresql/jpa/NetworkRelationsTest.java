@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa;
+
+import java.net.InetAddress;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author ancoron
+ */
+public class NetworkRelationsTest {
+
+    @Test
+    public void testContains() throws Exception {
+        IPPrefix prefix = IPPrefix.valueOf("10.1.0.0/16");
+        IPNetwork network = new IPNetwork("10.1.0.0/16");
+
+        Assert.assertTrue(NetworkRelations.contains(prefix, IPAddress.valueOf("10.1.2.3"), false));
+        Assert.assertTrue(NetworkRelations.contains(prefix, new IPTarget("10.1.2.3"), false));
+        Assert.assertTrue(NetworkRelations.contains(network, IPAddress.valueOf("10.1.2.3"), false));
+        Assert.assertTrue(NetworkRelations.contains(prefix, InetAddress.getByName("10.1.2.3"), false));
+        Assert.assertFalse(NetworkRelations.contains(prefix, IPAddress.valueOf("10.2.0.1"), true));
+        Assert.assertFalse(NetworkRelations.contains(prefix, IPAddress.valueOf("::1"), true));
+
+        // equal networks...
+        Assert.assertFalse(NetworkRelations.contains(prefix, network, false));
+        Assert.assertTrue(NetworkRelations.contains(prefix, network, true));
+        Assert.assertTrue(NetworkRelations.contains(network, prefix, true));
+
+        // an inet with a mask contains the addresses of its network...
+        Assert.assertTrue(NetworkRelations.contains(IPAddress.valueOf("10.1.0.5/16"),
+                IPAddress.valueOf("10.1.2.3"), false));
+
+        // the values are not changed...
+        Assert.assertEquals("10.1.0.0/16", prefix.getValue());
+        Assert.assertEquals("10.1.0.0/16", network.getValue());
+    }
+
+    @Test
+    public void testOverlaps() {
+        Assert.assertTrue(NetworkRelations.overlaps(IPPrefix.valueOf("10.0.0.0/8"),
+                IPPrefix.valueOf("10.1.0.0/16")));
+        Assert.assertTrue(NetworkRelations.overlaps(new IPNetwork("10.1.0.0/16"),
+                IPPrefix.valueOf("10.0.0.0/8")));
+        Assert.assertFalse(NetworkRelations.overlaps(IPPrefix.valueOf("10.0.0.0/8"),
+                IPPrefix.valueOf("11.0.0.0/8")));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalid() {
+        NetworkRelations.contains(IPPrefix.valueOf("10.0.0.0/8"), "10.0.0.1", true);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.eclipselink;
+
+import org.ancoron.postgresql.jpa.IPAddress;
+import org.eclipse.persistence.descriptors.ClassDescriptor;
+import org.eclipse.persistence.descriptors.RelationalDescriptor;
+import org.eclipse.persistence.internal.sessions.DatabaseSessionImpl;
+import org.eclipse.persistence.mappings.DirectToFieldMapping;
+import org.eclipse.persistence.sessions.DatabaseLogin;
+import org.eclipse.persistence.sessions.SessionEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the configuration of cache indexes by the {@link ConverterInitializer}
+ * on the EclipseLink version of the build.
+ *
+ * @author ancoron
+ */
+public class CacheIndexTest {
+
+    public static class Device {
+
+        private long id;
+        private IPAddress address;
+    }
+
+    private static boolean isCacheIndexSupported() {
+        try {
+            ClassDescriptor.class.getMethod("getCachePolicy");
+            return true;
+        } catch(NoSuchMethodException x) {
+            return false;
+        }
+    }
+
+    private static DatabaseSessionImpl session(String property, String value) {
+        DatabaseSessionImpl s = new DatabaseSessionImpl(new DatabaseLogin(new ExtendedPostgreSQLPlatform()));
+
+        RelationalDescriptor desc = new RelationalDescriptor();
+        desc.setJavaClass(Device.class);
+        desc.addTableName("test_device");
+        desc.addPrimaryKeyFieldName("test_device.id");
+        desc.addDirectMapping("id", "test_device.id");
+
+        DirectToFieldMapping m = (DirectToFieldMapping) desc.addDirectMapping("address", "test_device.c_address");
+        m.setConverter(new IPAddressConverter());
+        m.getField().setUnique(true);
+
+        s.getProject().addDescriptor(desc);
+        s.setProperty(property, value);
+
+        new ConverterInitializer().preLogin(new SessionEvent(SessionEvent.PreLogin, s));
+        return s;
+    }
+
+    private static DirectToFieldMapping address(DatabaseSessionImpl s) {
+        return (DirectToFieldMapping) s.getDescriptor(Device.class).getMappingForAttributeName("address");
+    }
+
+    @Test
+    public void testCacheIndex() {
+        DatabaseSessionImpl s = session(ConverterInitializer.PROPERTY_CACHE_INDEX, "true");
+        ExtendedPostgreSQLPlatform platform = (ExtendedPostgreSQLPlatform) s.getDatasourcePlatform();
+
+        if(isCacheIndexSupported()) {
+            Assert.assertTrue(address(s).getConverter() instanceof NetworkValueConverter);
+            Assert.assertTrue(platform.isNetworkValues());
+        } else {
+            // no index, so the values read stay the same...
+            Assert.assertTrue(address(s).getConverter() instanceof IPAddressConverter);
+            Assert.assertFalse(platform.isNetworkValues());
+        }
+    }
+
+    @Test
+    public void testNetworkValues() {
+        DatabaseSessionImpl s = session(ConverterInitializer.PROPERTY_NETWORK_VALUES, "true");
+
+        Assert.assertTrue(address(s).getConverter() instanceof IPAddressConverter);
+        Assert.assertTrue(((ExtendedPostgreSQLPlatform) s.getDatasourcePlatform()).isNetworkValues());
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.eclipselink;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.eclipse.persistence.internal.helper.DatabaseField;
+import org.junit.Assert;
+import org.junit.Test;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+import org.postgresql.net.PGmacaddr;
+import org.postgresql.util.PGobject;
+
+/**
+ *
+ * @author ancoron
+ */
+public class ExtendedPostgreSQLPlatformTest {
+
+    /**
+     * A result set of a single row, parsed by the "driver" in
+     * <tt>getObject</tt> only.
+     */
+    private static ResultSet row(final String[] types, final String[] values) {
+        final ResultSetMetaData meta = (ResultSetMetaData) Proxy.newProxyInstance(
+                ExtendedPostgreSQLPlatformTest.class.getClassLoader(),
+                new Class[] {ResultSetMetaData.class}, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if("getColumnCount".equals(method.getName())) {
+                    return types.length;
+                } else if("getColumnTypeName".equals(method.getName())) {
+                    return types[(Integer) args[0] - 1];
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        return (ResultSet) Proxy.newProxyInstance(
+                ExtendedPostgreSQLPlatformTest.class.getClassLoader(),
+                new Class[] {ResultSet.class}, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if("getMetaData".equals(method.getName())) {
+                    return meta;
+                } else if("getString".equals(method.getName())) {
+                    return values[(Integer) args[0] - 1];
+                } else if("getObject".equals(method.getName())) {
+                    final int column = (Integer) args[0] - 1;
+                    if(values[column] == null) {
+                        return null;
+                    } else if("inet".equals(types[column])) {
+                        return new PGinet(values[column]);
+                    } else if("cidr".equals(types[column])) {
+                        return new PGcidr(values[column]);
+                    } else if("macaddr".equals(types[column])) {
+                        return new PGmacaddr(values[column]);
+                    }
+                    return values[column];
+                } else if("hashCode".equals(method.getName())) {
+                    return System.identityHashCode(proxy);
+                } else if("equals".equals(method.getName())) {
+                    return proxy == args[0];
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * A prepared statement recording the calls of <tt>setObject</tt> and
+     * <tt>setNull</tt> (as the method name followed by its arguments).
+     */
+    private static PreparedStatement statement(final List<Object[]> calls) {
+        return (PreparedStatement) Proxy.newProxyInstance(
+                ExtendedPostgreSQLPlatformTest.class.getClassLoader(),
+                new Class[] {PreparedStatement.class}, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if("setObject".equals(method.getName()) || "setNull".equals(method.getName())) {
+                    Object[] call = new Object[args.length + 1];
+                    call[0] = method.getName();
+                    System.arraycopy(args, 0, call, 1, args.length);
+                    calls.add(call);
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    @Test
+    public void testTypedBinding() throws Exception {
+        ExtendedPostgreSQLPlatform platform = new ExtendedPostgreSQLPlatform();
+        List<Object[]> calls = new ArrayList<Object[]>();
+        PreparedStatement stmt = statement(calls);
+
+        PGinet inet = new PGinet("10.0.0.1");
+        platform.setParameterValueInDatabaseCall(inet, stmt, 1, null);
+
+        DatabaseField cidr = new DatabaseField("C_CIDR");
+        cidr.setSqlType(Types.OTHER);
+        cidr.setTypeName("cidr");
+        platform.setParameterValueInDatabaseCall(cidr, stmt, 2, null);
+
+        DatabaseField macs = new DatabaseField("C_MACS");
+        macs.setSqlType(Types.ARRAY);
+        macs.setTypeName("_macaddr");
+        platform.setParameterValueInDatabaseCall(macs, stmt, 3, null);
+
+        Assert.assertEquals(3, calls.size());
+
+        // a network value is bound as it is...
+        Assert.assertEquals("setObject", calls.get(0)[0]);
+        Assert.assertEquals(1, calls.get(0)[1]);
+        Assert.assertSame(inet, calls.get(0)[2]);
+
+        // ...and NULLs of network columns as an empty value of their type
+        Assert.assertEquals("setObject", calls.get(1)[0]);
+        Assert.assertEquals(2, calls.get(1)[1]);
+        Assert.assertEquals("cidr", ((PGobject) calls.get(1)[2]).getType());
+        Assert.assertNull(((PGobject) calls.get(1)[2]).getValue());
+
+        Assert.assertEquals("setObject", calls.get(2)[0]);
+        Assert.assertEquals(3, calls.get(2)[1]);
+        Assert.assertEquals("_macaddr", ((PGobject) calls.get(2)[2]).getType());
+        Assert.assertNull(((PGobject) calls.get(2)[2]).getValue());
+
+        Assert.assertTrue(ExtendedPostgreSQLPlatform.isNetworkType("inet"));
+        Assert.assertTrue(ExtendedPostgreSQLPlatform.isNetworkType("_cidr"));
+        Assert.assertFalse(ExtendedPostgreSQLPlatform.isNetworkType("uuid"));
+        Assert.assertFalse(ExtendedPostgreSQLPlatform.isNetworkType("_varchar"));
+        Assert.assertFalse(ExtendedPostgreSQLPlatform.isNetworkType(null));
+    }
+
+    @Test
+    public void testDriverTypes() throws Exception {
+        ExtendedPostgreSQLPlatform platform = new ExtendedPostgreSQLPlatform();
+        Assert.assertFalse(platform.isNetworkValues());
+
+        ResultSet rs = row(new String[] {"inet", "cidr", "macaddr", "inet"},
+                new String[] {"10.0.0.1/24", "10.0.0.0/24", "08:00:2b:01:02:03", null});
+
+        // the values of the driver are returned by default...
+        Assert.assertSame(PGinet.class, platform.getObjectFromResultSet(rs, 1, Types.OTHER, null).getClass());
+        Assert.assertSame(PGcidr.class, platform.getObjectFromResultSet(rs, 2, Types.OTHER, null).getClass());
+        Assert.assertSame(PGmacaddr.class, platform.getObjectFromResultSet(rs, 3, Types.OTHER, null).getClass());
+        Assert.assertNull(platform.getObjectFromResultSet(rs, 4, Types.OTHER, null));
+    }
+
+    @Test
+    public void testNetworkColumns() throws Exception {
+        ExtendedPostgreSQLPlatform platform = new ExtendedPostgreSQLPlatform();
+        platform.setNetworkValues(true);
+
+        ResultSet rs = row(new String[] {"inet", "cidr", "macaddr", "inet"},
+                new String[] {"10.0.0.1/24", "10.0.0.0/24", "08:00:2b:01:02:03", null});
+
+        Object inet = platform.getObjectFromResultSet(rs, 1, Types.OTHER, null);
+        Object cidr = platform.getObjectFromResultSet(rs, 2, Types.OTHER, null);
+        Object mac = platform.getObjectFromResultSet(rs, 3, Types.OTHER, null);
+
+        // only the text is read, no PGinet/PGcidr/PGmacaddr is created...
+        Assert.assertSame(NetworkValue.class, inet.getClass());
+        Assert.assertEquals("inet", ((PGobject) inet).getType());
+        Assert.assertEquals("10.0.0.1/24", ((PGobject) inet).getValue());
+        Assert.assertSame(NetworkValue.class, cidr.getClass());
+        Assert.assertEquals("cidr", ((PGobject) cidr).getType());
+        Assert.assertSame(NetworkValue.class, mac.getClass());
+        Assert.assertEquals("macaddr", ((PGobject) mac).getType());
+        Assert.assertNull(platform.getObjectFromResultSet(rs, 4, Types.OTHER, null));
+
+        // ...which is parsed once by the converters
+        Assert.assertEquals(new IPTarget("10.0.0.1/24"),
+                new IPTargetConverter().convertDataValueToObjectValue(inet, null));
+        Assert.assertEquals(new IPNetwork("10.0.0.0/24").getValue(),
+                new IPNetworkConverter().convertDataValueToObjectValue(cidr, null).getValue());
+        Assert.assertEquals(InetAddress.getByName("10.0.0.1"),
+                new InetAddressConverter().convertDataValueToObjectValue(inet, null));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.eclipselink;
+
+import java.io.StringWriter;
+import org.eclipse.persistence.internal.sessions.AbstractSession;
+import org.eclipse.persistence.internal.sessions.DatabaseSessionImpl;
+import org.eclipse.persistence.sessions.DatabaseLogin;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author ancoron
+ */
+public class NetworkIndexDefinitionTest {
+
+    private static final String LONG = "a_rather_long_table_name_for_network_allocations";
+
+    @Test
+    public void testDefaultName() throws Exception {
+        Assert.assertEquals("idx_network_entity_c_network",
+                NetworkIndexDefinition.getDefaultName("network_entity", "c_network"));
+
+        // without schema and quotes...
+        Assert.assertEquals("idx_network_entity_c_network",
+                NetworkIndexDefinition.getDefaultName("ipam.\"network_entity\"", "\"c_network\""));
+
+        String a = NetworkIndexDefinition.getDefaultName(LONG, "c_source_network_of_the_flow");
+        String b = NetworkIndexDefinition.getDefaultName(LONG, "c_source_network_of_the_host");
+        Assert.assertTrue(a, a.getBytes("UTF-8").length <= NetworkIndexDefinition.MAX_NAME_LENGTH);
+        Assert.assertTrue(b, b.getBytes("UTF-8").length <= NetworkIndexDefinition.MAX_NAME_LENGTH);
+        Assert.assertTrue(a.startsWith("idx_" + LONG));
+        Assert.assertFalse("Long names must stay distinct", a.equals(b));
+        Assert.assertEquals(a, NetworkIndexDefinition.getDefaultName(LONG, "c_source_network_of_the_flow"));
+
+        // multi-byte characters count as bytes...
+        String c = NetworkIndexDefinition.getDefaultName("netzwerk_\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc\u00fc", "c_netz");
+        Assert.assertTrue(c, c.getBytes("UTF-8").length <= NetworkIndexDefinition.MAX_NAME_LENGTH);
+    }
+
+    @Test
+    public void testDDL() throws Exception {
+        AbstractSession session = new DatabaseSessionImpl(new DatabaseLogin(new ExtendedPostgreSQLPlatform()));
+
+        NetworkIndexDefinition def = new NetworkIndexDefinition("idx_Flow_c_source",
+                "ipam.flow", "c_source", NetworkIndex.Type.SPGIST);
+        def.setSchema("ipam");
+
+        StringWriter w = new StringWriter();
+        def.buildCreationWriter(session, w);
+        Assert.assertEquals("CREATE INDEX \"idx_Flow_c_source\" ON ipam.flow USING spgist (c_source inet_ops)",
+                w.toString());
+
+        w = new StringWriter();
+        def.buildDeletionWriter(session, w);
+        Assert.assertEquals("DROP INDEX IF EXISTS ipam.\"idx_Flow_c_source\"", w.toString());
+    }
+}
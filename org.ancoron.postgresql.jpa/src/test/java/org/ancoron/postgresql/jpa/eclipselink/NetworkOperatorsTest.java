@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.eclipselink;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.eclipse.persistence.expressions.ExpressionOperator;
+import org.junit.Assert;
+import org.junit.Test;
+import org.postgresql.net.PGinet;
+
+import static org.ancoron.postgresql.jpa.eclipselink.NetworkOperators.*;
+
+/**
+ *
+ * @author ancoron
+ */
+public class NetworkOperatorsTest {
+
+    @Test
+    public void testConformIPv4() throws Exception {
+        IPNetwork net = new IPNetwork("10.1.0.0/16");
+        IPNetwork sub = new IPNetwork("10.1.2.0/24");
+        IPTarget ip = new IPTarget("10.1.2.3");
+
+        assertConform(CONTAINS, net, sub, true);
+        assertConform(CONTAINS, net, net, false);
+        assertConform(CONTAINS_OR_EQUALS, net, net, true);
+        assertConform(CONTAINS_OR_EQUALS, sub, ip, true);
+        assertConform(CONTAINS_OR_EQUALS, ip, sub, false);
+        assertConform(CONTAINED_BY, ip, net, true);
+        assertConform(CONTAINED_BY, net, net, false);
+        assertConform(CONTAINED_BY_OR_EQUALS, sub, sub, true);
+        assertConform(CONTAINED_BY_OR_EQUALS, net, sub, false);
+        assertConform(OVERLAPS, sub, net, true);
+        assertConform(OVERLAPS, new IPNetwork("10.2.0.0/16"), sub, false);
+
+        // other value types...
+        assertConform(CONTAINS_OR_EQUALS, net, InetAddress.getByName("10.1.255.255"), true);
+        assertConform(CONTAINS_OR_EQUALS, new PGinet("10.1.0.0/16"), "10.1.9.9", true);
+        assertConform(CONTAINED_BY, InetAddress.getByName("10.2.0.1"), net, false);
+    }
+
+    @Test
+    public void testConformIPv6() throws Exception {
+        IPNetwork net = new IPNetwork("2001:db8::/32");
+        IPTarget ip = new IPTarget("2001:db8::1");
+
+        assertConform(CONTAINS, net, ip, true);
+        assertConform(CONTAINED_BY, ip, net, true);
+        assertConform(CONTAINS, new IPNetwork("2001:db9::/32"), ip, false);
+
+        // never across address families...
+        assertConform(CONTAINS_OR_EQUALS, new IPNetwork("::/0"), new IPTarget("10.1.2.3"), false);
+    }
+
+    @Test
+    public void testConformSpecial() {
+        IPNetwork net = new IPNetwork("10.1.0.0/16");
+
+        assertConform(CONTAINS, null, net, false);
+        assertConform(CONTAINS, net, null, false);
+
+        // anyOf()...
+        assertConform(CONTAINS, Arrays.asList(new IPNetwork("10.2.0.0/16"), net),
+                new IPTarget("10.1.2.3"), true);
+    }
+
+    private void assertConform(int selector, Object left, Object right, boolean expected) {
+        ExpressionOperator op = NetworkOperators.getOperator(selector);
+        Assert.assertEquals(left + " " + op + " " + right, expected,
+                op.doesRelationConform(left, right));
+    }
+}
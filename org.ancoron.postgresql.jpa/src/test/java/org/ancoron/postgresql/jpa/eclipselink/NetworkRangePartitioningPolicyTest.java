@@ -0,0 +1,193 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.eclipselink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.eclipse.persistence.descriptors.ClassDescriptor;
+import org.eclipse.persistence.internal.databaseaccess.Accessor;
+import org.eclipse.persistence.internal.sessions.AbstractSession;
+import org.eclipse.persistence.internal.sessions.DatabaseRecord;
+import org.eclipse.persistence.mappings.DirectToFieldMapping;
+import org.eclipse.persistence.queries.DatabaseQuery;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author ancoron
+ */
+public class NetworkRangePartitioningPolicyTest {
+
+    /**
+     * Records the connection pools instead of acquiring connections.
+     */
+    private static class TestPolicy extends NetworkRangePartitioningPolicy {
+
+        private final List<String> pools = new ArrayList<String>();
+
+        TestPolicy() {
+            super("c_network");
+
+            addPartition("low4", new IPNetwork("10.0.0.0/9"));
+            addPartition("high4", new IPTarget("10.128.0.0"), new IPTarget("10.255.255.255"));
+            addPartition("low6", new IPNetwork("2001:db8::/33"));
+            addPartition("high6", new IPNetwork("2001:db8:8000::/33"));
+            addParameter("net");
+        }
+
+        @Override
+        public Accessor getAccessor(String poolName, AbstractSession session,
+                DatabaseQuery query, boolean returnNullIfShared)
+        {
+            pools.add(poolName);
+            return null;
+        }
+
+        List<String> query(final String field, final Object value) {
+            pools.clear();
+            final DatabaseRecord arguments = new DatabaseRecord();
+            if(field != null) {
+                arguments.put(field, value);
+            }
+            return getConnectionsForQuery(null, null, arguments) == null
+                    ? null : new ArrayList<String>(pools);
+        }
+
+        List<String> persist(final IPTarget network) {
+            pools.clear();
+            final Host host = new Host();
+            host.network = network;
+            partitionPersist(null, host, descriptor());
+            return new ArrayList<String>(pools);
+        }
+    }
+
+    private static class Host {
+
+        private IPTarget network;
+    }
+
+    private static ClassDescriptor descriptor() {
+        final DirectToFieldMapping mapping = new DirectToFieldMapping();
+        mapping.setAttributeName("network");
+        mapping.setFieldName("c_network");
+        mapping.getAttributeAccessor().initializeAttributes(Host.class);
+
+        final ClassDescriptor descriptor = new ClassDescriptor();
+        descriptor.setJavaClass(Host.class);
+        descriptor.getObjectBuilder().getMappingsByField().put(mapping.getField(), mapping);
+        return descriptor;
+    }
+
+    @Test
+    public void testQueryIPv4() throws Exception {
+        TestPolicy policy = new TestPolicy();
+
+        Assert.assertEquals(Arrays.asList("low4"), policy.query("c_network", new IPTarget("10.1.2.3")));
+        Assert.assertEquals(Arrays.asList("high4"), policy.query("c_network", new IPTarget("10.200.0.1")));
+
+        // the boundaries of the partitions...
+        Assert.assertEquals(Arrays.asList("low4"), policy.query("c_network", new IPTarget("10.0.0.0")));
+        Assert.assertEquals(Arrays.asList("low4"), policy.query("c_network", new IPTarget("10.127.255.255")));
+        Assert.assertEquals(Arrays.asList("high4"), policy.query("c_network", new IPTarget("10.128.0.0")));
+        Assert.assertEquals(Arrays.asList("high4"), policy.query("c_network", new IPTarget("10.255.255.255")));
+
+        // outside of all partitions, so the default pool is used...
+        Assert.assertNull(policy.query("c_network", new IPTarget("11.0.0.0")));
+        Assert.assertNull(policy.query("c_network", new IPTarget("9.255.255.255")));
+
+        // a network spanning both partitions (as additional parameter)...
+        Assert.assertEquals(Arrays.asList("low4", "high4"), policy.query("net", new IPNetwork("10.0.0.0/8")));
+        Assert.assertEquals(Arrays.asList("high4"), policy.query("net", new IPNetwork("10.128.0.0/9")));
+
+        // ...or a collection of values (e.g. IN (:net))
+        Assert.assertEquals(Arrays.asList("low4", "high4"), policy.query("net",
+                Arrays.asList(new IPTarget("10.127.255.255"), new IPTarget("10.128.0.0"))));
+    }
+
+    @Test
+    public void testQueryIPv6() throws Exception {
+        TestPolicy policy = new TestPolicy();
+
+        Assert.assertEquals(Arrays.asList("low6"), policy.query("c_network", new IPTarget("2001:db8::1")));
+        Assert.assertEquals(Arrays.asList("low6"),
+                policy.query("c_network", new IPTarget("2001:db8:7fff:ffff:ffff:ffff:ffff:ffff")));
+        Assert.assertEquals(Arrays.asList("high6"), policy.query("c_network", new IPTarget("2001:db8:8000::")));
+        Assert.assertEquals(Arrays.asList("high6"),
+                policy.query("c_network", new IPTarget("2001:db8:ffff:ffff:ffff:ffff:ffff:ffff")));
+        Assert.assertEquals(Arrays.asList("low6", "high6"), policy.query("net", new IPNetwork("2001:db8::/32")));
+
+        Assert.assertNull(policy.query("c_network", new IPTarget("2001:db9::")));
+
+        // an IPv6 network never matches an IPv4 partition...
+        Assert.assertEquals(Arrays.asList("low6", "high6"), policy.query("net", new IPNetwork("::/0")));
+    }
+
+    @Test
+    public void testQueryWithoutNetwork() throws Exception {
+        TestPolicy policy = new TestPolicy();
+
+        Assert.assertNull(policy.query(null, null));
+        Assert.assertNull(policy.query("c_other", new IPTarget("10.1.2.3")));
+
+        policy.setUnionUnpartitionableQueries(true);
+        Assert.assertEquals(Arrays.asList("low4", "high4", "low6", "high6"), policy.query(null, null));
+    }
+
+    @Test
+    public void testPersist() throws Exception {
+        TestPolicy policy = new TestPolicy();
+
+        Assert.assertEquals(Arrays.asList("low4"), policy.persist(new IPTarget("10.1.2.3")));
+        Assert.assertEquals(Arrays.asList("low4"), policy.persist(new IPTarget("10.127.255.255")));
+        Assert.assertEquals(Arrays.asList("high4"), policy.persist(new IPTarget("10.128.0.0")));
+        Assert.assertEquals(Arrays.asList("low6"), policy.persist(new IPTarget("2001:db8:7fff:ffff:ffff:ffff:ffff:ffff")));
+        Assert.assertEquals(Arrays.asList("high6"), policy.persist(new IPTarget("2001:db8:8000::")));
+
+        // outside of all partitions or without a value the default is used...
+        Assert.assertEquals(Collections.emptyList(), policy.persist(new IPTarget("192.168.0.1")));
+        Assert.assertEquals(Collections.emptyList(), policy.persist(new IPTarget("2001:db9::1")));
+        Assert.assertEquals(Collections.emptyList(), policy.persist(null));
+    }
+
+    @Test
+    public void testOverlappingPartitions() throws Exception {
+        TestPolicy policy = new TestPolicy();
+
+        try {
+            policy.addPartition("other", new IPNetwork("10.127.0.0/16"));
+            Assert.fail("Overlapping partitions must be rejected");
+        } catch(IllegalArgumentException x) {
+            // expected
+        }
+
+        try {
+            policy.addPartition("other", new IPTarget("2001:db8:7fff::"), new IPTarget("2001:db8:8000::"));
+            Assert.fail("Overlapping partitions must be rejected");
+        } catch(IllegalArgumentException x) {
+            // expected
+        }
+
+        // adjacent ranges don't overlap...
+        policy.addPartition("other", new IPNetwork("2001:db9::/32"));
+        Assert.assertEquals(Arrays.asList("other"), policy.query("c_network", new IPTarget("2001:db9::1")));
+    }
+}
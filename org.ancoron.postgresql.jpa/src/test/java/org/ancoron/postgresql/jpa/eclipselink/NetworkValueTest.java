@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.eclipselink;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.junit.Assert;
+import org.junit.Test;
+import org.postgresql.net.PGmacaddr;
+import org.postgresql.util.PGobject;
+
+/**
+ *
+ * @author ancoron
+ */
+public class NetworkValueTest {
+
+    @Test
+    public void testEquality() throws Exception {
+        // as read from the database...
+        Map<Object, String> index = new HashMap<Object, String>();
+        index.put(new NetworkValue("inet", "10.0.0.1"), "host");
+        index.put(new NetworkValue("inet", "2001:db8::1"), "host6");
+        index.put(new NetworkValue("cidr", "10.0.0.0/24"), "net");
+        index.put(new NetworkValue("macaddr", "08:00:2b:01:02:03"), "nic");
+
+        // as written or queried by the application...
+        Assert.assertEquals("host", index.get(NetworkValue.valueOf(new IPTarget("10.0.0.1"))));
+        Assert.assertEquals("host", index.get(new NetworkValue("inet", "10.0.0.1/32")));
+        Assert.assertEquals("host6", index.get(new NetworkValue("inet", "2001:0db8:0:0:0:0:0:1")));
+        Assert.assertEquals("net", index.get(new NetworkValue("cidr", "10.0.0.0/24")));
+        Assert.assertEquals("nic", index.get(NetworkValue.valueOf(new PGmacaddr("08-00-2B-01-02-03"))));
+
+        Assert.assertNull(index.get(new NetworkValue("inet", "10.0.0.1/24")));
+        Assert.assertNull(index.get(new NetworkValue("inet", "10.0.0.0/24")));
+        Assert.assertNull(index.get(new NetworkValue("inet", "::ffff:10.0.0.1")));
+
+        // other values are kept...
+        PGobject obj = new PGobject();
+        obj.setType("inet");
+        Assert.assertSame(obj, NetworkValue.valueOf(obj));
+        Assert.assertEquals("10.0.0.1", NetworkValue.valueOf("10.0.0.1"));
+        Assert.assertNull(NetworkValue.valueOf(null));
+    }
+
+    @Test
+    public void testIPTarget() throws Exception {
+        IPTarget a = new IPTarget("10.0.0.1");
+        IPTarget b = new IPTarget("10.0.0.1");
+
+        Assert.assertEquals(a, b);
+        Assert.assertEquals(a.hashCode(), b.hashCode());
+        Assert.assertFalse(a.equals(new IPTarget("10.0.0.1/24")));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.ancoron.postgresql.jpa.util.DatabaseNetworkAllocator;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author ancoron
+ */
+public class AllocatorIntegrationTest {
+
+    private static final Logger log;
+
+    static {
+        log = Logger.getLogger(AllocatorIntegrationTest.class.getName());
+    }
+
+    private static final String TABLE = "test_ipam_free_block";
+
+    private static DataSource dataSource;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        log.info("Creating free block table for allocator tests");
+
+        dataSource = TestUtil.getDataSource();
+        execute("DROP TABLE IF EXISTS " + TABLE);
+
+        new DatabaseNetworkAllocator(dataSource, TABLE, "setup",
+                new IPNetwork("10.0.0.0/8")).createTable();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        execute("DROP TABLE IF EXISTS " + TABLE);
+    }
+
+    private static void execute(String sql) throws SQLException {
+        Connection conn = dataSource.getConnection();
+        try {
+            Statement stmt = conn.createStatement();
+            stmt.execute(sql);
+            stmt.close();
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static List<String> blocks(String pool) throws SQLException {
+        List<String> blocks = new ArrayList<String>();
+        Connection conn = dataSource.getConnection();
+        try {
+            PreparedStatement ps = conn.prepareStatement("SELECT CAST(block AS text) FROM "
+                    + TABLE + " WHERE pool = ? ORDER BY block");
+            ps.setString(1, pool);
+            ResultSet rs = ps.executeQuery();
+            while(rs.next()) {
+                blocks.add(rs.getString(1));
+            }
+            rs.close();
+            ps.close();
+        } finally {
+            conn.close();
+        }
+        return blocks;
+    }
+
+    /**
+     * Create an allocator for a pool of its own (as the tests run in
+     * parallel), removing any blocks left by a previous run.
+     */
+    private static DatabaseNetworkAllocator allocator(String pool, String... roots)
+            throws SQLException
+    {
+        execute("DELETE FROM " + TABLE + " WHERE pool = '" + pool + "'");
+
+        IPNetwork[] nets = new IPNetwork[roots.length];
+        for(int i=0; i<roots.length; i++) {
+            nets[i] = new IPNetwork(roots[i]);
+        }
+
+        DatabaseNetworkAllocator alloc = new DatabaseNetworkAllocator(dataSource, TABLE, pool, nets);
+        alloc.setPrefetch(1);
+        return alloc;
+    }
+
+    @Test
+    public void testSplitAndMerge() throws Exception {
+        DatabaseNetworkAllocator alloc = allocator("split", "10.0.0.0/24");
+        alloc.initialize();
+
+        IPNetwork a = alloc.allocate(false, 26);
+        Assert.assertEquals(new IPNetwork("10.0.0.0/26").getValue(), a.getValue());
+        Assert.assertEquals(Arrays.asList("10.0.0.64/26", "10.0.0.128/25"), blocks("split"));
+
+        // best fit: the smallest free block is split...
+        IPTarget ip = alloc.allocateTarget(false);
+        Assert.assertEquals(new IPTarget("10.0.0.64").getValue(), ip.getValue());
+        Assert.assertEquals(Arrays.asList("10.0.0.65/32", "10.0.0.66/31",
+                "10.0.0.68/30", "10.0.0.72/29", "10.0.0.80/28", "10.0.0.96/27",
+                "10.0.0.128/25"), blocks("split"));
+
+        // release merges with all free buddies up to the root...
+        alloc.release(ip);
+        Assert.assertEquals(Arrays.asList("10.0.0.64/26", "10.0.0.128/25"), blocks("split"));
+        alloc.release(a);
+        Assert.assertEquals(Arrays.asList("10.0.0.0/24"), blocks("split"));
+
+        // ...but never beyond it
+        Assert.assertNull(alloc.allocate(false, 23));
+    }
+
+    @Test
+    public void testReleaseFree() throws Exception {
+        DatabaseNetworkAllocator alloc = allocator("twice", "10.1.0.0/24");
+        alloc.initialize();
+
+        IPNetwork a = alloc.allocate(false, 25);
+        alloc.release(a);
+
+        try {
+            alloc.release(new IPNetwork("10.1.0.0/24"));
+            Assert.fail("Unexpectedly released a free network");
+        } catch(SQLException x) {
+            // expected
+        }
+
+        try {
+            alloc.release(new IPNetwork("10.2.0.0/24"));
+            Assert.fail("Unexpectedly released a foreign network");
+        } catch(IllegalArgumentException x) {
+            // expected
+        }
+
+        Assert.assertEquals(Arrays.asList("10.1.0.0/24"), blocks("twice"));
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        DatabaseNetworkAllocator alloc = allocator("prefetch", "10.3.0.0/24");
+        alloc.setPrefetch(4);
+        alloc.initialize();
+
+        // all four /26 blocks are taken by a single fetch...
+        IPNetwork a = alloc.allocate(false, 26);
+        Assert.assertEquals(new IPNetwork("10.3.0.0/26").getValue(), a.getValue());
+        Assert.assertTrue(blocks("prefetch").isEmpty());
+
+        IPNetwork b = alloc.allocate(false, 26);
+        Assert.assertEquals(new IPNetwork("10.3.0.64/26").getValue(), b.getValue());
+
+        // ...and given back on close
+        alloc.close();
+        Assert.assertEquals(Arrays.asList("10.3.0.128/25"), blocks("prefetch"));
+
+        alloc.release(b);
+        alloc.release(a);
+        Assert.assertEquals(Arrays.asList("10.3.0.0/24"), blocks("prefetch"));
+    }
+
+    @Test
+    public void testSkipLocked() throws Exception {
+        DatabaseNetworkAllocator alloc = allocator("locked", "10.4.0.0/24", "10.4.1.0/24");
+        alloc.initialize();
+
+        // another node is just splitting the first block...
+        Connection other = dataSource.getConnection();
+        try {
+            other.setAutoCommit(false);
+            Statement stmt = other.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT block FROM " + TABLE
+                    + " WHERE pool = 'locked' AND block = '10.4.0.0/24' FOR UPDATE");
+            Assert.assertTrue(rs.next());
+            rs.close();
+            stmt.close();
+
+            // ...so this one takes the next block without waiting
+            IPNetwork net = alloc.allocate(false, 24);
+            Assert.assertEquals(new IPNetwork("10.4.1.0/24").getValue(), net.getValue());
+            Assert.assertNull(alloc.allocate(false, 24));
+
+            other.rollback();
+        } finally {
+            other.close();
+        }
+
+        IPNetwork net = alloc.allocate(false, 24);
+        Assert.assertEquals(new IPNetwork("10.4.0.0/24").getValue(), net.getValue());
+    }
+}
@@ -15,6 +15,8 @@
  */
 package org.ancoron.postgresql.jpa.test;
 
+import java.sql.Connection;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,7 +29,9 @@ import javax.persistence.Persistence;
 import javax.persistence.Query;
 import javax.persistence.Table;
 import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
 import org.ancoron.postgresql.jpa.test.mapping.NetworkEntity;
+import org.ancoron.postgresql.jpa.util.NetworkContainmentLookup;
 import org.junit.Test;
 import org.junit.AfterClass;
 import org.junit.Assert;
@@ -143,4 +147,51 @@ public class DriverIntegrationTest {
             }
         }
     }
+
+    @Test
+    public void testContainmentLookup() throws Exception {
+        EntityManager em = emFactory.createEntityManager();
+        try {
+            em.getTransaction().begin();
+
+            NetworkEntity net = new NetworkEntity(new IPNetwork("10.13.0.0/16"));
+            NetworkEntity sub = new NetworkEntity(new IPNetwork("10.13.4.0/24"));
+            em.persist(net);
+            em.persist(sub);
+            em.flush();
+
+            String table = NetworkEntity.class.getAnnotation(Table.class).name();
+            String column = NetworkEntity.class.getDeclaredField("network").getAnnotation(Column.class).name();
+            String id = NetworkEntity.class.getDeclaredField("id").getAnnotation(Column.class).name();
+
+            NetworkContainmentLookup lookup = new NetworkContainmentLookup(
+                    em.unwrap(Connection.class), table, column, true, id);
+            try {
+                IPTarget a = new IPTarget("10.13.4.1");
+                IPTarget b = new IPTarget("10.13.5.1");
+                IPTarget c = new IPTarget("192.0.2.1");
+
+                Map<IPTarget, IPNetwork> result = lookup.lookup(Arrays.asList(a, b, c, a));
+
+                Assert.assertEquals(2, result.size());
+                Assert.assertEquals(sub.getNetwork(), result.get(a));
+                Assert.assertEquals(net.getNetwork(), result.get(b));
+                Assert.assertNull(result.get(c));
+            } finally {
+                lookup.close();
+            }
+
+            em.getTransaction().rollback();
+        } catch (Exception ex) {
+            if(em.getTransaction() != null && em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+
+            throw ex;
+        } finally {
+            if (em != null) {
+                em.close();
+            }
+        }
+    }
 }
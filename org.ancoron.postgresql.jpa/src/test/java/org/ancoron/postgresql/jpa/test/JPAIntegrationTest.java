@@ -31,8 +31,15 @@ import javax.persistence.Table;
 import javax.persistence.TypedQuery;
 import org.ancoron.postgresql.jpa.IPNetwork;
 import org.ancoron.postgresql.jpa.IPTarget;
+import org.ancoron.postgresql.jpa.eclipselink.NetworkOperators;
+import org.eclipse.persistence.config.CacheUsage;
+import org.eclipse.persistence.config.QueryHints;
+import org.eclipse.persistence.expressions.Expression;
+import org.eclipse.persistence.expressions.ExpressionBuilder;
+import org.eclipse.persistence.jpa.JpaHelper;
 import org.junit.Test;
 import org.postgresql.util.PGobject;
+import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -53,6 +60,9 @@ public class JPAIntegrationTest {
 
     private static EntityManagerFactory emFactory;
 
+    // entities persisted by the current test, removed after it...
+    private final List<Object> created = new ArrayList<Object>();
+
     @BeforeClass
     public static void setUp() throws Exception {
         try {
@@ -79,6 +89,32 @@ public class JPAIntegrationTest {
         }
     }
 
+    @After
+    public void cleanUp() throws Exception {
+        if(created.isEmpty()) {
+            return;
+        }
+
+        EntityManager em = emFactory.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            for(Object entity : created) {
+                Object found = em.find(entity.getClass(),
+                        emFactory.getPersistenceUnitUtil().getIdentifier(entity));
+                if(found != null) {
+                    em.remove(found);
+                }
+            }
+            em.getTransaction().commit();
+        } finally {
+            if(em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+            created.clear();
+        }
+    }
+
     @Test
     public void testPGinet() throws Exception {
         EntityManager em = emFactory.createEntityManager();
@@ -147,6 +183,63 @@ public class JPAIntegrationTest {
         }
     }
 
+    @Test
+    public void testContainmentOperators() throws Exception {
+        EntityManager em = emFactory.createEntityManager();
+        try {
+            em.getTransaction().begin();
+
+            for(String net : new String[] {"172.16.0.0/12", "172.16.1.0/24", "172.17.0.0/16"}) {
+                PGinetEntity entity = new PGinetEntity(net);
+                em.persist(entity);
+                created.add(entity);
+            }
+
+            em.getTransaction().commit();
+            em.clear();
+
+            ExpressionBuilder b = new ExpressionBuilder();
+            Expression network = b.get("network");
+
+            Query q = JpaHelper.getEntityManager(em).createQuery(
+                    NetworkOperators.containsOrEquals(network, b.getParameter("ip")),
+                    PGinetEntity.class);
+            q.setParameter("ip", new PGinet("172.16.1.6"));
+            Assert.assertEquals("Number of networks containing 172.16.1.6",
+                    2, q.getResultList().size());
+
+            // same query evaluated in memory against the cache...
+            q.setHint(QueryHints.CACHE_USAGE, CacheUsage.CheckCacheOnly);
+            Assert.assertEquals("Number of cached networks containing 172.16.1.6",
+                    2, q.getResultList().size());
+
+            q = JpaHelper.getEntityManager(em).createQuery(
+                    NetworkOperators.containedBy(network, new PGinet("172.16.0.0/12")),
+                    PGinetEntity.class);
+            Assert.assertEquals("Number of networks inside 172.16.0.0/12",
+                    2, q.getResultList().size());
+
+            q = JpaHelper.getEntityManager(em).createQuery(
+                    NetworkOperators.containedByOrEquals(network, new PGinet("172.16.0.0/12"))
+                        .and(NetworkOperators.contains(network, b.getParameter("ip"))),
+                    PGinetEntity.class);
+            q.setParameter("ip", new PGinet("172.16.1.6"));
+            List result = q.getResultList();
+            Assert.assertEquals("Number of networks containing 172.16.1.6 inside 172.16.0.0/12",
+                    2, result.size());
+        } catch (Exception ex) {
+            if(em.getTransaction() != null && em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            
+            throw ex;
+        } finally {
+            if (em != null) {
+                em.close();
+            }
+        }
+    }
+
     @Test
     public void testNull() throws Exception {
         EntityManager em = emFactory.createEntityManager();
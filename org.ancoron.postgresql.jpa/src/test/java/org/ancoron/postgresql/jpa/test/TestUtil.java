@@ -20,6 +20,8 @@ import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Properties;
+import javax.sql.DataSource;
+import org.postgresql.ds.PGSimpleDataSource;
 import org.postgresql.jdbc4.Jdbc4Connection;
 import org.postgresql.net.PGcidr;
 import org.postgresql.net.PGinet;
@@ -133,6 +135,22 @@ public class TestUtil {
         return conn;
     }
 
+    /**
+     * Get a (non-pooling) data source for the test database, e.g. for the
+     * utilities managing their own connections.
+     */
+    public static DataSource getDataSource() {
+        PGSimpleDataSource ds = new PGSimpleDataSource();
+        ds.setServerName(PG_HOSTNAME);
+        ds.setPortNumber(Integer.parseInt(PG_PORT));
+        ds.setDatabaseName(PG_DATABASE);
+        ds.setUser(PG_USER);
+        ds.setPassword(PG_PASSWORD);
+        ds.setSsl(PG_SSL);
+
+        return ds;
+    }
+
     public static void createTable(Connection dbConn, String tableName, String columnSpec) throws SQLException {
         Statement table = dbConn.createStatement();
         table.execute("CREATE TABLE " + tableName + " (" + columnSpec + ")");
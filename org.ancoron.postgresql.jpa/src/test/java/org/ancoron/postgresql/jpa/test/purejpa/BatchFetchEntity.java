@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.test.purejpa;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import org.postgresql.net.PGcidr;
+
+/**
+ *
+ * @author ancoron
+ */
+@Entity
+@Table(name = "test_batch_fetch")
+@SequenceGenerator(name = "batch_sequence", sequenceName = "seq_batch_fetch")
+public class BatchFetchEntity implements Serializable {
+
+    @Id
+    @GeneratedValue(generator = "batch_sequence")
+    @Column(name="c_id")
+    public Long id;
+
+    @Column(name="c_cidr")
+    public PGcidr cidr;
+
+    @ElementCollection
+    @CollectionTable(name="test_batch_fetch_dns",
+            joinColumns=@JoinColumn(name="fk_batch_fetch_id"))
+    @Column(name="c_ip")
+    public List<InetAddress> dnsServers = new ArrayList<InetAddress>();
+}
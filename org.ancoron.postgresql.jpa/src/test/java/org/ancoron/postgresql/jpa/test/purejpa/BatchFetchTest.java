@@ -0,0 +1,170 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.test.purejpa;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import org.ancoron.postgresql.jpa.test.TestUtil;
+import org.eclipse.persistence.annotations.BatchFetchType;
+import org.eclipse.persistence.jpa.JpaHelper;
+import org.eclipse.persistence.logging.AbstractSessionLog;
+import org.eclipse.persistence.logging.SessionLog;
+import org.eclipse.persistence.logging.SessionLogEntry;
+import org.eclipse.persistence.mappings.DirectCollectionMapping;
+import org.eclipse.persistence.sessions.server.Server;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.postgresql.net.Driver;
+import org.postgresql.net.PGcidr;
+
+/**
+ * Tests batch fetching of network element collections configured by the
+ * <tt>ConverterInitializer</tt> (in a persistence unit of its own).
+ *
+ * @author ancoron
+ */
+public class BatchFetchTest {
+
+    private static final Logger log;
+
+    static {
+        log = Logger.getLogger(BatchFetchTest.class.getName());
+    }
+
+    private static EntityManagerFactory emFactory;
+
+    // the number of statements reading the element collection...
+    private static final AtomicInteger collectionReads = new AtomicInteger();
+
+    /**
+     * Counts the SQL statements reading the element collection table.
+     */
+    private static final class CountingLog extends AbstractSessionLog {
+
+        private final SessionLog delegate;
+
+        private CountingLog(SessionLog delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean shouldLog(int level, String category) {
+            return SessionLog.SQL.equals(category) || delegate.shouldLog(level, category);
+        }
+
+        @Override
+        public void log(SessionLogEntry entry) {
+            if(SessionLog.SQL.equals(entry.getNameSpace()) && entry.getMessage() != null
+                    && entry.getMessage().toLowerCase(Locale.ENGLISH).startsWith("select")
+                    && entry.getMessage().toLowerCase(Locale.ENGLISH).contains("test_batch_fetch_dns"))
+            {
+                collectionReads.incrementAndGet();
+            }
+
+            if(delegate.shouldLog(entry.getLevel(), entry.getNameSpace())) {
+                delegate.log(entry);
+            }
+        }
+    }
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        log.info("Building JPA EntityManager for batch fetch tests");
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("javax.persistence.jdbc.url", TestUtil.getPGJDBCUrl());
+        properties.put("javax.persistence.jdbc.driver", Driver.class.getName());
+        properties.put("javax.persistence.jdbc.user", TestUtil.getPGUser());
+        properties.put("javax.persistence.jdbc.password", TestUtil.getPGPassword());
+        emFactory = Persistence.createEntityManagerFactory("batch-fetch-test-unit", properties);
+
+        Server session = JpaHelper.getServerSession(emFactory);
+        session.setSessionLog(new CountingLog(session.getSessionLog()));
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        log.info("Shuting down JPA layer.");
+        if (emFactory != null) {
+            emFactory.close();
+        }
+    }
+
+    @Test
+    public void testBatchFetch() throws Exception {
+        DirectCollectionMapping mapping = (DirectCollectionMapping) JpaHelper.getServerSession(emFactory)
+                .getDescriptor(BatchFetchEntity.class).getMappingForAttributeName("dnsServers");
+        Assert.assertEquals(BatchFetchType.IN, mapping.getBatchFetchType());
+
+        EntityManager em = emFactory.createEntityManager();
+        try {
+            em.getTransaction().begin();
+
+            BatchFetchEntity[] entities = new BatchFetchEntity[3];
+            for(int i=0; i<entities.length; i++) {
+                entities[i] = new BatchFetchEntity();
+                entities[i].cidr = new PGcidr("10.77." + i + ".0/24");
+                for(int j=0; j<=i; j++) {
+                    entities[i].dnsServers.add(InetAddress.getByName("10.77." + i + "." + (j + 1)));
+                }
+                em.persist(entities[i]);
+            }
+
+            em.getTransaction().commit();
+
+            // clear cache...
+            em.clear();
+            emFactory.getCache().evictAll();
+
+            em.getTransaction().begin();
+
+            List<BatchFetchEntity> found = em.createQuery(
+                    "SELECT e FROM BatchFetchEntity e WHERE e.cidr IN :nets",
+                    BatchFetchEntity.class)
+                    .setParameter("nets", Arrays.asList(entities[0].cidr, entities[1].cidr, entities[2].cidr))
+                    .getResultList();
+
+            Assert.assertEquals(3, found.size());
+
+            collectionReads.set(0);
+            for(BatchFetchEntity e : found) {
+                int i = Integer.parseInt(e.cidr.getValue().split("\\.")[2]);
+                Assert.assertEquals("Wrong number of DNS servers for " + e.cidr.getValue(),
+                        i + 1, e.dnsServers.size());
+            }
+
+            // all element collections have been read by a single batch query...
+            Assert.assertEquals(1, collectionReads.get());
+
+            em.getTransaction().commit();
+        } finally {
+            if(em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.test.purejpa;
+
+import java.io.Serializable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.NamedNativeQuery;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import org.ancoron.postgresql.jpa.IPNetwork;
+
+/**
+ *
+ * @author ancoron
+ */
+@Entity
+@Table(name = "test_containment_cache")
+@SequenceGenerator(name = "containment_sequence", sequenceName = "seq_containment_cache")
+@NamedNativeQuery(name = "ContainmentEntity.containing",
+        query = ContainmentEntity.CONTAINING, resultClass = ContainmentEntity.class)
+public class ContainmentEntity implements Serializable {
+
+    /**
+     * The networks containing an address, ordered like the results of the
+     * containment cache.
+     */
+    public static final String CONTAINING = "SELECT * FROM test_containment_cache"
+            + " WHERE c_network >>= ?1 ORDER BY masklen(c_network), c_id";
+
+    @Id
+    @GeneratedValue(generator = "containment_sequence")
+    @Column(name="c_id")
+    public Long id;
+
+    @Column(name="c_network")
+    public IPNetwork network;
+
+    @Column(name="c_name")
+    public String name;
+
+    public ContainmentEntity() {
+    }
+
+    public ContainmentEntity(String network, String name) {
+        this.network = new IPNetwork(network);
+        this.name = name;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.test.purejpa;
+
+import java.io.Serializable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.postgresql.net.PGmacaddr;
+
+/**
+ *
+ * @author ancoron
+ */
+@Entity
+@Table(name = "test_lazy_network")
+public class LazyNetworkEntity implements Serializable {
+
+    @Id
+    @Column(name="c_net")
+    private IPNetwork net;
+
+    @Column(name="c_gateway")
+    private IPTarget gateway;
+
+    @Column(name="c_route")
+    private IPNetwork route;
+
+    @Column(name="c_mac")
+    private PGmacaddr mac;
+
+    @Column(name="c_name")
+    private String name;
+
+    public IPNetwork getNet() {
+        return net;
+    }
+
+    public void setNet(IPNetwork net) {
+        this.net = net;
+    }
+
+    public IPTarget getGateway() {
+        return gateway;
+    }
+
+    public void setGateway(IPTarget gateway) {
+        this.gateway = gateway;
+    }
+
+    public IPNetwork getRoute() {
+        return route;
+    }
+
+    public void setRoute(IPNetwork route) {
+        this.route = route;
+    }
+
+    public PGmacaddr getMac() {
+        return mac;
+    }
+
+    public void setMac(PGmacaddr mac) {
+        this.mac = mac;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.test.purejpa;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.PersistenceUnitUtil;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.ancoron.postgresql.jpa.test.TestUtil;
+import org.eclipse.persistence.descriptors.ClassDescriptor;
+import org.eclipse.persistence.jpa.JpaHelper;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.postgresql.net.Driver;
+import org.postgresql.net.PGmacaddr;
+
+/**
+ * Tests lazy network attributes configured by the
+ * <tt>ConverterInitializer</tt> for <tt>inet</tt> and <tt>cidr</tt> columns
+ * (in a persistence unit of its own).
+ *
+ * @author ancoron
+ */
+public class LazyNetworkTest {
+
+    private static final Logger log;
+
+    static {
+        log = Logger.getLogger(LazyNetworkTest.class.getName());
+    }
+
+    private static EntityManagerFactory emFactory;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        log.info("Building JPA EntityManager for lazy network tests");
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("javax.persistence.jdbc.url", TestUtil.getPGJDBCUrl());
+        properties.put("javax.persistence.jdbc.driver", Driver.class.getName());
+        properties.put("javax.persistence.jdbc.user", TestUtil.getPGUser());
+        properties.put("javax.persistence.jdbc.password", TestUtil.getPGPassword());
+        emFactory = Persistence.createEntityManagerFactory("lazy-test-unit", properties);
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        log.info("Shuting down JPA layer.");
+        if (emFactory != null) {
+            emFactory.close();
+        }
+    }
+
+    private static ClassDescriptor descriptor() {
+        return JpaHelper.getServerSession(emFactory).getDescriptor(LazyNetworkEntity.class);
+    }
+
+    @Test
+    public void testMappings() throws Exception {
+        ClassDescriptor desc = descriptor();
+
+        // configured network types...
+        Assert.assertTrue(desc.getMappingForAttributeName("gateway").isLazy());
+        Assert.assertTrue(desc.getMappingForAttributeName("route").isLazy());
+
+        // ...but never the primary key...
+        Assert.assertFalse(desc.getMappingForAttributeName("net").isLazy());
+        Assert.assertTrue(desc.getMappingForAttributeName("net").isPrimaryKeyMapping());
+
+        // ...other network types or other attributes
+        Assert.assertFalse(desc.getMappingForAttributeName("mac").isLazy());
+        Assert.assertFalse(desc.getMappingForAttributeName("name").isLazy());
+    }
+
+    @Test
+    public void testFirstAccess() throws Exception {
+        LazyNetworkEntity entity = new LazyNetworkEntity();
+        entity.setNet(new IPNetwork("10.88.0.0/16"));
+        entity.setGateway(new IPTarget("10.88.0.1"));
+        entity.setRoute(new IPNetwork("0.0.0.0/0"));
+        entity.setMac(new PGmacaddr("08:00:2b:01:02:03"));
+        entity.setName("lazy");
+
+        EntityManager em = emFactory.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            em.persist(entity);
+            em.getTransaction().commit();
+
+            // clear cache...
+            em.clear();
+            emFactory.getCache().evictAll();
+
+            LazyNetworkEntity found = em.find(LazyNetworkEntity.class, entity.getNet());
+            Assert.assertNotNull(found);
+
+            PersistenceUnitUtil util = emFactory.getPersistenceUnitUtil();
+            Assert.assertTrue(util.isLoaded(found, "net"));
+            Assert.assertTrue(util.isLoaded(found, "mac"));
+
+            // the class is woven by the agent, so loading is deferred...
+            Assert.assertTrue(descriptor().hasFetchGroupManager());
+            Assert.assertFalse(util.isLoaded(found, "gateway"));
+            Assert.assertFalse(util.isLoaded(found, "route"));
+
+            Assert.assertEquals(new IPTarget("10.88.0.1"), found.getGateway());
+            Assert.assertEquals(new IPNetwork("0.0.0.0/0"), found.getRoute());
+            Assert.assertEquals("08:00:2b:01:02:03", found.getMac().getValue());
+            Assert.assertEquals("lazy", found.getName());
+            Assert.assertTrue(util.isLoaded(found, "gateway"));
+            Assert.assertTrue(util.isLoaded(found, "route"));
+
+            em.getTransaction().begin();
+            em.remove(found);
+            em.getTransaction().commit();
+        } finally {
+            if(em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+}
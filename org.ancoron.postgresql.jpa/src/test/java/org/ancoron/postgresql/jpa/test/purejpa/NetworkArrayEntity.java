@@ -0,0 +1,56 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.test.purejpa;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.postgresql.net.PGmacaddr;
+
+/**
+ *
+ * @author ancoron
+ */
+@Entity
+@Table(name = "test_network_array")
+@SequenceGenerator(name = "array_sequence", sequenceName = "seq_network_array")
+public class NetworkArrayEntity implements Serializable {
+
+    @Id
+    @GeneratedValue(generator = "array_sequence")
+    @Column(name="c_id")
+    public Long id;
+
+    @Basic
+    @Column(name="c_gateways")
+    public ArrayList<InetAddress> gateways = new ArrayList<InetAddress>();
+
+    @Basic
+    @Column(name="c_routes")
+    public IPNetwork[] routes;
+
+    @Basic
+    @Column(name="c_macs")
+    public PGmacaddr[] macs;
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.test.purejpa;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.eclipselink.NetworkArrayConverter;
+import org.ancoron.postgresql.jpa.test.TestUtil;
+import org.eclipse.persistence.jpa.JpaHelper;
+import org.eclipse.persistence.mappings.DirectToFieldMapping;
+import org.eclipse.persistence.sessions.server.Server;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.postgresql.net.Driver;
+import org.postgresql.net.PGmacaddr;
+
+/**
+ * Tests the mapping of arrays and collections of network values to array
+ * columns by the <tt>ConverterInitializer</tt> (in a persistence unit of its
+ * own).
+ *
+ * @author ancoron
+ */
+public class NetworkArrayTest {
+
+    private static final Logger log;
+
+    static {
+        log = Logger.getLogger(NetworkArrayTest.class.getName());
+    }
+
+    private static EntityManagerFactory emFactory;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        log.info("Building JPA EntityManager for network array tests");
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("javax.persistence.jdbc.url", TestUtil.getPGJDBCUrl());
+        properties.put("javax.persistence.jdbc.driver", Driver.class.getName());
+        properties.put("javax.persistence.jdbc.user", TestUtil.getPGUser());
+        properties.put("javax.persistence.jdbc.password", TestUtil.getPGPassword());
+        emFactory = Persistence.createEntityManagerFactory("network-array-test-unit", properties);
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        log.info("Shuting down JPA layer.");
+        if (emFactory != null) {
+            emFactory.close();
+        }
+    }
+
+    private NetworkArrayEntity reload(final Long id) {
+        // clear cache...
+        emFactory.getCache().evictAll();
+
+        EntityManager em = emFactory.createEntityManager();
+        try {
+            return em.find(NetworkArrayEntity.class, id);
+        } finally {
+            em.close();
+        }
+    }
+
+    private NetworkArrayEntity persist(final NetworkArrayEntity entity) {
+        EntityManager em = emFactory.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            em.persist(entity);
+            em.getTransaction().commit();
+        } finally {
+            if(em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+
+        return entity;
+    }
+
+    @Test
+    public void testMappings() throws Exception {
+        Server session = JpaHelper.getServerSession(emFactory);
+
+        for(String attribute : new String[] {"gateways", "routes", "macs"}) {
+            DirectToFieldMapping mapping = (DirectToFieldMapping) session
+                    .getDescriptor(NetworkArrayEntity.class).getMappingForAttributeName(attribute);
+            Assert.assertTrue("No array converter for " + attribute,
+                    mapping.getConverter() instanceof NetworkArrayConverter);
+        }
+
+        Assert.assertEquals("inet", ((NetworkArrayConverter) ((DirectToFieldMapping) session
+                .getDescriptor(NetworkArrayEntity.class).getMappingForAttributeName("gateways"))
+                .getConverter()).getElementType());
+        Assert.assertEquals("cidr", ((NetworkArrayConverter) ((DirectToFieldMapping) session
+                .getDescriptor(NetworkArrayEntity.class).getMappingForAttributeName("routes"))
+                .getConverter()).getElementType());
+        Assert.assertEquals("macaddr", ((NetworkArrayConverter) ((DirectToFieldMapping) session
+                .getDescriptor(NetworkArrayEntity.class).getMappingForAttributeName("macs"))
+                .getConverter()).getElementType());
+    }
+
+    @Test
+    public void testArrays() throws Exception {
+        NetworkArrayEntity e = new NetworkArrayEntity();
+        e.gateways.add(InetAddress.getByName("10.66.0.1"));
+        e.gateways.add(InetAddress.getByName("fe80::1"));
+        e.routes = new IPNetwork[] {new IPNetwork("10.66.0.0/16"), new IPNetwork("0.0.0.0/0")};
+        e.macs = new PGmacaddr[] {new PGmacaddr("6c:f0:49:53:43:74"), new PGmacaddr("00:0e:0c:33:d2:04")};
+        persist(e);
+
+        NetworkArrayEntity found = reload(e.id);
+        Assert.assertNotNull("NetworkArrayEntity with ID " + e.id + " not found", found);
+        Assert.assertEquals(Arrays.asList(InetAddress.getByName("10.66.0.1"), InetAddress.getByName("fe80::1")),
+                found.gateways);
+        Assert.assertArrayEquals(new IPNetwork[] {new IPNetwork("10.66.0.0/16"), new IPNetwork("0.0.0.0/0")},
+                found.routes);
+        Assert.assertEquals(2, found.macs.length);
+        Assert.assertEquals("6c:f0:49:53:43:74", found.macs[0].getValue());
+        Assert.assertEquals("00:0e:0c:33:d2:04", found.macs[1].getValue());
+    }
+
+    @Test
+    public void testEmptyAndNull() throws Exception {
+        NetworkArrayEntity e = new NetworkArrayEntity();
+        e.routes = new IPNetwork[0];
+        persist(e);
+
+        NetworkArrayEntity found = reload(e.id);
+        Assert.assertNotNull("NetworkArrayEntity with ID " + e.id + " not found", found);
+        Assert.assertTrue(found.gateways.isEmpty());
+        Assert.assertEquals(0, found.routes.length);
+        Assert.assertNull(found.macs);
+    }
+}
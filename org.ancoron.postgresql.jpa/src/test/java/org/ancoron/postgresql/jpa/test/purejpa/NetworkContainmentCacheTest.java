@@ -0,0 +1,229 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.test.purejpa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.ancoron.postgresql.jpa.eclipselink.NetworkContainmentCache;
+import org.ancoron.postgresql.jpa.test.TestUtil;
+import org.eclipse.persistence.jpa.JpaHelper;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.postgresql.net.Driver;
+
+/**
+ * Tests the <tt>NetworkContainmentCache</tt> answering a named query (in a
+ * persistence unit of its own).
+ *
+ * @author ancoron
+ */
+public class NetworkContainmentCacheTest {
+
+    private static final Logger log;
+
+    static {
+        log = Logger.getLogger(NetworkContainmentCacheTest.class.getName());
+    }
+
+    private static EntityManagerFactory emFactory;
+    private static NetworkContainmentCache<ContainmentEntity> cache;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        log.info("Building JPA EntityManager for containment cache tests");
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("javax.persistence.jdbc.url", TestUtil.getPGJDBCUrl());
+        properties.put("javax.persistence.jdbc.driver", Driver.class.getName());
+        properties.put("javax.persistence.jdbc.user", TestUtil.getPGUser());
+        properties.put("javax.persistence.jdbc.password", TestUtil.getPGPassword());
+        emFactory = Persistence.createEntityManagerFactory("containment-cache-test-unit", properties);
+
+        cache = new NetworkContainmentCache<ContainmentEntity>(
+                JpaHelper.getServerSession(emFactory), ContainmentEntity.class, "network");
+        cache.install("ContainmentEntity.containing");
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        log.info("Shuting down JPA layer.");
+        if (emFactory != null) {
+            emFactory.close();
+        }
+    }
+
+    private static List<String> names(final List<ContainmentEntity> entities) {
+        final List<String> names = new ArrayList<String>(entities.size());
+        for(ContainmentEntity e : entities) {
+            names.add(e.name);
+        }
+        return names;
+    }
+
+    private static List<ContainmentEntity> containing(final EntityManager em, final String ip) {
+        final List<ContainmentEntity> result = em.createNamedQuery("ContainmentEntity.containing")
+                .setParameter(1, new IPTarget(ip))
+                .getResultList();
+
+        // the database has to give the same answer...
+        final List<ContainmentEntity> expected = em.createNativeQuery(
+                ContainmentEntity.CONTAINING, ContainmentEntity.class)
+                .setParameter(1, new IPTarget(ip))
+                .getResultList();
+        Assert.assertEquals(names(expected), names(result));
+
+        return result;
+    }
+
+    private static void transactional(final EntityManager em, final Runnable work) {
+        em.getTransaction().begin();
+        try {
+            work.run();
+            em.getTransaction().commit();
+        } finally {
+            if(em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+        }
+    }
+
+    @Test
+    public void testRedirectedQuery() throws Exception {
+        final EntityManager em = emFactory.createEntityManager();
+        try {
+            transactional(em, new Runnable() {
+
+                @Override
+                public void run() {
+                    em.persist(new ContainmentEntity("10.0.0.0/8", "a"));
+                    em.persist(new ContainmentEntity("10.1.0.0/16", "b"));
+                    em.persist(new ContainmentEntity("192.168.0.0/16", "c"));
+                }
+            });
+            em.clear();
+
+            // all entities are loaded once for any number of queries...
+            final long loads = cache.getLoads();
+            for(int i=0; i<10; i++) {
+                Assert.assertEquals(listOf("a", "b"), names(containing(em, "10.1.2.3")));
+                Assert.assertEquals(listOf("c"), names(containing(em, "192.168.7.7")));
+                Assert.assertTrue(containing(em, "172.16.0.1").isEmpty());
+            }
+            Assert.assertEquals(loads + 1, cache.getLoads());
+            Assert.assertEquals("b", cache.getMostSpecific(new IPTarget("10.1.2.3")).name);
+
+            // ...and registered in the unit of work of the entity manager
+            transactional(em, new Runnable() {
+
+                @Override
+                public void run() {
+                    final ContainmentEntity b = containing(em, "10.1.2.3").get(1);
+                    Assert.assertTrue(em.contains(b));
+                    Assert.assertNotSame(cache.getMostSpecific(new IPTarget("10.1.2.3")), b);
+                }
+            });
+            Assert.assertEquals(loads + 1, cache.getLoads());
+
+            // a new entity is seen after its commit...
+            final ContainmentEntity d = new ContainmentEntity("10.1.2.0/24", "d");
+            transactional(em, new Runnable() {
+
+                @Override
+                public void run() {
+                    em.persist(d);
+                }
+            });
+            Assert.assertEquals(listOf("a", "b", "d"), names(containing(em, "10.1.2.3")));
+            Assert.assertEquals(loads + 2, cache.getLoads());
+
+            // ...as well as its changes...
+            em.clear();
+            transactional(em, new Runnable() {
+
+                @Override
+                public void run() {
+                    d.network = new IPNetwork("10.2.0.0/24");
+                    em.merge(d);
+                }
+            });
+            Assert.assertEquals(listOf("a", "b"), names(containing(em, "10.1.2.3")));
+            Assert.assertEquals(listOf("a", "d"), names(containing(em, "10.2.0.1")));
+            Assert.assertEquals(loads + 3, cache.getLoads());
+
+            // ...and its removal
+            transactional(em, new Runnable() {
+
+                @Override
+                public void run() {
+                    em.remove(em.find(ContainmentEntity.class, d.id));
+                }
+            });
+            Assert.assertEquals(listOf("a"), names(containing(em, "10.2.0.1")));
+            Assert.assertEquals(loads + 4, cache.getLoads());
+
+            // bulk queries don't fire any entity events...
+            transactional(em, new Runnable() {
+
+                @Override
+                public void run() {
+                    em.createQuery("DELETE FROM ContainmentEntity e WHERE e.name = :name")
+                            .setParameter("name", "c")
+                            .executeUpdate();
+                }
+            });
+            Assert.assertTrue(containing(em, "192.168.7.7").isEmpty());
+            Assert.assertEquals(loads + 5, cache.getLoads());
+
+            // ...and neither do native ones
+            transactional(em, new Runnable() {
+
+                @Override
+                public void run() {
+                    em.createNativeQuery("DELETE FROM test_containment_cache WHERE c_name = 'b'")
+                            .executeUpdate();
+                }
+            });
+            Assert.assertEquals(listOf("a"), names(containing(em, "10.1.2.3")));
+            Assert.assertEquals(loads + 6, cache.getLoads());
+        } finally {
+            transactional(em, new Runnable() {
+
+                @Override
+                public void run() {
+                    em.createQuery("DELETE FROM ContainmentEntity e").executeUpdate();
+                }
+            });
+            em.close();
+        }
+    }
+
+    private static List<String> listOf(final String... names) {
+        final List<String> list = new ArrayList<String>(names.length);
+        for(String name : names) {
+            list.add(name);
+        }
+        return list;
+    }
+}
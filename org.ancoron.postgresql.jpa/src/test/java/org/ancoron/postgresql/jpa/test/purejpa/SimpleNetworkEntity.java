@@ -25,6 +25,7 @@ import javax.persistence.Id;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.eclipselink.NetworkIndex;
 
 /**
  *
@@ -36,6 +37,7 @@ public class SimpleNetworkEntity implements Serializable {
     
     @Id
     @Column(name = "c_net")
+    @NetworkIndex
     private IPNetwork net;
 
     @Column(name = "c_name")
@@ -15,6 +15,7 @@
  */
 package org.ancoron.postgresql.jpa.test.purejpa;
 
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.After;
@@ -46,6 +47,24 @@ public class SimpleNetworkTest extends AbstractTestBase {
         entity = null;
     }
 
+    @Test
+    public void networkIndex() {
+        List indexes = transactional(new Callable<List>() {
+
+            @Override
+            public List call() throws Exception {
+                return em.createNativeQuery("SELECT indexdef FROM pg_indexes"
+                        + " WHERE tablename = 'test_simple_network'"
+                        + " AND indexname = 'idx_test_simple_network_c_net'")
+                        .getResultList();
+            }
+        });
+
+        Assert.assertEquals(1, indexes.size());
+        Assert.assertTrue(String.valueOf(indexes.get(0)),
+                String.valueOf(indexes.get(0)).contains("USING gist (c_net inet_ops)"));
+    }
+
     @Test
     public void persist() {
         transactional(new Callable<Void>() {
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.net.InetAddress;
+import org.ancoron.postgresql.jpa.IPAddress;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPPrefix;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.junit.Assert;
+import org.junit.Test;
+import org.postgresql.util.PGobject;
+
+/**
+ *
+ * @author ancoron
+ */
+public class AddressRangeTest {
+
+    @Test
+    public void testBounds() {
+        AddressRange r = AddressRange.of(new IPNetwork("10.12.0.0/14"));
+        Assert.assertEquals(new IPTarget("10.12.0.0"), r.getLow());
+        Assert.assertEquals(new IPTarget("10.15.255.255"), r.getHigh());
+        Assert.assertEquals("10.12.0.0-10.15.255.255", r.toString());
+
+        r = AddressRange.of(new IPNetwork("2001:db8::/33"));
+        Assert.assertTrue(r.isV6());
+        Assert.assertEquals(new IPTarget("2001:db8:7fff:ffff:ffff:ffff:ffff:ffff"), r.getHigh());
+
+        Assert.assertEquals(AddressRange.of(new IPNetwork("0.0.0.0/0")),
+                AddressRange.of(new IPTarget("0.0.0.0"), new IPTarget("255.255.255.255")));
+
+        try {
+            AddressRange.of(new IPTarget("10.0.0.2"), new IPTarget("10.0.0.1"));
+            Assert.fail("Inverted bounds must be rejected");
+        } catch(IllegalArgumentException x) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testValueOf() throws Exception {
+        AddressRange part = AddressRange.of(new IPTarget("10.0.0.100"), new IPTarget("10.0.1.50"));
+
+        Assert.assertTrue(part.contains(AddressRange.valueOf(new IPTarget("10.0.1.1"))));
+        Assert.assertTrue(part.contains(AddressRange.valueOf(InetAddress.getByName("10.0.0.100"))));
+        Assert.assertTrue(part.contains(AddressRange.valueOf(IPAddress.valueOf("10.0.1.50/8"))));
+        Assert.assertFalse(part.contains(AddressRange.valueOf(new IPTarget("10.0.1.51"))));
+
+        // networks...
+        Assert.assertTrue(part.contains(AddressRange.valueOf(new IPNetwork("10.0.0.128/25"))));
+        Assert.assertFalse(part.contains(AddressRange.valueOf(new IPNetwork("10.0.0.0/24"))));
+        Assert.assertTrue(part.overlaps(AddressRange.valueOf(new IPNetwork("10.0.0.0/24"))));
+        Assert.assertTrue(part.overlaps(AddressRange.valueOf(IPPrefix.valueOf("10.0.0.0/8"))));
+        Assert.assertFalse(part.overlaps(AddressRange.valueOf(IPPrefix.valueOf("10.0.2.0/24"))));
+        Assert.assertFalse(part.overlaps(AddressRange.valueOf(IPPrefix.valueOf("::/0"))));
+
+        // converted data values...
+        PGobject obj = new PGobject();
+        obj.setType("cidr");
+        obj.setValue("10.0.1.0/24");
+        Assert.assertTrue(part.overlaps(AddressRange.valueOf(obj)));
+        Assert.assertFalse(part.contains(AddressRange.valueOf(obj)));
+
+        obj = new PGobject();
+        obj.setType("inet");
+        obj.setValue("10.0.1.7/24");
+        Assert.assertTrue(part.contains(AddressRange.valueOf(obj)));
+
+        Assert.assertNull(AddressRange.valueOf("10.0.0.1"));
+        Assert.assertNull(AddressRange.valueOf(null));
+    }
+}
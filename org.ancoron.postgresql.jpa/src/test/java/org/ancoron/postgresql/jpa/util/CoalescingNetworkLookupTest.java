@@ -0,0 +1,246 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.sql.DataSource;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author ancoron
+ */
+public class CoalescingNetworkLookupTest {
+
+    private static class TestLookup extends CoalescingNetworkLookup {
+
+        private final IPNetwork net = new IPNetwork("10.0.0.0/8");
+        private final List<Integer> batches = new ArrayList<Integer>();
+
+        TestLookup() {
+            super(null, "net", "c_network");
+        }
+
+        @Override
+        protected Map<IPTarget, IPNetwork> lookup(Collection<IPTarget> addresses) throws SQLException {
+            synchronized(batches) {
+                batches.add(addresses.size());
+            }
+
+            final Map<IPTarget, IPNetwork> result = new HashMap<IPTarget, IPNetwork>();
+            for(IPTarget ip : addresses) {
+                if(ip.getAddr()[0] == 10) {
+                    result.put(ip, net);
+                } else if(ip.getAddr()[0] == 11) {
+                    throw new SQLException("Lookup failed");
+                }
+            }
+            return result;
+        }
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        final TestLookup lookup = new TestLookup();
+        // only sent by close()...
+        lookup.setWindow(1, TimeUnit.HOURS);
+
+        final int threads = 20;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch submitted = new CountDownLatch(threads);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger found = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        try {
+            for(int i=0; i<threads; i++) {
+                final IPTarget ip = new IPTarget((i % 2 == 0 ? "10.0.0." : "192.168.0.") + (i % 5));
+                new Thread() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            Future<IPNetwork> result = lookup.submit(ip);
+                            submitted.countDown();
+                            if(result.get(5, TimeUnit.SECONDS) != null) {
+                                found.incrementAndGet();
+                            }
+                        } catch(Throwable x) {
+                            failure.compareAndSet(null, x);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }.start();
+            }
+
+            start.countDown();
+            Assert.assertTrue(submitted.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(0, lookup.getQueries());
+
+            lookup.close();
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assert.assertNull("Lookup failed: " + failure.get(), failure.get());
+
+            Assert.assertEquals(10, found.get());
+            Assert.assertEquals(threads, lookup.getLookups());
+
+            // 10 distinct addresses looked up by a single query...
+            Assert.assertEquals(1, lookup.getQueries());
+            Assert.assertEquals(Arrays.asList(10), lookup.batches);
+        } finally {
+            lookup.close();
+        }
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        final TestLookup lookup = new TestLookup();
+        lookup.setWindow(10, TimeUnit.MILLISECONDS);
+
+        try {
+            Future<IPNetwork> a = lookup.submit(new IPTarget("10.0.0.1"));
+            Assert.assertEquals(lookup.net, a.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(1, lookup.getQueries());
+        } finally {
+            lookup.close();
+        }
+    }
+
+    @Test
+    public void testMaxBatch() throws Exception {
+        final TestLookup lookup = new TestLookup();
+        lookup.setWindow(1, TimeUnit.HOURS);
+        lookup.setMaxBatch(3);
+
+        try {
+            Future<IPNetwork> a = lookup.submit(new IPTarget("10.0.0.1"));
+            Future<IPNetwork> b = lookup.submit(new IPTarget("10.0.0.2"));
+            Assert.assertSame(a, lookup.submit(new IPTarget("10.0.0.1")));
+            Assert.assertFalse(a.isDone());
+
+            Future<IPNetwork> c = lookup.submit(new IPTarget("192.168.0.1"));
+
+            Assert.assertEquals(lookup.net, a.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(lookup.net, b.get(5, TimeUnit.SECONDS));
+            Assert.assertNull(c.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(1, lookup.getQueries());
+
+            Future<IPNetwork> d = lookup.submit(new IPTarget("11.0.0.1"));
+            Future<IPNetwork> e = lookup.submit(new IPTarget("10.0.0.3"));
+
+            // queued lookups are executed when closing...
+            lookup.close();
+            Assert.assertTrue(d.isDone());
+            try {
+                e.get();
+                Assert.fail("The failed query must be reported to all lookups");
+            } catch(ExecutionException x) {
+                Assert.assertTrue(x.getCause() instanceof SQLException);
+            }
+        } finally {
+            lookup.close();
+        }
+    }
+
+    /**
+     * A JDBC object that records its calls and answers them from the given
+     * results (or <code>null</code>).
+     */
+    private static Object fake(final Class type, final Map<String, Object> results,
+            final Map<String, AtomicInteger> calls)
+    {
+        return Proxy.newProxyInstance(CoalescingNetworkLookupTest.class.getClassLoader(),
+                new Class[] {type}, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                final String name = type.getSimpleName() + "." + method.getName();
+                synchronized(calls) {
+                    if(!calls.containsKey(name)) {
+                        calls.put(name, new AtomicInteger());
+                    }
+                    calls.get(name).incrementAndGet();
+                }
+                return results.get(name);
+            }
+        });
+    }
+
+    private static int count(final Map<String, AtomicInteger> calls, final String name) {
+        synchronized(calls) {
+            return calls.containsKey(name) ? calls.get(name).get() : 0;
+        }
+    }
+
+    @Test
+    public void testConnectionReuse() throws Exception {
+        final Map<String, AtomicInteger> calls = new HashMap<String, AtomicInteger>();
+        final Map<String, Object> results = new HashMap<String, Object>();
+        results.put("ResultSet.next", false);
+        results.put("PreparedStatement.isWrapperFor", false);
+        results.put("PreparedStatement.executeQuery", fake(ResultSet.class, results, calls));
+        results.put("Connection.getAutoCommit", true);
+        results.put("Connection.prepareStatement", fake(PreparedStatement.class, results, calls));
+        results.put("DataSource.getConnection", fake(Connection.class, results, calls));
+
+        final CoalescingNetworkLookup lookup = new CoalescingNetworkLookup(
+                (DataSource) fake(DataSource.class, results, calls), "net", "c_network", 1);
+        lookup.setWindow(0, TimeUnit.MILLISECONDS);
+
+        try {
+            for(int i=0; i<10; i++) {
+                Assert.assertNull(lookup.lookup(new IPTarget("10.0.0." + i)));
+            }
+
+            Assert.assertEquals(10, lookup.getQueries());
+            Assert.assertEquals(10, count(calls, "PreparedStatement.executeQuery"));
+
+            // a single connection and statement for all queries...
+            Assert.assertEquals(1, count(calls, "DataSource.getConnection"));
+            Assert.assertEquals(1, count(calls, "Connection.prepareStatement"));
+            Assert.assertEquals(0, count(calls, "PreparedStatement.close"));
+            Assert.assertEquals(0, count(calls, "Connection.close"));
+        } finally {
+            lookup.close();
+        }
+
+        Assert.assertEquals(1, count(calls, "PreparedStatement.close"));
+        Assert.assertEquals(1, count(calls, "Connection.close"));
+    }
+}
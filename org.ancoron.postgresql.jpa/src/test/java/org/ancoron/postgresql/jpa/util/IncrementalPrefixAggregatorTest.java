@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.util.List;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author ancoron
+ */
+public class IncrementalPrefixAggregatorTest {
+
+    @Test
+    public void testMergeSiblingsIPv4() {
+        IncrementalPrefixAggregator agg = new IncrementalPrefixAggregator();
+
+        Assert.assertTrue(agg.add(new IPTarget("192.168.1.4")));
+        Assert.assertTrue(agg.add(new IPTarget("192.168.1.5")));
+        assertAggregate(agg, "192.168.1.4/31");
+
+        Assert.assertTrue(agg.add(new IPNetwork("192.168.1.6/31")));
+        assertAggregate(agg, "192.168.1.4/30");
+
+        // already covered...
+        Assert.assertFalse(agg.add(new IPTarget("192.168.1.6")));
+        Assert.assertFalse(agg.add((IPTarget) null));
+        assertAggregate(agg, "192.168.1.4/30");
+    }
+
+    @Test
+    public void testCascadingMergeIPv4() {
+        IncrementalPrefixAggregator agg = new IncrementalPrefixAggregator();
+
+        agg.add(new IPNetwork("10.0.0.0/26"));
+        agg.add(new IPNetwork("10.0.0.128/25"));
+        agg.add(new IPNetwork("10.0.1.0/24"));
+        assertAggregate(agg, "10.0.0.0/26", "10.0.0.128/25", "10.0.1.0/24");
+
+        agg.add(new IPNetwork("10.0.0.64/26"));
+        assertAggregate(agg, "10.0.0.0/23");
+    }
+
+    @Test
+    public void testAbsorbContained() {
+        IncrementalPrefixAggregator agg = new IncrementalPrefixAggregator();
+
+        agg.add(new IPTarget("10.1.2.3"));
+        agg.add(new IPNetwork("10.1.4.0/24"));
+        agg.add(new IPTarget("10.2.0.1"));
+        Assert.assertEquals(3, agg.size());
+
+        agg.add(new IPNetwork("10.1.0.0/16"));
+        assertAggregate(agg, "10.1.0.0/16", "10.2.0.1/32");
+
+        Assert.assertTrue(agg.contains(new IPTarget("10.1.255.255")));
+        Assert.assertFalse(agg.contains(new IPTarget("10.2.0.2")));
+    }
+
+    @Test
+    public void testSameStartAddress() {
+        IncrementalPrefixAggregator agg = new IncrementalPrefixAggregator();
+
+        // smaller network first...
+        Assert.assertTrue(agg.add(new IPNetwork("10.0.0.0/24")));
+        Assert.assertTrue(agg.add(new IPNetwork("10.0.0.0/16")));
+        assertAggregate(agg, "10.0.0.0/16");
+        Assert.assertTrue(agg.contains(new IPTarget("10.0.255.1")));
+
+        // ...or last
+        agg = new IncrementalPrefixAggregator();
+        Assert.assertTrue(agg.add(new IPNetwork("10.0.0.0/16")));
+        Assert.assertFalse(agg.add(new IPNetwork("10.0.0.0/24")));
+        assertAggregate(agg, "10.0.0.0/16");
+    }
+
+    @Test
+    public void testMixedFamilies() {
+        IncrementalPrefixAggregator agg = new IncrementalPrefixAggregator();
+
+        agg.add(new IPNetwork("fe80::8000:0000:0000:0000/65"));
+        agg.add(new IPTarget("10.0.0.1"));
+        agg.add(new IPNetwork("fe80::/65"));
+
+        assertAggregate(agg, "10.0.0.1/32", "fe80::/64");
+    }
+
+    @Test
+    public void testSnapshotIsStable() {
+        IncrementalPrefixAggregator agg = new IncrementalPrefixAggregator();
+
+        agg.add(new IPTarget("10.0.0.1"));
+        List<IPNetwork> first = agg.snapshot();
+        Assert.assertSame(first, agg.snapshot());
+
+        agg.add(new IPTarget("10.0.0.0"));
+        List<IPNetwork> second = agg.snapshot();
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(1, first.size());
+        Assert.assertEquals(new IPNetwork("10.0.0.1/32").getValue(), first.get(0).getValue());
+        Assert.assertEquals(new IPNetwork("10.0.0.0/31").getValue(), second.get(0).getValue());
+
+        agg.clear();
+        Assert.assertTrue(agg.snapshot().isEmpty());
+    }
+
+    private void assertAggregate(IncrementalPrefixAggregator agg, String... expected) {
+        List<IPNetwork> nets = agg.snapshot();
+
+        Assert.assertEquals("Invalid count of aggregated networks: " + nets,
+                expected.length, nets.size());
+
+        for(int i=0; i<expected.length; i++) {
+            Assert.assertEquals("Invalid network #" + (i + 1),
+                    new IPNetwork(expected[i]).getValue(), nets.get(i).getValue());
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.ancoron.postgresql.jpa.IPAddress;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.junit.Assert;
+import org.junit.Test;
+import org.postgresql.net.PGmacaddr;
+
+/**
+ *
+ * @author ancoron
+ */
+public class LastSeenWriterTest {
+
+    private static final DataSource NO_DATABASE = new DataSource() {
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            throw new SQLException("No database");
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return getConnection();
+        }
+
+        @Override
+        public PrintWriter getLogWriter() {
+            return null;
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) {
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) {
+        }
+
+        @Override
+        public int getLoginTimeout() {
+            return 0;
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            throw new SQLException("Not a wrapper");
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) {
+            return false;
+        }
+
+        // JDBC 4.1...
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    };
+
+    /**
+     * Collects the written entries as "key seen count".
+     */
+    private static class TestWriter extends LastSeenWriter {
+
+        private final Map<String, String> rows = new LinkedHashMap<String, String>();
+        private int writes = 0;
+
+        TestWriter(Kind kind, int capacity) {
+            super(NO_DATABASE, kind, "host_seen", "address", "last_seen", "seen_count", capacity);
+        }
+
+        @Override
+        void write(Buffer buffer) throws SQLException {
+            synchronized(rows) {
+                writes++;
+                for(int i=buffer.next(-1); i>=0; i=buffer.next(i)) {
+                    final String key = buffer.family[i] == MAC
+                            ? buffer.macaddr(i)
+                            : IPAddress.valueOf(buffer.address(i)).getValue();
+                    rows.put(key, buffer.seen[i] + " " + buffer.count[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        TestWriter w = new TestWriter(LastSeenWriter.Kind.INET, 100);
+
+        IPTarget a = new IPTarget("10.0.0.1");
+        IPTarget b = new IPTarget("2001:db8::1");
+        IPTarget c = new IPTarget("::ffff:10.0.0.1");
+
+        for(int i=0; i<1000; i++) {
+            w.observe(a, 1000 + i);
+            w.observe(b, 5000 - i);
+        }
+        w.observe(c, 42);
+
+        Assert.assertEquals(3, w.getPending());
+        w.flush();
+        Assert.assertEquals(0, w.getPending());
+
+        Assert.assertEquals(1, w.writes);
+        Assert.assertEquals("1999 1000", w.rows.get("10.0.0.1"));
+        Assert.assertEquals("5000 1000", w.rows.get("2001:db8::1"));
+        Assert.assertEquals("42 1", w.rows.get(IPAddress.valueOf("::ffff:10.0.0.1").getValue()));
+
+        // nothing left to write...
+        w.close();
+        Assert.assertEquals(1, w.writes);
+    }
+
+    @Test
+    public void testMacaddr() throws Exception {
+        TestWriter w = new TestWriter(LastSeenWriter.Kind.MACADDR, 10);
+
+        w.observe(new PGmacaddr("08:00:2b:01:02:03"), 1);
+        w.observe(new PGmacaddr("08-00-2B-01-02-03"), 2);
+        w.close();
+
+        Assert.assertEquals(1, w.rows.size());
+        Assert.assertEquals("2 2", w.rows.get("08:00:2b:01:02:03"));
+
+        try {
+            w.observe(new IPTarget("10.0.0.1"), 1);
+            Assert.fail("An IP address must not be accepted for a macaddr column");
+        } catch(IllegalStateException x) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFull() throws Exception {
+        TestWriter w = new TestWriter(LastSeenWriter.Kind.INET, 16);
+
+        for(int i=0; i<1000; i++) {
+            w.observe(new IPTarget("10.0." + (i / 250) + "." + (i % 250)), i);
+        }
+        w.close();
+
+        Assert.assertEquals(1000, w.rows.size());
+        Assert.assertTrue(w.writes >= 1000 / 16);
+        Assert.assertEquals("999 1", w.rows.get("10.0.3.249"));
+    }
+
+    @Test(timeout = 30000)
+    public void testPeriodic() throws Exception {
+        TestWriter w = new TestWriter(LastSeenWriter.Kind.INET, 4);
+        w.start(1, TimeUnit.MILLISECONDS);
+
+        // full buffers are queued for the thread of the periodic writes...
+        for(int i=0; i<50000; i++) {
+            w.observe(new IPTarget("10.1." + (i / 250) + "." + (i % 250)), i);
+        }
+        w.close();
+
+        Assert.assertEquals(50000, w.rows.size());
+        Assert.assertEquals("49999 1", w.rows.get("10.1.199.249"));
+    }
+
+    /**
+     * Blocks the writing thread until the test lets it continue.
+     */
+    private static class BlockingWriter extends TestWriter {
+
+        private final CountDownLatch writing = new CountDownLatch(1);
+        private final CountDownLatch proceed = new CountDownLatch(1);
+
+        BlockingWriter(Kind kind, int capacity) {
+            super(kind, capacity);
+        }
+
+        @Override
+        void write(Buffer buffer) throws SQLException {
+            writing.countDown();
+            try {
+                proceed.await();
+            } catch(InterruptedException x) {
+                throw new SQLException("Interrupted", x);
+            }
+            super.write(buffer);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testCloseWhileWaiting() throws Exception {
+        final BlockingWriter w = new BlockingWriter(LastSeenWriter.Kind.INET, 1);
+
+        // the first buffer is being written, the second one is full...
+        w.observe(new IPTarget("10.0.0.1"), 1);
+        w.observe(new IPTarget("10.0.0.2"), 2);
+        Assert.assertTrue(w.writing.await(5, TimeUnit.SECONDS));
+
+        // ...so this observer has to wait for the write...
+        final AtomicReference<Throwable> observed = new AtomicReference<Throwable>();
+        final CountDownLatch returned = new CountDownLatch(1);
+        final Thread observer = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    w.observe(new IPTarget("10.0.0.3"), 3);
+                } catch(Throwable x) {
+                    observed.set(x);
+                } finally {
+                    returned.countDown();
+                }
+            }
+        };
+        observer.start();
+
+        while(observer.getState() != Thread.State.WAITING) {
+            Assert.assertTrue("Observer didn't wait for the buffer", observer.isAlive());
+            Thread.sleep(1);
+        }
+
+        final AtomicReference<Throwable> closing = new AtomicReference<Throwable>();
+        final CountDownLatch closed = new CountDownLatch(1);
+        new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    w.close();
+                } catch(Throwable x) {
+                    closing.set(x);
+                } finally {
+                    closed.countDown();
+                }
+            }
+        }.start();
+
+        // ...and is rejected by close() without waiting for the write...
+        Assert.assertTrue(returned.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(String.valueOf(observed.get()), observed.get() instanceof IllegalStateException);
+        Assert.assertEquals(1, w.getDropped());
+        Assert.assertEquals(1, closed.getCount());
+
+        // ...while close() still writes everything observed before
+        w.proceed.countDown();
+        Assert.assertTrue(closed.await(5, TimeUnit.SECONDS));
+        Assert.assertNull(closing.get());
+
+        Assert.assertEquals(2, w.writes);
+        Assert.assertEquals("1 1", w.rows.get("10.0.0.1"));
+        Assert.assertEquals("2 1", w.rows.get("10.0.0.2"));
+        Assert.assertFalse(w.rows.containsKey("10.0.0.3"));
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        LastSeenWriter w = new LastSeenWriter(NO_DATABASE, LastSeenWriter.Kind.INET,
+                "host_seen", "address", "last_seen", "seen_count", 10);
+
+        Assert.assertEquals("INSERT INTO host_seen AS t (address, last_seen, seen_count) VALUES (?, ?, ?)"
+                + " ON CONFLICT (address) DO UPDATE SET last_seen = GREATEST(t.last_seen, EXCLUDED.last_seen),"
+                + " seen_count = t.seen_count + EXCLUDED.seen_count",
+                w.upsert("VALUES (?, ?, ?)"));
+
+        w.observe(new IPTarget("10.0.0.1"), 1);
+        try {
+            w.close();
+            Assert.fail("The failed write must be reported");
+        } catch(SQLException x) {
+            // expected
+        }
+
+        Assert.assertEquals(1, w.getDropped());
+        Assert.assertEquals(0, w.getWritten());
+    }
+}
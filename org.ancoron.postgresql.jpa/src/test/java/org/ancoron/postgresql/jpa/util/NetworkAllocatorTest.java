@@ -0,0 +1,255 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author ancoron
+ */
+public class NetworkAllocatorTest {
+
+    @Test
+    public void testAllocateAndRelease() {
+        NetworkAllocator alloc = new NetworkAllocator(
+                new IPNetwork("10.0.0.0/16"), new IPNetwork("fd00::/48"));
+
+        IPNetwork a = alloc.allocate(false, 24);
+        IPNetwork b = alloc.allocate(false, 25);
+        IPNetwork c = alloc.allocate(false, 24);
+        Assert.assertEquals(new IPNetwork("10.0.0.0/24").getValue(), a.getValue());
+        Assert.assertEquals(new IPNetwork("10.0.1.0/25").getValue(), b.getValue());
+        Assert.assertEquals(new IPNetwork("10.0.2.0/24").getValue(), c.getValue());
+
+        IPTarget ip = alloc.allocateTarget(true);
+        Assert.assertEquals(new IPTarget("fd00::").getValue(), ip.getValue());
+
+        alloc.release(b);
+        alloc.release(a);
+        alloc.release(c);
+        alloc.release(ip);
+
+        assertFree(alloc.getFree(false), "10.0.0.0/16");
+        assertFree(alloc.getFree(true), "fd00::/48");
+
+        // too large...
+        Assert.assertNull(alloc.allocate(false, 15));
+    }
+
+    @Test
+    public void testReserve() {
+        NetworkAllocator alloc = new NetworkAllocator(new IPNetwork("192.168.0.0/24"));
+
+        Assert.assertTrue(alloc.allocate(new IPNetwork("192.168.0.0/32")));
+        Assert.assertTrue(alloc.allocate(new IPNetwork("192.168.0.255/32")));
+        Assert.assertFalse(alloc.allocate(new IPNetwork("192.168.0.255/32")));
+        Assert.assertEquals(BigInteger.valueOf(254), alloc.getFreeSize(false));
+
+        // all remaining blocks must be aligned...
+        assertFree(alloc.getFree(false),
+                "192.168.0.64/26", "192.168.0.128/26",
+                "192.168.0.32/27", "192.168.0.192/27",
+                "192.168.0.16/28", "192.168.0.224/28",
+                "192.168.0.8/29", "192.168.0.240/29",
+                "192.168.0.4/30", "192.168.0.248/30",
+                "192.168.0.2/31", "192.168.0.252/31",
+                "192.168.0.1/32", "192.168.0.254/32");
+
+        Assert.assertEquals(new IPTarget("192.168.0.1").getValue(), alloc.allocateTarget(false).getValue());
+
+        // ...so they coalesce again
+        alloc.release(new IPTarget("192.168.0.1"));
+        alloc.release(new IPNetwork("192.168.0.255/32"));
+        alloc.release(new IPNetwork("192.168.0.0/32"));
+        assertFree(alloc.getFree(false), "192.168.0.0/24");
+    }
+
+    @Test
+    public void testInvalid() {
+        NetworkAllocator alloc = new NetworkAllocator(new IPNetwork("192.168.0.0/24"));
+
+        try {
+            alloc.release(new IPNetwork("192.168.1.0/25"));
+            Assert.fail("Unexpectedly released a foreign network");
+        } catch(IllegalArgumentException x) {
+            // expected
+        }
+
+        try {
+            alloc.release(new IPNetwork("192.168.0.0/24"));
+            Assert.fail("Unexpectedly released a free network");
+        } catch(IllegalStateException x) {
+            // expected
+        }
+
+        try {
+            new NetworkAllocator(new IPNetwork("10.0.0.0/8"), new IPNetwork("10.1.0.0/16"));
+            Assert.fail("Unexpectedly accepted overlapping root networks");
+        } catch(IllegalArgumentException x) {
+            Assert.assertTrue(x.getMessage(), x.getMessage().contains("overlaps"));
+        }
+    }
+
+    @Test
+    public void testConcurrentAllocation() throws Exception {
+        final NetworkAllocator alloc = new NetworkAllocator(new IPNetwork("10.0.0.0/16"));
+        final Set<String> seen = Collections.newSetFromMap(
+                new ConcurrentHashMap<String, Boolean>());
+        final int threads = 8;
+        final int perThread = 2000;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<IPNetwork>>> futures = new ArrayList<Future<List<IPNetwork>>>();
+            for(int t=0; t<threads; t++) {
+                final int masklen = 28 + (t % 5);
+                futures.add(pool.submit(new Callable<List<IPNetwork>>() {
+                    @Override
+                    public List<IPNetwork> call() throws Exception {
+                        List<IPNetwork> nets = new ArrayList<IPNetwork>();
+                        for(int i=0; i<perThread; i++) {
+                            IPNetwork net = alloc.allocate(false, masklen);
+                            if(net == null) {
+                                break;
+                            }
+                            nets.add(net);
+                            if(i % 3 == 0) {
+                                alloc.release(nets.remove(nets.size() - 1));
+                            }
+                        }
+                        return nets;
+                    }
+                }));
+            }
+
+            BigInteger used = BigInteger.ZERO;
+            IncrementalPrefixAggregator agg = new IncrementalPrefixAggregator();
+            for(Future<List<IPNetwork>> f : futures) {
+                for(IPNetwork net : f.get()) {
+                    Assert.assertTrue("Allocated twice: " + net, seen.add(net.getValue()));
+                    used = used.add(BigInteger.ONE.shiftLeft(32 - net.getNetmask()));
+                    agg.add(net);
+                }
+            }
+
+            // no overlaps...
+            Assert.assertEquals(BigInteger.ONE.shiftLeft(16), used.add(alloc.getFreeSize(false)));
+            for(IPNetwork free : alloc.getFree(false)) {
+                agg.add(free);
+            }
+            assertFree(agg.snapshot(), "10.0.0.0/16");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentExhaustion() throws Exception {
+        final int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for(int round=0; round<50; round++) {
+                final NetworkAllocator alloc = new NetworkAllocator(new IPNetwork("10.0.0.0/22"));
+                List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+                for(int t=0; t<threads; t++) {
+                    futures.add(pool.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            // exactly uses up the whole root network...
+                            for(int i=0; i<128; i++) {
+                                if(alloc.allocateTarget(false) == null) {
+                                    return i;
+                                }
+                            }
+                            return 128;
+                        }
+                    }));
+                }
+
+                for(Future<Integer> f : futures) {
+                    Assert.assertEquals("Reported as exhausted in round " + round,
+                            Integer.valueOf(128), f.get());
+                }
+                Assert.assertEquals(BigInteger.ZERO, alloc.getFreeSize(false));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testExhaustionUnderChurn() throws Exception {
+        final NetworkAllocator alloc = new NetworkAllocator(new IPNetwork("10.0.0.0/24"));
+
+        // nearly full, only a single /30 is left to split and merge...
+        for(int i=0; i<63; i++) {
+            Assert.assertNotNull(alloc.allocate(false, 30));
+        }
+
+        final int threads = 4;
+        final AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for(int t=0; t<threads; t++) {
+                pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        while(!stop.get()) {
+                            IPNetwork net = alloc.allocate(false, 32);
+                            if(net != null) {
+                                alloc.release(net);
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+
+            // never fits, so each allocation has to give up eventually...
+            for(int i=0; i<1000; i++) {
+                Assert.assertNull(alloc.allocate(false, 29));
+                Assert.assertFalse(alloc.allocate(new IPNetwork("10.0.0.0/29")));
+            }
+        } finally {
+            stop.set(true);
+            pool.shutdownNow();
+        }
+    }
+
+    private void assertFree(List<IPNetwork> nets, String... expected) {
+        Assert.assertEquals("Invalid count of networks: " + nets, expected.length, nets.size());
+
+        for(int i=0; i<expected.length; i++) {
+            Assert.assertEquals("Invalid network #" + (i + 1),
+                    new IPNetwork(expected[i]).getValue(), nets.get(i).getValue());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.util.Arrays;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.junit.Assert;
+import org.junit.Test;
+import org.postgresql.util.PGobject;
+
+/**
+ *
+ * @author ancoron
+ */
+public class NetworkContainmentLookupTest {
+
+    @Test
+    public void testSql() {
+        Assert.assertEquals("SELECT a.addr, t.c_network, t.c_id"
+                + " FROM unnest(?) AS a(addr) JOIN net t ON t.c_network >>= a.addr",
+                NetworkContainmentLookup.sql("net", "c_network", false, "c_id"));
+
+        Assert.assertEquals("SELECT DISTINCT ON (a.addr) a.addr, t.c_network"
+                + " FROM unnest(?) AS a(addr) JOIN net t ON t.c_network >>= a.addr"
+                + " ORDER BY a.addr, masklen(t.c_network) DESC",
+                NetworkContainmentLookup.sql("net", "c_network", true));
+    }
+
+    @Test
+    public void testArray() throws Exception {
+        PGobject array = NetworkContainmentLookup.array(Arrays.asList(
+                new IPTarget("10.0.0.1"), new IPTarget("2001:db8::1")));
+
+        Assert.assertEquals("_inet", array.getType());
+        Assert.assertTrue(array.getValue().startsWith("{10.0.0.1"));
+        Assert.assertTrue(array.getValue().indexOf(",2001:db8:") > 0);
+        Assert.assertTrue(array.getValue().endsWith("}"));
+    }
+}
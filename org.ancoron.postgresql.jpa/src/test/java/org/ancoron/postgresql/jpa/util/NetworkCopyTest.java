@@ -0,0 +1,231 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.UUID;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.junit.Assert;
+import org.junit.Test;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyOut;
+import org.postgresql.net.PGmacaddr;
+
+/**
+ *
+ * @author ancoron
+ */
+public class NetworkCopyTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testWriter() throws Exception {
+        BufferCopyIn copy = new BufferCopyIn();
+
+        // a tiny buffer to force flushing within rows...
+        NetworkCopyWriter w = new NetworkCopyWriter(copy, 48);
+        UUID uuid = UUID.fromString("0bd6f1c2-4a3b-4d5e-8f60-718293a4b5c6");
+
+        w.add(new IPTarget("10.0.0.1")).add(new IPNetwork("10.0.0.0/8"))
+                .add(new PGmacaddr("00:0e:0c:33:d2:04")).add(uuid).add(-42L).endRow();
+        w.add(new IPTarget("fe80::20e:cff:fe33:d204")).add(new IPNetwork("2001:db8::/32"))
+                .add((PGmacaddr) null).addNull().add(Long.MIN_VALUE).endRow();
+        w.add("tab\tand\\back\nslash").add((IPTarget) null).add("gr\u00fc\u00df\te").add(0L).endRow();
+
+        Assert.assertEquals(3, w.getRows());
+        Assert.assertEquals(3, w.close());
+
+        Assert.assertEquals("10.0.0.1\t10.0.0.0/8\t00:0e:0c:33:d2:04\t" + uuid + "\t-42\n"
+                + "fe80:0:0:0:20e:cff:fe33:d204\t2001:db8:0:0:0:0:0:0/32\t\\N\t\\N\t" + Long.MIN_VALUE + "\n"
+                + "tab\\tand\\\\back\\nslash\t\\N\tgr\u00fc\u00df\\te\t0\n",
+                new String(copy.out.toByteArray(), UTF8));
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testUnfinishedRow() throws Exception {
+        NetworkCopyWriter w = new NetworkCopyWriter(new BufferCopyIn(), 64);
+        w.add("x");
+        w.close();
+    }
+
+    @Test
+    public void testReader() throws Exception {
+        NetworkCopyReader r = new NetworkCopyReader(new RowCopyOut(
+                "10.0.0.1\t10.0.0.0/8\t00:0e:0c:33:d2:04\t0bd6f1c2-4a3b-4d5e-8f60-718293a4b5c6\t-42\n",
+                "fe80::20e:cff:fe33:d204/64\t::ffff:10.1.2.3\t\\N\ta\\tb\\\\c\t7\n"));
+        byte[] addr = new byte[16];
+
+        Assert.assertTrue(r.next());
+        Assert.assertEquals(5, r.getColumnCount());
+        Assert.assertFalse(r.isV6(1));
+        Assert.assertEquals(32, r.getAddress(1, addr));
+        Assert.assertArrayEquals(new byte[] {10, 0, 0, 1}, Arrays.copyOf(addr, 4));
+        Assert.assertEquals(8, r.getAddress(2, addr));
+        Assert.assertEquals(new IPTarget("10.0.0.1"), r.getIPTarget(1));
+        Assert.assertEquals(new IPNetwork("10.0.0.0/8"), r.getIPNetwork(2));
+        Assert.assertEquals("00:0e:0c:33:d2:04", r.getPGmacaddr(3).getValue());
+        Assert.assertEquals(UUID.fromString("0bd6f1c2-4a3b-4d5e-8f60-718293a4b5c6"), r.getUUID(4));
+        Assert.assertEquals(-42L, r.getLong(5));
+
+        Assert.assertTrue(r.next());
+        Assert.assertTrue(r.isV6(1));
+        Assert.assertEquals(64, r.getAddress(1, addr));
+        Assert.assertArrayEquals(new IPTarget("fe80::20e:cff:fe33:d204").getAddr(), addr);
+        Assert.assertEquals(128, r.getAddress(2, addr));
+        Assert.assertArrayEquals(new byte[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, -1, -1, 10, 1, 2, 3}, addr);
+        Assert.assertTrue(r.isNull(3));
+        Assert.assertNull(r.getString(3));
+        Assert.assertEquals(-1, r.getAddress(3, addr));
+        Assert.assertEquals("a\tb\\c", r.getString(4));
+        Assert.assertEquals(7L, r.getLong(5));
+
+        Assert.assertFalse(r.next());
+        r.close();
+    }
+
+    @Test
+    public void testReaderIPv6() throws Exception {
+        String[] values = {"::", "::1", "1::", "fe80::1", "2001:db8:0:1:1:1:1:1", "1:2:3:4:5:6:7:8", "::ffff:1.2.3.4"};
+        for(String value : values) {
+            NetworkCopyReader r = new NetworkCopyReader(new RowCopyOut(value + "\n"));
+            byte[] addr = new byte[16];
+
+            Assert.assertTrue(r.next());
+            Assert.assertEquals(value, 128, r.getAddress(1, addr));
+            Assert.assertArrayEquals(value, java.net.InetAddress.getByName(value).getAddress().length == 16
+                    ? java.net.InetAddress.getByName(value).getAddress()
+                    : new byte[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, -1, -1, 1, 2, 3, 4}, addr);
+        }
+
+        String[] invalid = {":1", "1:", "1:::2", "1::2::3", "1:2:3:4:5:6:7:8:9", "12345::", "::1/129", "10.0.0.256", "10.0.0"};
+        for(String value : invalid) {
+            NetworkCopyReader r = new NetworkCopyReader(new RowCopyOut(value + "\n"));
+            Assert.assertTrue(r.next());
+            try {
+                r.getAddress(1, new byte[16]);
+                Assert.fail("Invalid address accepted: " + value);
+            } catch(IllegalArgumentException x) {
+                // expected
+            }
+        }
+    }
+
+    private static class BufferCopyIn implements CopyIn {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean active = true;
+
+        @Override
+        public void writeToCopy(byte[] buf, int off, int siz) throws SQLException {
+            out.write(buf, off, siz);
+        }
+
+        @Override
+        public void flushCopy() throws SQLException {
+        }
+
+        @Override
+        public long endCopy() throws SQLException {
+            active = false;
+            long rows = 0;
+            for(byte b : out.toByteArray()) {
+                if(b == '\n') {
+                    rows++;
+                }
+            }
+            return rows;
+        }
+
+        @Override
+        public int getFieldCount() {
+            return 0;
+        }
+
+        @Override
+        public int getFormat() {
+            return 0;
+        }
+
+        @Override
+        public int getFieldFormat(int field) {
+            return 0;
+        }
+
+        @Override
+        public boolean isActive() {
+            return active;
+        }
+
+        @Override
+        public void cancelCopy() throws SQLException {
+            active = false;
+        }
+
+        @Override
+        public long getHandledRowCount() {
+            return 0;
+        }
+    }
+
+    private static class RowCopyOut implements CopyOut {
+
+        final Iterator<String> rows;
+
+        RowCopyOut(String... rows) {
+            this.rows = Arrays.asList(rows).iterator();
+        }
+
+        @Override
+        public byte[] readFromCopy() throws SQLException {
+            return rows.hasNext() ? rows.next().getBytes(UTF8) : null;
+        }
+
+        @Override
+        public int getFieldCount() {
+            return 0;
+        }
+
+        @Override
+        public int getFormat() {
+            return 0;
+        }
+
+        @Override
+        public int getFieldFormat(int field) {
+            return 0;
+        }
+
+        @Override
+        public boolean isActive() {
+            return rows.hasNext();
+        }
+
+        @Override
+        public void cancelCopy() throws SQLException {
+        }
+
+        @Override
+        public long getHandledRowCount() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author ancoron
+ */
+public class NetworkHierarchyTest {
+
+    @Test
+    public void testBuild() {
+        NetworkHierarchy h = NetworkHierarchy.build(Arrays.asList(
+                new IPNetwork("10.0.1.128/25"),
+                new IPNetwork("fd00::/64"),
+                new IPNetwork("10.0.0.0/16"),
+                new IPNetwork("10.0.1.0/24"),
+                new IPNetwork("10.0.0.0/24"),
+                new IPNetwork("10.0.0.0/24"),
+                new IPNetwork("192.168.0.0/24")));
+
+        Assert.assertEquals(6, h.size());
+
+        List<NetworkHierarchy.Node> roots = h.getRoots();
+        Assert.assertEquals(3, roots.size());
+        Assert.assertEquals(new IPNetwork("10.0.0.0/16").getValue(), roots.get(0).getNetwork().getValue());
+        Assert.assertEquals(new IPNetwork("192.168.0.0/24").getValue(), roots.get(1).getNetwork().getValue());
+        Assert.assertEquals(new IPNetwork("fd00::/64").getValue(), roots.get(2).getNetwork().getValue());
+
+        NetworkHierarchy.Node block = roots.get(0);
+        Assert.assertNull(block.getParent());
+        Assert.assertEquals(2, block.getChildren().size());
+        Assert.assertEquals(BigInteger.valueOf(512), block.getUsed());
+        Assert.assertEquals(BigInteger.valueOf(65536 - 512), block.getFree());
+        Assert.assertEquals(512.0 / 65536.0, block.getUtilization(), 0.0);
+
+        assertNetworks(block.getFreeBlocks(), "10.0.2.0/23", "10.0.4.0/22",
+                "10.0.8.0/21", "10.0.16.0/20", "10.0.32.0/19", "10.0.64.0/18",
+                "10.0.128.0/17");
+
+        NetworkHierarchy.Node subnet = h.find(new IPNetwork("10.0.1.0/24"));
+        Assert.assertSame(block, subnet.getParent());
+        Assert.assertEquals(BigInteger.valueOf(128), subnet.getUsed());
+        assertNetworks(subnet.getFreeBlocks(), "10.0.1.0/25");
+
+        Assert.assertNull(h.find(new IPNetwork("10.0.2.0/24")));
+        Assert.assertNull(h.find(new IPNetwork("10.0.1.0/25")));
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        NetworkHierarchy h = NetworkHierarchy.build(Arrays.asList(
+                new IPNetwork("10.0.0.0/16"),
+                new IPNetwork("10.0.0.0/24"),
+                new IPNetwork("10.0.1.0/24"),
+                new IPNetwork("10.0.3.0/24")));
+
+        NetworkHierarchy.Node block = h.find(new IPNetwork("10.0.0.0/16"));
+        Assert.assertEquals(BigInteger.valueOf(768), block.getUsed());
+
+        // inserted in-between, adopting two existing subnets...
+        NetworkHierarchy.Node range = h.add(new IPNetwork("10.0.0.0/23"));
+        Assert.assertSame(block, range.getParent());
+        Assert.assertEquals(2, range.getChildren().size());
+        Assert.assertEquals(BigInteger.valueOf(512), range.getUsed());
+        Assert.assertEquals(BigInteger.valueOf(768), block.getUsed());
+        Assert.assertEquals(2, block.getChildren().size());
+        Assert.assertSame(range, h.find(new IPNetwork("10.0.1.0/24")).getParent());
+
+        // a new leaf...
+        NetworkHierarchy.Node leaf = h.add(new IPNetwork("10.0.3.16/28"));
+        Assert.assertEquals(BigInteger.valueOf(16), leaf.getParent().getUsed());
+        Assert.assertSame(leaf, h.add(new IPNetwork("10.0.3.16/28")));
+        Assert.assertEquals(6, h.size());
+
+        // a new root above everything...
+        NetworkHierarchy.Node top = h.add(new IPNetwork("10.0.0.0/8"));
+        Assert.assertSame(top, block.getParent());
+        Assert.assertEquals(BigInteger.valueOf(65536), top.getUsed());
+        Assert.assertEquals(1, h.getRoots().size());
+
+        Assert.assertTrue(h.remove(new IPNetwork("10.0.0.0/23")));
+        Assert.assertFalse(h.remove(new IPNetwork("10.0.0.0/23")));
+        Assert.assertEquals(3, block.getChildren().size());
+        Assert.assertEquals(BigInteger.valueOf(768), block.getUsed());
+        Assert.assertSame(block, h.find(new IPNetwork("10.0.0.0/24")).getParent());
+
+        Assert.assertTrue(h.remove(new IPNetwork("10.0.0.0/8")));
+        Assert.assertNull(block.getParent());
+        Assert.assertEquals(5, h.size());
+        Assert.assertEquals(1, h.getRoots().size());
+    }
+
+    @Test
+    public void testLargeBuild() {
+        // 256 /16 blocks with 256 /24 subnets each with 4 /26 assignments...
+        List<IPNetwork> nets = new ArrayList<IPNetwork>();
+        for(int a=0; a<256; a++) {
+            nets.add(new IPNetwork("10." + a + ".0.0/16"));
+            for(int b=0; b<256; b+=2) {
+                nets.add(new IPNetwork("10." + a + "." + b + ".0/24"));
+                nets.add(new IPNetwork("10." + a + "." + b + ".64/26"));
+            }
+        }
+        Collections.shuffle(nets);
+
+        NetworkHierarchy h = NetworkHierarchy.build(nets);
+        Assert.assertEquals(nets.size(), h.size());
+        Assert.assertEquals(256, h.getRoots().size());
+
+        for(NetworkHierarchy.Node block : h.getRoots()) {
+            Assert.assertEquals(128, block.getChildren().size());
+            Assert.assertEquals(0.5, block.getUtilization(), 0.0);
+
+            for(NetworkHierarchy.Node subnet : block.getChildren()) {
+                Assert.assertEquals(0.25, subnet.getUtilization(), 0.0);
+            }
+        }
+    }
+
+    private void assertNetworks(List<IPNetwork> nets, String... expected) {
+        Assert.assertEquals("Invalid count of networks: " + nets, expected.length, nets.size());
+
+        for(int i=0; i<expected.length; i++) {
+            Assert.assertEquals("Invalid network #" + (i + 1),
+                    new IPNetwork(expected[i]).getValue(), nets.get(i).getValue());
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.ancoron.postgresql.jpa.test.TestUtil;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the {@link NetworkTableIndex} against a real database, changing the
+ * table from a second connection.
+ *
+ * @author ancoron
+ */
+public class NetworkTableIndexIntegrationTest {
+
+    private static final Logger log;
+
+    static {
+        log = Logger.getLogger(NetworkTableIndexIntegrationTest.class.getName());
+    }
+
+    private static final String[] TABLES = {"test_table_index", "test_table_index_reconnect"};
+
+    private static final NetworkTableIndex.Mapper<String> COUNTRY = new NetworkTableIndex.Mapper<String>() {
+
+        @Override
+        public String map(ResultSet rs) throws SQLException {
+            return rs.getString(3);
+        }
+    };
+
+    private static DataSource dataSource;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        log.info("Creating tables for network table index tests");
+
+        dataSource = TestUtil.getDataSource();
+        for(String table : TABLES) {
+            execute("DROP TABLE IF EXISTS " + table);
+            execute("CREATE TABLE " + table
+                    + " (id int8 PRIMARY KEY, network cidr NOT NULL, country text)");
+
+            // twice, as the statements have to be repeatable...
+            for(int i=0; i<2; i++) {
+                for(String sql : NetworkTableIndex.getTriggerSQL(table, "id", channel(table))) {
+                    execute(sql);
+                }
+            }
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        for(String table : TABLES) {
+            execute("DROP TABLE IF EXISTS " + table);
+            execute("DROP FUNCTION IF EXISTS " + table + "_notify_" + channel(table) + "()");
+        }
+    }
+
+    private static void execute(String... sql) throws SQLException {
+        Connection conn = dataSource.getConnection();
+        try {
+            Statement stmt = conn.createStatement();
+            for(String s : sql) {
+                stmt.execute(s);
+            }
+            stmt.close();
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * One channel per table, as the tests run in parallel.
+     */
+    private static String channel(String table) {
+        return table + "_changed";
+    }
+
+    private static NetworkTableIndex<String> index(DataSource ds, String table) {
+        NetworkTableIndex<String> idx = new NetworkTableIndex<String>(
+                ds, table, "id", "network", channel(table), COUNTRY, "country");
+
+        // only poll explicitly...
+        idx.setPollInterval(3600000);
+        idx.setFetchSize(2);
+        return idx;
+    }
+
+    /**
+     * Poll until the expected number of updates and reloads is reached, as
+     * notifications are delivered asynchronously.
+     */
+    private static void poll(NetworkTableIndex<String> idx, long updates, long reloads)
+            throws InterruptedException
+    {
+        for(int i=0; i<100 && (idx.getUpdates() < updates || idx.getReloads() < reloads); i++) {
+            idx.poll();
+            Thread.sleep(50);
+        }
+
+        Assert.assertEquals(updates, idx.getUpdates());
+        Assert.assertEquals(reloads, idx.getReloads());
+    }
+
+    @Test
+    public void testNotifications() throws Exception {
+        String table = TABLES[0];
+        execute("INSERT INTO " + table + " VALUES (1, '10.0.0.0/8', 'AA')",
+                "INSERT INTO " + table + " VALUES (2, '10.1.0.0/16', 'BB')",
+                "INSERT INTO " + table + " VALUES (3, '2001:db8::/32', 'CC')");
+
+        NetworkTableIndex<String> idx = index(dataSource, table);
+        idx.start();
+        try {
+            // loaded in more than one fetch...
+            Assert.assertEquals(3, idx.size());
+            Assert.assertEquals(1, idx.getReloads());
+            Assert.assertEquals("BB", idx.lookup(new IPTarget("10.1.2.3")));
+            Assert.assertEquals("CC", idx.lookup(new IPTarget("2001:db8::1")));
+
+            // nothing changed...
+            idx.poll();
+            Assert.assertEquals(0, idx.getUpdates());
+
+            execute("INSERT INTO " + table + " VALUES (4, '10.1.2.0/24', 'DD')",
+                    "UPDATE " + table + " SET country = 'EE' WHERE id = 1",
+                    "DELETE FROM " + table + " WHERE id = 3");
+            poll(idx, 3, 1);
+
+            Assert.assertEquals(3, idx.size());
+            Assert.assertEquals("DD", idx.lookup(new IPTarget("10.1.2.3")));
+            Assert.assertEquals(Arrays.asList("EE", "BB", "DD"),
+                    idx.getContaining(new IPTarget("10.1.2.3")));
+            Assert.assertNull(idx.lookup(new IPTarget("2001:db8::1")));
+
+            // a row moved to another network...
+            execute("UPDATE " + table + " SET network = '10.2.0.0/16' WHERE id = 2");
+            poll(idx, 4, 1);
+            Assert.assertEquals("EE", idx.lookup(new IPTarget("10.1.3.4")));
+            Assert.assertEquals("BB", idx.lookup(new IPTarget("10.2.3.4")));
+
+            execute("TRUNCATE " + table);
+            poll(idx, 4, 2);
+            Assert.assertEquals(0, idx.size());
+            Assert.assertNull(idx.lookup(new IPTarget("10.1.2.3")));
+
+            // still listening after the reload...
+            execute("INSERT INTO " + table + " VALUES (5, '10.0.0.0/8', 'FF')");
+            poll(idx, 5, 2);
+            Assert.assertEquals("FF", idx.lookup(new IPTarget("10.1.2.3")));
+        } finally {
+            idx.close();
+        }
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        String table = TABLES[1];
+        execute("INSERT INTO " + table + " VALUES (1, '10.0.0.0/8', 'AA')");
+
+        // remember the listening connection...
+        final AtomicReference<Connection> listener = new AtomicReference<Connection>();
+        DataSource ds = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {DataSource.class}, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                try {
+                    Object result = method.invoke(dataSource, args);
+                    if(result instanceof Connection) {
+                        listener.set((Connection) result);
+                    }
+                    return result;
+                } catch(InvocationTargetException x) {
+                    throw x.getCause();
+                }
+            }
+        });
+
+        NetworkTableIndex<String> idx = index(ds, table);
+        idx.start();
+        try {
+            Assert.assertEquals("AA", idx.lookup(new IPTarget("10.1.2.3")));
+            Assert.assertEquals(1, idx.getReloads());
+
+            // the notifications of these changes are lost...
+            Connection lost = listener.get();
+            lost.close();
+            execute("INSERT INTO " + table + " VALUES (2, '10.1.0.0/16', 'BB')",
+                    "DELETE FROM " + table + " WHERE id = 1");
+
+            idx.poll();
+            Assert.assertEquals("AA", idx.lookup(new IPTarget("10.2.3.4")));
+            Assert.assertEquals(1, idx.getReloads());
+
+            // ...so the table is loaded again after reconnecting
+            idx.poll();
+            Assert.assertNotSame(lost, listener.get());
+            Assert.assertEquals(2, idx.getReloads());
+            Assert.assertEquals(0, idx.getUpdates());
+            Assert.assertEquals(1, idx.size());
+            Assert.assertEquals("BB", idx.lookup(new IPTarget("10.1.2.3")));
+            Assert.assertNull(idx.lookup(new IPTarget("10.2.3.4")));
+
+            execute("UPDATE " + table + " SET country = 'CC' WHERE id = 2");
+            poll(idx, 1, 2);
+            Assert.assertEquals("CC", idx.lookup(new IPTarget("10.1.2.3")));
+        } finally {
+            idx.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import javax.sql.DataSource;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author ancoron
+ */
+public class NetworkTableIndexTest {
+
+    private static final NetworkTableIndex.Mapper<String> COUNTRY = new NetworkTableIndex.Mapper<String>() {
+
+        @Override
+        public String map(ResultSet rs) throws SQLException {
+            return rs.getString(3);
+        }
+    };
+
+    /**
+     * A data source failing to connect (and everything else).
+     */
+    private static final DataSource NO_DATABASE = (DataSource) Proxy.newProxyInstance(
+            NetworkTableIndexTest.class.getClassLoader(),
+            new Class[] {DataSource.class}, new InvocationHandler() {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            throw new SQLException("No database");
+        }
+    });
+
+    @Test
+    public void testSql() {
+        Assert.assertEquals("SELECT id, network, country FROM geoip",
+                NetworkTableIndex.sql("geoip", "id", "network", null, "country"));
+        Assert.assertEquals("SELECT id, network FROM geoip WHERE id = ANY(CAST(? AS int8[]))",
+                NetworkTableIndex.sql("geoip", "id", "network", "int8"));
+
+        String[] trigger = NetworkTableIndex.getTriggerSQL("geoip", "id", "geoip_changed");
+        Assert.assertEquals(5, trigger.length);
+        Assert.assertTrue(trigger[0].startsWith("CREATE OR REPLACE FUNCTION geoip_notify_geoip_changed()"));
+        Assert.assertTrue(trigger[0].contains("pg_notify('geoip_changed', OLD.id::text)"));
+        Assert.assertTrue(trigger[0].contains("pg_notify('geoip_changed', NEW.id::text)"));
+        Assert.assertTrue(trigger[0].contains("pg_notify('geoip_changed', '')"));
+        Assert.assertEquals("DROP TRIGGER IF EXISTS geoip_notify_geoip_changed ON geoip", trigger[1]);
+        Assert.assertEquals("CREATE TRIGGER geoip_notify_geoip_changed AFTER INSERT OR UPDATE OR DELETE"
+                + " ON geoip FOR EACH ROW EXECUTE PROCEDURE geoip_notify_geoip_changed()", trigger[2]);
+        Assert.assertEquals("DROP TRIGGER IF EXISTS geoip_notify_geoip_changed_truncate ON geoip", trigger[3]);
+        Assert.assertEquals("CREATE TRIGGER geoip_notify_geoip_changed_truncate AFTER TRUNCATE"
+                + " ON geoip FOR EACH STATEMENT EXECUTE PROCEDURE geoip_notify_geoip_changed()", trigger[4]);
+    }
+
+    @Test
+    public void testUpdates() throws Exception {
+        NetworkTableIndex<String> idx = new NetworkTableIndex<String>(
+                NO_DATABASE, "geoip", "id", "network", "geoip_changed", COUNTRY, "country");
+
+        try {
+            idx.start();
+            Assert.fail("Starting without a database must fail");
+        } catch(SQLException x) {
+            // expected
+        }
+
+        idx.put("1", new IPNetwork("10.0.0.0/8"), "AA");
+        idx.put("2", new IPNetwork("10.1.0.0/16"), "BB");
+        idx.put("3", new IPNetwork("2001:db8::/32"), "CC");
+
+        Assert.assertEquals(3, idx.size());
+        Assert.assertEquals("BB", idx.lookup(new IPTarget("10.1.2.3")));
+        Assert.assertEquals(Arrays.asList("AA", "BB"), idx.getContaining(new IPTarget("10.1.2.3")));
+        Assert.assertEquals("CC", idx.lookup(new IPTarget("2001:db8::1")));
+
+        // a row moved to another network...
+        idx.put("2", new IPNetwork("10.2.0.0/16"), "BB");
+        Assert.assertEquals("AA", idx.lookup(new IPTarget("10.1.2.3")));
+        Assert.assertEquals("BB", idx.lookup(new IPTarget("10.2.2.3")));
+
+        idx.remove("1");
+        idx.remove("4");
+        Assert.assertNull(idx.lookup(new IPTarget("10.1.2.3")));
+        Assert.assertEquals(2, idx.size());
+        Assert.assertEquals(5, idx.getUpdates());
+        Assert.assertEquals(0, idx.getReloads());
+
+        idx.close();
+    }
+}
@@ -17,6 +17,7 @@ package org.ancoron.postgresql.jpa.util;
 
 import java.util.Arrays;
 import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -220,4 +221,39 @@ public class NetworkUtilsTest {
             "10.240.0.0/12"
         }, "10.0.0.0/8");
     }
+
+    @Test
+    public void testContains() {
+        IPNetwork net = new IPNetwork("10.1.128.0/17");
+        IPTarget ip = new IPTarget("10.1.200.3");
+
+        Assert.assertTrue(NetworkUtils.contains(net.getAddr(), net.getNetmask(), ip.getAddr(), ip.getNetmask()));
+        Assert.assertTrue(NetworkUtils.contains(net.getAddr(), net.getNetmask(), net.getAddr(), net.getNetmask()));
+        Assert.assertFalse(NetworkUtils.contains(ip.getAddr(), ip.getNetmask(), net.getAddr(), net.getNetmask()));
+
+        IPTarget other = new IPTarget("10.1.127.255");
+        Assert.assertFalse(NetworkUtils.contains(net.getAddr(), net.getNetmask(), other.getAddr(), other.getNetmask()));
+
+        IPNetwork v6 = new IPNetwork("2001:db8::/33");
+        IPTarget ip6 = new IPTarget("2001:db8:7fff::1");
+        Assert.assertTrue(NetworkUtils.contains(v6.getAddr(), v6.getNetmask(), ip6.getAddr(), ip6.getNetmask()));
+        ip6 = new IPTarget("2001:db8:8000::1");
+        Assert.assertFalse(NetworkUtils.contains(v6.getAddr(), v6.getNetmask(), ip6.getAddr(), ip6.getNetmask()));
+
+        // different families...
+        IPNetwork any = new IPNetwork("::/0");
+        Assert.assertFalse(NetworkUtils.contains(any.getAddr(), any.getNetmask(), ip.getAddr(), ip.getNetmask()));
+    }
+
+    @Test
+    public void testOverlaps() {
+        IPNetwork a = new IPNetwork("192.168.0.0/23");
+        IPNetwork b = new IPNetwork("192.168.1.0/24");
+        IPNetwork c = new IPNetwork("192.168.2.0/24");
+
+        Assert.assertTrue(NetworkUtils.overlaps(a.getAddr(), a.getNetmask(), b.getAddr(), b.getNetmask()));
+        Assert.assertTrue(NetworkUtils.overlaps(b.getAddr(), b.getNetmask(), a.getAddr(), a.getNetmask()));
+        Assert.assertFalse(NetworkUtils.overlaps(a.getAddr(), a.getNetmask(), c.getAddr(), c.getNetmask()));
+        Assert.assertFalse(NetworkUtils.overlaps(b.getAddr(), b.getNetmask(), c.getAddr(), c.getNetmask()));
+    }
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import org.ancoron.postgresql.jpa.IPAddress;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author ancoron
+ */
+public class NetworkValueCacheTest {
+
+    @Test
+    public void testIntern() {
+        NetworkValueCache<IPAddress> cache = new NetworkValueCache<IPAddress>(100);
+
+        Assert.assertNull(cache.get("10.0.0.1"));
+
+        IPAddress first = cache.put("10.0.0.1", IPAddress.valueOf("10.0.0.1"));
+        IPAddress second = cache.put("10.0.0.1", IPAddress.valueOf("10.0.0.1"));
+
+        Assert.assertSame(first, second);
+        Assert.assertSame(first, cache.get("10.0.0.1"));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testBounded() {
+        NetworkValueCache<IPAddress> cache = new NetworkValueCache<IPAddress>(40);
+
+        for(int i=0; i<1000; i++) {
+            String value = "10.0." + (i / 256) + "." + (i % 256);
+            cache.put(value, IPAddress.valueOf(value));
+            Assert.assertTrue("Cache exceeds its size: " + cache.size(), cache.size() <= 40);
+        }
+
+        // the most recently added value is still available...
+        Assert.assertNotNull(cache.get("10.0.3.231"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new NetworkValueCache<IPAddress>(0);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.ancoron.postgresql.jpa.IPTarget;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author ancoron
+ */
+public class PrefixIndexTest {
+
+    @Test
+    public void testLookup() {
+        PrefixIndex<String> idx = new PrefixIndex<String>();
+        idx.put(new IPNetwork("10.0.0.0/8"), "corp");
+        idx.put(new IPNetwork("10.1.0.0/16"), "lab");
+        idx.put(new IPNetwork("10.1.2.0/24"), "rack");
+        idx.put(new IPNetwork("10.1.2.0/24"), "rack-b");
+        idx.put(new IPNetwork("0.0.0.0/0"), "default");
+        idx.put(new IPNetwork("2001:db8::/32"), "v6");
+
+        Assert.assertFalse(idx.put(new IPNetwork("10.1.0.0/16"), "lab"));
+        Assert.assertEquals(6, idx.size());
+
+        Assert.assertEquals(Arrays.asList("default", "corp", "lab", "rack", "rack-b"),
+                idx.getContaining(new IPTarget("10.1.2.3")));
+        Assert.assertEquals("rack", idx.getLongestMatch(new IPTarget("10.1.2.3")));
+        Assert.assertEquals("lab", idx.getLongestMatch(new IPTarget("10.1.3.3")));
+        Assert.assertEquals("default", idx.getLongestMatch(new IPTarget("192.168.0.1")));
+        Assert.assertEquals(Arrays.asList("default", "corp", "lab"),
+                idx.getContaining(new IPNetwork("10.1.0.0/20")));
+        Assert.assertEquals(Arrays.asList("lab"), idx.get(new IPNetwork("10.1.0.0/16")));
+        Assert.assertTrue(idx.get(new IPNetwork("10.1.0.0/17")).isEmpty());
+
+        // address families are separate...
+        Assert.assertEquals("v6", idx.getLongestMatch(new IPTarget("2001:db8::1")));
+        Assert.assertNull(idx.getLongestMatch(new IPTarget("2001:db9::1")));
+        Assert.assertNull(idx.getLongestMatch(new IPTarget("::ffff:10.1.2.3")));
+
+        Assert.assertTrue(idx.remove(new IPNetwork("10.1.0.0/16"), "lab"));
+        Assert.assertFalse(idx.remove(new IPNetwork("10.1.0.0/16"), "lab"));
+        Assert.assertTrue(idx.remove(new IPNetwork("0.0.0.0/0"), "default"));
+        Assert.assertEquals(Arrays.asList("corp", "rack", "rack-b"),
+                idx.getContaining(new IPTarget("10.1.2.3")));
+
+        idx.clear();
+        Assert.assertTrue(idx.isEmpty());
+        Assert.assertNull(idx.getLongestMatch(new IPTarget("10.1.2.3")));
+    }
+
+    @Test
+    public void testRandom() {
+        Random rnd = new Random(42);
+        PrefixIndex<IPNetwork> idx = new PrefixIndex<IPNetwork>();
+        List<IPNetwork> networks = new ArrayList<IPNetwork>();
+
+        for(int i=0; i<2000; i++) {
+            IPNetwork net = new IPNetwork("10." + rnd.nextInt(4) + "." + rnd.nextInt(256)
+                    + "." + rnd.nextInt(256) + "/" + (8 + rnd.nextInt(25)));
+            IPNetwork masked = new IPNetwork(AddressRange.of(net).getLow().getValue().split("/")[0]
+                    + "/" + net.getNetmask());
+            if(idx.put(masked, masked)) {
+                networks.add(masked);
+            }
+
+            if(i % 3 == 0) {
+                // remove a random one again...
+                IPNetwork gone = networks.remove(rnd.nextInt(networks.size()));
+                Assert.assertTrue(idx.remove(gone, gone));
+            }
+        }
+
+        Assert.assertEquals(networks.size(), idx.size());
+
+        for(int i=0; i<2000; i++) {
+            IPTarget ip = new IPTarget("10." + rnd.nextInt(4) + "." + rnd.nextInt(256)
+                    + "." + rnd.nextInt(256));
+            AddressRange r = AddressRange.valueOf(ip);
+
+            List<IPNetwork> expected = new ArrayList<IPNetwork>();
+            for(IPNetwork net : networks) {
+                if(AddressRange.of(net).contains(r)) {
+                    expected.add(net);
+                }
+            }
+
+            List<IPNetwork> actual = idx.getContaining(ip);
+            Assert.assertEquals(expected.size(), actual.size());
+            Assert.assertTrue(actual.containsAll(expected));
+
+            for(int j=1; j<actual.size(); j++) {
+                Assert.assertTrue(actual.get(j - 1).getNetmask() < actual.get(j).getNetmask());
+            }
+
+            Assert.assertEquals(actual.isEmpty() ? null : actual.get(actual.size() - 1),
+                    idx.getLongestMatch(ip));
+        }
+
+        Collections.shuffle(networks, rnd);
+        for(IPNetwork net : networks) {
+            Assert.assertTrue(idx.remove(net, net));
+        }
+        Assert.assertTrue(idx.isEmpty());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012 ancoron.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ancoron.postgresql.jpa.util;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import org.ancoron.postgresql.jpa.IPNetwork;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author ancoron
+ */
+public class SubnetPlannerTest {
+
+    @Test
+    public void testMasklenForHosts() {
+        Assert.assertEquals(32, SubnetPlanner.masklenForHosts(false, 1));
+        Assert.assertEquals(31, SubnetPlanner.masklenForHosts(false, 2));
+        Assert.assertEquals(29, SubnetPlanner.masklenForHosts(false, 3));
+        Assert.assertEquals(25, SubnetPlanner.masklenForHosts(false, 126));
+        Assert.assertEquals(24, SubnetPlanner.masklenForHosts(false, 127));
+        Assert.assertEquals(128, SubnetPlanner.masklenForHosts(true, 1));
+        Assert.assertEquals(120, SubnetPlanner.masklenForHosts(true, 256));
+        Assert.assertEquals(119, SubnetPlanner.masklenForHosts(true, 257));
+    }
+
+    @Test
+    public void testPlanByHostsIPv4() {
+        SubnetPlanner planner = new SubnetPlanner(new IPNetwork("10.0.0.0/22"));
+
+        assertPlan(planner.planByHosts(100, 500, 20),
+                "10.0.2.0/25",
+                "10.0.0.0/23",
+                "10.0.2.128/27");
+
+        assertNetworks(planner.getFree(),
+                "10.0.3.0/24",
+                "10.0.2.192/26",
+                "10.0.2.160/27");
+
+        Assert.assertEquals(BigInteger.valueOf(256 + 64 + 32), planner.getFreeSize());
+    }
+
+    @Test
+    public void testPlanByMasklenIPv6() {
+        SubnetPlanner planner = new SubnetPlanner(new IPNetwork("fe80::/64"));
+
+        assertPlan(planner.planByMasklen(66, 65),
+                "fe80::8000:0000:0000:0000/66",
+                "fe80::/65");
+
+        assertNetworks(planner.getFree(), "fe80::c000:0000:0000:0000/66");
+    }
+
+    @Test
+    public void testPlanFailureRollsBack() {
+        SubnetPlanner planner = new SubnetPlanner(new IPNetwork("192.168.0.0/24"));
+        planner.planByMasklen(25);
+
+        try {
+            IPNetwork[] nets = planner.planByMasklen(26, 26, 30);
+            Assert.fail("Unexpectedly planned networks: " + Arrays.toString(nets));
+        } catch(IllegalArgumentException x) {
+            Assert.assertTrue(x.getMessage(), x.getMessage().contains("not enough free space"));
+        }
+
+        assertNetworks(planner.getFree(), "192.168.0.128/25");
+
+        try {
+            planner.planByMasklen(23);
+            Assert.fail("Unexpectedly planned a network larger than the parent");
+        } catch(IllegalArgumentException x) {
+            Assert.assertTrue(x.getMessage(), x.getMessage().contains("invalid mask length"));
+        }
+    }
+
+    @Test
+    public void testRelease() {
+        SubnetPlanner planner = new SubnetPlanner(new IPNetwork("192.168.0.0/24"));
+        IPNetwork[] nets = planner.planByMasklen(26, 26, 26, 26);
+
+        for(IPNetwork net : nets) {
+            planner.release(net);
+        }
+
+        assertNetworks(planner.getFree(), "192.168.0.0/24");
+
+        try {
+            planner.release(new IPNetwork("192.168.1.0/26"));
+            Assert.fail("Unexpectedly released a foreign network");
+        } catch(IllegalArgumentException x) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPlanManyIPv4() {
+        SubnetPlanner planner = new SubnetPlanner(new IPNetwork("10.0.0.0/8"));
+        long[] hosts = new long[200000];
+
+        for(int i=0; i<hosts.length; i++) {
+            hosts[i] = 1 + (i % 29);
+        }
+
+        IPNetwork[] nets = planner.planByHosts(hosts);
+        Assert.assertEquals(hosts.length, nets.length);
+
+        IncrementalPrefixAggregator agg = new IncrementalPrefixAggregator();
+        BigInteger used = BigInteger.ZERO;
+        for(int i=0; i<nets.length; i++) {
+            Assert.assertEquals(SubnetPlanner.masklenForHosts(false, hosts[i]), nets[i].getNetmask());
+            used = used.add(BigInteger.ONE.shiftLeft(32 - nets[i].getNetmask()));
+            agg.add(nets[i]);
+        }
+
+        // no overlaps and no fragmentation...
+        Assert.assertEquals(BigInteger.ONE.shiftLeft(24), used.add(planner.getFreeSize()));
+        for(IPNetwork free : planner.getFree()) {
+            agg.add(free);
+        }
+        assertNetworks(agg.snapshot(), "10.0.0.0/8");
+    }
+
+    private void assertPlan(IPNetwork[] nets, String... expected) {
+        assertNetworks(Arrays.asList(nets), expected);
+    }
+
+    private void assertNetworks(List<IPNetwork> nets, String... expected) {
+        Assert.assertEquals("Invalid count of networks: " + nets, expected.length, nets.size());
+
+        for(int i=0; i<expected.length; i++) {
+            Assert.assertEquals("Invalid network #" + (i + 1),
+                    new IPNetwork(expected[i]).getValue(), nets.get(i).getValue());
+        }
+    }
+}